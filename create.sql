@@ -1,14 +1,32 @@
-create table tb_controlled_sku (name varchar(255), sku varchar(255) not null, primary key (sku));
+create sequence tb_inventory_level_seq start with 1 increment by 50;
+create sequence tb_order_seq start with 1 increment by 50;
+create sequence tb_product_seq start with 1 increment by 50;
+create sequence tb_reservation_ledger_seq start with 1 increment by 50;
+create sequence tb_revenue_cache_seq start with 1 increment by 50;
+create sequence tb_shopify_sync_operation_seq start with 1 increment by 50;
+create sequence tb_sync_checkpoint_item_seq start with 1 increment by 50;
+create table tb_cache_version (version bigint not null, updated_at timestamp(6) with time zone not null, name varchar(255) not null, primary key (name));
+create table tb_controlled_sku (inventory_item_gid varchar(255), name varchar(255), sku varchar(255) not null, primary key (sku));
 create table tb_customer (email varchar(255) not null, name varchar(255), phone varchar(255), primary key (email));
-create table tb_order (number_recurrence integer, skipped integer, stock_released boolean not null, created_date timestamp(6), id bigint generated by default as identity, last_modified_date timestamp(6), amount_brl varchar(255), amount_original varchar(255), customer_email varchar(255), link varchar(255), order_rec varchar(255), order_status varchar(255), payment_date varchar(255), payment_method varchar(255), subscription_id varchar(255), primary key (id));
-create table tb_product (quantity integer, total_price numeric(38,2), unit_price numeric(38,2), id bigint generated by default as identity, order_id bigint, category varchar(255), discount varchar(255), sku varchar(255), primary key (id));
-create table tb_revenue_cache (total_revenue numeric(19,2) not null, year_month varchar(7) not null unique, id bigint generated by default as identity, last_updated_at timestamp(6) with time zone not null, primary key (id));
+create table tb_inventory_level (available integer not null, committed integer not null, on_hand integer not null, reserved integer not null, fetched_at timestamp(6) with time zone not null, id bigint not null, updated_at timestamp(6) with time zone not null, inventory_item_id varchar(255) not null, location_id varchar(255) not null, primary key (id), constraint uk_inventory_level_item_location unique (inventory_item_id, location_id));
+create table tb_known_canceled_subscription (first_seen_at timestamp(6) with time zone not null, subscription_id varchar(255) not null, primary key (subscription_id));
+create table tb_order (number_recurrence integer, skipped integer, stock_released boolean not null, created_date timestamp(6), id bigint not null, last_modified_date timestamp(6), amount_brl varchar(255), amount_original varchar(255), customer_email varchar(255), link varchar(255), order_rec varchar(255), order_status varchar(255), payment_date varchar(255), payment_method varchar(255), subscription_id varchar(255), primary key (id));
+create table tb_product (quantity integer, total_price numeric(38,2), unit_price numeric(38,2), id bigint not null, order_id bigint, category varchar(255), discount varchar(255), sku varchar(255), primary key (id));
+create table tb_rate_limit_state (rate_per_second float(53) not null, updated_at timestamp(6) with time zone not null, name varchar(255) not null, primary key (name));
+create table tb_reservation_ledger (delta integer not null, number_recurrence integer, created_at timestamp(6) with time zone not null, id bigint not null, operation_id bigint, operation varchar(255) not null, sku varchar(255) not null, subscription_id varchar(255) not null, primary key (id));
+create table tb_reserved_stock_total (reserved bigint not null, updated_at timestamp(6) with time zone not null, sku varchar(255) not null, primary key (sku));
+create table tb_revenue_cache (total_revenue numeric(19,2) not null, year_month varchar(7) not null unique, id bigint not null, last_updated_at timestamp(6) with time zone not null, primary key (id));
 create table tb_role (id bigint generated by default as identity, authority varchar(255), primary key (id));
-create table tb_shopify_sync_operation (quantity integer not null, retry_count integer not null, created_at timestamp(6) with time zone not null, executed_at timestamp(6) with time zone, id bigint generated by default as identity, error_message varchar(255), operation varchar(255) not null, sku varchar(255) not null, status varchar(255) not null, subscription_id varchar(255) not null, primary key (id));
-create table tb_subscription (cancellation_date date, effective_cancellation_date date, "limit" integer, next_billing_date date, number_recurrences integer, created_at timestamp(6) with time zone not null, updated_at timestamp(6) with time zone not null, amount_brl varchar(255), billing_cycle varchar(255), customer_id varchar(255), id varchar(255) not null, order_token varchar(255), pix_rec_id varchar(255), shipping_cycle varchar(255), status varchar(255) check (status in ('AGUARDANDO_PRIMEIRO_PAGAMENTO','ATIVO','PAGAMENTO_PENDENTE','INATIVO_CANCELADO','EXPIRADO','PAUSADO','PAGAMENTO_ATRASADO')), primary key (id));
+create table tb_shopify_sync_operation (available_applied boolean not null, reserved_applied boolean not null, number_recurrence integer, quantity integer not null, retry_count integer not null, created_at timestamp(6) with time zone not null, executed_at timestamp(6) with time zone, id bigint not null, error_message varchar(255), operation varchar(255) not null, sku varchar(255) not null, status varchar(255) not null, subscription_id varchar(255) not null, primary key (id));
+create table tb_subscription (cancellation_date date, effective_cancellation_date date, "limit" integer, next_billing_date date, number_recurrences integer, created_at timestamp(6) with time zone not null, updated_at timestamp(6) with time zone not null, amount_brl varchar(255), billing_cycle varchar(255), content_hash varchar(64), customer_id varchar(255), id varchar(255) not null, order_token varchar(255), pix_rec_id varchar(255), shipping_cycle varchar(255), status varchar(255) check (status in ('AGUARDANDO_PRIMEIRO_PAGAMENTO','ATIVO','PAGAMENTO_PENDENTE','INATIVO_CANCELADO','EXPIRADO','PAUSADO','PAGAMENTO_ATRASADO')), primary key (id));
+create table tb_subscription_refresh (controlled boolean not null, unchanged_count integer not null, last_fetched_at timestamp(6) with time zone, next_refresh_at timestamp(6) with time zone not null, last_digest varchar(64), subscription_id varchar(255) not null, tier varchar(255) not null, primary key (subscription_id));
+create table tb_sync_checkpoint (started_at timestamp(6) with time zone not null, updated_at timestamp(6) with time zone not null, job varchar(64) not null, phase varchar(64), cursors TEXT, state TEXT, status varchar(255) not null check (status in ('PENDING','RUNNING','DONE','FAILED','DEAD')), primary key (job));
+create table tb_sync_checkpoint_item (id bigint not null, job varchar(64) not null, subscription_id varchar(255) not null, primary key (id), constraint uk_sync_checkpoint_item_job_subscription unique (job, subscription_id));
 create table tb_user (id bigint generated by default as identity, email varchar(255), password varchar(255), primary key (id));
 create table tb_user_role (role_id bigint not null, user_id bigint not null, primary key (role_id, user_id));
+create table tb_webhook_inbox (attempts integer not null, id bigint generated by default as identity, locked_at timestamp(6) with time zone, next_attempt_at timestamp(6) with time zone not null, processed_at timestamp(6) with time zone, received_at timestamp(6) with time zone not null, payload_hash varchar(64) not null, last_error varchar(1000), payload TEXT not null, status varchar(255) not null check (status in ('PENDING','RUNNING','DONE','FAILED','DEAD')), subscription_id varchar(255) not null, primary key (id), constraint uk_webhook_inbox_subscription_payload unique (subscription_id, payload_hash));
 create index idx_year_month on tb_revenue_cache (year_month);
+create index idx_reservation_ledger_sku_subscription on tb_reservation_ledger (sku, subscription_id);
 alter table if exists tb_order add constraint FKknj29d1k6k9yy4yseh4yfy8d6 foreign key (subscription_id) references tb_subscription;
 alter table if exists tb_product add constraint FKqhmw4v8ett6y0kc6vprpjds00 foreign key (sku) references tb_controlled_sku;
 alter table if exists tb_product add constraint FK74jnj2grq2t2vtv2xjquhs0ds foreign key (order_id) references tb_order;
@@ -0,0 +1,9 @@
+-- Adds the cache versions (tb_cache_version) instances compare to know when
+-- their in-memory copy of a table is behind. It starts empty, which counts as
+-- version 0; the first controlled SKU write creates the row.
+--
+-- PostgreSQL. Safe to run more than once, before deploying the version that
+-- reads the table.
+
+CREATE TABLE IF NOT EXISTS tb_cache_version (version bigint not null, updated_at timestamp(6) with time zone not null,
+        name varchar(255) not null, primary key (name));
@@ -0,0 +1,8 @@
+-- Adds the Shopify inventory item GID to the controlled SKUs
+-- (tb_controlled_sku.inventory_item_gid). Existing SKUs start without one and
+-- are resolved against Shopify once, right after the next startup.
+--
+-- PostgreSQL. Safe to run more than once, before deploying the version that
+-- reads the column.
+
+ALTER TABLE tb_controlled_sku ADD COLUMN IF NOT EXISTS inventory_item_gid varchar(255);
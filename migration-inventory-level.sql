@@ -0,0 +1,13 @@
+-- Adds the local mirror of Shopify inventory levels (tb_inventory_level). It
+-- starts empty and is filled by the first bulk snapshot after deploying.
+--
+-- PostgreSQL. Safe to run more than once, before deploying the version that
+-- writes the mirror.
+
+CREATE SEQUENCE IF NOT EXISTS tb_inventory_level_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS tb_inventory_level (available integer not null, committed integer not null,
+        on_hand integer not null, reserved integer not null, fetched_at timestamp(6) with time zone not null,
+        id bigint not null, updated_at timestamp(6) with time zone not null,
+        inventory_item_id varchar(255) not null, location_id varchar(255) not null, primary key (id),
+        constraint uk_inventory_level_item_location unique (inventory_item_id, location_id));
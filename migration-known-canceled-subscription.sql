@@ -0,0 +1,9 @@
+-- Adds the canceled subscription IDs already seen in the PagBrasil listing
+-- (tb_known_canceled_subscription). It starts empty, so the first scan after
+-- deploying walks the whole canceled listing and fills it.
+--
+-- PostgreSQL. Safe to run more than once, before deploying the version that
+-- scans the canceled listing incrementally.
+
+CREATE TABLE IF NOT EXISTS tb_known_canceled_subscription (first_seen_at timestamp(6) with time zone not null,
+        subscription_id varchar(255) not null, primary key (subscription_id));
@@ -0,0 +1,9 @@
+-- Adds the learned PagBrasil request rate (tb_rate_limit_state). It starts
+-- empty; the rate limiter seeds itself from pagbrasil.request.delay and saves
+-- the rate it learns from then on.
+--
+-- PostgreSQL. Safe to run more than once, before deploying the version that
+-- writes the table.
+
+CREATE TABLE IF NOT EXISTS tb_rate_limit_state (rate_per_second float(53) not null,
+        updated_at timestamp(6) with time zone not null, name varchar(255) not null, primary key (name));
@@ -0,0 +1,43 @@
+-- Adds the reservation ledger (tb_reservation_ledger) and its per-SKU running
+-- totals (tb_reserved_stock_total), and opens the ledger with the stock the
+-- local orders hold today.
+--
+-- PostgreSQL. Run once, with the application stopped, before deploying the
+-- version that writes the ledger.
+--
+-- Opening balance: one 'opening' entry per product of every order that still
+-- holds stock (stock_released = false). Operations still PENDING at this point
+-- were already counted through their orders, so they get no entry.
+
+BEGIN;
+
+ALTER TABLE tb_shopify_sync_operation ADD COLUMN IF NOT EXISTS number_recurrence integer;
+
+CREATE SEQUENCE IF NOT EXISTS tb_reservation_ledger_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS tb_reservation_ledger (delta integer not null, number_recurrence integer,
+        created_at timestamp(6) with time zone not null, id bigint not null, operation_id bigint,
+        operation varchar(255) not null, sku varchar(255) not null, subscription_id varchar(255) not null,
+        primary key (id));
+CREATE INDEX IF NOT EXISTS idx_reservation_ledger_sku_subscription ON tb_reservation_ledger (sku, subscription_id);
+
+CREATE TABLE IF NOT EXISTS tb_reserved_stock_total (reserved bigint not null,
+        updated_at timestamp(6) with time zone not null, sku varchar(255) not null, primary key (sku));
+
+INSERT INTO tb_reservation_ledger (id, sku, subscription_id, number_recurrence, operation_id, operation, delta, created_at)
+SELECT nextval('tb_reservation_ledger_seq'), p.sku, o.subscription_id, o.number_recurrence, NULL, 'opening',
+        COALESCE(p.quantity, 0), now()
+FROM tb_product p
+JOIN tb_order o ON o.id = p.order_id
+WHERE o.stock_released = false AND p.sku IS NOT NULL;
+
+INSERT INTO tb_reserved_stock_total (sku, reserved, updated_at)
+SELECT sku, SUM(delta), now()
+FROM tb_reservation_ledger
+GROUP BY sku;
+
+-- nextval above advanced the sequence one step per row; Hibernate hands out
+-- ids (value - 49 .. value), so move it past every id already used
+SELECT setval('tb_reservation_ledger_seq', COALESCE((SELECT MAX(id) FROM tb_reservation_ledger), 0) + 50, false);
+
+COMMIT;
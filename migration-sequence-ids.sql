@@ -0,0 +1,49 @@
+-- Moves the bulk-written tables from identity columns to pooled sequences
+-- (allocationSize 50), which lets Hibernate batch their inserts.
+--
+-- PostgreSQL. Run once, with the application stopped, before deploying the
+-- version that maps these ids with @SequenceGenerator. Safe to run again.
+--
+-- Hibernate hands out ids (value - 49 .. value) for each value it reads from
+-- a sequence, so every sequence is positioned at MAX(id) + 50.
+--
+-- Run it after migration-sync-checkpoint.sql. tb_sync_checkpoint_item is only
+-- converted when it exists; if that migration runs later, its identity column
+-- still accepts the ids Hibernate assigns from tb_sync_checkpoint_item_seq.
+
+BEGIN;
+
+CREATE SEQUENCE IF NOT EXISTS tb_order_seq START WITH 1 INCREMENT BY 50;
+ALTER TABLE tb_order ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE tb_order ALTER COLUMN id DROP DEFAULT;
+SELECT setval('tb_order_seq', COALESCE((SELECT MAX(id) FROM tb_order), 0) + 50, false);
+
+CREATE SEQUENCE IF NOT EXISTS tb_product_seq START WITH 1 INCREMENT BY 50;
+ALTER TABLE tb_product ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE tb_product ALTER COLUMN id DROP DEFAULT;
+SELECT setval('tb_product_seq', COALESCE((SELECT MAX(id) FROM tb_product), 0) + 50, false);
+
+CREATE SEQUENCE IF NOT EXISTS tb_revenue_cache_seq START WITH 1 INCREMENT BY 50;
+ALTER TABLE tb_revenue_cache ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE tb_revenue_cache ALTER COLUMN id DROP DEFAULT;
+SELECT setval('tb_revenue_cache_seq', COALESCE((SELECT MAX(id) FROM tb_revenue_cache), 0) + 50, false);
+
+CREATE SEQUENCE IF NOT EXISTS tb_shopify_sync_operation_seq START WITH 1 INCREMENT BY 50;
+ALTER TABLE tb_shopify_sync_operation ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE tb_shopify_sync_operation ALTER COLUMN id DROP DEFAULT;
+SELECT setval('tb_shopify_sync_operation_seq',
+        COALESCE((SELECT MAX(id) FROM tb_shopify_sync_operation), 0) + 50, false);
+
+CREATE SEQUENCE IF NOT EXISTS tb_sync_checkpoint_item_seq START WITH 1 INCREMENT BY 50;
+DO $$
+BEGIN
+    IF to_regclass('tb_sync_checkpoint_item') IS NOT NULL THEN
+        ALTER TABLE tb_sync_checkpoint_item ALTER COLUMN id DROP IDENTITY IF EXISTS;
+        ALTER TABLE tb_sync_checkpoint_item ALTER COLUMN id DROP DEFAULT;
+        PERFORM setval('tb_sync_checkpoint_item_seq',
+                COALESCE((SELECT MAX(id) FROM tb_sync_checkpoint_item), 0) + 50, false);
+    END IF;
+END
+$$;
+
+COMMIT;
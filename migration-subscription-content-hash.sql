@@ -0,0 +1,8 @@
+-- Adds the content hash of each subscription (tb_subscription.content_hash).
+-- Existing subscriptions start without one, so the next cycle reconciles each
+-- of them in full once and stores its hash.
+--
+-- PostgreSQL. Safe to run more than once, before deploying the version that
+-- reads the column.
+
+ALTER TABLE tb_subscription ADD COLUMN IF NOT EXISTS content_hash varchar(64);
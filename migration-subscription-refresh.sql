@@ -0,0 +1,11 @@
+-- Adds the per-subscription refresh schedule (tb_subscription_refresh). It
+-- starts empty: every subscription in the listing counts as new in the first
+-- cycle after deploying, is fetched once and gets its tier from then on.
+--
+-- PostgreSQL. Safe to run more than once, before deploying the version that
+-- writes the table.
+
+CREATE TABLE IF NOT EXISTS tb_subscription_refresh (controlled boolean not null, unchanged_count integer not null,
+        last_fetched_at timestamp(6) with time zone, next_refresh_at timestamp(6) with time zone not null,
+        last_digest varchar(64), subscription_id varchar(255) not null, tier varchar(255) not null,
+        primary key (subscription_id));
@@ -0,0 +1,16 @@
+-- Adds the sync checkpoints (tb_sync_checkpoint) and the subscriptions each
+-- checkpointed run has already handled (tb_sync_checkpoint_item). Both start
+-- empty, so the first cycle after deploying runs from the start.
+--
+-- PostgreSQL. Safe to run more than once, before deploying the version that
+-- writes the checkpoints. Run it before migration-sequence-ids.sql.
+
+CREATE TABLE IF NOT EXISTS tb_sync_checkpoint (started_at timestamp(6) with time zone not null,
+        updated_at timestamp(6) with time zone not null, job varchar(64) not null, phase varchar(64),
+        cursors TEXT, state TEXT,
+        status varchar(255) not null check (status in ('PENDING','RUNNING','DONE','FAILED','DEAD')),
+        primary key (job));
+
+CREATE TABLE IF NOT EXISTS tb_sync_checkpoint_item (id bigint generated by default as identity,
+        job varchar(64) not null, subscription_id varchar(255) not null, primary key (id),
+        constraint uk_sync_checkpoint_item_job_subscription unique (job, subscription_id));
@@ -0,0 +1,10 @@
+-- Records which half of a Shopify sync operation is already applied
+-- (tb_shopify_sync_operation.reserved_applied / available_applied). When
+-- Shopify accepts a chunk's reserved adjustment but rejects its available one
+-- (or the reverse), the retry sends only the half that failed.
+--
+-- PostgreSQL. Safe to run more than once, before deploying the version that
+-- reads the columns.
+
+ALTER TABLE tb_shopify_sync_operation ADD COLUMN IF NOT EXISTS reserved_applied boolean NOT NULL DEFAULT false;
+ALTER TABLE tb_shopify_sync_operation ADD COLUMN IF NOT EXISTS available_applied boolean NOT NULL DEFAULT false;
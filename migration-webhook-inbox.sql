@@ -0,0 +1,14 @@
+-- Adds the PagBrasil webhook inbox (tb_webhook_inbox). Notifications are
+-- stored here on arrival and processed by the inbox worker; the unique
+-- constraint deduplicates redeliveries of the same payload.
+--
+-- PostgreSQL. Safe to run more than once, before deploying the version that
+-- exposes POST /api/webhooks/pagbrasil.
+
+CREATE TABLE IF NOT EXISTS tb_webhook_inbox (attempts integer not null, id bigint generated by default as identity,
+        locked_at timestamp(6) with time zone, next_attempt_at timestamp(6) with time zone not null,
+        processed_at timestamp(6) with time zone, received_at timestamp(6) with time zone not null,
+        payload_hash varchar(64) not null, last_error varchar(1000), payload TEXT not null,
+        status varchar(255) not null check (status in ('PENDING','RUNNING','DONE','FAILED','DEAD')),
+        subscription_id varchar(255) not null, primary key (id),
+        constraint uk_webhook_inbox_subscription_payload unique (subscription_id, payload_hash));
@@ -14,6 +14,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.tartaritech.inventory_sync.entities.InventoryLevel;
+import com.tartaritech.inventory_sync.services.InventoryLevelMirror;
 import com.tartaritech.inventory_sync.services.ShopifyInventoryService;
 
 @RestController
@@ -22,27 +24,39 @@ import com.tartaritech.inventory_sync.services.ShopifyInventoryService;
 public class InventoryManagementController {
 
     private final ShopifyInventoryService shopifyInventoryService;
+    private final InventoryLevelMirror inventoryLevelMirror;
     private final Logger logger = LoggerFactory.getLogger(InventoryManagementController.class);
 
-    public InventoryManagementController(ShopifyInventoryService shopifyInventoryService) {
+    public InventoryManagementController(ShopifyInventoryService shopifyInventoryService,
+            InventoryLevelMirror inventoryLevelMirror) {
         this.shopifyInventoryService = shopifyInventoryService;
+        this.inventoryLevelMirror = inventoryLevelMirror;
     }
 
     /**
      * Consultar a quantidade atual de reserved de um item
-     * GET /api/inventory/reserved/current/{inventoryItemId}
+     * GET /api/inventory/reserved/current/{inventoryItemId}?live=false
+     * Lida do espelho local de estoque; live=true (ou item ainda não espelhado) consulta o Shopify
      */
     @GetMapping("/reserved/current/{inventoryItemId}")
-    public ResponseEntity<Map<String, Object>> getCurrentReservedQuantity(@PathVariable String inventoryItemId) {
+    public ResponseEntity<Map<String, Object>> getCurrentReservedQuantity(@PathVariable String inventoryItemId,
+            @RequestParam(defaultValue = "false") boolean live) {
         try {
             logger.info("Consultando quantidade atual de reserved para inventory item: {}", inventoryItemId);
             
-            int currentQuantity = shopifyInventoryService.getCurrentReservedQuantity(inventoryItemId);
-            
             Map<String, Object> response = new HashMap<>();
+            InventoryLevel level = live ? null : inventoryLevelMirror.find(inventoryItemId).orElse(null);
+            if (level != null) {
+                response.put("currentReservedQuantity", level.getReserved());
+                response.put("source", "mirror");
+                response.put("fetchedAt", level.getFetchedAt());
+                response.put("updatedAt", level.getUpdatedAt());
+            } else {
+                response.put("currentReservedQuantity", shopifyInventoryService.getCurrentReservedQuantity(inventoryItemId));
+                response.put("source", "shopify");
+            }
             response.put("success", true);
             response.put("inventoryItemId", inventoryItemId);
-            response.put("currentReservedQuantity", currentQuantity);
             
             return ResponseEntity.ok(response);
             
@@ -0,0 +1,54 @@
+package com.tartaritech.inventory_sync.controllers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.tartaritech.inventory_sync.services.PagBrasilWebhookService;
+import com.tartaritech.inventory_sync.services.exceptions.WebhookVerificationException;
+
+@RestController
+@RequestMapping("/api/webhooks/pagbrasil")
+public class PagBrasilWebhookController {
+
+    private final PagBrasilWebhookService webhookService;
+    private final Logger logger = LoggerFactory.getLogger(PagBrasilWebhookController.class);
+
+    public PagBrasilWebhookController(PagBrasilWebhookService webhookService) {
+        this.webhookService = webhookService;
+    }
+
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> receiveNotification(@RequestBody String body) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            boolean stored = webhookService.receive(body);
+            response.put("success", true);
+            response.put("message", stored ? "Notificação recebida" : "Notificação já recebida");
+            return ResponseEntity.ok(response);
+        } catch (WebhookVerificationException e) {
+            logger.warn("Rejected PagBrasil notification: {}", e.getMessage());
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(response);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Malformed PagBrasil notification: {}", e.getMessage());
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            logger.error("Error storing PagBrasil notification", e);
+            response.put("success", false);
+            response.put("message", "Erro ao registrar notificação: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.tartaritech.inventory_sync.controllers;
+
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.tartaritech.inventory_sync.dtos.JobStatsDTO;
+import com.tartaritech.inventory_sync.services.CircuitBreakerRegistry;
+import com.tartaritech.inventory_sync.services.InventoryLevelMirror;
+import com.tartaritech.inventory_sync.services.ReservationLedgerService;
+import com.tartaritech.inventory_sync.services.ShopifyCostThrottle;
+import com.tartaritech.inventory_sync.services.SyncMetricsService;
+import com.tartaritech.inventory_sync.services.WebhookInboxWorker;
+
+@RestController
+@RequestMapping("/api/admin/sync")
+@CrossOrigin(origins = "*")
+public class SyncAdminController {
+
+    private final SyncMetricsService syncMetricsService;
+    private final WebhookInboxWorker webhookInboxWorker;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final ReservationLedgerService reservationLedgerService;
+    private final ShopifyCostThrottle shopifyCostThrottle;
+    private final InventoryLevelMirror inventoryLevelMirror;
+    private final Logger logger = LoggerFactory.getLogger(SyncAdminController.class);
+
+    public SyncAdminController(SyncMetricsService syncMetricsService, WebhookInboxWorker webhookInboxWorker,
+            CircuitBreakerRegistry circuitBreakerRegistry, ReservationLedgerService reservationLedgerService,
+            ShopifyCostThrottle shopifyCostThrottle, InventoryLevelMirror inventoryLevelMirror) {
+        this.syncMetricsService = syncMetricsService;
+        this.webhookInboxWorker = webhookInboxWorker;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.reservationLedgerService = reservationLedgerService;
+        this.shopifyCostThrottle = shopifyCostThrottle;
+        this.inventoryLevelMirror = inventoryLevelMirror;
+    }
+
+    @GetMapping("/metrics")
+    public ResponseEntity<Map<String, Object>> getSyncMetrics() {
+        logger.debug("Request received to fetch sync metrics");
+        return ResponseEntity.ok(syncMetricsService.getSnapshot());
+    }
+
+    @GetMapping("/webhooks")
+    public ResponseEntity<JobStatsDTO> getWebhookInboxStats() {
+        logger.debug("Request received to fetch webhook inbox stats");
+        return ResponseEntity.ok(webhookInboxWorker.getStats());
+    }
+
+    @GetMapping("/circuits")
+    public ResponseEntity<Map<String, Object>> getCircuitBreakers() {
+        logger.debug("Request received to fetch circuit breaker state");
+        return ResponseEntity.ok(circuitBreakerRegistry.getSnapshot());
+    }
+
+    @GetMapping("/shopify-throttle")
+    public ResponseEntity<Map<String, Object>> getShopifyThrottle() {
+        logger.debug("Request received to fetch Shopify throttle state");
+        return ResponseEntity.ok(shopifyCostThrottle.getSnapshot());
+    }
+
+    @GetMapping("/inventory-mirror")
+    public ResponseEntity<Map<String, Object>> getInventoryMirror() {
+        logger.debug("Request received to fetch inventory mirror state");
+        return ResponseEntity.ok(inventoryLevelMirror.getSnapshot());
+    }
+
+    @GetMapping("/inventory-drift")
+    public ResponseEntity<List<Map<String, Object>>> getInventoryDrift() {
+        logger.debug("Request received to fetch reserved inventory drift");
+        return ResponseEntity.ok(inventoryLevelMirror.getReservedDrift());
+    }
+
+    @GetMapping("/reservations")
+    public ResponseEntity<Map<String, Long>> getExpectedReservations() {
+        logger.debug("Request received to fetch expected reservations");
+        return ResponseEntity.ok(reservationLedgerService.getExpectedReservations());
+    }
+
+    @GetMapping("/reservations/{sku}")
+    public ResponseEntity<Map<String, Object>> getExpectedReserved(@PathVariable String sku) {
+        logger.debug("Request received to fetch expected reservation of SKU {}", sku);
+        return ResponseEntity.ok(Map.of("sku", sku, "reserved", reservationLedgerService.getExpectedReserved(sku)));
+    }
+}
@@ -0,0 +1,42 @@
+package com.tartaritech.inventory_sync.entities;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Version of a table cached in memory. Bumped on every write so that other
+ * instances notice their copy is stale.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "tb_cache_version")
+public class CacheVersion {
+
+    @Id
+    private String name; // e.g. "controlled-sku"
+
+    @Column(nullable = false)
+    private Long version;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    void updateTimestamp() {
+        updatedAt = Instant.now();
+    }
+}
@@ -3,6 +3,7 @@ package com.tartaritech.inventory_sync.entities;
 import java.util.ArrayList;
 import java.util.List;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.OneToMany;
@@ -27,6 +28,10 @@ public class ControlledSKu {
     private String sku;
     private String name;
 
+    // Shopify inventory item of the variant with this SKU, resolved and kept by InventoryItemGidCache
+    @Column(name = "inventory_item_gid")
+    private String inventoryItemGid;
+
     @OneToMany(mappedBy = "controlledSku")
     private List<Product> nextItems = new ArrayList<>();
     
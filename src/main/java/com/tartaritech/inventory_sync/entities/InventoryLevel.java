@@ -0,0 +1,63 @@
+package com.tartaritech.inventory_sync.entities;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Local copy of one Shopify inventory level (inventory item at a location),
+ * taken from the last bulk snapshot and patched with the adjustments this
+ * application made since.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "tb_inventory_level", uniqueConstraints = @UniqueConstraint(
+        name = "uk_inventory_level_item_location", columnNames = { "inventory_item_id", "location_id" }))
+public class InventoryLevel {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tb_inventory_level_seq")
+    @SequenceGenerator(name = "tb_inventory_level_seq", sequenceName = "tb_inventory_level_seq",
+            allocationSize = 50)
+    private Long id;
+
+    @Column(name = "inventory_item_id", nullable = false)
+    private String inventoryItemId;
+
+    @Column(name = "location_id", nullable = false)
+    private String locationId;
+
+    @Column(nullable = false)
+    private Integer available;
+
+    @Column(nullable = false)
+    private Integer committed;
+
+    @Column(name = "on_hand", nullable = false)
+    private Integer onHand;
+
+    @Column(nullable = false)
+    private Integer reserved;
+
+    // When the snapshot this row comes from was started
+    @Column(name = "fetched_at", nullable = false)
+    private Instant fetchedAt;
+
+    // Last write, by a snapshot or by one of our own adjustments
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+}
@@ -0,0 +1,60 @@
+package com.tartaritech.inventory_sync.entities;
+
+import java.time.Instant;
+
+import org.springframework.data.domain.Persistable;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * A subscription ID already seen and handled in the PagBrasil canceled
+ * listing. Lets the canceled scan stop at the first page it has seen before.
+ *
+ * Rows are only ever inserted, so the entity reports itself as new until it
+ * is persisted or loaded and saveAll inserts without a select per ID.
+ */
+@NoArgsConstructor
+@Getter
+@Entity
+@Table(name = "tb_known_canceled_subscription")
+public class KnownCanceledSubscription implements Persistable<String> {
+
+    @Id
+    @Column(name = "subscription_id")
+    private String subscriptionId;
+
+    @Column(name = "first_seen_at", nullable = false)
+    private Instant firstSeenAt;
+
+    @Transient
+    private boolean persisted;
+
+    public KnownCanceledSubscription(String subscriptionId, Instant firstSeenAt) {
+        this.subscriptionId = subscriptionId;
+        this.firstSeenAt = firstSeenAt;
+    }
+
+    @Override
+    public String getId() {
+        return subscriptionId;
+    }
+
+    @Override
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markPersisted() {
+        persisted = true;
+    }
+}
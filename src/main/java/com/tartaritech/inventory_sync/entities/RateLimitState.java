@@ -0,0 +1,38 @@
+package com.tartaritech.inventory_sync.entities;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "tb_rate_limit_state")
+public class RateLimitState {
+
+    @Id
+    private String name; // e.g. "pagbrasil"
+
+    @Column(name = "rate_per_second", nullable = false)
+    private Double ratePerSecond;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    void updateTimestamp() {
+        updatedAt = Instant.now();
+    }
+}
@@ -0,0 +1,70 @@
+package com.tartaritech.inventory_sync.entities;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * One change to the stock that should be reserved for a SKU, written with the
+ * Shopify sync operation it comes from. Rows are only ever appended; the sum
+ * of {@code delta} per SKU is kept in {@link ReservedStockTotal}.
+ */
+@Entity
+@Table(name = "tb_reservation_ledger", indexes = {
+    @Index(name = "idx_reservation_ledger_sku_subscription", columnList = "sku, subscription_id")
+})
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class ReservationLedgerEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tb_reservation_ledger_seq")
+    @SequenceGenerator(name = "tb_reservation_ledger_seq", sequenceName = "tb_reservation_ledger_seq",
+            allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false)
+    private String sku;
+
+    @Column(name = "subscription_id", nullable = false)
+    private String subscriptionId;
+
+    // Recurrence number of the order the units belong to
+    @Column(name = "number_recurrence")
+    private Integer numberRecurrence;
+
+    // ShopifySyncOperation that applies this change in Shopify; null for opening balances
+    @Column(name = "operation_id")
+    private Long operationId;
+
+    @Column(nullable = false)
+    private String operation;
+
+    // Change in reserved units: positive reserves, negative releases
+    @Column(nullable = false)
+    private Integer delta;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @PrePersist
+    void prePersist() {
+        if (createdAt == null) {
+            createdAt = Instant.now();
+        }
+    }
+}
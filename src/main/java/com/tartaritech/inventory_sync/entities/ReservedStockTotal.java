@@ -0,0 +1,35 @@
+package com.tartaritech.inventory_sync.entities;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Running total of {@link ReservationLedgerEntry} deltas for one SKU: the
+ * units subscriptions should have reserved in Shopify right now. Updated in
+ * place, in the same transaction as the ledger entries.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "tb_reserved_stock_total")
+public class ReservedStockTotal {
+
+    @Id
+    private String sku;
+
+    @Column(nullable = false)
+    private Long reserved;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+}
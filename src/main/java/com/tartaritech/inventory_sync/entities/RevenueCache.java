@@ -11,6 +11,7 @@ import jakarta.persistence.Id;
 import jakarta.persistence.Index;
 import jakarta.persistence.PrePersist;
 import jakarta.persistence.PreUpdate;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -28,7 +29,8 @@ import lombok.Setter;
 public class RevenueCache {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tb_revenue_cache_seq")
+    @SequenceGenerator(name = "tb_revenue_cache_seq", sequenceName = "tb_revenue_cache_seq", allocationSize = 50)
     private Long id;
     
     @Column(name = "year_month", nullable = false, unique = true, length = 7)
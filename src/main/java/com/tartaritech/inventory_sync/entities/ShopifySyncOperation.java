@@ -8,6 +8,7 @@ import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.PrePersist;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -23,12 +24,18 @@ import lombok.Setter;
 public class ShopifySyncOperation {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tb_shopify_sync_operation_seq")
+    @SequenceGenerator(name = "tb_shopify_sync_operation_seq", sequenceName = "tb_shopify_sync_operation_seq",
+            allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
     private String subscriptionId;
 
+    // Recurrence number of the order the operation was created for
+    @Column(name = "number_recurrence")
+    private Integer numberRecurrence;
+
     @Column(nullable = false)
     private String operation; // "insert", "delete", "delta"
 
@@ -51,6 +58,13 @@ public class ShopifySyncOperation {
     @Column(nullable = false)
     private Integer retryCount = 0;
 
+    // Halves already applied to Shopify by a chunk whose other half failed; a retry sends only the rest
+    @Column(nullable = false)
+    private Boolean reservedApplied = false;
+
+    @Column(nullable = false)
+    private Boolean availableApplied = false;
+
     @PrePersist
     void prePersist() {
         if (createdAt == null) {
@@ -59,5 +73,11 @@ public class ShopifySyncOperation {
         if (retryCount == null) {
             retryCount = 0;
         }
+        if (reservedApplied == null) {
+            reservedApplied = false;
+        }
+        if (availableApplied == null) {
+            availableApplied = false;
+        }
     }
 }
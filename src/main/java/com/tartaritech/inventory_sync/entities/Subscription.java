@@ -68,6 +68,10 @@ public class Subscription {
     @Column(name = "pix_rec_id")
     private String pixRecId;
 
+    // SHA-256 of the PagBrasil fields reconciliation depends on; null forces a full reconcile
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
     @OneToMany(mappedBy = "subscription")
     private List<Order> recurrences = new ArrayList<>();
     
@@ -0,0 +1,48 @@
+package com.tartaritech.inventory_sync.entities;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * When a PagBrasil subscription should next be fetched in detail, and what
+ * was observed the last time it was.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "tb_subscription_refresh")
+public class SubscriptionRefreshState {
+
+    @Id
+    @Column(name = "subscription_id")
+    private String subscriptionId;
+
+    @Column(name = "next_refresh_at", nullable = false)
+    private Instant nextRefreshAt;
+
+    @Column(name = "last_fetched_at")
+    private Instant lastFetchedAt;
+
+    // Digest of the last fetched content, used to measure how often the subscription changes
+    @Column(name = "last_digest", length = 64)
+    private String lastDigest;
+
+    @Column(name = "unchanged_count", nullable = false)
+    private Integer unchangedCount = 0;
+
+    @Column(nullable = false)
+    private Boolean controlled = false;
+
+    @Column(nullable = false)
+    private String tier;
+}
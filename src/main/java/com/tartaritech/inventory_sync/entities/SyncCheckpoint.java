@@ -0,0 +1,55 @@
+package com.tartaritech.inventory_sync.entities;
+
+import java.time.Instant;
+
+import com.tartaritech.inventory_sync.enums.JobStatus;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Progress of the current (or last) run of a long sync job. A run left
+ * RUNNING by a restart is resumed by the next run.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "tb_sync_checkpoint")
+public class SyncCheckpoint {
+
+    @Id
+    @Column(length = 64)
+    private String job;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private JobStatus status;
+
+    // Job-defined step the run is in
+    @Column(length = 64)
+    private String phase;
+
+    // JSON object: listing status -> last page fully processed
+    @Column(columnDefinition = "TEXT")
+    private String cursors;
+
+    // JSON, job-defined partial results
+    @Column(columnDefinition = "TEXT")
+    private String state;
+
+    @Column(name = "started_at", nullable = false)
+    private Instant startedAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+}
@@ -0,0 +1,39 @@
+package com.tartaritech.inventory_sync.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A subscription already handled by the current run of a checkpointed job.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "tb_sync_checkpoint_item", uniqueConstraints = @UniqueConstraint(
+        name = "uk_sync_checkpoint_item_job_subscription", columnNames = { "job", "subscription_id" }))
+public class SyncCheckpointItem {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tb_sync_checkpoint_item_seq")
+    @SequenceGenerator(name = "tb_sync_checkpoint_item_seq", sequenceName = "tb_sync_checkpoint_item_seq",
+            allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false, length = 64)
+    private String job;
+
+    @Column(name = "subscription_id", nullable = false)
+    private String subscriptionId;
+}
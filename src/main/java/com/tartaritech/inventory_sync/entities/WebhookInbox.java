@@ -0,0 +1,83 @@
+package com.tartaritech.inventory_sync.entities;
+
+import java.time.Instant;
+
+import com.tartaritech.inventory_sync.enums.JobStatus;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A verified PagBrasil notification waiting to be (or already) applied.
+ * The same payload for the same subscription is only stored once.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "tb_webhook_inbox", uniqueConstraints = @UniqueConstraint(
+        name = "uk_webhook_inbox_subscription_payload", columnNames = { "subscription_id", "payload_hash" }))
+public class WebhookInbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "subscription_id", nullable = false)
+    private String subscriptionId;
+
+    @Column(name = "payload_hash", nullable = false, length = 64)
+    private String payloadHash;
+
+    // Raw notification body, secret included as received
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private JobStatus status;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "received_at", nullable = false)
+    private Instant receivedAt;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private Instant nextAttemptAt;
+
+    @Column(name = "locked_at")
+    private Instant lockedAt;
+
+    @Column(name = "processed_at")
+    private Instant processedAt;
+
+    @PrePersist
+    void prePersist() {
+        if (receivedAt == null) {
+            receivedAt = Instant.now();
+        }
+        if (nextAttemptAt == null) {
+            nextAttemptAt = receivedAt;
+        }
+        if (attempts == null) {
+            attempts = 0;
+        }
+    }
+}
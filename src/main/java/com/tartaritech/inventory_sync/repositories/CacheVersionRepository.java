@@ -0,0 +1,20 @@
+package com.tartaritech.inventory_sync.repositories;
+
+import java.time.Instant;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.tartaritech.inventory_sync.entities.CacheVersion;
+
+public interface CacheVersionRepository extends JpaRepository<CacheVersion, String> {
+
+    @Query("SELECT c.version FROM CacheVersion c WHERE c.name = :name")
+    Long findVersion(@Param("name") String name);
+
+    @Modifying
+    @Query("UPDATE CacheVersion c SET c.version = c.version + 1, c.updatedAt = :now WHERE c.name = :name")
+    int increment(@Param("name") String name, @Param("now") Instant now);
+}
@@ -1,9 +1,21 @@
 package com.tartaritech.inventory_sync.repositories;
 
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.tartaritech.inventory_sync.entities.ControlledSKu;
 
 public interface ControlledSkuRepository extends JpaRepository<ControlledSKu, String>  {
-    
+
+    @Query("SELECT s.sku, s.inventoryItemGid FROM ControlledSKu s")
+    List<Object[]> findInventoryItemGids();
+
+    @Modifying
+    @Query("UPDATE ControlledSKu s SET s.inventoryItemGid = :gid WHERE s.sku = :sku")
+    int updateInventoryItemGid(@Param("sku") String sku, @Param("gid") String gid);
+
 }
@@ -1,9 +1,22 @@
 package com.tartaritech.inventory_sync.repositories;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.tartaritech.inventory_sync.entities.Customer;
 
 public interface CustomerRepository extends JpaRepository <Customer, String> {
-    
+
+    @Query("""
+        SELECT DISTINCT c
+        FROM Customer c
+        LEFT JOIN FETCH c.subscriptions
+        WHERE c.email IN :emails
+    """)
+    List<Customer> findGraphByEmailIn(@Param("emails") Collection<String> emails);
+
 }
@@ -0,0 +1,42 @@
+package com.tartaritech.inventory_sync.repositories;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.tartaritech.inventory_sync.entities.InventoryLevel;
+
+public interface InventoryLevelRepository extends JpaRepository<InventoryLevel, Long> {
+
+    Optional<InventoryLevel> findByInventoryItemIdAndLocationId(String inventoryItemId, String locationId);
+
+    List<InventoryLevel> findByInventoryItemIdIn(Collection<String> inventoryItemIds);
+
+    List<InventoryLevel> findByLocationId(String locationId);
+
+    // Adjustments are applied in the database so concurrent patches never lose each other's deltas.
+    // Shopify counts available and reserved units in on_hand, so it moves with them
+    @Modifying
+    @Query("UPDATE InventoryLevel l SET l.available = l.available + :delta, l.onHand = l.onHand + :delta, "
+            + "l.updatedAt = :now WHERE l.inventoryItemId = :item AND l.locationId = :location")
+    int addAvailable(@Param("item") String inventoryItemId, @Param("location") String locationId,
+            @Param("delta") int delta, @Param("now") Instant now);
+
+    @Modifying
+    @Query("UPDATE InventoryLevel l SET l.reserved = l.reserved + :delta, l.onHand = l.onHand + :delta, "
+            + "l.updatedAt = :now WHERE l.inventoryItemId = :item AND l.locationId = :location")
+    int addReserved(@Param("item") String inventoryItemId, @Param("location") String locationId,
+            @Param("delta") int delta, @Param("now") Instant now);
+
+    // Levels the last snapshot no longer listed and that none of our adjustments touched since it started
+    @Modifying
+    @Query("DELETE FROM InventoryLevel l WHERE l.fetchedAt < :snapshotStart AND l.updatedAt < :snapshotStart")
+    int deleteNotSeenSince(@Param("snapshotStart") Instant snapshotStart);
+
+}
@@ -0,0 +1,17 @@
+package com.tartaritech.inventory_sync.repositories;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.tartaritech.inventory_sync.entities.KnownCanceledSubscription;
+
+public interface KnownCanceledSubscriptionRepository extends JpaRepository<KnownCanceledSubscription, String> {
+
+    @Query("SELECT k.subscriptionId FROM KnownCanceledSubscription k WHERE k.subscriptionId IN :ids")
+    List<String> findKnownIdsIn(@Param("ids") Collection<String> ids);
+
+}
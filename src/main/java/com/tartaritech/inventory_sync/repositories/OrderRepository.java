@@ -1,9 +1,43 @@
 package com.tartaritech.inventory_sync.repositories;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.tartaritech.inventory_sync.entities.Order;
 
 public interface OrderRepository extends JpaRepository<Order, Long> {
-    
+
+    @Query("""
+        SELECT o.subscription.id, o.numberRecurrence
+        FROM Order o
+        WHERE o.subscription.id IN :subscriptionIds AND o.numberRecurrence IS NOT NULL
+    """)
+    List<Object[]> findSubscriptionRecurrenceNumbers(@Param("subscriptionIds") Collection<String> subscriptionIds);
+
+    @Query("""
+        SELECT o.numberRecurrence
+        FROM Order o
+        WHERE o.subscription.id = :subscriptionId AND o.numberRecurrence IS NOT NULL
+    """)
+    List<Integer> findRecurrenceNumbersBySubscriptionId(@Param("subscriptionId") String subscriptionId);
+
+    @Query("""
+        SELECT DISTINCT o
+        FROM Order o
+        LEFT JOIN FETCH o.products p
+        LEFT JOIN FETCH p.controlledSku
+        WHERE o.subscription.id IN :subscriptionIds
+    """)
+    List<Order> findGraphBySubscriptionIdIn(@Param("subscriptionIds") Collection<String> subscriptionIds);
+
+    // Their products must be deleted first (ProductRepository.deleteBySubscriptionIdIn)
+    @Modifying(flushAutomatically = true)
+    @Query("DELETE FROM Order o WHERE o.subscription.id IN :subscriptionIds")
+    int deleteBySubscriptionIdIn(@Param("subscriptionIds") Collection<String> subscriptionIds);
+
 }
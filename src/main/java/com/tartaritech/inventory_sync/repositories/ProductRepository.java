@@ -1,9 +1,12 @@
 package com.tartaritech.inventory_sync.repositories;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.tartaritech.inventory_sync.entities.Product;
 
@@ -17,5 +20,12 @@ public interface ProductRepository extends JpaRepository <Product, Long > {
         ORDER BY SUM(p.quantity) DESC
     """)
     List<Object[]> findSkuSummaries();
-    
+
+    @Modifying(flushAutomatically = true)
+    @Query("""
+        DELETE FROM Product p
+        WHERE p.order.id IN (SELECT o.id FROM Order o WHERE o.subscription.id IN :subscriptionIds)
+    """)
+    int deleteBySubscriptionIdIn(@Param("subscriptionIds") Collection<String> subscriptionIds);
+
 }
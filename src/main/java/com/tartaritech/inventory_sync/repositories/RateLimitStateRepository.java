@@ -0,0 +1,9 @@
+package com.tartaritech.inventory_sync.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.tartaritech.inventory_sync.entities.RateLimitState;
+
+public interface RateLimitStateRepository extends JpaRepository<RateLimitState, String> {
+
+}
@@ -0,0 +1,19 @@
+package com.tartaritech.inventory_sync.repositories;
+
+import java.time.Instant;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.tartaritech.inventory_sync.entities.ReservedStockTotal;
+
+public interface ReservedStockTotalRepository extends JpaRepository<ReservedStockTotal, String> {
+
+    // Applied in the database so concurrent transactions never lose each other's deltas
+    @Modifying
+    @Query("UPDATE ReservedStockTotal t SET t.reserved = t.reserved + :delta, t.updatedAt = :now WHERE t.sku = :sku")
+    int addReserved(@Param("sku") String sku, @Param("delta") long delta, @Param("now") Instant now);
+
+}
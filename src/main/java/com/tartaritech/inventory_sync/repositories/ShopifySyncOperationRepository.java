@@ -2,6 +2,7 @@ package com.tartaritech.inventory_sync.repositories;
 
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
@@ -10,5 +11,7 @@ import com.tartaritech.inventory_sync.entities.ShopifySyncOperation;
 @Repository
 public interface ShopifySyncOperationRepository extends JpaRepository<ShopifySyncOperation, Long> {
     
-    List<ShopifySyncOperation> findByStatusAndRetryCountLessThan(String status, Integer maxRetries);
+    // Keyset paging by id: operations left PENDING by a retry are not picked up again in the same run
+    List<ShopifySyncOperation> findByStatusAndRetryCountLessThanAndIdGreaterThanOrderByIdAsc(String status,
+            Integer maxRetries, Long afterId, Pageable pageable);
 }
@@ -1,9 +1,34 @@
 package com.tartaritech.inventory_sync.repositories;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.tartaritech.inventory_sync.entities.Subscription;
 
 public interface SubscriptionRepository extends JpaRepository <Subscription, String> {
-    
+
+    @Modifying
+    @Query("UPDATE Subscription s SET s.contentHash = NULL WHERE s.contentHash IS NOT NULL")
+    int clearContentHashes();
+
+    // Products of the recurrences are fetched by OrderRepository.findGraphBySubscriptionIdIn
+    @Query("""
+        SELECT DISTINCT s
+        FROM Subscription s
+        LEFT JOIN FETCH s.customer
+        LEFT JOIN FETCH s.recurrences
+        WHERE s.id IN :ids
+    """)
+    List<Subscription> findGraphByIdIn(@Param("ids") Collection<String> ids);
+
+    // Their orders must be deleted first (OrderRepository.deleteBySubscriptionIdIn)
+    @Modifying(flushAutomatically = true)
+    @Query("DELETE FROM Subscription s WHERE s.id IN :ids")
+    int deleteByIdIn(@Param("ids") Collection<String> ids);
+
 }
@@ -0,0 +1,20 @@
+package com.tartaritech.inventory_sync.repositories;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.tartaritech.inventory_sync.entities.SyncCheckpointItem;
+
+public interface SyncCheckpointItemRepository extends JpaRepository<SyncCheckpointItem, Long> {
+
+    @Query("SELECT i.subscriptionId FROM SyncCheckpointItem i WHERE i.job = :job")
+    List<String> findSubscriptionIdsByJob(@Param("job") String job);
+
+    @Modifying
+    @Query("DELETE FROM SyncCheckpointItem i WHERE i.job = :job")
+    int deleteByJob(@Param("job") String job);
+}
@@ -0,0 +1,8 @@
+package com.tartaritech.inventory_sync.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.tartaritech.inventory_sync.entities.SyncCheckpoint;
+
+public interface SyncCheckpointRepository extends JpaRepository<SyncCheckpoint, String> {
+}
@@ -0,0 +1,38 @@
+package com.tartaritech.inventory_sync.repositories;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.tartaritech.inventory_sync.entities.WebhookInbox;
+import com.tartaritech.inventory_sync.enums.JobStatus;
+
+public interface WebhookInboxRepository extends JpaRepository<WebhookInbox, Long> {
+
+    boolean existsBySubscriptionIdAndPayloadHash(String subscriptionId, String payloadHash);
+
+    @Query("""
+        SELECT w FROM WebhookInbox w
+        WHERE w.status IN :statuses AND w.nextAttemptAt <= :now
+        ORDER BY w.receivedAt ASC, w.id ASC
+    """)
+    List<WebhookInbox> findReady(@Param("statuses") List<JobStatus> statuses, @Param("now") Instant now,
+            Pageable pageable);
+
+    long countByStatus(JobStatus status);
+
+    // Entries left RUNNING by a crash or shutdown go back to the queue
+    @Modifying
+    @Query("UPDATE WebhookInbox w SET w.status = :pending, w.lockedAt = NULL WHERE w.status = :running AND w.lockedAt < :before")
+    int releaseStale(@Param("running") JobStatus running, @Param("pending") JobStatus pending,
+            @Param("before") Instant before);
+
+    @Modifying
+    @Query("DELETE FROM WebhookInbox w WHERE w.status IN :statuses AND w.processedAt < :before")
+    int deleteProcessedBefore(@Param("statuses") List<JobStatus> statuses, @Param("before") Instant before);
+}
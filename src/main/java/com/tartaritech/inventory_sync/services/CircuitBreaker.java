@@ -0,0 +1,230 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tartaritech.inventory_sync.services.exceptions.CircuitOpenException;
+
+/**
+ * Circuit breaker plus bulkhead for one external provider.
+ *
+ * CLOSED: calls go through and their outcome is kept in a sliding window of
+ * the last {@code windowSize} calls. Once at least {@code minimumCalls} are
+ * recorded and the failure rate reaches {@code failureRateThreshold} percent,
+ * the circuit opens.
+ * OPEN: every call fails fast with {@link CircuitOpenException} until
+ * {@code openDurationMs} has passed.
+ * HALF_OPEN: up to {@code halfOpenCalls} trial calls are let through; one
+ * failure re-opens the circuit, that many successes close it.
+ *
+ * Independently of the state, at most {@code maxConcurrentCalls} calls are
+ * in flight; a caller waits up to {@code maxWaitMs} for a slot.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public record Config(int failureRateThreshold, int windowSize, int minimumCalls, long openDurationMs,
+            int halfOpenCalls, int maxConcurrentCalls, long maxWaitMs) {
+    }
+
+    @FunctionalInterface
+    public interface Call<T> {
+        T execute() throws IOException, InterruptedException;
+    }
+
+    private final String name;
+    private final Config config;
+    private final Semaphore bulkhead;
+    private final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    // Guarded by "this"
+    private final boolean[] window;
+    private int windowCount;
+    private int windowIndex;
+    private int windowFailures;
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAtNanos;
+    private int halfOpenInFlight;
+    private int halfOpenSuccesses;
+    private Instant stateSince = Instant.now();
+    private long totalCalls;
+    private long totalFailures;
+    private long rejectedCalls;
+
+    public CircuitBreaker(String name, Config config) {
+        this.name = name;
+        this.config = config;
+        this.bulkhead = new Semaphore(Math.max(config.maxConcurrentCalls(), 1), true);
+        this.window = new boolean[Math.max(config.windowSize(), 1)];
+    }
+
+    /**
+     * Runs {@code call} under the breaker and the bulkhead. Exceptions thrown by
+     * the call, and results matching {@code isFailure}, count as failures.
+     *
+     * @throws CircuitOpenException if the call was rejected without being attempted
+     */
+    public <T> T execute(Call<T> call, Predicate<T> isFailure) throws IOException, InterruptedException {
+        if (!bulkhead.tryAcquire(config.maxWaitMs(), TimeUnit.MILLISECONDS)) {
+            synchronized (this) {
+                rejectedCalls++;
+            }
+            throw new CircuitOpenException(name + ": bulkhead full (" + config.maxConcurrentCalls()
+                    + " calls in flight)");
+        }
+
+        try {
+            long permit = acquirePermission();
+            boolean failed = true;
+            boolean interrupted = false;
+            try {
+                T result = call.execute();
+                failed = isFailure.test(result);
+                return result;
+            } catch (InterruptedException e) {
+                interrupted = true;
+                throw e;
+            } finally {
+                if (interrupted) {
+                    // Says nothing about the provider either way: give the permit back without an outcome
+                    onAbandoned(permit);
+                } else {
+                    onResult(permit, failed);
+                }
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("state", currentState().name());
+        snapshot.put("stateSince", stateSince);
+        snapshot.put("failureRate", windowCount == 0 ? 0.0 : windowFailures * 100.0 / windowCount);
+        snapshot.put("windowCalls", windowCount);
+        snapshot.put("windowFailures", windowFailures);
+        snapshot.put("totalCalls", totalCalls);
+        snapshot.put("totalFailures", totalFailures);
+        snapshot.put("rejectedCalls", rejectedCalls);
+        snapshot.put("inFlight", config.maxConcurrentCalls() - bulkhead.availablePermits());
+        snapshot.put("maxConcurrentCalls", config.maxConcurrentCalls());
+        return snapshot;
+    }
+
+    private synchronized long acquirePermission() {
+        State current = currentState();
+        if (current == State.OPEN) {
+            rejectedCalls++;
+            throw new CircuitOpenException(name + ": circuit open since " + stateSince);
+        }
+        if (current == State.HALF_OPEN) {
+            if (halfOpenInFlight >= config.halfOpenCalls()) {
+                rejectedCalls++;
+                throw new CircuitOpenException(name + ": circuit half-open, trial calls in progress");
+            }
+            halfOpenInFlight++;
+        }
+        return generation;
+    }
+
+    private synchronized void onAbandoned(long permitGeneration) {
+        if (permitGeneration == generation && state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+        }
+    }
+
+    private synchronized void onResult(long permitGeneration, boolean failed) {
+        totalCalls++;
+        if (failed) {
+            totalFailures++;
+        }
+        if (permitGeneration != generation) {
+            // Permitted before the last state change; its outcome says nothing about the current state
+            return;
+        }
+
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+            if (failed) {
+                transitionTo(State.OPEN);
+            } else if (++halfOpenSuccesses >= config.halfOpenCalls()) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+
+        if (state == State.CLOSED) {
+            if (windowCount == window.length) {
+                if (window[windowIndex]) {
+                    windowFailures--;
+                }
+            } else {
+                windowCount++;
+            }
+            window[windowIndex] = failed;
+            if (failed) {
+                windowFailures++;
+            }
+            windowIndex = (windowIndex + 1) % window.length;
+
+            if (windowCount >= config.minimumCalls()
+                    && windowFailures * 100 >= config.failureRateThreshold() * windowCount) {
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    // OPEN turns into HALF_OPEN lazily, when the open duration has elapsed
+    private State currentState() {
+        if (state == State.OPEN
+                && System.nanoTime() - openedAtNanos >= TimeUnit.MILLISECONDS.toNanos(config.openDurationMs())) {
+            transitionTo(State.HALF_OPEN);
+        }
+        return state;
+    }
+
+    private void transitionTo(State next) {
+        State previous = state;
+        state = next;
+        generation++;
+        stateSince = Instant.now();
+        halfOpenInFlight = 0;
+        halfOpenSuccesses = 0;
+
+        if (next == State.OPEN) {
+            openedAtNanos = System.nanoTime();
+            logger.warn("Circuit {} {} -> OPEN ({} of last {} calls failed); failing fast for {}ms",
+                    name, previous, windowFailures, windowCount, config.openDurationMs());
+        } else {
+            logger.info("Circuit {} {} -> {}", name, previous, next);
+        }
+        if (next == State.CLOSED || next == State.OPEN) {
+            Arrays.fill(window, false);
+            windowCount = 0;
+            windowIndex = 0;
+            windowFailures = 0;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds one {@link CircuitBreaker} per external provider, configured from the
+ * {@code resilience.<provider>.*} properties.
+ */
+@Component
+public class CircuitBreakerRegistry {
+
+    public static final String PAGBRASIL = "pagbrasil";
+    public static final String SHOPIFY = "shopify";
+
+    private final Map<String, CircuitBreaker> breakers = new LinkedHashMap<>();
+
+    public CircuitBreakerRegistry(
+            @Value("${resilience.pagbrasil.failure-rate-threshold:50}") int pagbrasilFailureRateThreshold,
+            @Value("${resilience.pagbrasil.window-size:20}") int pagbrasilWindowSize,
+            @Value("${resilience.pagbrasil.minimum-calls:10}") int pagbrasilMinimumCalls,
+            @Value("${resilience.pagbrasil.open-duration-ms:60000}") long pagbrasilOpenDurationMs,
+            @Value("${resilience.pagbrasil.half-open-calls:2}") int pagbrasilHalfOpenCalls,
+            @Value("${resilience.pagbrasil.max-concurrent-calls:8}") int pagbrasilMaxConcurrentCalls,
+            @Value("${resilience.pagbrasil.max-wait-ms:5000}") long pagbrasilMaxWaitMs,
+            @Value("${resilience.shopify.failure-rate-threshold:50}") int shopifyFailureRateThreshold,
+            @Value("${resilience.shopify.window-size:20}") int shopifyWindowSize,
+            @Value("${resilience.shopify.minimum-calls:10}") int shopifyMinimumCalls,
+            @Value("${resilience.shopify.open-duration-ms:30000}") long shopifyOpenDurationMs,
+            @Value("${resilience.shopify.half-open-calls:2}") int shopifyHalfOpenCalls,
+            @Value("${resilience.shopify.max-concurrent-calls:4}") int shopifyMaxConcurrentCalls,
+            @Value("${resilience.shopify.max-wait-ms:5000}") long shopifyMaxWaitMs) {
+        breakers.put(PAGBRASIL, new CircuitBreaker(PAGBRASIL, new CircuitBreaker.Config(
+                pagbrasilFailureRateThreshold, pagbrasilWindowSize, pagbrasilMinimumCalls, pagbrasilOpenDurationMs,
+                pagbrasilHalfOpenCalls, pagbrasilMaxConcurrentCalls, pagbrasilMaxWaitMs)));
+        breakers.put(SHOPIFY, new CircuitBreaker(SHOPIFY, new CircuitBreaker.Config(
+                shopifyFailureRateThreshold, shopifyWindowSize, shopifyMinimumCalls, shopifyOpenDurationMs,
+                shopifyHalfOpenCalls, shopifyMaxConcurrentCalls, shopifyMaxWaitMs)));
+    }
+
+    public CircuitBreaker get(String name) {
+        CircuitBreaker breaker = breakers.get(name);
+        if (breaker == null) {
+            throw new IllegalArgumentException("Unknown circuit breaker: " + name);
+        }
+        return breaker;
+    }
+
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        breakers.forEach((name, breaker) -> snapshot.put(name, breaker.getSnapshot()));
+        return snapshot;
+    }
+}
@@ -0,0 +1,157 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.tartaritech.inventory_sync.entities.CacheVersion;
+import com.tartaritech.inventory_sync.entities.ControlledSKu;
+import com.tartaritech.inventory_sync.repositories.CacheVersionRepository;
+import com.tartaritech.inventory_sync.repositories.ControlledSkuRepository;
+
+/**
+ * In-memory copy of {@code tb_controlled_sku}, which reconciliation and the
+ * revenue job consult for every product line.
+ *
+ * The copy is an immutable snapshot tagged with the {@code tb_cache_version}
+ * row it was loaded at. Writes through {@link ControlledSkuService} bump that
+ * version and drop the local snapshot once committed; other instances compare
+ * versions at most every {@code controlled-sku.cache.version-check-interval-ms}
+ * and reload when theirs is behind.
+ */
+@Component
+public class ControlledSkuCache {
+
+    private static final String CACHE_NAME = "controlled-sku";
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+
+    private record Snapshot(long version, Map<String, String> namesBySku, long checkedAtNanos) {
+    }
+
+    private final ControlledSkuRepository controlledSkuRepository;
+    private final CacheVersionRepository cacheVersionRepository;
+    private final Logger logger = LoggerFactory.getLogger(ControlledSkuCache.class);
+
+    private volatile Snapshot snapshot;
+    // Local writes committed so far; a load that overlaps one is not trusted until re-checked
+    private final AtomicLong localInvalidations = new AtomicLong();
+
+    @Value("${controlled-sku.cache.version-check-interval-ms:30000}")
+    private long versionCheckIntervalMs;
+
+    public ControlledSkuCache(ControlledSkuRepository controlledSkuRepository,
+            CacheVersionRepository cacheVersionRepository) {
+        this.controlledSkuRepository = controlledSkuRepository;
+        this.cacheVersionRepository = cacheVersionRepository;
+    }
+
+    public boolean isControlled(String sku) {
+        return sku != null && current().namesBySku().containsKey(sku);
+    }
+
+    /**
+     * Reference to a controlled SKU for use in an association, without loading
+     * the row. Only valid inside a persistence context, for a SKU that
+     * {@link #isControlled} accepts.
+     */
+    public ControlledSKu getReference(String sku) {
+        return controlledSkuRepository.getReferenceById(sku);
+    }
+
+    /**
+     * Marks the table as changed. Called inside the writing transaction: the
+     * version bump commits with the change, and the local snapshot is dropped
+     * only after commit so it is never reloaded from uncommitted data.
+     */
+    public void invalidate() {
+        if (cacheVersionRepository.increment(CACHE_NAME, Instant.now()) == 0) {
+            cacheVersionRepository.save(new CacheVersion(CACHE_NAME, 1L, Instant.now()));
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    localInvalidations.incrementAndGet();
+                    snapshot = null;
+                }
+            });
+        } else {
+            localInvalidations.incrementAndGet();
+            snapshot = null;
+        }
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current != null && System.nanoTime() - current.checkedAtNanos() < versionCheckIntervalMs * 1_000_000) {
+            return current;
+        }
+        return refresh(current);
+    }
+
+    private synchronized Snapshot refresh(Snapshot seen) {
+        Snapshot current = snapshot;
+        if (current != null && current != seen) {
+            return current; // refreshed by another thread meanwhile
+        }
+
+        long invalidationsSeen = localInvalidations.get();
+        long version = currentVersion();
+        if (current != null && current.version() == version) {
+            current = new Snapshot(version, current.namesBySku(), System.nanoTime());
+        } else {
+            current = load(version);
+            logger.info("Controlled SKU cache loaded: {} SKUs (version {})", current.namesBySku().size(),
+                    current.version());
+        }
+        if (localInvalidations.get() != invalidationsSeen) {
+            // A local write committed while loading: check the version again on the next lookup
+            current = new Snapshot(current.version(), current.namesBySku(), expiredCheck());
+        }
+        snapshot = current;
+        return current;
+    }
+
+    /**
+     * Reads the rows between two reads of the version. Writes bump the version
+     * in the same transaction as the rows, so when both reads agree no write
+     * committed in between and the rows are exactly that version; otherwise
+     * the rows are read again. After {@code MAX_LOAD_ATTEMPTS} the snapshot is
+     * tagged with the version read before the rows, which they are at least as
+     * new as, so the next check reloads it.
+     */
+    private Snapshot load(long versionBefore) {
+        for (int attempt = 1; ; attempt++) {
+            Map<String, String> namesBySku = controlledSkuRepository.findAll().stream()
+                    .collect(Collectors.toUnmodifiableMap(ControlledSKu::getSku,
+                            s -> s.getName() != null ? s.getName() : "", (a, b) -> a));
+            long versionAfter = currentVersion();
+            if (versionAfter == versionBefore) {
+                return new Snapshot(versionBefore, namesBySku, System.nanoTime());
+            }
+            if (attempt == MAX_LOAD_ATTEMPTS) {
+                return new Snapshot(versionBefore, namesBySku, expiredCheck());
+            }
+            versionBefore = versionAfter;
+        }
+    }
+
+    // A check time old enough that the next lookup compares versions again
+    private long expiredCheck() {
+        return System.nanoTime() - versionCheckIntervalMs * 1_000_000 - 1;
+    }
+
+    private long currentVersion() {
+        Long version = cacheVersionRepository.findVersion(CACHE_NAME);
+        return version != null ? version : 0L;
+    }
+}
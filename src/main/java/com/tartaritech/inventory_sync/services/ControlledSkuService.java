@@ -12,15 +12,22 @@ import org.springframework.transaction.annotation.Transactional;
 import com.tartaritech.inventory_sync.dtos.ControlledSkuDTO;
 import com.tartaritech.inventory_sync.entities.ControlledSKu;
 import com.tartaritech.inventory_sync.repositories.ControlledSkuRepository;
+import com.tartaritech.inventory_sync.repositories.SubscriptionRepository;
 
 @Service
 public class ControlledSkuService {
 
     private final ControlledSkuRepository controlledSkuRepository;
+    private final SubscriptionRepository subscriptionRepository;
+    private final ControlledSkuCache controlledSkuCache;
     private final Logger logger = LoggerFactory.getLogger(ControlledSkuService.class);
 
-    public ControlledSkuService(ControlledSkuRepository controlledSkuRepository) {
+    public ControlledSkuService(ControlledSkuRepository controlledSkuRepository,
+                                SubscriptionRepository subscriptionRepository,
+                                ControlledSkuCache controlledSkuCache) {
         this.controlledSkuRepository = controlledSkuRepository;
+        this.subscriptionRepository = subscriptionRepository;
+        this.controlledSkuCache = controlledSkuCache;
     }
     
     @Transactional(readOnly = true)
@@ -53,6 +60,8 @@ public class ControlledSkuService {
         entity.setName(dto.getName());
         
         ControlledSKu saved = controlledSkuRepository.save(entity);
+        controlledSkuCache.invalidate();
+        invalidateSubscriptionDigests();
         logger.info("Controlled SKU created successfully: {}", saved.getSku());
         
         return new ControlledSkuDTO(saved);
@@ -77,6 +86,7 @@ public class ControlledSkuService {
         // If SKU needs to be changed, delete and create new one.
         
         ControlledSKu updated = controlledSkuRepository.save(entity);
+        controlledSkuCache.invalidate();
         logger.info("Controlled SKU updated successfully: {}", updated.getSku());
         
         return new ControlledSkuDTO(updated);
@@ -91,6 +101,18 @@ public class ControlledSkuService {
         }
         
         controlledSkuRepository.deleteById(sku);
+        controlledSkuCache.invalidate();
+        invalidateSubscriptionDigests();
         logger.info("Controlled SKU deleted successfully: {}", sku);
     }
+
+    /**
+     * The set of controlled SKUs decides what reconciliation does with an
+     * otherwise unchanged subscription, so every stored digest is dropped and
+     * the next cycle reconciles everything again.
+     */
+    private void invalidateSubscriptionDigests() {
+        int cleared = subscriptionRepository.clearContentHashes();
+        logger.info("Cleared content hash of {} subscriptions after controlled SKU change", cleared);
+    }
 }
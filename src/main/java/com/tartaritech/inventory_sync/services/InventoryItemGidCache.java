@@ -0,0 +1,174 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tartaritech.inventory_sync.repositories.ControlledSkuRepository;
+
+/**
+ * Shopify inventory item GID per controlled SKU, which every inventory
+ * adjustment needs and which almost never changes.
+ *
+ * Resolved GIDs are stored on {@code tb_controlled_sku.inventory_item_gid} and
+ * kept in memory; the stored ones are loaded at startup and the missing ones
+ * resolved in the background. A miss resolves the SKU once against Shopify,
+ * even when several threads ask for it together. A SKU with no Shopify variant
+ * is remembered as such for {@code shopify.inventory-item.not-found-ttl-minutes}.
+ * {@link #evict} drops a GID that Shopify rejected so it is resolved again.
+ */
+@Component
+public class InventoryItemGidCache {
+
+    private record NotFound(long expiresAtNanos) {
+    }
+
+    private final ControlledSkuRepository controlledSkuRepository;
+    private final ShopifyInventoryService shopifyInventoryService;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<String, String> gids = new ConcurrentHashMap<>();
+    private final Map<String, NotFound> notFound = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> resolving = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(InventoryItemGidCache.class);
+
+    @Value("${shopify.inventory-item.not-found-ttl-minutes:60}")
+    private long notFoundTtlMinutes;
+
+    @Value("${shopify.inventory-item.preload:true}")
+    private boolean preload;
+
+    public InventoryItemGidCache(ControlledSkuRepository controlledSkuRepository,
+            ShopifyInventoryService shopifyInventoryService,
+            TransactionTemplate transactionTemplate) {
+        this.controlledSkuRepository = controlledSkuRepository;
+        this.shopifyInventoryService = shopifyInventoryService;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Loads the stored GIDs, then resolves the controlled SKUs that have none
+     * on a background thread so startup does not wait on Shopify.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        if (!preload) {
+            return;
+        }
+        int missing = 0;
+        for (Object[] row : controlledSkuRepository.findInventoryItemGids()) {
+            if (row[1] != null) {
+                gids.put((String) row[0], (String) row[1]);
+            } else {
+                missing++;
+            }
+        }
+        logger.info("Inventory item GIDs carregados: {} (sem GID: {})", gids.size(), missing);
+        if (missing > 0) {
+            Thread.ofVirtual().name("inventory-item-preload").start(this::resolveMissing);
+        }
+    }
+
+    private void resolveMissing() {
+        for (Object[] row : controlledSkuRepository.findInventoryItemGids()) {
+            if (row[1] != null) {
+                continue;
+            }
+            try {
+                get((String) row[0]);
+            } catch (Exception e) {
+                logger.warn("Não foi possível resolver o inventory item do SKU {}: {}", row[0], e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Inventory item GID of a controlled SKU ({@code <shopify sku>_<suffix>}).
+     *
+     * @return null if Shopify has no variant with this SKU
+     * @throws RuntimeException if Shopify could not be queried
+     */
+    public String get(String sku) {
+        String gid = gids.get(sku);
+        if (gid != null) {
+            return gid;
+        }
+        if (isKnownNotFound(sku)) {
+            return null;
+        }
+
+        ReentrantLock lock = resolving.computeIfAbsent(sku, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            // Resolved or found missing by another thread meanwhile
+            gid = gids.get(sku);
+            if (gid != null) {
+                return gid;
+            }
+            if (isKnownNotFound(sku)) {
+                return null;
+            }
+            return resolve(sku);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the GID of a SKU, in memory and on {@code tb_controlled_sku}, so
+     * the next {@link #get} resolves it again, in this process or after a
+     * restart. Waits for a resolution of the same SKU in progress.
+     */
+    public void evict(String sku) {
+        ReentrantLock lock = resolving.computeIfAbsent(sku, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            if (gids.remove(sku) == null) {
+                return;
+            }
+            logger.info("Inventory item GID do SKU {} descartado, será resolvido novamente", sku);
+            try {
+                transactionTemplate.executeWithoutResult(tx -> controlledSkuRepository.updateInventoryItemGid(sku, null));
+            } catch (RuntimeException e) {
+                // Evicted again by the next rejection; until then a restart would load the stale GID
+                logger.warn("Erro ao limpar o inventory item GID do SKU {} no banco: {}", sku, e.getMessage());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String resolve(String sku) {
+        String shopifySku = sku.split("_")[0];
+        String gid = shopifyInventoryService.findVariantGidBySku(shopifySku);
+        if (gid == null) {
+            notFound.put(sku, new NotFound(System.nanoTime() + notFoundTtlMinutes * 60_000_000_000L));
+            return null;
+        }
+
+        transactionTemplate.executeWithoutResult(tx -> controlledSkuRepository.updateInventoryItemGid(sku, gid));
+        gids.put(sku, gid);
+        notFound.remove(sku);
+        logger.info("Inventory item GID do SKU {} resolvido: {}", sku, gid);
+        return gid;
+    }
+
+    private boolean isKnownNotFound(String sku) {
+        NotFound entry = notFound.get(sku);
+        if (entry == null) {
+            return false;
+        }
+        if (System.nanoTime() - entry.expiresAtNanos() < 0) {
+            return true;
+        }
+        notFound.remove(sku, entry);
+        return false;
+    }
+}
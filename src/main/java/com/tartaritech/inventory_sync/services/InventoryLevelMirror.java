@@ -0,0 +1,394 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tartaritech.inventory_sync.entities.InventoryLevel;
+import com.tartaritech.inventory_sync.repositories.ControlledSkuRepository;
+import com.tartaritech.inventory_sync.repositories.InventoryLevelRepository;
+import com.tartaritech.inventory_sync.services.ShopifyInventoryService.InventoryChange;
+
+/**
+ * Local mirror of Shopify's inventory levels ({@code tb_inventory_level}), so
+ * quantity reads and drift checks do not spend the rate-limited API.
+ *
+ * A snapshot runs every {@code shopify.inventory-mirror.interval-ms} as a
+ * Shopify bulk operation over all inventory items. Its JSONL result is read
+ * line by line and saved in batches, so memory does not grow with the
+ * catalog. Levels the snapshot no longer lists are removed.
+ *
+ * Between snapshots every adjustment Shopify accepts from this application is
+ * applied to the mirror as well. A level patched while a snapshot runs keeps
+ * its patched quantities; the next snapshot settles it.
+ */
+@Service
+public class InventoryLevelMirror {
+
+    // Connection arguments are not needed in a bulk query: Shopify walks every page
+    private static final String BULK_QUERY = """
+            {
+                inventoryItems {
+                    edges {
+                        node {
+                            id
+                            inventoryLevels {
+                                edges {
+                                    node {
+                                        location {
+                                            id
+                                        }
+                                        quantities(names: ["available", "committed", "on_hand", "reserved"]) {
+                                            name
+                                            quantity
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            """;
+
+    private static final String RUN_BULK_QUERY_MUTATION = """
+            mutation bulkOperationRunQuery($query: String!) {
+                bulkOperationRunQuery(query: $query) {
+                    bulkOperation {
+                        id
+                        status
+                    }
+                    userErrors {
+                        field
+                        message
+                    }
+                }
+            }
+            """;
+
+    private static final String BULK_OPERATION_QUERY = """
+            query bulkOperation($id: ID!) {
+                node(id: $id) {
+                    ... on BulkOperation {
+                        id
+                        status
+                        errorCode
+                        objectCount
+                        url
+                    }
+                }
+            }
+            """;
+
+    private final ShopifyGraphqlService shopifyGraphqlService;
+    private final InventoryLevelRepository inventoryLevelRepository;
+    private final ControlledSkuRepository controlledSkuRepository;
+    private final ReservationLedgerService reservationLedgerService;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final HttpClient httpClient;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Logger logger = LoggerFactory.getLogger(InventoryLevelMirror.class);
+
+    private volatile Map<String, Object> lastSnapshot = Map.of();
+
+    @Value("${shopify.inventory-mirror.enabled:true}")
+    private boolean enabled;
+
+    @Value("${shopify.inventory-mirror.poll-interval-ms:5000}")
+    private long pollIntervalMs;
+
+    @Value("${shopify.inventory-mirror.timeout-minutes:30}")
+    private long timeoutMinutes;
+
+    @Value("${shopify.inventory-mirror.batch-size:500}")
+    private int batchSize;
+
+    public InventoryLevelMirror(ShopifyGraphqlService shopifyGraphqlService,
+            InventoryLevelRepository inventoryLevelRepository,
+            ControlledSkuRepository controlledSkuRepository,
+            ReservationLedgerService reservationLedgerService,
+            TransactionTemplate transactionTemplate,
+            ObjectMapper objectMapper) {
+        this.shopifyGraphqlService = shopifyGraphqlService;
+        this.inventoryLevelRepository = inventoryLevelRepository;
+        this.controlledSkuRepository = controlledSkuRepository;
+        this.reservationLedgerService = reservationLedgerService;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    @Scheduled(fixedDelayString = "${shopify.inventory-mirror.interval-ms:21600000}",
+            initialDelayString = "${shopify.inventory-mirror.initial-delay-ms:120000}")
+    public void refreshSnapshot() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        Instant snapshotStart = Instant.now();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("startedAt", snapshotStart);
+        try {
+            takeSnapshot(snapshotStart, result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.put("error", "interrupted");
+        } catch (Exception e) {
+            logger.error("Erro ao atualizar o espelho de estoque do Shopify: {}", e.getMessage(), e);
+            result.put("error", e.getMessage());
+        } finally {
+            result.put("durationMs", Duration.between(snapshotStart, Instant.now()).toMillis());
+            lastSnapshot = result;
+            running.set(false);
+        }
+    }
+
+    private void takeSnapshot(Instant snapshotStart, Map<String, Object> result)
+            throws IOException, InterruptedException {
+        JsonNode run = shopifyGraphqlService
+                .executeMutation(RUN_BULK_QUERY_MUTATION, Map.of("query", BULK_QUERY))
+                .path("bulkOperationRunQuery");
+        JsonNode userErrors = run.path("userErrors");
+        if (userErrors.isArray() && !userErrors.isEmpty()) {
+            // Typically another bulk query of this app is still running
+            throw new RuntimeException("Erro ao iniciar bulk operation: " + userErrors);
+        }
+        String operationId = run.path("bulkOperation").path("id").asText();
+        logger.info("Snapshot de estoque do Shopify iniciado: {}", operationId);
+
+        JsonNode operation = waitForCompletion(operationId);
+        String url = operation.path("url").asText(null);
+        int levels = url == null || url.isBlank() ? 0 : load(url, snapshotStart);
+        Integer removed = transactionTemplate.execute(tx -> inventoryLevelRepository.deleteNotSeenSince(snapshotStart));
+
+        result.put("bulkOperation", operationId);
+        result.put("objectCount", operation.path("objectCount").asLong());
+        result.put("levels", levels);
+        result.put("removed", removed);
+        logger.info("Snapshot de estoque do Shopify concluído: {} níveis gravados, {} removidos", levels, removed);
+    }
+
+    private JsonNode waitForCompletion(String operationId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(timeoutMinutes);
+        while (System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(pollIntervalMs);
+            JsonNode operation = shopifyGraphqlService.executeQuery(BULK_OPERATION_QUERY, Map.of("id", operationId))
+                    .path("node");
+            String status = operation.path("status").asText();
+            switch (status) {
+                case "COMPLETED":
+                    return operation;
+                case "FAILED", "CANCELED", "CANCELING", "EXPIRED":
+                    throw new RuntimeException("Bulk operation " + operationId + " terminou com status " + status
+                            + " (" + operation.path("errorCode").asText() + ")");
+                default:
+                    logger.debug("Bulk operation {} {}: {} objetos", operationId, status,
+                            operation.path("objectCount").asText());
+            }
+        }
+        throw new RuntimeException("Bulk operation " + operationId + " não terminou em " + timeoutMinutes + " minutos");
+    }
+
+    /**
+     * Streams the bulk operation's JSONL result into the mirror. Each inventory
+     * item line is followed by one line per inventory level, pointing to its
+     * item through {@code __parentId}.
+     *
+     * @return number of levels read
+     */
+    private int load(String url, Instant snapshotStart) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofMinutes(5))
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new RuntimeException("HTTP error ao baixar resultado da bulk operation: " + response.statusCode());
+        }
+
+        int levels = 0;
+        List<InventoryLevel> batch = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode node = objectMapper.readTree(line);
+                if (!node.has("__parentId") || !node.has("location")) {
+                    continue;
+                }
+                batch.add(toLevel(node, snapshotStart));
+                if (batch.size() >= Math.max(batchSize, 1)) {
+                    saveSnapshotBatch(batch, snapshotStart);
+                    levels += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            saveSnapshotBatch(batch, snapshotStart);
+            levels += batch.size();
+        }
+        return levels;
+    }
+
+    private InventoryLevel toLevel(JsonNode node, Instant snapshotStart) {
+        Map<String, Integer> quantities = new HashMap<>();
+        for (JsonNode quantity : node.path("quantities")) {
+            quantities.put(quantity.path("name").asText(), quantity.path("quantity").asInt());
+        }
+        return new InventoryLevel(null, node.get("__parentId").asText(), node.path("location").path("id").asText(),
+                quantities.getOrDefault("available", 0), quantities.getOrDefault("committed", 0),
+                quantities.getOrDefault("on_hand", 0), quantities.getOrDefault("reserved", 0),
+                snapshotStart, null);
+    }
+
+    private void saveSnapshotBatch(List<InventoryLevel> levels, Instant snapshotStart) {
+        transactionTemplate.executeWithoutResult(tx -> {
+            Map<String, InventoryLevel> existing = new HashMap<>();
+            inventoryLevelRepository.findByInventoryItemIdIn(levels.stream().map(InventoryLevel::getInventoryItemId)
+                    .distinct().toList())
+                    .forEach(level -> existing.put(key(level.getInventoryItemId(), level.getLocationId()), level));
+
+            Instant now = Instant.now();
+            List<InventoryLevel> created = new ArrayList<>();
+            for (InventoryLevel level : levels) {
+                InventoryLevel row = existing.get(key(level.getInventoryItemId(), level.getLocationId()));
+                if (row == null) {
+                    level.setUpdatedAt(now);
+                    created.add(level);
+                } else if (row.getUpdatedAt().isBefore(snapshotStart)) {
+                    row.setAvailable(level.getAvailable());
+                    row.setCommitted(level.getCommitted());
+                    row.setOnHand(level.getOnHand());
+                    row.setReserved(level.getReserved());
+                    row.setFetchedAt(snapshotStart);
+                    row.setUpdatedAt(now);
+                }
+            }
+            inventoryLevelRepository.saveAll(created);
+        });
+    }
+
+    private static String key(String inventoryItemId, String locationId) {
+        return inventoryItemId + "|" + locationId;
+    }
+
+    /**
+     * Applies adjustments Shopify accepted to the mirrored levels. Levels not
+     * mirrored yet are left to the next snapshot. Never fails the caller: the
+     * adjustment itself already happened.
+     */
+    public void applyAdjustments(String name, List<InventoryChange> applied) {
+        if (applied.isEmpty()) {
+            return;
+        }
+        if (!"available".equals(name) && !"reserved".equals(name)) {
+            logger.debug("Ajustes de estoque {} não são espelhados, aguardando o próximo snapshot", name);
+            return;
+        }
+        try {
+            Instant now = Instant.now();
+            transactionTemplate.executeWithoutResult(tx -> {
+                for (InventoryChange change : applied) {
+                    if ("available".equals(name)) {
+                        inventoryLevelRepository.addAvailable(change.inventoryItemId(), change.locationId(),
+                                change.delta(), now);
+                    } else {
+                        inventoryLevelRepository.addReserved(change.inventoryItemId(), change.locationId(),
+                                change.delta(), now);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("Não foi possível atualizar o espelho de estoque {} com {} ajustes: {}", name,
+                    applied.size(), e.getMessage());
+        }
+    }
+
+    /** Mirrored level of an inventory item at the store's location, if a snapshot has seen it. */
+    public Optional<InventoryLevel> find(String inventoryItemId) {
+        String rawInventoryId = inventoryItemId.substring(inventoryItemId.lastIndexOf("/") + 1);
+        return inventoryLevelRepository.findByInventoryItemIdAndLocationId(
+                "gid://shopify/InventoryItem/" + rawInventoryId, ShopifyInventoryService.LOCATION_ID);
+    }
+
+    /**
+     * Controlled inventory items whose mirrored reserved quantity differs from
+     * what the reservation ledger expects, or that are not mirrored yet.
+     * Controlled SKUs sharing a Shopify variant are checked together.
+     */
+    public List<Map<String, Object>> getReservedDrift() {
+        Map<String, List<String>> skusByItem = new TreeMap<>();
+        for (Object[] row : controlledSkuRepository.findInventoryItemGids()) {
+            if (row[1] != null) {
+                skusByItem.computeIfAbsent((String) row[1], gid -> new ArrayList<>()).add((String) row[0]);
+            }
+        }
+        Map<String, Long> expected = reservationLedgerService.getExpectedReservations();
+        Map<String, InventoryLevel> levels = new HashMap<>();
+        inventoryLevelRepository.findByLocationId(ShopifyInventoryService.LOCATION_ID)
+                .forEach(level -> levels.put(level.getInventoryItemId(), level));
+
+        List<Map<String, Object>> drift = new ArrayList<>();
+        skusByItem.forEach((item, skus) -> {
+            long expectedReserved = skus.stream().mapToLong(sku -> expected.getOrDefault(sku, 0L)).sum();
+            InventoryLevel level = levels.get(item);
+            if (level != null && level.getReserved() == expectedReserved) {
+                return;
+            }
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("inventoryItemId", item);
+            entry.put("skus", skus);
+            entry.put("expectedReserved", expectedReserved);
+            entry.put("mirroredReserved", level != null ? level.getReserved() : null);
+            entry.put("drift", level != null ? level.getReserved() - expectedReserved : null);
+            entry.put("fetchedAt", level != null ? level.getFetchedAt() : null);
+            entry.put("updatedAt", level != null ? level.getUpdatedAt() : null);
+            drift.add(entry);
+        });
+        return drift;
+    }
+
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("running", running.get());
+        snapshot.put("levels", inventoryLevelRepository.count());
+        snapshot.put("lastSnapshot", lastSnapshot);
+        return snapshot;
+    }
+}
@@ -0,0 +1,216 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.tartaritech.inventory_sync.entities.RateLimitState;
+import com.tartaritech.inventory_sync.repositories.RateLimitStateRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Shared token bucket that paces every request sent to the PagBrasil API.
+ *
+ * The refill rate adapts to what the API actually tolerates: it grows slowly
+ * after a run of successful calls and is cut (and the whole bucket paused)
+ * when PagBrasil answers 429, at most once per burst of 429s. The learned rate is persisted so a restart
+ * does not have to rediscover it.
+ */
+@Component
+public class PagBrasilRateLimiter {
+
+    private static final String STATE_NAME = "pagbrasil";
+
+    private final RateLimitStateRepository rateLimitStateRepository;
+    private final Logger logger = LoggerFactory.getLogger(PagBrasilRateLimiter.class);
+
+    @Value("${pagbrasil.request.delay:2000}")
+    private int requestDelayMs;
+
+    @Value("${pagbrasil.ratelimit.min-rate:0.1}")
+    private double minRate;
+
+    @Value("${pagbrasil.ratelimit.max-rate:5.0}")
+    private double maxRate;
+
+    @Value("${pagbrasil.ratelimit.burst:3}")
+    private int burst;
+
+    @Value("${pagbrasil.ratelimit.increase-step:0.05}")
+    private double increaseStep;
+
+    @Value("${pagbrasil.ratelimit.decrease-factor:0.5}")
+    private double decreaseFactor;
+
+    @Value("${pagbrasil.ratelimit.successes-before-increase:20}")
+    private int successesBeforeIncrease;
+
+    // Guarded by "this"
+    private double ratePerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+    private long lastDecreaseNanos;
+    private int consecutiveSuccesses;
+    private boolean dirty;
+
+    public PagBrasilRateLimiter(RateLimitStateRepository rateLimitStateRepository) {
+        this.rateLimitStateRepository = rateLimitStateRepository;
+    }
+
+    @PostConstruct
+    void init() {
+        double initialRate = 1000.0 / Math.max(requestDelayMs, 1);
+        try {
+            initialRate = rateLimitStateRepository.findById(STATE_NAME)
+                    .map(RateLimitState::getRatePerSecond)
+                    .orElse(initialRate);
+        } catch (Exception e) {
+            logger.warn("Could not load persisted PagBrasil rate, starting from {} req/s: {}", initialRate,
+                    e.getMessage());
+        }
+
+        synchronized (this) {
+            ratePerSecond = clamp(initialRate);
+            tokens = 1;
+            lastRefillNanos = System.nanoTime();
+            pausedUntilNanos = lastRefillNanos;
+            // As if the last cut were long past
+            lastDecreaseNanos = lastRefillNanos - TimeUnit.DAYS.toNanos(1);
+        }
+        logger.info("PagBrasil rate limiter started at {} req/s", String.format("%.3f", ratePerSecond));
+    }
+
+    /**
+     * Blocks until a request may be sent to PagBrasil.
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                refill(now);
+                if (now >= pausedUntilNanos && tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                long untilToken = (long) ((1 - tokens) / ratePerSecond * 1_000_000_000L);
+                waitNanos = Math.max(pausedUntilNanos - now, untilToken);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1_000_000L));
+        }
+    }
+
+    /**
+     * Records a successful (2xx) response. After enough consecutive successes
+     * the rate is nudged up (additive increase).
+     */
+    public synchronized void onSuccess() {
+        consecutiveSuccesses++;
+        if (consecutiveSuccesses >= successesBeforeIncrease && ratePerSecond < maxRate) {
+            consecutiveSuccesses = 0;
+            setRate(ratePerSecond + increaseStep);
+            logger.debug("PagBrasil rate increased to {} req/s", String.format("%.3f", ratePerSecond));
+        }
+    }
+
+    /**
+     * Records a 429 response. The rate is cut (multiplicative decrease) and no
+     * caller may send anything until the Retry-After / backoff wait has passed.
+     *
+     * The concurrent requests in flight when the rate was cut are answered 429
+     * too: a 429 that arrives while the bucket is paused, or within one refill
+     * interval of the last cut, only extends the pause.
+     *
+     * @param waitMs wait requested by the server (Retry-After) or computed backoff
+     */
+    public synchronized void onThrottled(long waitMs) {
+        consecutiveSuccesses = 0;
+        long now = System.nanoTime();
+        refill(now);
+
+        double previous = ratePerSecond;
+        long refillIntervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        boolean sameBurst = now < pausedUntilNanos || now - lastDecreaseNanos < refillIntervalNanos;
+        if (!sameBurst) {
+            setRate(ratePerSecond * decreaseFactor);
+            lastDecreaseNanos = now;
+        }
+
+        tokens = 0;
+        pausedUntilNanos = Math.max(pausedUntilNanos, now + TimeUnit.MILLISECONDS.toNanos(Math.max(waitMs, 0)));
+
+        if (sameBurst) {
+            logger.debug("PagBrasil throttled again within the same burst, rate kept at {} req/s, pausing for {}ms",
+                    String.format("%.3f", ratePerSecond), waitMs);
+        } else {
+            logger.warn("PagBrasil throttled: rate {} -> {} req/s, pausing all requests for {}ms",
+                    String.format("%.3f", previous), String.format("%.3f", ratePerSecond), waitMs);
+        }
+    }
+
+    public synchronized double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * Persists the learned rate periodically so it survives restarts.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void persistRate() {
+        double rate;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            rate = ratePerSecond;
+        }
+
+        try {
+            RateLimitState state = rateLimitStateRepository.findById(STATE_NAME).orElseGet(RateLimitState::new);
+            state.setName(STATE_NAME);
+            state.setRatePerSecond(rate);
+            rateLimitStateRepository.save(state);
+            logger.debug("Persisted PagBrasil rate {} req/s", String.format("%.3f", rate));
+        } catch (Exception e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            logger.warn("Could not persist PagBrasil rate: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        persistRate();
+    }
+
+    private void refill(long now) {
+        // Tokens do not accumulate while the bucket is paused after a 429
+        long from = Math.max(lastRefillNanos, pausedUntilNanos);
+        if (now > from) {
+            double elapsedSeconds = (now - from) / 1_000_000_000.0;
+            tokens = Math.min(burst, tokens + elapsedSeconds * ratePerSecond);
+        }
+        lastRefillNanos = Math.max(lastRefillNanos, now);
+    }
+
+    private void setRate(double newRate) {
+        double clamped = clamp(newRate);
+        if (clamped != ratePerSecond) {
+            ratePerSecond = clamped;
+            dirty = true;
+        }
+    }
+
+    private double clamp(double rate) {
+        return Math.max(minRate, Math.min(maxRate, rate));
+    }
+}
@@ -1,11 +1,26 @@
 package com.tartaritech.inventory_sync.services;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
@@ -13,10 +28,12 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tartaritech.inventory_sync.dtos.SubscriptionFullDTO;
 import com.tartaritech.inventory_sync.dtos.SubscriptionShortDTO;
 import com.tartaritech.inventory_sync.dtos.SubscriptionsDTO;
+import com.tartaritech.inventory_sync.services.exceptions.CircuitOpenException;
+import com.tartaritech.inventory_sync.services.exceptions.ExternalServiceException;
+import com.tartaritech.inventory_sync.utils.PagBrasilJsonDecoder;
 
 @Service
 public class PagBrasilService {
@@ -35,8 +52,20 @@ public class PagBrasilService {
     @Value("${pagbrasil.token}")
     private String pbtoken;
 
+    @Value("${pagbrasil.fetch.concurrency:4}")
+    private int fetchConcurrency;
+
+    @Value("${pagbrasil.pipeline.queue-capacity:100}")
+    private int pipelineQueueCapacity;
+
+    // End-of-stream markers for the detail pipeline (compared by identity)
+    private static final SubscriptionShortDTO END_OF_IDS = new SubscriptionShortDTO();
+    private static final SubscriptionFullDTO END_OF_RESULTS = new SubscriptionFullDTO();
+
     private final HttpClient httpClient;
-    private final ObjectMapper objectMapper;
+    private final PagBrasilJsonDecoder jsonDecoder;
+    private final PagBrasilRateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
     private final Logger logger = LoggerFactory.getLogger(PagBrasilService.class);
 
     public void acquireApiLock() {
@@ -63,24 +92,64 @@ public class PagBrasilService {
         return apiLock.tryLock(timeoutSeconds, TimeUnit.SECONDS);
     }
 
-    public PagBrasilService(ObjectMapper objectMapper) {
-        this.objectMapper = objectMapper;
+    public PagBrasilService(PagBrasilJsonDecoder jsonDecoder, PagBrasilRateLimiter rateLimiter,
+            CircuitBreakerRegistry circuitBreakerRegistry) {
+        this.jsonDecoder = jsonDecoder;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreakerRegistry.get(CircuitBreakerRegistry.PAGBRASIL);
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
     }
 
-    public SubscriptionsDTO fetchSubscriptionsByStatus(String status) {
-        logger.info("Iniciando busca de subscriptions com status {} da PagBrasil", status);
+    /**
+     * Pages through the listing for a status, handing each page to {@code onPage}
+     * as soon as it arrives instead of accumulating the whole listing.
+     *
+     * @return total number of subscriptions listed
+     */
+    public int streamSubscriptionsByStatus(String status, Consumer<List<SubscriptionShortDTO>> onPage) {
+        return streamSubscriptionsByStatus(status, 1, onPage);
+    }
+
+    /**
+     * Same as {@link #streamSubscriptionsByStatus(String, Consumer)}, starting at
+     * {@code firstPage} (used to resume an interrupted listing).
+     */
+    public int streamSubscriptionsByStatus(String status, int firstPage, Consumer<List<SubscriptionShortDTO>> onPage) {
+        return scanSubscriptionsByStatus(status, firstPage, page -> {
+            onPage.accept(page);
+            return true;
+        });
+    }
 
-        SubscriptionsDTO subscriptions = new SubscriptionsDTO();
-        int page = 1;
+    /**
+     * Same as {@link #streamSubscriptionsByStatus(String, int, Consumer)}, but
+     * stops paginating as soon as {@code onPage} returns false.
+     *
+     * An interrupt stops the listing with the interrupt flag set. Any other
+     * failure, of a page fetch or of {@code onPage}, is rethrown: the listing is
+     * incomplete, not finished.
+     *
+     * @throws CircuitOpenException if the PagBrasil circuit is open
+     * @throws ExternalServiceException if a page still failed after its retries
+     */
+    public int scanSubscriptionsByStatus(String status, int firstPage, Predicate<List<SubscriptionShortDTO>> onPage) {
+        logger.info("Iniciando busca de subscriptions com status {} da PagBrasil a partir da página {}", status,
+                firstPage);
+
+        int total = 0;
+        int page = Math.max(firstPage, 1);
 
         try {
-            while (true) {
+            while (!Thread.currentThread().isInterrupted()) {
                 logger.debug("Buscando página {} de subscriptions", page);
 
                 SubscriptionsDTO partial = fetchSubscriptionsByStatusWithRetry(status, page);
+                if (Thread.currentThread().isInterrupted()) {
+                    logger.warn("Busca de subscriptions com status {} interrompida na página {}", status, page);
+                    return total;
+                }
 
                 // Verifica se a resposta é nula ou se não há subscriptions (fim da paginação)
                 if (partial == null || partial.getSubscriptions() == null || partial.getSubscriptions().isEmpty()) {
@@ -88,33 +157,32 @@ public class PagBrasilService {
                     break;
                 }
 
-                // Adiciona todas as subscriptions da página atual ao resultado final
                 int count = partial.getSubscriptions().size();
-                subscriptions.getSubscriptions().addAll(partial.getSubscriptions());
-                logger.debug("Adicionadas {} subscriptions da página {}", count, page);
-                page++;
-
-                // Delay between pages to respect rate limits (with jitter: 50-100% of 2s)
-                try {
-                    Thread.sleep((long) (2000 * (0.5 + Math.random() * 0.5)));
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+                total += count;
+                boolean more = onPage.test(partial.getSubscriptions());
+                logger.debug("Processadas {} subscriptions da página {}", count, page);
+                if (!more) {
+                    logger.info("Paginação encerrada na página {} a pedido do chamador", page);
                     break;
                 }
+                page++;
             }
 
-            logger.info("Busca finalizada. Total de {} subscriptions encontradas",
-                    subscriptions.getSubscriptions().size());
+            logger.info("Busca finalizada. Total de {} subscriptions encontradas com status {}", total, status);
 
-        } catch (Exception e) {
-            logger.error("Erro ao buscar dados da PagBrasil na página {}: {}", page, e.getMessage());
-            logger.warn("Retornando {} subscriptions já coletadas antes do erro",
-                    subscriptions.getSubscriptions().size());
+        } catch (RuntimeException e) {
+            logger.warn("Busca de subscriptions com status {} abortada na página {} ({} já processadas): {}",
+                    status, page, total, e.getMessage());
+            throw e;
         }
 
-        return subscriptions;
+        return total;
     }
 
+    /**
+     * @return the page, or null if the thread was interrupted (the flag is then set)
+     * @throws ExternalServiceException if the page still failed after the retries
+     */
     private SubscriptionsDTO fetchSubscriptionsByStatusWithRetry(String status, int page) {
         int maxRetries = 5;
         long initialBackoffMs = 5000;  // 5 seconds
@@ -132,31 +200,34 @@ public class PagBrasilService {
                         .timeout(Duration.ofSeconds(30))
                         .build();
 
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                HttpResponse<InputStream> response = send(request);
 
-                if (response.statusCode() == 429) {
-                    long waitMs = getWaitTimeFrom429(response, initialBackoffMs, attempt, maxBackoffMs);
-                    if (waitMs < 0) {
-                        logger.warn("429 for status {} page {} with Retry-After exceeding max. Aborting retries.",
-                                status, page);
-                        return null;
+                try (InputStream body = response.body()) {
+                    if (response.statusCode() == 429) {
+                        long waitMs = getWaitTimeFrom429(response, initialBackoffMs, attempt, maxBackoffMs);
+                        if (waitMs < 0) {
+                            rateLimiter.onThrottled(maxBackoffMs);
+                            throw new ExternalServiceException("PagBrasil listing of status " + status + " page "
+                                    + page + ": 429 with Retry-After exceeding " + maxBackoffMs + "ms");
+                        }
+                        logger.warn("429 for status {} page {}. Attempt {}/{}. Waiting {}ms...",
+                                status, page, attempt + 1, maxRetries, waitMs);
+                        rateLimiter.onThrottled(waitMs);
+                        continue;
                     }
-                    logger.warn("429 for status {} page {}. Attempt {}/{}. Waiting {}ms...",
-                            status, page, attempt + 1, maxRetries, waitMs);
-                    Thread.sleep(waitMs);
-                    continue;
-                }
 
-                if (response.statusCode() >= 200 && response.statusCode() < 300) {
-                    return objectMapper.readValue(response.body(), SubscriptionsDTO.class);
-                } else {
-                    logger.warn("Unexpected status code {} for status {} page {}. Attempt {}/{}",
-                            response.statusCode(), status, page, attempt + 1, maxRetries);
-                    if (attempt < maxRetries - 1) {
-                        Thread.sleep(initialBackoffMs * (attempt + 1));
+                    if (response.statusCode() >= 200 && response.statusCode() < 300) {
+                        rateLimiter.onSuccess();
+                        return new SubscriptionsDTO(jsonDecoder.decodeSubscriptionList(body));
                     }
                 }
 
+                logger.warn("Unexpected status code {} for status {} page {}. Attempt {}/{}",
+                        response.statusCode(), status, page, attempt + 1, maxRetries);
+                if (attempt < maxRetries - 1) {
+                    Thread.sleep(initialBackoffMs * (attempt + 1));
+                }
+
             } catch (java.net.http.HttpTimeoutException e) {
                 logger.warn("Timeout for status {} page {}. Attempt {}/{}",
                         status, page, attempt + 1, maxRetries);
@@ -172,6 +243,10 @@ public class PagBrasilService {
                 logger.warn("Interrupted while waiting for retry");
                 Thread.currentThread().interrupt();
                 break;
+            } catch (CircuitOpenException | ExternalServiceException e) {
+                // Open circuit or a 429 asking to wait too long: not the end of the listing,
+                // let the caller abort instead of retrying
+                throw e;
             } catch (Exception e) {
                 logger.warn("Error for status {} page {}. Attempt {}/{}: {}",
                         status, page, attempt + 1, maxRetries, e.getMessage());
@@ -186,17 +261,48 @@ public class PagBrasilService {
             }
         }
 
-        logger.error("Failed to fetch status {} page {} after {} attempts", status, page, maxRetries);
-        return null;
+        if (Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+        throw new ExternalServiceException("PagBrasil listing of status " + status + " page " + page
+                + " failed after " + maxRetries + " attempts");
+    }
+
+    /**
+     * Sends a request through the rate limiter and the PagBrasil circuit breaker.
+     * 5xx responses and I/O errors count as failures; a 429 means the API is up.
+     * The rate limiter goes first so that waiting for a token does not hold a
+     * bulkhead slot.
+     *
+     * @throws CircuitOpenException if the circuit is open or the bulkhead is full
+     */
+    private HttpResponse<InputStream> send(HttpRequest request) throws IOException, InterruptedException {
+        rateLimiter.acquire();
+        return circuitBreaker.execute(() -> httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream()),
+                response -> response.statusCode() >= 500);
     }
 
     public SubscriptionFullDTO fetchSubscriptionById(SubscriptionShortDTO subscriptionShort) {
+        return fetchSubscriptionById(subscriptionShort, null);
+    }
+
+    /**
+     * Fetches one subscription. When {@code retainedRecurrences} is not null the
+     * response is decoded in "last two recurrences" mode (see
+     * {@link PagBrasilJsonDecoder#decodeSubscriptionLastTwo}); otherwise the
+     * whole history is decoded.
+     *
+     * @return the subscription, or null if it could not be fetched after the
+     *         retries or the thread was interrupted (the interrupt flag is then set)
+     * @throws CircuitOpenException if the PagBrasil circuit is open
+     */
+    public SubscriptionFullDTO fetchSubscriptionById(SubscriptionShortDTO subscriptionShort,
+            Set<Integer> retainedRecurrences) {
         logger.info("Buscando detalhes da subscription: {}", subscriptionShort.getSubscription());
 
         int maxRetries = 5;
         long initialBackoffMs = 5000;  // 5 seconds
         long maxBackoffMs = 120000;    // 2 minutes
-        boolean encountered429 = false;
 
         for (int attempt = 0; attempt < maxRetries; attempt++) {
             try {
@@ -210,41 +316,42 @@ public class PagBrasilService {
                         .timeout(Duration.ofSeconds(30))
                         .build();
 
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-                if (response.statusCode() == 429) {
-                    encountered429 = true;
-                    long waitMs = getWaitTimeFrom429(response, initialBackoffMs, attempt, maxBackoffMs);
-                    if (waitMs < 0) {
-                        logger.warn("429 for subscription {} with Retry-After exceeding max. Aborting retries.",
-                                subscriptionShort.getSubscription());
-                        return null;
-                    }
-                    logger.warn("429 for subscription {}. Attempt {}/{}. Waiting {}ms...",
-                            subscriptionShort.getSubscription(), attempt + 1, maxRetries, waitMs);
-                    Thread.sleep(waitMs);
-                    continue;
-                }
+                HttpResponse<InputStream> response = send(request);
 
-                if (response.statusCode() >= 200 && response.statusCode() < 300) {
-                    SubscriptionFullDTO dto = objectMapper.readValue(response.body(), SubscriptionFullDTO.class);
-                    if (dto != null) {
-                        logger.info("Subscription encontrada: id:{}", dto.getSubscription());
-                        if (encountered429) {
-                            logger.debug("Adding extra delay after 429 recovery for subscription {}",
+                try (InputStream body = response.body()) {
+                    if (response.statusCode() == 429) {
+                        long waitMs = getWaitTimeFrom429(response, initialBackoffMs, attempt, maxBackoffMs);
+                        if (waitMs < 0) {
+                            logger.warn("429 for subscription {} with Retry-After exceeding max. Aborting retries.",
                                     subscriptionShort.getSubscription());
-                            Thread.sleep(5000);
+                            rateLimiter.onThrottled(maxBackoffMs);
+                            return null;
                         }
-                        return dto;
+                        logger.warn("429 for subscription {}. Attempt {}/{}. Waiting {}ms...",
+                                subscriptionShort.getSubscription(), attempt + 1, maxRetries, waitMs);
+                        rateLimiter.onThrottled(waitMs);
+                        continue;
                     }
-                } else {
-                    logger.warn("Unexpected status code {} for subscription {}. Attempt {}/{}",
-                            response.statusCode(), subscriptionShort.getSubscription(), attempt + 1, maxRetries);
-                    if (attempt < maxRetries - 1) {
-                        Thread.sleep(initialBackoffMs * (attempt + 1));
+
+                    if (response.statusCode() >= 200 && response.statusCode() < 300) {
+                        rateLimiter.onSuccess();
+                        SubscriptionFullDTO dto = retainedRecurrences == null
+                                ? jsonDecoder.decodeSubscription(body)
+                                : jsonDecoder.decodeSubscriptionLastTwo(body, retainedRecurrences);
+                        if (dto != null) {
+                            logger.info("Subscription encontrada: id:{}", dto.getSubscription());
+                            return dto;
+                        }
+                        continue;
                     }
                 }
 
+                logger.warn("Unexpected status code {} for subscription {}. Attempt {}/{}",
+                        response.statusCode(), subscriptionShort.getSubscription(), attempt + 1, maxRetries);
+                if (attempt < maxRetries - 1) {
+                    Thread.sleep(initialBackoffMs * (attempt + 1));
+                }
+
             } catch (java.net.http.HttpTimeoutException e) {
                 logger.warn("Timeout for subscription {}. Attempt {}/{}",
                         subscriptionShort.getSubscription(), attempt + 1, maxRetries);
@@ -260,6 +367,9 @@ public class PagBrasilService {
                 logger.warn("Interrupted while waiting for retry");
                 Thread.currentThread().interrupt();
                 break;
+            } catch (CircuitOpenException e) {
+                // Every other subscription would fail the same way: let the caller abort
+                throw e;
             } catch (Exception e) {
                 logger.warn("Error for subscription {}. Attempt {}/{}: {}",
                         subscriptionShort.getSubscription(), attempt + 1, maxRetries, e.getMessage());
@@ -274,25 +384,226 @@ public class PagBrasilService {
             }
         }
 
-        if (encountered429) {
-            logger.warn("Failed to fetch subscription {} after 429 errors. Waiting 10s before continuing...",
-                    subscriptionShort.getSubscription());
+        logger.warn("Subscription not found or error fetching: {}", subscriptionShort.getSubscription());
+        return null;
+    }
+
+    /**
+     * Streams the subscriptions listed under the given statuses whose IDs
+     * {@code filter} accepts through a bounded pipeline: a listing producer
+     * pages through PagBrasil, detail fetchers pick up IDs as soon as their
+     * page arrives, and each full subscription is handed to {@code onResult}
+     * on the calling thread as soon as it is fetched.
+     *
+     * Both hand-off queues are bounded ({@code pagbrasil.pipeline.queue-capacity}),
+     * so a slow consumer back-pressures the fetchers and the listing, and memory
+     * does not grow with the total number of subscriptions.
+     *
+     * @return number of subscriptions successfully fetched
+     * @throws CircuitOpenException if the PagBrasil circuit opened; the rest of the listing was not fetched
+     * @throws ExternalServiceException if a listing page still failed after its retries
+     */
+    public int streamSubscriptionDetails(List<String> statuses, Predicate<String> filter,
+            Consumer<SubscriptionFullDTO> onResult) {
+        logger.info("Streaming subscription details for statuses {}", statuses);
+        return runDetailPipeline(queue -> {
+            for (String status : statuses) {
+                emitListedIds(status, filter, queue);
+            }
+        }, null, onResult);
+    }
+
+    /**
+     * Runs the detail pipeline over the IDs emitted by {@code source}, decoding
+     * each subscription in "last two recurrences" mode: only the two highest
+     * recurrences, plus the ones {@code retainedRecurrences} returns for that
+     * subscription ID, are decoded. Meant for controlled-SKU reconciliation,
+     * which never looks further back in the history.
+     *
+     * @return number of subscriptions successfully fetched
+     * @throws CircuitOpenException if the PagBrasil circuit opened; the remaining IDs were not fetched
+     * @throws RuntimeException thrown by {@code source}, e.g. an {@link ExternalServiceException}
+     *         from a listing page that still failed after its retries
+     */
+    public int fetchSubscriptionLastRecurrences(SubscriptionIdSource source,
+            Function<String, Set<Integer>> retainedRecurrences, Consumer<SubscriptionFullDTO> onResult) {
+        return runDetailPipeline(source, Objects.requireNonNull(retainedRecurrences), onResult);
+    }
+
+    /**
+     * Pages through the listing of {@code status} and puts every ID accepted by
+     * {@code filter} on the queue, blocking while it is full. Meant to be called
+     * from a {@link SubscriptionIdSource}.
+     */
+    public void emitListedIds(String status, Predicate<String> filter, BlockingQueue<SubscriptionShortDTO> queue)
+            throws InterruptedException {
+        emitListedIds(status, filter, ids -> {
+        }, queue);
+    }
+
+    /**
+     * Same as {@link #emitListedIds(String, Predicate, BlockingQueue)}, handing
+     * the accepted IDs of each page to {@code beforeQueued} before any of them
+     * is put on the queue.
+     */
+    public void emitListedIds(String status, Predicate<String> filter, Consumer<List<String>> beforeQueued,
+            BlockingQueue<SubscriptionShortDTO> queue) throws InterruptedException {
+        streamSubscriptionsByStatus(status, page -> {
+            List<SubscriptionShortDTO> accepted = new ArrayList<>();
+            for (SubscriptionShortDTO shortDto : page) {
+                if (shortDto != null && shortDto.getSubscription() != null
+                        && filter.test(shortDto.getSubscription())) {
+                    accepted.add(shortDto);
+                }
+            }
+            if (accepted.isEmpty()) {
+                return;
+            }
+            beforeQueued.accept(accepted.stream().map(SubscriptionShortDTO::getSubscription).toList());
             try {
-                Thread.sleep(10000);
+                for (SubscriptionShortDTO shortDto : accepted) {
+                    queue.put(shortDto);
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
+        });
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Listing interrupted at status " + status);
         }
+    }
 
-        logger.warn("Subscription not found or error fetching: {}", subscriptionShort.getSubscription());
-        return null;
+    /**
+     * Feeds subscription IDs into a detail pipeline; runs on its own virtual thread.
+     */
+    @FunctionalInterface
+    public interface SubscriptionIdSource {
+        void emitTo(BlockingQueue<SubscriptionShortDTO> queue) throws InterruptedException;
+    }
+
+    /**
+     * Fetches the details of the IDs emitted by {@code source} on virtual
+     * threads. At most {@code pagbrasil.fetch.concurrency} requests are in
+     * flight; the shared rate limiter decides when each of them may actually be
+     * sent. Results are handed to {@code onResult} on the calling thread in
+     * completion order. Failed fetches are logged and skipped.
+     *
+     * A failed listing, or an open circuit in a detail fetch, stops every
+     * stage: results already fetched are still handed to {@code onResult}, then
+     * the exception is rethrown on the calling thread.
+     */
+    private int runDetailPipeline(SubscriptionIdSource source, Function<String, Set<Integer>> retainedRecurrences,
+            Consumer<SubscriptionFullDTO> onResult) {
+        int fetchers = Math.max(fetchConcurrency, 1);
+        int capacity = Math.max(pipelineQueueCapacity, fetchers);
+
+        BlockingQueue<SubscriptionShortDTO> idQueue = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<SubscriptionFullDTO> resultQueue = new ArrayBlockingQueue<>(capacity);
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<RuntimeException> aborted = new AtomicReference<>();
+        int fetched = 0;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            // Stage 1: listing / ID producer
+            executor.submit(() -> {
+                try {
+                    source.emitTo(idQueue);
+                } catch (InterruptedException e) {
+                    logger.warn("Subscription ID producer interrupted");
+                } catch (RuntimeException e) {
+                    logger.error("Subscription ID producer failed: {}", e.getMessage());
+                    aborted.compareAndSet(null, e);
+                } finally {
+                    for (int i = 0; i < fetchers; i++) {
+                        putEndMarker(idQueue, END_OF_IDS);
+                    }
+                }
+            });
+
+            // Stage 2: detail fetchers
+            for (int i = 0; i < fetchers; i++) {
+                executor.submit(() -> {
+                    try {
+                        while (aborted.get() == null) {
+                            SubscriptionShortDTO shortDto = idQueue.take();
+                            if (shortDto == END_OF_IDS) {
+                                break;
+                            }
+                            SubscriptionFullDTO dto = fetchSubscriptionById(shortDto, retainedRecurrences == null
+                                    ? null : retainedRecurrences.apply(shortDto.getSubscription()));
+                            if (dto != null) {
+                                resultQueue.put(dto);
+                            } else {
+                                failed.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        logger.debug("Subscription detail fetcher interrupted");
+                    } catch (CircuitOpenException e) {
+                        aborted.compareAndSet(null, e);
+                    } finally {
+                        putEndMarker(resultQueue, END_OF_RESULTS);
+                    }
+                });
+            }
+
+            // Stage 3: consumer, on the calling thread
+            try {
+                int finishedFetchers = 0;
+                while (finishedFetchers < fetchers) {
+                    SubscriptionFullDTO dto = resultQueue.take();
+                    if (dto == END_OF_RESULTS) {
+                        finishedFetchers++;
+                        continue;
+                    }
+                    fetched++;
+                    try {
+                        onResult.accept(dto);
+                    } catch (Exception e) {
+                        logger.error("Error handling fetched subscription {}: {}", dto.getSubscription(),
+                                e.getMessage(), e);
+                    }
+                }
+                if (aborted.get() != null) {
+                    // The producer may be blocked on a full ID queue nobody drains any more
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted while consuming subscription details");
+                executor.shutdownNow();
+                idQueue.clear();
+                resultQueue.clear();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (aborted.get() != null) {
+            logger.warn("Subscription pipeline aborted after {} fetched, {} failed: {}", fetched, failed.get(),
+                    aborted.get().getMessage());
+            throw aborted.get();
+        }
+        logger.info("Subscription pipeline finished: {} fetched, {} failed", fetched, failed.get());
+        return fetched;
+    }
+
+    private static <T> void putEndMarker(BlockingQueue<T> queue, T marker) {
+        try {
+            queue.put(marker);
+        } catch (InterruptedException e) {
+            // Pipeline is being torn down: make room so downstream stages still see the marker
+            while (!queue.offer(marker)) {
+                queue.poll();
+            }
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
      * Extracts wait time from a 429 response.
      * Checks the Retry-After header first; falls back to exponential backoff.
+     * The result is handed to the rate limiter, which pauses every caller.
      */
-    private long getWaitTimeFrom429(HttpResponse<String> response, long initialBackoffMs, int attempt,
+    private long getWaitTimeFrom429(HttpResponse<?> response, long initialBackoffMs, int attempt,
             long maxBackoffMs) {
         var retryAfter = response.headers().firstValue("Retry-After");
         if (retryAfter.isPresent()) {
@@ -0,0 +1,123 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tartaritech.inventory_sync.entities.WebhookInbox;
+import com.tartaritech.inventory_sync.enums.JobStatus;
+import com.tartaritech.inventory_sync.repositories.WebhookInboxRepository;
+import com.tartaritech.inventory_sync.services.exceptions.WebhookVerificationException;
+import com.tartaritech.inventory_sync.utils.HmacMd5Generator;
+
+/**
+ * Receives PagBrasil subscription notifications: verifies them and stores
+ * them in the durable inbox. Applying them is left to {@link WebhookInboxWorker}
+ * so the HTTP call returns as soon as the payload is safely persisted.
+ *
+ * A notification is only a trigger. The worker fetches the subscription from
+ * the PagBrasil API before reconciling it, so nothing in the pushed payload
+ * besides the subscription ID is trusted.
+ */
+@Service
+public class PagBrasilWebhookService {
+
+    private final WebhookInboxRepository webhookInboxRepository;
+    private final ObjectMapper objectMapper;
+    private final Logger logger = LoggerFactory.getLogger(PagBrasilWebhookService.class);
+
+    @Value("${pagbrasil.secret}")
+    private String secret;
+
+    @Value("${pagbrasil.hmac.key:}")
+    private String hmacKey;
+
+    public PagBrasilWebhookService(WebhookInboxRepository webhookInboxRepository, ObjectMapper objectMapper) {
+        this.webhookInboxRepository = webhookInboxRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Verifies and stores a notification.
+     *
+     * @return true if it was stored, false if the same payload was already in the inbox
+     * @throws IllegalArgumentException if the body is not a subscription notification
+     * @throws WebhookVerificationException if the secret or signature does not match
+     */
+    public boolean receive(String body) {
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(body);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Payload inválido: " + e.getMessage());
+        }
+        if (root == null || !root.isObject()) {
+            throw new IllegalArgumentException("Payload inválido: objeto JSON esperado");
+        }
+
+        String subscriptionId = root.path("subscription").asText(null);
+        if (subscriptionId == null || subscriptionId.isBlank()) {
+            throw new IllegalArgumentException("Payload sem subscription");
+        }
+
+        verify(subscriptionId, root.path("secret").asText(null), root.path("signature").asText(null));
+
+        String payloadHash = sha256(body);
+        if (webhookInboxRepository.existsBySubscriptionIdAndPayloadHash(subscriptionId, payloadHash)) {
+            logger.info("Notificação duplicada para subscription {} ignorada", subscriptionId);
+            return false;
+        }
+
+        WebhookInbox entry = new WebhookInbox();
+        entry.setSubscriptionId(subscriptionId);
+        entry.setPayloadHash(payloadHash);
+        entry.setPayload(body);
+        entry.setStatus(JobStatus.PENDING);
+        try {
+            webhookInboxRepository.saveAndFlush(entry);
+        } catch (DataIntegrityViolationException e) {
+            // Concurrent delivery of the same payload won the race on the unique key
+            logger.info("Notificação duplicada para subscription {} ignorada", subscriptionId);
+            return false;
+        }
+
+        logger.info("Notificação da subscription {} recebida (inbox id {})", subscriptionId, entry.getId());
+        return true;
+    }
+
+    private void verify(String subscriptionId, String receivedSecret, String signature) {
+        if (receivedSecret == null || !constantTimeEquals(secret, receivedSecret)) {
+            throw new WebhookVerificationException("Secret inválido");
+        }
+
+        // Signature check only when an HMAC key is configured (signed data: the subscription ID)
+        if (hmacKey != null && !hmacKey.isBlank()) {
+            String expected = HmacMd5Generator.generateHmacMD5(subscriptionId, hmacKey);
+            if (signature == null || !constantTimeEquals(expected, signature.toLowerCase())) {
+                throw new WebhookVerificationException("Assinatura inválida");
+            }
+        }
+    }
+
+    private static boolean constantTimeEquals(String expected, String actual) {
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                actual.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(String body) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(body.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to hash webhook payload", e);
+        }
+    }
+}
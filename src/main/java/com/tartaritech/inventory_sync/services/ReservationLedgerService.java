@@ -0,0 +1,148 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tartaritech.inventory_sync.entities.ReservationLedgerEntry;
+import com.tartaritech.inventory_sync.entities.ReservedStockTotal;
+import com.tartaritech.inventory_sync.entities.ShopifySyncOperation;
+import com.tartaritech.inventory_sync.repositories.ReservationLedgerRepository;
+import com.tartaritech.inventory_sync.repositories.ReservedStockTotalRepository;
+import com.tartaritech.inventory_sync.repositories.ShopifySyncOperationRepository;
+
+/**
+ * Keeps the local answer to "how many units of this SKU should be reserved
+ * right now".
+ *
+ * Every Shopify sync operation created by reconciliation is saved through
+ * {@link #recordOperations}, which appends one ledger entry per operation
+ * (SKU, subscription, recurrence number, reserved delta) and adds the deltas
+ * to the per-SKU running totals in the same transaction. Reading a total is a
+ * primary key lookup.
+ *
+ * The totals of a transaction are accumulated in memory and applied just
+ * before it commits, one atomic UPDATE per SKU in SKU order: the row locks are
+ * held only for the commit and parallel reconciliation workers always take
+ * them in the same order.
+ */
+@Service
+public class ReservationLedgerService {
+
+    private final ShopifySyncOperationRepository shopifySyncOperationRepository;
+    private final ReservationLedgerRepository ledgerRepository;
+    private final ReservedStockTotalRepository totalRepository;
+    private final TransactionTemplate newTransaction;
+    private final Object pendingTotalsKey = new Object();
+    private final Logger logger = LoggerFactory.getLogger(ReservationLedgerService.class);
+
+    public ReservationLedgerService(ShopifySyncOperationRepository shopifySyncOperationRepository,
+            ReservationLedgerRepository ledgerRepository,
+            ReservedStockTotalRepository totalRepository,
+            PlatformTransactionManager transactionManager) {
+        this.shopifySyncOperationRepository = shopifySyncOperationRepository;
+        this.ledgerRepository = ledgerRepository;
+        this.totalRepository = totalRepository;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Saves new Shopify sync operations together with their ledger entries.
+     * Must run inside a transaction; the running totals change when it commits.
+     */
+    public void recordOperations(List<ShopifySyncOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Operações de reserva só podem ser registradas dentro de uma transação");
+        }
+        shopifySyncOperationRepository.saveAll(operations);
+
+        Instant now = Instant.now();
+        Map<String, Long> pending = pendingTotals();
+        List<ReservationLedgerEntry> entries = operations.stream().map(op -> {
+            int delta = ShopifySyncService.prepareReservedInventory(op);
+            pending.merge(op.getSku(), (long) delta, Long::sum);
+            return new ReservationLedgerEntry(null, op.getSku(), op.getSubscriptionId(), op.getNumberRecurrence(),
+                    op.getId(), op.getOperation(), delta, now);
+        }).toList();
+        ledgerRepository.saveAll(entries);
+    }
+
+    /** Units that should be reserved for the SKU right now (0 if it never had any). */
+    public long getExpectedReserved(String sku) {
+        return totalRepository.findById(sku).map(ReservedStockTotal::getReserved).orElse(0L);
+    }
+
+    /** Units that should be reserved right now, by SKU. */
+    public Map<String, Long> getExpectedReservations() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        totalRepository.findAll().stream()
+                .sorted((a, b) -> a.getSku().compareTo(b.getSku()))
+                .forEach(total -> result.put(total.getSku(), total.getReserved()));
+        return result;
+    }
+
+    // Deltas of the current transaction by SKU, applied before it commits
+    @SuppressWarnings("unchecked")
+    private Map<String, Long> pendingTotals() {
+        Map<String, Long> pending = (Map<String, Long>) TransactionSynchronizationManager.getResource(pendingTotalsKey);
+        if (pending != null) {
+            return pending;
+        }
+        Map<String, Long> deltas = new TreeMap<>();
+        TransactionSynchronizationManager.bindResource(pendingTotalsKey, deltas);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                applyTotals(deltas);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(pendingTotalsKey);
+            }
+        });
+        return deltas;
+    }
+
+    private void applyTotals(Map<String, Long> deltas) {
+        Instant now = Instant.now();
+        deltas.forEach((sku, delta) -> {
+            if (delta == 0) {
+                return;
+            }
+            if (totalRepository.addReserved(sku, delta, now) == 0) {
+                createTotal(sku, now);
+                totalRepository.addReserved(sku, delta, now);
+            }
+        });
+    }
+
+    // Committed on its own so the row exists for every transaction that updates it
+    private void createTotal(String sku, Instant now) {
+        try {
+            newTransaction.executeWithoutResult(tx -> {
+                if (!totalRepository.existsById(sku)) {
+                    totalRepository.save(new ReservedStockTotal(sku, 0L, now));
+                }
+            });
+        } catch (DataIntegrityViolationException e) {
+            logger.debug("Reserved stock total for SKU {} was created concurrently", sku);
+        }
+    }
+}
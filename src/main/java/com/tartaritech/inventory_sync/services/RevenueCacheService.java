@@ -18,43 +18,56 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.tartaritech.inventory_sync.dtos.ProductDTO;
 import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
 import com.tartaritech.inventory_sync.dtos.SubscriptionFullDTO;
-import com.tartaritech.inventory_sync.dtos.SubscriptionShortDTO;
-import com.tartaritech.inventory_sync.dtos.SubscriptionsDTO;
 import com.tartaritech.inventory_sync.entities.RevenueCache;
-import com.tartaritech.inventory_sync.repositories.ControlledSkuRepository;
 import com.tartaritech.inventory_sync.repositories.RevenueCacheRepository;
 
 @Service
 public class RevenueCacheService {
 
     private final PagBrasilService pagBrasilService;
-    private final ControlledSkuRepository controlledSkuRepository;
+    private final ControlledSkuCache controlledSkuCache;
     private final RevenueCacheRepository revenueCacheRepository;
+    private final SyncCheckpointService checkpointService;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
     
     private final Logger logger = LoggerFactory.getLogger(RevenueCacheService.class);
     
     private static final DateTimeFormatter INPUT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private static final DateTimeFormatter OUTPUT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM");
     
+    private static final List<String> ALL_STATUSES = List.of("1", "2", "3", "4", "5", "6");
+
+    private static final String CHECKPOINT_JOB = "revenue-cache";
+    
     @Value("${revenue.cache.enabled:true}")
     private boolean cacheEnabled;
-    
-    @Value("${pagbrasil.request.delay:2000}")
-    private int requestDelayMs;
-    
-    @Value("${pagbrasil.status.delay:2000}")
-    private int statusDelayMs;
+
+    // Subscriptions accumulated between two checkpoint writes
+    @Value("${revenue.cache.checkpoint-interval:200}")
+    private int checkpointInterval;
 
     public RevenueCacheService(PagBrasilService pagBrasilService,
-                               ControlledSkuRepository controlledSkuRepository,
-                               RevenueCacheRepository revenueCacheRepository) {
+                               ControlledSkuCache controlledSkuCache,
+                               RevenueCacheRepository revenueCacheRepository,
+                               SyncCheckpointService checkpointService,
+                               TransactionTemplate transactionTemplate,
+                               ObjectMapper objectMapper) {
         this.pagBrasilService = pagBrasilService;
-        this.controlledSkuRepository = controlledSkuRepository;
+        this.controlledSkuCache = controlledSkuCache;
         this.revenueCacheRepository = revenueCacheRepository;
+        this.checkpointService = checkpointService;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -62,7 +75,6 @@ public class RevenueCacheService {
      */
     @Scheduled(cron = "${revenue.cache.schedule.cron:0 0 2 * * *}")
     // @Scheduled(initialDelay = 500000) // 5 minutes
-    @Transactional
     public void scheduledRefreshCache() {
         if (!cacheEnabled) {
             logger.info("Revenue cache is disabled. Skipping scheduled refresh.");
@@ -76,8 +88,11 @@ public class RevenueCacheService {
     /**
      * Main method to refresh revenue cache
      * Can be called manually or by scheduled job
+     *
+     * Partial totals and the subscriptions they cover are checkpointed every
+     * {@code revenue.cache.checkpoint-interval} subscriptions; an interrupted
+     * refresh is resumed by the next one. No transaction is held while fetching.
      */
-    @Transactional
     public void refreshRevenueCache() {
         try {
             if (!pagBrasilService.tryAcquireApiLockWithTimeout(30)) {
@@ -93,191 +108,217 @@ public class RevenueCacheService {
         Instant startTime = Instant.now();
         logger.info("=== Starting Revenue Cache Refresh ===");
         
+        SyncCheckpointService.Checkpoint checkpoint = null;
+        RevenueAccumulator accumulator = null;
+        List<String> unsaved = new ArrayList<>();
+        boolean completed = false;
         try {
-            // Step 1: Fetch all subscription IDs from all statuses
-            logger.info("Step 1: Fetching all subscription IDs from PagBrasil");
-            List<SubscriptionShortDTO> allSubscriptionIds = fetchAllSubscriptionIds();
-            logger.info("Found {} total subscriptions across all statuses", allSubscriptionIds.size());
+            checkpoint = checkpointService.open(CHECKPOINT_JOB);
+            accumulator = readAccumulator(checkpoint.getState());
+            if (accumulator == null) {
+                logger.warn("Unreadable revenue checkpoint state. Starting over.");
+                checkpoint.complete();
+                checkpoint.close();
+                checkpoint = checkpointService.open(CHECKPOINT_JOB);
+                accumulator = new RevenueAccumulator();
+            }
+            if (checkpoint.isResumed()) {
+                logger.info("Resuming interrupted refresh: {} subscriptions already accumulated",
+                        accumulator.subscriptions);
+            }
+
+            // Step 1: Stream every subscription (statuses 1-6) and accumulate revenue
+            // by month as each full subscription arrives, without holding them all
+            logger.info("Step 1: Streaming subscriptions from PagBrasil and calculating revenue by month");
+            SyncCheckpointService.Checkpoint run = checkpoint;
+            RevenueAccumulator totals = accumulator;
+            int fetched = pagBrasilService.streamSubscriptionDetails(ALL_STATUSES, id -> !run.isDone(id),
+                    subscription -> {
+                        accumulateRevenue(subscription, totals);
+                        unsaved.add(subscription.getSubscription());
+                        if (unsaved.size() >= Math.max(checkpointInterval, 1)) {
+                            saveProgress(run, totals, unsaved);
+                        }
+                    });
+            logger.info("Successfully fetched {} full subscription details", fetched);
+
+            if (Thread.currentThread().isInterrupted()) {
+                logger.warn("Revenue cache refresh interrupted. Progress is checkpointed and will be resumed.");
+                return;
+            }
             
-            if (allSubscriptionIds.isEmpty()) {
+            if (accumulator.subscriptions == 0) {
                 logger.warn("No subscriptions found. Skipping cache refresh.");
+                checkpoint.complete();
+                completed = true;
                 return;
             }
             
-            // Step 2: Fetch full subscription details sequentially
-            logger.info("Step 2: Fetching full subscription details sequentially");
-            List<SubscriptionFullDTO> fullSubscriptions = fetchSubscriptionDetailsInParallel(allSubscriptionIds);
-            logger.info("Successfully fetched {} full subscription details", fullSubscriptions.size());
-            
-            // Step 3: Calculate revenue by month
-            logger.info("Step 3: Calculating revenue by month from paid orders with controlled SKUs");
-            Map<String, BigDecimal> revenueByMonth = calculateRevenueByMonth(fullSubscriptions);
+            Map<String, BigDecimal> revenueByMonth = accumulator.revenueByMonth;
+            logger.info("Revenue calculation summary:");
+            logger.info("  Total orders processed: {}", accumulator.totalOrders);
+            logger.info("  Paid orders: {}", accumulator.paidOrders);
+            logger.info("  Orders with controlled SKUs: {}", accumulator.ordersWithControlledSkus);
             logger.info("Calculated revenue for {} months", revenueByMonth.size());
             
-            // Step 4: Clear old cache and save new data
-            logger.info("Step 4: Updating cache in database");
-            updateCacheInDatabase(revenueByMonth);
+            // Step 2: Clear old cache and save new data
+            logger.info("Step 2: Updating cache in database");
+            SyncCheckpointService.Checkpoint finished = checkpoint;
+            transactionTemplate.executeWithoutResult(tx -> {
+                updateCacheInDatabase(revenueByMonth);
+                finished.complete();
+            });
+            completed = true;
             
             Duration elapsed = Duration.between(startTime, Instant.now());
             logger.info("=== Revenue Cache Refresh Complete ===");
             logger.info("Total time: {} seconds", elapsed.getSeconds());
             logger.info("Processed {} subscriptions, cached {} months", 
-                fullSubscriptions.size(), revenueByMonth.size());
+                accumulator.subscriptions, revenueByMonth.size());
             
         } catch (Exception e) {
             logger.error("Error during revenue cache refresh", e);
             logger.warn("Cache refresh failed. Previous cache data will be retained.");
         } finally {
+            if (checkpoint != null) {
+                if (!completed && !unsaved.isEmpty()) {
+                    saveFinalProgress(checkpoint, accumulator, unsaved);
+                }
+                checkpoint.close();
+            }
             pagBrasilService.releaseApiLock();
         }
     }
 
     /**
-     * Fetch all subscription IDs from all statuses (1-6)
+     * Writes the running totals together with the subscriptions they now cover.
      */
-    private List<SubscriptionShortDTO> fetchAllSubscriptionIds() {
-        List<SubscriptionShortDTO> allSubscriptions = new ArrayList<>();
-        
-        // Fetch subscriptions for each status (1-6)
-        String[] statuses = {"1", "2", "3", "4", "5", "6"};
-        
-        for (String status : statuses) {
-            try {
-                logger.debug("Fetching subscriptions with status: {}", status);
-                SubscriptionsDTO result = pagBrasilService.fetchSubscriptionsByStatus(status);
-                
-                if (result != null && result.getSubscriptions() != null) {
-                    int count = result.getSubscriptions().size();
-                    allSubscriptions.addAll(result.getSubscriptions());
-                    logger.debug("Status {}: found {} subscriptions", status, count);
-                }
-                
-                // Add delay between status queries to avoid rate limiting (with jitter)
-                if (!status.equals("6")) { // Don't delay after last status
-                    Thread.sleep((long) (statusDelayMs * (0.5 + Math.random() * 0.5)));
-                }
-            } catch (InterruptedException e) {
-                logger.warn("Delay interrupted while fetching status {}", status);
+    private void saveProgress(SyncCheckpointService.Checkpoint checkpoint, RevenueAccumulator accumulator,
+            List<String> unsaved) {
+        String state = writeAccumulator(accumulator);
+        transactionTemplate.executeWithoutResult(tx -> {
+            unsaved.forEach(checkpoint::markDone);
+            checkpoint.setState(state);
+        });
+        logger.debug("Revenue checkpoint saved: {} subscriptions", accumulator.subscriptions);
+        unsaved.clear();
+    }
+
+    // Runs while the thread may be interrupted (shutdown): clear the flag so the connection pool serves the write
+    private void saveFinalProgress(SyncCheckpointService.Checkpoint checkpoint, RevenueAccumulator accumulator,
+            List<String> unsaved) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            saveProgress(checkpoint, accumulator, unsaved);
+            logger.info("Revenue checkpoint saved on stop: {} subscriptions", accumulator.subscriptions);
+        } catch (Exception e) {
+            logger.error("Could not save revenue checkpoint: {}", e.getMessage());
+        } finally {
+            if (interrupted) {
                 Thread.currentThread().interrupt();
-            } catch (Exception e) {
-                logger.error("Error fetching subscriptions for status {}: {}", status, e.getMessage());
             }
         }
-        
-        return allSubscriptions;
+    }
+
+    private String writeAccumulator(RevenueAccumulator accumulator) {
+        ObjectNode node = objectMapper.createObjectNode();
+        ObjectNode months = node.putObject("revenueByMonth");
+        accumulator.revenueByMonth.forEach((month, revenue) -> months.put(month, revenue.toPlainString()));
+        node.put("subscriptions", accumulator.subscriptions);
+        node.put("totalOrders", accumulator.totalOrders);
+        node.put("paidOrders", accumulator.paidOrders);
+        node.put("ordersWithControlledSkus", accumulator.ordersWithControlledSkus);
+        return node.toString();
+    }
+
+    private RevenueAccumulator readAccumulator(String state) {
+        RevenueAccumulator accumulator = new RevenueAccumulator();
+        if (state == null || state.isBlank()) {
+            return accumulator;
+        }
+        try {
+            JsonNode node = objectMapper.readTree(state);
+            node.path("revenueByMonth").fields().forEachRemaining(
+                    e -> accumulator.revenueByMonth.put(e.getKey(), new BigDecimal(e.getValue().asText())));
+            accumulator.subscriptions = node.path("subscriptions").asInt();
+            accumulator.totalOrders = node.path("totalOrders").asInt();
+            accumulator.paidOrders = node.path("paidOrders").asInt();
+            accumulator.ordersWithControlledSkus = node.path("ordersWithControlledSkus").asInt();
+        } catch (JsonProcessingException | NumberFormatException e) {
+            logger.debug("Revenue checkpoint state: {}", e.getMessage());
+            return null;
+        }
+        return accumulator;
     }
 
     /**
-     * Fetch full subscription details sequentially with rate limiting
+     * Running totals for a revenue refresh; only touched from the consuming thread.
      */
-    private List<SubscriptionFullDTO> fetchSubscriptionDetailsInParallel(List<SubscriptionShortDTO> subscriptionIds) {
-        List<SubscriptionFullDTO> results = new ArrayList<>();
-        
-        logger.info("Fetching {} subscription details sequentially with {}ms delay between requests", 
-                subscriptionIds.size(), requestDelayMs);
-        
-        for (int i = 0; i < subscriptionIds.size(); i++) {
-            SubscriptionShortDTO shortDto = subscriptionIds.get(i);
-            
-            try {
-                SubscriptionFullDTO dto = pagBrasilService.fetchSubscriptionById(shortDto);
-                if (dto != null) {
-                    results.add(dto);
-                }
-                
-                // Add delay between requests to avoid rate limiting (with jitter: 50-100% of delay)
-                if (i < subscriptionIds.size() - 1) {
-                    long jitter = (long) (requestDelayMs * (0.5 + Math.random() * 0.5));
-                    Thread.sleep(jitter);
-                }
-            } catch (InterruptedException e) {
-                logger.warn("Delay interrupted while fetching subscription {}", 
-                        shortDto.getSubscription());
-                Thread.currentThread().interrupt();
-                break;
-            } catch (Exception e) {
-                logger.warn("Failed to fetch subscription {}: {}", 
-                        shortDto.getSubscription(), e.getMessage());
-                // Continue with next subscription instead of failing entire batch
-            }
-        }
-        
-        logger.info("Successfully fetched {} out of {} subscription details", 
-                results.size(), subscriptionIds.size());
-        return results;
+    private static class RevenueAccumulator {
+        private final Map<String, BigDecimal> revenueByMonth = new HashMap<>();
+        private int subscriptions;
+        private int totalOrders;
+        private int paidOrders;
+        private int ordersWithControlledSkus;
     }
 
     /**
-     * Calculate revenue by month from all subscriptions
+     * Adds the revenue of one subscription to the running totals.
      * Only includes paid orders with controlled SKUs
      */
-    private Map<String, BigDecimal> calculateRevenueByMonth(List<SubscriptionFullDTO> subscriptions) {
-        Map<String, BigDecimal> revenueByMonth = new HashMap<>();
-        
-        int totalOrders = 0;
-        int paidOrders = 0;
-        int ordersWithControlledSkus = 0;
+    private void accumulateRevenue(SubscriptionFullDTO subscription, RevenueAccumulator accumulator) {
+        accumulator.subscriptions++;
+        if (subscription.getRecurrences() == null || subscription.getRecurrences().isEmpty()) {
+            return;
+        }
         
-        for (SubscriptionFullDTO subscription : subscriptions) {
-            if (subscription.getRecurrences() == null || subscription.getRecurrences().isEmpty()) {
+        // Iterate through ALL recurrences
+        for (RecurrenceDTO recurrence : subscription.getRecurrences()) {
+            accumulator.totalOrders++;
+            
+            // Skip recurrences without payment date (not paid yet)
+            if (recurrence.getPaymentDate() == null || recurrence.getPaymentDate().trim().isEmpty()) {
                 continue;
             }
             
-            // Iterate through ALL recurrences
-            for (RecurrenceDTO recurrence : subscription.getRecurrences()) {
-                totalOrders++;
-                
-                // Skip recurrences without payment date (not paid yet)
-                if (recurrence.getPaymentDate() == null || recurrence.getPaymentDate().trim().isEmpty()) {
-                    continue;
-                }
-                
-                paidOrders++;
-                
-                // Parse payment date
-                LocalDate paymentDate = parsePaymentDate(recurrence.getPaymentDate());
-                if (paymentDate == null) {
-                    logger.debug("Could not parse payment date for order {}: {}", 
-                        recurrence.getOrder(), recurrence.getPaymentDate());
-                    continue;
-                }
-                
-                // Extract year-month
-                String yearMonth = paymentDate.format(OUTPUT_FORMATTER);
-                
-                // Calculate revenue from products with controlled SKUs
-                BigDecimal orderRevenue = BigDecimal.ZERO;
-                boolean hasControlledSku = false;
-                
-                if (recurrence.getProducts() != null) {
-                    for (ProductDTO product : recurrence.getProducts()) {
-                        // Check if this is a controlled SKU
-                        if (product.getSku() != null && controlledSkuRepository.existsById(product.getSku())) {
-                            hasControlledSku = true;
-                            
-                            // Parse total price (comes as String from API)
-                            BigDecimal productPrice = parseTotalPrice(product.getAmountTotal());
-                            if (productPrice != null) {
-                                orderRevenue = orderRevenue.add(productPrice);
-                            }
+            accumulator.paidOrders++;
+            
+            // Parse payment date
+            LocalDate paymentDate = parsePaymentDate(recurrence.getPaymentDate());
+            if (paymentDate == null) {
+                logger.debug("Could not parse payment date for order {}: {}", 
+                    recurrence.getOrder(), recurrence.getPaymentDate());
+                continue;
+            }
+            
+            // Extract year-month
+            String yearMonth = paymentDate.format(OUTPUT_FORMATTER);
+            
+            // Calculate revenue from products with controlled SKUs
+            BigDecimal orderRevenue = BigDecimal.ZERO;
+            boolean hasControlledSku = false;
+            
+            if (recurrence.getProducts() != null) {
+                for (ProductDTO product : recurrence.getProducts()) {
+                    // Check if this is a controlled SKU
+                    if (controlledSkuCache.isControlled(product.getSku())) {
+                        hasControlledSku = true;
+                        
+                        // Parse total price (comes as String from API)
+                        BigDecimal productPrice = parseTotalPrice(product.getAmountTotal());
+                        if (productPrice != null) {
+                            orderRevenue = orderRevenue.add(productPrice);
                         }
                     }
                 }
-                
-                if (hasControlledSku) {
-                    ordersWithControlledSkus++;
-                    // Add to monthly total
-                    revenueByMonth.merge(yearMonth, orderRevenue, BigDecimal::add);
-                }
+            }
+            
+            if (hasControlledSku) {
+                accumulator.ordersWithControlledSkus++;
+                // Add to monthly total
+                accumulator.revenueByMonth.merge(yearMonth, orderRevenue, BigDecimal::add);
             }
         }
-        
-        logger.info("Revenue calculation summary:");
-        logger.info("  Total orders processed: {}", totalOrders);
-        logger.info("  Paid orders: {}", paidOrders);
-        logger.info("  Orders with controlled SKUs: {}", ordersWithControlledSkus);
-        
-        return revenueByMonth;
     }
 
     /**
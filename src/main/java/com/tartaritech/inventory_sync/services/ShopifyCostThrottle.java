@@ -0,0 +1,193 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Client-side copy of Shopify's GraphQL leaky bucket, used to pace every
+ * request before it is sent.
+ *
+ * Every response carries {@code extensions.cost.throttleStatus}
+ * (maximumAvailable, currentlyAvailable, restoreRate); the bucket is reset to
+ * it and refilled at the restore rate in between. A request waits until the
+ * bucket holds its expected cost: the {@code requestedQueryCost} Shopify
+ * reported for the same document last time, or
+ * {@code shopify.throttle.default-cost} before the first answer. The cost of
+ * requests in flight is held back from the bucket until they are answered.
+ *
+ * A THROTTLED answer pauses every request until the bucket has restored
+ * enough for the rejected one.
+ */
+@Component
+public class ShopifyCostThrottle {
+
+    private final Map<String, Double> requestedCosts = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(ShopifyCostThrottle.class);
+
+    @Value("${shopify.throttle.maximum-available:2000}")
+    private double initialMaximumAvailable;
+
+    @Value("${shopify.throttle.restore-rate:100}")
+    private double initialRestoreRate;
+
+    @Value("${shopify.throttle.default-cost:50}")
+    private double defaultCost;
+
+    // Guarded by "this"
+    private double maximumAvailable;
+    private double restoreRate;
+    private double available;
+    private double inFlightCost;
+    private long lastUpdateNanos;
+    private long pausedUntilNanos;
+    private Instant lastStatusAt;
+    private double lastRequestedCost;
+    private double lastActualCost;
+    private long requests;
+    private long throttledRequests;
+    private long delayedRequests;
+    private long totalDelayMs;
+
+    @PostConstruct
+    void init() {
+        synchronized (this) {
+            maximumAvailable = initialMaximumAvailable;
+            restoreRate = initialRestoreRate;
+            available = maximumAvailable;
+            lastUpdateNanos = System.nanoTime();
+            pausedUntilNanos = lastUpdateNanos;
+        }
+    }
+
+    /**
+     * Blocks until the bucket holds the expected cost of {@code query}, then
+     * holds that cost back until {@link #release} is called with the returned
+     * value.
+     */
+    public double acquire(String query) throws InterruptedException {
+        double cost = requestedCosts.getOrDefault(query, defaultCost);
+        long startedNanos = System.nanoTime();
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                refill(now);
+                // A request can never need more than the whole bucket
+                double needed = Math.min(cost, maximumAvailable);
+                double free = available - inFlightCost;
+                if (now >= pausedUntilNanos && free >= needed) {
+                    inFlightCost += needed;
+                    requests++;
+                    long waitedMs = TimeUnit.NANOSECONDS.toMillis(now - startedNanos);
+                    if (waitedMs > 0) {
+                        delayedRequests++;
+                        totalDelayMs += waitedMs;
+                    }
+                    return needed;
+                }
+                long untilRestored = (long) ((needed - free) / Math.max(restoreRate, 1) * 1_000_000_000L);
+                waitNanos = Math.max(pausedUntilNanos - now, untilRestored);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1_000_000L));
+        }
+    }
+
+    /** Returns the cost held back by {@link #acquire}, once the request is answered or failed. */
+    public synchronized void release(double cost) {
+        inFlightCost = Math.max(inFlightCost - cost, 0);
+    }
+
+    /**
+     * Records the {@code extensions.cost} block of a response: resets the
+     * bucket to Shopify's throttle status and remembers the document's cost.
+     */
+    public void onResponse(String query, JsonNode cost) {
+        if (cost == null || cost.isMissingNode() || cost.isNull()) {
+            return;
+        }
+        if (cost.hasNonNull("requestedQueryCost")) {
+            requestedCosts.put(query, cost.get("requestedQueryCost").asDouble());
+        }
+        JsonNode status = cost.path("throttleStatus");
+        synchronized (this) {
+            lastRequestedCost = cost.path("requestedQueryCost").asDouble(lastRequestedCost);
+            lastActualCost = cost.path("actualQueryCost").asDouble(lastActualCost);
+            if (status.hasNonNull("currentlyAvailable")) {
+                long now = System.nanoTime();
+                maximumAvailable = status.path("maximumAvailable").asDouble(maximumAvailable);
+                restoreRate = status.path("restoreRate").asDouble(restoreRate);
+                available = Math.min(status.get("currentlyAvailable").asDouble(), maximumAvailable);
+                lastUpdateNanos = now;
+                lastStatusAt = Instant.now();
+            }
+        }
+    }
+
+    /**
+     * Records a THROTTLED answer (or a 429) and pauses every request until the
+     * bucket has restored enough for the rejected one, and at least
+     * {@code minWaitMs}.
+     *
+     * @return milliseconds until the request can be retried
+     */
+    public long onThrottled(String query, JsonNode cost, long minWaitMs) {
+        onResponse(query, cost);
+        double requested = requestedCosts.getOrDefault(query, defaultCost);
+        synchronized (this) {
+            throttledRequests++;
+            long now = System.nanoTime();
+            refill(now);
+            double missing = Math.min(requested, maximumAvailable) - available;
+            long waitMs = Math.max((long) Math.ceil(Math.max(missing, 0) / Math.max(restoreRate, 1) * 1000), minWaitMs);
+            pausedUntilNanos = Math.max(pausedUntilNanos, now + TimeUnit.MILLISECONDS.toNanos(waitMs));
+            logger.warn("Shopify throttled: custo {} com {} disponível de {}, pausando requisições por {}ms",
+                    requested, String.format("%.1f", available), maximumAvailable, waitMs);
+            return waitMs;
+        }
+    }
+
+    /** Milliseconds the bucket takes to restore the expected cost of {@code query} from empty. */
+    public long restoreWaitMs(String query) {
+        double cost = requestedCosts.getOrDefault(query, defaultCost);
+        synchronized (this) {
+            return (long) Math.ceil(Math.min(cost, maximumAvailable) / Math.max(restoreRate, 1) * 1000);
+        }
+    }
+
+    public synchronized Map<String, Object> getSnapshot() {
+        refill(System.nanoTime());
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("maximumAvailable", maximumAvailable);
+        snapshot.put("currentlyAvailable", Math.round(available * 10) / 10.0);
+        snapshot.put("restoreRate", restoreRate);
+        snapshot.put("inFlightCost", inFlightCost);
+        snapshot.put("lastStatusAt", lastStatusAt);
+        snapshot.put("lastRequestedCost", lastRequestedCost);
+        snapshot.put("lastActualCost", lastActualCost);
+        snapshot.put("requests", requests);
+        snapshot.put("throttledRequests", throttledRequests);
+        snapshot.put("delayedRequests", delayedRequests);
+        snapshot.put("totalDelayMs", totalDelayMs);
+        return snapshot;
+    }
+
+    private void refill(long now) {
+        if (now > lastUpdateNanos) {
+            double elapsedSeconds = (now - lastUpdateNanos) / 1_000_000_000.0;
+            available = Math.min(maximumAvailable, available + elapsedSeconds * restoreRate);
+            lastUpdateNanos = now;
+        }
+    }
+}
@@ -5,14 +5,21 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tartaritech.inventory_sync.services.exceptions.CircuitOpenException;
 
 @Service
 public class ShopifyGraphqlService {
@@ -21,15 +28,25 @@ public class ShopifyGraphqlService {
     private final ObjectMapper objectMapper;
     private final String graphqlUrl;
     private final String accessToken;
+    private final CircuitBreaker circuitBreaker;
+    private final ShopifyCostThrottle costThrottle;
+    private final Logger logger = LoggerFactory.getLogger(ShopifyGraphqlService.class);
+
+    @Value("${shopify.throttle.max-retries:3}")
+    private int maxThrottleRetries;
 
     public ShopifyGraphqlService(
             ObjectMapper objectMapper,
+            CircuitBreakerRegistry circuitBreakerRegistry,
+            ShopifyCostThrottle costThrottle,
             @Value("${shopify.api.token}") String accessToken,
             @Value("${shopify.api.version}") String apiVersion,
             @Value("${shopify.store.url}") String storeUrl
     ) {
         this.objectMapper = objectMapper;
         this.accessToken = accessToken;
+        this.circuitBreaker = circuitBreakerRegistry.get(CircuitBreakerRegistry.SHOPIFY);
+        this.costThrottle = costThrottle;
         this.graphqlUrl = storeUrl + "/admin/api/" + apiVersion + "/graphql.json";
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(10))
@@ -62,23 +79,86 @@ public class ShopifyGraphqlService {
                     .timeout(Duration.ofSeconds(30))
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            for (int attempt = 0; ; attempt++) {
+                HttpResponse<String> response;
+                double cost = costThrottle.acquire(query);
+                try {
+                    // 5xx and I/O errors trip the breaker; 429 and GraphQL errors do not
+                    response = circuitBreaker.execute(
+                            () -> httpClient.send(request, HttpResponse.BodyHandlers.ofString()),
+                            r -> r.statusCode() >= 500);
+                } finally {
+                    costThrottle.release(cost);
+                }
+
+                long waitMs;
+                if (response.statusCode() >= 200 && response.statusCode() < 300) {
+                    JsonNode jsonResponse = objectMapper.readTree(response.body());
+                    JsonNode queryCost = jsonResponse.path("extensions").path("cost");
 
-            if (response.statusCode() >= 200 && response.statusCode() < 300) {
-                JsonNode jsonResponse = objectMapper.readTree(response.body());
-                
-                // Check for GraphQL errors
-                if (jsonResponse.has("errors")) {
-                    throw new RuntimeException("GraphQL errors: " + jsonResponse.get("errors").toString());
+                    // Check for GraphQL errors
+                    if (!jsonResponse.has("errors")) {
+                        costThrottle.onResponse(query, queryCost);
+                        return jsonResponse.get("data");
+                    }
+                    if (!isThrottled(jsonResponse.get("errors")) || attempt >= maxThrottleRetries) {
+                        costThrottle.onResponse(query, queryCost);
+                        throw new RuntimeException("GraphQL errors: " + jsonResponse.get("errors").toString());
+                    }
+                    waitMs = costThrottle.onThrottled(query, queryCost, 0);
+                } else if (response.statusCode() == 429 && attempt < maxThrottleRetries) {
+                    // Without a usable Retry-After, wait as long as the bucket takes to restore the request's cost
+                    long retryAfterMs = response.headers().firstValue("Retry-After")
+                            .map(ShopifyGraphqlService::parseRetryAfterMs)
+                            .filter(ms -> ms >= 0)
+                            .orElseGet(() -> costThrottle.restoreWaitMs(query));
+                    waitMs = costThrottle.onThrottled(query, null, retryAfterMs);
+                } else {
+                    throw new RuntimeException("HTTP error: " + response.statusCode() + " - " + response.body());
                 }
-                
-                return jsonResponse.get("data");
-            } else {
-                throw new RuntimeException("HTTP error: " + response.statusCode() + " - " + response.body());
+                // The throttle holds every request until the bucket has restored enough for this one
+                logger.debug("Shopify throttled, retrying in {}ms (attempt {}/{})", waitMs, attempt + 1,
+                        maxThrottleRetries);
             }
 
+        } catch (CircuitOpenException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            // Keep the flag so the caller's loop sees the shutdown instead of a plain failure
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("GraphQL request interrupted", e);
         } catch (Exception e) {
             throw new RuntimeException("Error executing GraphQL request", e);
         }
     }
+
+    /**
+     * Parses a Retry-After value, given either in seconds or as an HTTP date.
+     *
+     * @return milliseconds to wait, or -1 if the value is neither
+     */
+    static long parseRetryAfterMs(String value) {
+        String trimmed = value.trim();
+        try {
+            return Math.max((long) (Double.parseDouble(trimmed) * 1000), 0);
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, try the HTTP-date form
+        }
+        try {
+            ZonedDateTime retryAt = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(Duration.between(Instant.now(), retryAt).toMillis(), 0);
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    // Shopify reports an exhausted cost bucket as a GraphQL error with code THROTTLED
+    private static boolean isThrottled(JsonNode errors) {
+        for (JsonNode error : errors) {
+            if ("THROTTLED".equals(error.path("extensions").path("code").asText())) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -1,15 +1,21 @@
 package com.tartaritech.inventory_sync.services;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tartaritech.inventory_sync.services.exceptions.CircuitOpenException;
 
 @Service
 public class ShopifyInventoryService {
@@ -20,9 +26,61 @@ public class ShopifyInventoryService {
 
     private final ObjectMapper objectMapper;
 
-    public ShopifyInventoryService(ShopifyGraphqlService shopifyGraphqlService, ObjectMapper objectMapper) {
+    private final InventoryLevelMirror inventoryLevelMirror;
+
+    static final String LOCATION_ID = "gid://shopify/Location/64095387781";
+
+    // One aliased field per quantity name. Only the user errors are read back: the adjustment group's
+    // changes would add to the response and its cost
+    private static final String ADJUST_QUANTITIES_FIELD = """
+                    %1$s: inventoryAdjustQuantities(input: $%1$s) {
+                        userErrors {
+                            field
+                            message
+                        }
+                        inventoryAdjustmentGroup {
+                            referenceDocumentUri
+                        }
+                    }
+            """;
+
+    @Value("${shopify.inventory.adjust-batch-size:250}")
+    private int adjustBatchSize;
+
+    /** One inventory quantity change: {@code delta} units of an inventory item at a location. */
+    public record InventoryChange(String inventoryItemId, String locationId, int delta) {
+
+        /** A change at the store's fulfillment location. */
+        public static InventoryChange of(String inventoryItemId, int delta) {
+            return new InventoryChange(inventoryItemId, LOCATION_ID, delta);
+        }
+    }
+
+    /**
+     * Outcome of {@link #adjustQuantities} for one quantity, by position in its list of changes.
+     * The first {@code attempted} changes were sent; the rest were not because
+     * the Shopify circuit opened. A sent change was applied unless it is in
+     * {@code rejected} (Shopify refused that change) or {@code failed} (its
+     * whole adjustment or request failed), with the error message.
+     */
+    public record AdjustmentResult(int attempted, Map<Integer, String> rejected, Map<Integer, String> failed) {
+
+        public boolean wasAttempted(int index) {
+            return index < attempted;
+        }
+
+        /** @return null if the change was applied */
+        public String error(int index) {
+            String error = rejected.get(index);
+            return error != null ? error : failed.get(index);
+        }
+    }
+
+    public ShopifyInventoryService(ShopifyGraphqlService shopifyGraphqlService, ObjectMapper objectMapper,
+            InventoryLevelMirror inventoryLevelMirror) {
         this.shopifyGraphqlService = shopifyGraphqlService;
         this.objectMapper = objectMapper;
+        this.inventoryLevelMirror = inventoryLevelMirror;
     }
 
 
@@ -84,6 +142,11 @@ public class ShopifyInventoryService {
         }
     }
 
+    /**
+     * Inventory item GID of the Shopify variant with this SKU.
+     *
+     * @return null if no variant has this SKU
+     */
     public String findVariantGidBySku(String sku) {
 
         String query = """
@@ -145,7 +208,8 @@ public class ShopifyInventoryService {
                     }
                 }
                 
-                throw new RuntimeException("Variante com SKU '" + sku + "' não encontrada");
+                logger.warn("Variante com SKU '{}' não encontrada", sku);
+                return null;
                 
             } catch (Exception e) {
                 if (attempt < maxRetries - 1 && (e instanceof java.net.http.HttpTimeoutException 
@@ -259,151 +323,252 @@ public class ShopifyInventoryService {
         int currentReserved = getCurrentReservedQuantity(inventoryItemId);
         
             logger.info("Zerando estoque reserved. Quantidade atual: {}, decrementando: {}", currentReserved, currentReserved);
-            adjustReservedInventory(inventoryItemId, -currentReserved, "reset");
-            adjustAvailableInventory(inventoryItemId, currentReserved, "reset");
+            adjustReservedAndAvailable(inventoryItemId, -currentReserved, currentReserved, "reset");
    
     }
 
-    public void adjustAvailableInventory(String shopifyInventoryItemId, int delta, String operation) {
-
+    /**
+     * Adjusts the reserved and the available quantity of one inventory item in
+     * a single request. Shopify applies the two adjustments on their own, so
+     * one of them can be applied while the other is rejected; the exception
+     * then names the quantity already applied, which must not be sent again.
+     *
+     * @throws RuntimeException if Shopify rejected either adjustment or could not be called
+     */
+    public void adjustReservedAndAvailable(String shopifyInventoryItemId, int reservedDelta, int availableDelta,
+            String operation) {
         String rawInventoryId = shopifyInventoryItemId.substring(shopifyInventoryItemId.lastIndexOf("/") + 1);
+        String inventoryItemId = "gid://shopify/InventoryItem/" + rawInventoryId;
 
-        String mutation = """
-                mutation inventoryAdjustQuantities($input: InventoryAdjustQuantitiesInput!) {
-                        inventoryAdjustQuantities(input: $input) {
-                            userErrors {
-                                field
-                                message
-                            }
-                            inventoryAdjustmentGroup {
-                                createdAt
-                                reason
-                                referenceDocumentUri
-                                changes {
-                                    name
-                                    delta
-                                }
-                            }
-                        }
-                }
-                  """;
+        Map<String, List<InventoryChange>> changes = new LinkedHashMap<>();
+        if (reservedDelta != 0) {
+            changes.put("reserved", List.of(InventoryChange.of(inventoryItemId, reservedDelta)));
+        }
+        if (availableDelta != 0) {
+            changes.put("available", List.of(InventoryChange.of(inventoryItemId, availableDelta)));
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
 
-        Map<String, Object> changes = new HashMap<>();
-        changes.put("delta", delta);
-        changes.put("inventoryItemId", "gid://shopify/InventoryItem/" + rawInventoryId);
-        changes.put("locationId", "gid://shopify/Location/64095387781");
-       
+        List<String> errors = new ArrayList<>();
+        List<String> applied = new ArrayList<>();
+        for (Map.Entry<String, AdjustmentResult> result : adjustQuantities(changes, operation).entrySet()) {
+            if (!result.getValue().wasAttempted(0)) {
+                throw new CircuitOpenException("Shopify indisponível, ajuste de estoque não enviado");
+            }
+            String error = result.getValue().error(0);
+            if (error != null) {
+                errors.add(result.getKey() + ": " + error);
+            } else {
+                applied.add(result.getKey());
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new RuntimeException("Erro ao ajustar estoque " + errors
+                    + (applied.isEmpty() ? "" : " (já aplicado: " + applied + ")"));
+        }
+        logger.info("Estoque reserved/available ajustado com sucesso. Operation: {}, Reserved: {}, Available: {}",
+                operation, reservedDelta, availableDelta);
+    }
 
-        Map<String, Object> input = new HashMap<>();
-        input.put("reason", "correction");
-        input.put("name", "available");
-        input.put("changes", List.of(changes));
+    /** Changes to a single inventory quantity; see {@link #adjustQuantities(Map, String)}. */
+    public AdjustmentResult adjustQuantities(String name, List<InventoryChange> changes, String reference) {
+        return adjustQuantities(Map.of(name, changes), reference).get(name);
+    }
 
-        Map<String, Object> variables = new HashMap<>();
-        variables.put("input", input);
+    /**
+     * Applies changes to inventory quantities ({@code reserved},
+     * {@code available}, ...) with as few requests as possible. Each request is
+     * one GraphQL document with an aliased {@code inventoryAdjustQuantities}
+     * per quantity, carrying up to {@code shopify.inventory.adjust-batch-size}
+     * changes of each, and its response is read per alias.
+     *
+     * Shopify applies each alias on its own, with all of its changes or none.
+     * When it rejects some changes of an alias, they are reported in the result
+     * and that alias alone is sent again without them, so one bad inventory item
+     * does not hold back the others. An alias rejected as a whole, or a request
+     * that fails, fails all of its changes. Once the Shopify circuit is open, no
+     * further request is sent.
+     *
+     * @return outcome per quantity name
+     */
+    public Map<String, AdjustmentResult> adjustQuantities(Map<String, List<InventoryChange>> changesByName,
+            String reference) {
+        Map<String, Integer> attempted = new LinkedHashMap<>();
+        Map<String, Map<Integer, String>> rejected = new HashMap<>();
+        Map<String, Map<Integer, String>> failed = new HashMap<>();
+        changesByName.keySet().forEach(name -> {
+            attempted.put(name, 0);
+            rejected.put(name, new HashMap<>());
+            failed.put(name, new HashMap<>());
+        });
+        int batchSize = Math.max(adjustBatchSize, 1);
+        int longest = changesByName.values().stream().mapToInt(List::size).max().orElse(0);
+
+        for (int from = 0; from < longest; from += batchSize) {
+            int to = from + batchSize;
+            // Positions of the changes of each quantity not accepted or failed yet
+            Map<String, List<Integer>> pending = new LinkedHashMap<>();
+            changesByName.forEach((name, changes) -> {
+                List<Integer> positions = new ArrayList<>();
+                for (int i = attempted.get(name); i < Math.min(to, changes.size()); i++) {
+                    positions.add(i);
+                }
+                if (!positions.isEmpty()) {
+                    pending.put(name, positions);
+                }
+            });
+
+            while (!pending.isEmpty()) {
+                JsonNode response;
+                try {
+                    response = sendAdjustment(changesByName, pending, reference);
+                } catch (CircuitOpenException e) {
+                    logger.warn("Circuit do Shopify aberto, ajustes de estoque {} não enviados", pending.keySet());
+                    return results(changesByName, attempted, rejected, failed);
+                } catch (RuntimeException e) {
+                    String error = e.getCause() != null ? e.getMessage() + ": " + e.getCause().getMessage() : e.getMessage();
+                    logger.error("Erro ao executar mutation de ajuste de estoque {}: {}", pending.keySet(), error);
+                    pending.forEach((name, positions) -> {
+                        positions.forEach(i -> failed.get(name).put(i, error));
+                        attempted.put(name, Math.min(to, changesByName.get(name).size()));
+                    });
+                    break;
+                }
 
-        int maxRetries = 2;
-        long backoffMs = 1000;
-        
-        for (int attempt = 0; attempt < maxRetries; attempt++) {
-            try {
-                JsonNode response = shopifyGraphqlService.executeMutation(mutation, variables);
+                for (String name : List.copyOf(pending.keySet())) {
+                    List<Integer> positions = pending.get(name);
+                    JsonNode userErrors = response.path(name).path("userErrors");
+                    if (!userErrors.isArray() || userErrors.isEmpty()) {
+                        logger.info("Estoque {} ajustado com sucesso. Alterações: {}, Reference: {}", name,
+                                positions.size(), reference);
+                        pending.remove(name);
+                        attempted.put(name, Math.min(to, changesByName.get(name).size()));
+                        continue;
+                    }
 
-                // Verificar se há erros
-                if (response.has("inventoryAdjustQuantities")) {
-                    JsonNode userErrors = response.get("inventoryAdjustQuantities").get("userErrors");
-                    if (userErrors != null && userErrors.isArray() && userErrors.size() > 0) {
-                        throw new RuntimeException("Erro ao ajustar estoque available: " + userErrors.toString());
+                    Set<Integer> rejectedPositions = new HashSet<>();
+                    boolean wholeAdjustment = false;
+                    for (JsonNode userError : userErrors) {
+                        Integer position = changeIndex(userError.path("field"));
+                        if (position == null || position >= positions.size()) {
+                            wholeAdjustment = true;
+                            break;
+                        }
+                        rejectedPositions.add(position);
+                        rejected.get(name).put(positions.get(position), userError.path("message").asText());
                     }
+                    if (wholeAdjustment) {
+                        logger.error("Shopify recusou o ajuste de estoque {} ({} alterações): {}", name,
+                                positions.size(), userErrors);
+                        for (int i : positions) {
+                            if (!rejected.get(name).containsKey(i)) {
+                                failed.get(name).put(i, "Erro ao ajustar estoque " + name + ": " + userErrors);
+                            }
+                        }
+                        pending.remove(name);
+                        attempted.put(name, Math.min(to, changesByName.get(name).size()));
+                        continue;
+                    }
+                    logger.warn("Shopify recusou {} de {} ajustes de estoque {}, reenviando os demais: {}",
+                            rejectedPositions.size(), positions.size(), name, userErrors);
 
-                    JsonNode adjustmentGroup = response.get("inventoryAdjustQuantities").get("inventoryAdjustmentGroup");
-                    if (adjustmentGroup != null) {
-                        JsonNode referenceUri = adjustmentGroup.get("referenceDocumentUri");
-                        String reference = (referenceUri != null) ? referenceUri.asText() : "N/A";
-                        logger.info("Estoque available ajustado com sucesso. Operation: {}, Delta: {}, Reference: {}",
-                                operation, delta, reference);
+                    List<Integer> remaining = new ArrayList<>();
+                    for (int position = 0; position < positions.size(); position++) {
+                        if (!rejectedPositions.contains(position)) {
+                            remaining.add(positions.get(position));
+                        }
                     }
-                }
-                return; // Success, exit retry loop
-                
-            } catch (Exception e) {
-                if (attempt < maxRetries - 1 && (e instanceof java.net.http.HttpTimeoutException 
-                        || (e.getCause() instanceof java.io.IOException))) {
-                    logger.warn("Erro ao executar mutation de ajuste de estoque available. Tentativa {}/{}. Retentando...", 
-                            attempt + 1, maxRetries);
-                    try {
-                        Thread.sleep(backoffMs * (attempt + 1));
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
+                    if (remaining.isEmpty()) {
+                        pending.remove(name);
+                        attempted.put(name, Math.min(to, changesByName.get(name).size()));
+                    } else {
+                        pending.put(name, remaining);
                     }
-                } else {
-                    throw new RuntimeException("Erro ao executar mutation de ajuste de estoque available", e);
                 }
             }
         }
+        return results(changesByName, attempted, rejected, failed);
     }
 
-    public void adjustReservedInventory(String shopifyInventoryItemId, int delta, String operation) {
+    // One document with an aliased adjustment per quantity, for the pending changes of each
+    private JsonNode sendAdjustment(Map<String, List<InventoryChange>> changesByName,
+            Map<String, List<Integer>> pending, String reference) {
+        long now = System.currentTimeMillis();
+        StringBuilder declarations = new StringBuilder();
+        StringBuilder fields = new StringBuilder();
+        Map<String, Object> variables = new HashMap<>();
 
-        String rawInventoryId = shopifyInventoryItemId.substring(shopifyInventoryItemId.lastIndexOf("/") + 1);
-        
-        String mutation = """
-                mutation inventoryAdjustQuantities($input: InventoryAdjustQuantitiesInput!) {
-                        inventoryAdjustQuantities(input: $input) {
-                            userErrors {
-                                field
-                                message
-                            }
-                            inventoryAdjustmentGroup {
-                                createdAt
-                                reason
-                                referenceDocumentUri
-                                changes {
-                                    name
-                                    delta
-                                }
-                            }
-                        }
+        pending.forEach((name, positions) -> {
+            List<Map<String, Object>> inputChanges = new ArrayList<>();
+            for (int i : positions) {
+                InventoryChange change = changesByName.get(name).get(i);
+                Map<String, Object> inputChange = new HashMap<>();
+                inputChange.put("delta", change.delta());
+                inputChange.put("inventoryItemId", change.inventoryItemId());
+                inputChange.put("locationId", change.locationId());
+                if (!"available".equals(name)) {
+                    // Shopify requires a ledger document for every quantity other than available
+                    inputChange.put("ledgerDocumentUri", "gid://inventory-sync-app/Ledger/" + now + "-" + reference);
                 }
-                  """;
-
-        Map<String, Object> changes = new HashMap<>();
-        changes.put("delta", delta);
-        changes.put("inventoryItemId", "gid://shopify/InventoryItem/" + rawInventoryId);
-        changes.put("locationId", "gid://shopify/Location/64095387781");
-        changes.put("ledgerDocumentUri", "gid://inventory-sync-app/Ledger/" + System.currentTimeMillis() + "-" + operation);
+                inputChanges.add(inputChange);
+            }
 
-        Map<String, Object> input = new HashMap<>();
-        input.put("reason", "correction");
-        input.put("name", "reserved");
-        input.put("referenceDocumentUri", "gid://inventory-sync-app/ManualAdjustment/" + System.currentTimeMillis() + "-" + operation);
-        input.put("changes", List.of(changes));
+            Map<String, Object> input = new HashMap<>();
+            input.put("reason", "correction");
+            input.put("name", name);
+            input.put("referenceDocumentUri", "gid://inventory-sync-app/ManualAdjustment/" + now + "-" + reference);
+            input.put("changes", inputChanges);
 
-        Map<String, Object> variables = new HashMap<>();
-        variables.put("input", input);
+            if (declarations.length() > 0) {
+                declarations.append(", ");
+            }
+            declarations.append('$').append(name).append(": InventoryAdjustQuantitiesInput!");
+            fields.append(ADJUST_QUANTITIES_FIELD.formatted(name));
+            variables.put(name, input);
+        });
 
-        try {
-            JsonNode response = shopifyGraphqlService.executeMutation(mutation, variables);
+        String mutation = "mutation inventoryAdjustQuantities(" + declarations + ") {\n" + fields + "}\n";
+        return shopifyGraphqlService.executeMutation(mutation, variables);
+    }
 
-            // Verificar se há erros
-            if (response.has("inventoryAdjustQuantities")) {
-                JsonNode userErrors = response.get("inventoryAdjustQuantities").get("userErrors");
-                if (userErrors != null && userErrors.isArray() && userErrors.size() > 0) {
-                    throw new RuntimeException("Erro ao ajustar estoque reserved: " + userErrors.toString());
+    // Also patches the local inventory mirror with the changes Shopify applied
+    private Map<String, AdjustmentResult> results(Map<String, List<InventoryChange>> changesByName,
+            Map<String, Integer> attempted, Map<String, Map<Integer, String>> rejected,
+            Map<String, Map<Integer, String>> failed) {
+        Map<String, AdjustmentResult> results = new LinkedHashMap<>();
+        attempted.forEach((name, count) -> {
+            AdjustmentResult result = new AdjustmentResult(count, rejected.get(name), failed.get(name));
+            results.put(name, result);
+
+            List<InventoryChange> applied = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                if (result.error(i) == null) {
+                    applied.add(changesByName.get(name).get(i));
                 }
+            }
+            inventoryLevelMirror.applyAdjustments(name, applied);
+        });
+        return results;
+    }
 
-                JsonNode adjustmentGroup = response.get("inventoryAdjustQuantities").get("inventoryAdjustmentGroup");
-                if (adjustmentGroup != null) {
-                    JsonNode referenceUri = adjustmentGroup.get("referenceDocumentUri");
-                    String reference = (referenceUri != null) ? referenceUri.asText() : "N/A";
-                    logger.info("Estoque reserved ajustado com sucesso. Operation: {}, Delta: {}, Reference: {}", 
-                            operation, delta, reference);
+    // Position of the change a user error refers to, from a field path like ["input", "changes", "3", "delta"]
+    private static Integer changeIndex(JsonNode field) {
+        for (int i = 0; i + 1 < field.size(); i++) {
+            if ("changes".equals(field.get(i).asText())) {
+                try {
+                    return Integer.valueOf(field.get(i + 1).asText());
+                } catch (NumberFormatException e) {
+                    return null;
                 }
             }
-        } catch (Exception e) {
-            throw new RuntimeException("Erro ao executar mutation de ajuste de estoque reserved", e);
         }
+        return null;
+    }
+
+    public void adjustReservedInventory(String shopifyInventoryItemId, int delta, String operation) {
+        adjustReservedAndAvailable(shopifyInventoryItemId, delta, 0, operation);
     }
 
 }
@@ -1,100 +1,359 @@
 package com.tartaritech.inventory_sync.services;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.tartaritech.inventory_sync.entities.ShopifySyncOperation;
 import com.tartaritech.inventory_sync.repositories.ShopifySyncOperationRepository;
+import com.tartaritech.inventory_sync.services.ShopifyInventoryService.AdjustmentResult;
+import com.tartaritech.inventory_sync.services.ShopifyInventoryService.InventoryChange;
+import com.tartaritech.inventory_sync.services.exceptions.CircuitOpenException;
 
 @Service
 public class ShopifySyncService {
 
     private final ShopifySyncOperationRepository shopifySyncOperationRepository;
     private final ShopifyInventoryService shopifyInventoryService;
+    private final InventoryItemGidCache inventoryItemGidCache;
+    private final TransactionTemplate transactionTemplate;
     private final Logger logger = LoggerFactory.getLogger(ShopifySyncService.class);
 
+    private static final int MAX_RETRIES = 3;
+    private static final int ERROR_MESSAGE_LENGTH = 255;
+
+    @Value("${shopify.sync.chunk-size:500}")
+    private int chunkSize;
+
     public ShopifySyncService(ShopifySyncOperationRepository shopifySyncOperationRepository,
-                             ShopifyInventoryService shopifyInventoryService) {
+                             ShopifyInventoryService shopifyInventoryService,
+                             InventoryItemGidCache inventoryItemGidCache,
+                             TransactionTemplate transactionTemplate) {
         this.shopifySyncOperationRepository = shopifySyncOperationRepository;
         this.shopifyInventoryService = shopifyInventoryService;
+        this.inventoryItemGidCache = inventoryItemGidCache;
+        this.transactionTemplate = transactionTemplate;
     }
 
+    /**
+     * Executes pending operations in chunks of {@code shopify.sync.chunk-size}.
+     * The Shopify calls run outside any transaction; the outcome of each chunk
+     * is then written in one short transaction, so no DB connection is held
+     * while waiting on Shopify and the persistence context never grows past
+     * one chunk.
+     *
+     * Within a chunk the operations are netted per SKU (see {@link SkuBatch})
+     * and the SKUs' changes sent together: one request for the whole chunk,
+     * with a reserved and an available {@code inventoryAdjustQuantities}, split
+     * only at {@code shopify.inventory.adjust-batch-size} changes.
+     */
     @Scheduled(fixedDelay = 30000)
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
     public void processPendingShopifyOperations() {
         logger.debug("ShopifySyncService: Checking for pending Shopify operations...");
-        
-        List<ShopifySyncOperation> pendingOps = shopifySyncOperationRepository
-            .findByStatusAndRetryCountLessThan("PENDING", 3);
-        
-        if (pendingOps.isEmpty()) {
+
+        long lastId = 0;
+        int processed = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<ShopifySyncOperation> chunk = shopifySyncOperationRepository
+                .findByStatusAndRetryCountLessThanAndIdGreaterThanOrderByIdAsc("PENDING", MAX_RETRIES, lastId,
+                        PageRequest.of(0, Math.max(chunkSize, 1)));
+
+            if (chunk.isEmpty()) {
+                break;
+            }
+            lastId = chunk.get(chunk.size() - 1).getId();
+
+            logger.info("ShopifySyncService: Processing {} pending Shopify operations", chunk.size());
+            int handled = executeChunk(chunk);
+            processed += handled;
+            if (handled < chunk.size()) {
+                break; // circuit open
+            }
+        }
+
+        if (processed == 0) {
             logger.debug("ShopifySyncService: No pending Shopify operations found");
             return;
         }
-        
-        logger.info("ShopifySyncService: Processing {} pending Shopify operations", pendingOps.size());
-        
-        for (ShopifySyncOperation op : pendingOps) {
+        logger.info("Completed processing Shopify operations");
+    }
+
+    /**
+     * Runs the chunk's operations against Shopify, netted per SKU, and saves
+     * their outcome. The reserved and available deltas of all SKUs go out
+     * together in batched requests. Every operation of a SKU gets the
+     * outcome of its SKU's changes: all EXECUTED together, or all failed with
+     * the same error (each counting its own retry). Shopify applies the reserved
+     * and the available change on their own, so a failed SKU may have one of
+     * them applied; its operations record that half and the retry leaves it
+     * out. Once the Shopify circuit is open, the SKUs not adjusted yet are left
+     * untouched.
+     *
+     * @return number of operations handled; fewer than the chunk size if the circuit opened
+     */
+    private int executeChunk(List<ShopifySyncOperation> chunk) {
+        List<SkuAdjustment> adjustments = SkuBatch.net(chunk).stream().map(SkuAdjustment::new).toList();
+        // Sent as the Shopify adjustment reference and quoted in the error of every failed SKU with several operations
+        String reference = "batch-" + chunk.get(0).getId() + "-" + chunk.size();
+
+        boolean circuitOpen = resolveInventoryItems(adjustments) || adjustInventory(adjustments, reference);
+        if (circuitOpen) {
+            // Shopify is unavailable: keep the remaining operations PENDING without spending retries
+            logger.warn("Shopify circuit open, postponing remaining operations");
+        }
+
+        List<ShopifySyncOperation> handled = new ArrayList<>();
+        Instant executedAt = Instant.now();
+        for (SkuAdjustment adjustment : adjustments) {
+            SkuBatch batch = adjustment.batch;
+            if (adjustment.postponed) {
+                continue;
+            }
+            if (adjustment.error == null) {
+                for (ShopifySyncOperation op : batch.operations()) {
+                    op.setStatus("EXECUTED");
+                    op.setExecutedAt(executedAt);
+                    op.setErrorMessage(null);
+                }
+                logger.info("Shopify operations executed for SKU {}: {} operations (reserved {}, available {})",
+                           batch.sku(), batch.operations().size(), batch.reservedDelta(), batch.availableDelta());
+                logger.debug("Operations executed for SKU {}: {}", batch.sku(), batch.operationIds());
+            } else {
+                for (ShopifySyncOperation op : batch.operations()) {
+                    op.setReservedApplied(Boolean.TRUE.equals(op.getReservedApplied()) || adjustment.applied.contains("reserved"));
+                    op.setAvailableApplied(Boolean.TRUE.equals(op.getAvailableApplied()) || adjustment.applied.contains("available"));
+                }
+                recordFailure(batch, reference, adjustment.error);
+            }
+            handled.addAll(batch.operations());
+        }
+
+        saveOutcome(handled);
+        return handled.size();
+    }
+
+    private void recordFailure(SkuBatch batch, String reference, String message) {
+        String error = batch.operations().size() > 1
+                ? "SKU adjustment " + reference + " failed: " + message
+                : message;
+        if (error != null && error.length() > ERROR_MESSAGE_LENGTH) {
+            error = error.substring(0, ERROR_MESSAGE_LENGTH);
+        }
+        for (ShopifySyncOperation op : batch.operations()) {
+            op.setRetryCount(op.getRetryCount() + 1);
+            op.setErrorMessage(error);
+
+            if (op.getRetryCount() >= MAX_RETRIES) {
+                op.setStatus("FAILED");
+                logger.error("Shopify operation {} failed permanently after 3 attempts: {} for subscription {} SKU {}",
+                           op.getId(), op.getOperation(), op.getSubscriptionId(), op.getSku());
+            } else {
+                logger.warn("Shopify operation {} failed, will retry (attempt {}/3): {} for subscription {} SKU {}",
+                           op.getId(), op.getRetryCount(), op.getOperation(), op.getSubscriptionId(), op.getSku());
+            }
+        }
+        logger.warn("Shopify adjustment failed for SKU {} ({} operations): {}", batch.sku(),
+                   batch.operations().size(), message);
+    }
+
+    /**
+     * Looks up the inventory item of every SKU that needs a Shopify change.
+     *
+     * @return true if the circuit opened, leaving every SKU that needs Shopify postponed
+     */
+    private boolean resolveInventoryItems(List<SkuAdjustment> adjustments) {
+        for (SkuAdjustment adjustment : adjustments) {
+            SkuBatch batch = adjustment.batch;
+            if (!batch.needsShopify()) {
+                logger.info("Operations {} for SKU {} cancel out, no Shopify adjustment needed", batch.operationIds(),
+                            batch.sku());
+                continue;
+            }
             try {
-                executeShopifyOperation(op);
-                op.setStatus("EXECUTED");
-                op.setExecutedAt(Instant.now());
-                logger.info("Shopify operation executed: {} for subscription {} SKU {}", 
-                           op.getOperation(), op.getSubscriptionId(), op.getSku());
+                adjustment.gid = inventoryItemGidCache.get(batch.sku());
+                if (adjustment.gid == null) {
+                    logger.error("Shopify variant not found for SKU: {}", batch.sku());
+                    adjustment.error = "Shopify variant not found for SKU: " + batch.sku();
+                }
             } catch (Exception e) {
-                op.setRetryCount(op.getRetryCount() + 1);
-                op.setErrorMessage(e.getMessage());
-                
-                if (op.getRetryCount() >= 3) {
-                    op.setStatus("FAILED");
-                    logger.error("Shopify operation failed permanently after 3 attempts: {} for subscription {} SKU {}", 
-                               op.getOperation(), op.getSubscriptionId(), op.getSku(), e);
-                } else {
-                    logger.warn("Shopify operation failed, will retry (attempt {}/3): {} for subscription {} SKU {}", 
-                               op.getRetryCount(), op.getOperation(), op.getSubscriptionId(), op.getSku(), e);
+                if (isCircuitOpen(e)) {
+                    adjustments.stream()
+                        .filter(pending -> pending.batch.needsShopify() && pending.error == null)
+                        .forEach(pending -> pending.postponed = true);
+                    return true;
                 }
+                adjustment.error = e.getMessage();
             }
-            shopifySyncOperationRepository.save(op);
         }
-        
-        logger.info("Completed processing Shopify operations");
+        return false;
     }
 
-    private void executeShopifyOperation(ShopifySyncOperation op) {
-        logger.info("Executing Shopify operation: {} for SKU: {} (subscription: {})", 
-                    op.getOperation(), op.getSku(), op.getSubscriptionId());
-
-        Integer reservedInventory = prepareReservedInventory(op);
-        Integer availableInventory = prepareAvailableInventory(op);
-
-        logger.debug("Calculated inventory adjustments - Reserved: {}, Available: {}", 
-                     reservedInventory, availableInventory);
-
-        String[] arr = op.getSku().split("_");
-        String shopifySku = arr[0];
-        
-        logger.debug("Looking up Shopify variant for SKU: {}", shopifySku);
-        String shopifyGid = shopifyInventoryService.findVariantGidBySku(shopifySku);
-        
-        if (shopifyGid == null) {
-            logger.error("Shopify variant not found for SKU: {}", shopifySku);
-            throw new RuntimeException("Shopify variant not found for SKU: " + shopifySku);
-        }
-        
-        logger.info("Found Shopify variant: {} - Adjusting inventory", shopifyGid);
-        shopifyInventoryService.adjustReservedInventory(shopifyGid, reservedInventory, op.getOperation());
-        shopifyInventoryService.adjustAvailableInventory(shopifyGid, availableInventory, op.getOperation());
-        logger.info("Successfully adjusted Shopify inventory for SKU: {}", shopifySku);
+    /**
+     * Sends the reserved and available deltas of the SKUs still pending in one
+     * batched request, so both quantities of a SKU are adjusted together. SKUs
+     * sharing a Shopify variant become a single change. A change Shopify
+     * rejects fails its SKUs and evicts their inventory item, which may be
+     * stale (variant recreated), so the retry resolves it again. The quantities
+     * a SKU got through are kept in {@link SkuAdjustment#applied}, even when its
+     * other quantity failed.
+     *
+     * @return true if the circuit opened, leaving the SKUs not adjusted postponed
+     */
+    private boolean adjustInventory(List<SkuAdjustment> adjustments, String reference) {
+        Map<String, List<SkuAdjustment>> byItem = new LinkedHashMap<>();
+        for (SkuAdjustment adjustment : adjustments) {
+            if (adjustment.isPending()) {
+                byItem.computeIfAbsent(adjustment.gid, gid -> new ArrayList<>()).add(adjustment);
+            }
+        }
+
+        Map<String, List<InventoryChange>> changes = new LinkedHashMap<>();
+        Map<String, List<List<SkuAdjustment>>> owners = new LinkedHashMap<>();
+        addChanges("reserved", SkuBatch::reservedDelta, byItem, changes, owners);
+        addChanges("available", SkuBatch::availableDelta, byItem, changes, owners);
+        if (changes.isEmpty()) {
+            return false;
+        }
+
+        logger.info("Adjusting Shopify inventory of {} SKUs: {} reserved and {} available changes",
+                    byItem.values().stream().mapToInt(List::size).sum(),
+                    changes.getOrDefault("reserved", List.of()).size(),
+                    changes.getOrDefault("available", List.of()).size());
+        Map<String, AdjustmentResult> results = shopifyInventoryService.adjustQuantities(changes, reference);
+
+        boolean circuitOpen = false;
+        for (Map.Entry<String, AdjustmentResult> entry : results.entrySet()) {
+            String name = entry.getKey();
+            AdjustmentResult result = entry.getValue();
+            List<List<SkuAdjustment>> changeOwners = owners.get(name);
+            for (int i = 0; i < changeOwners.size(); i++) {
+                if (!result.wasAttempted(i)) {
+                    changeOwners.get(i).forEach(adjustment -> adjustment.postponed = true);
+                    circuitOpen = true;
+                    continue;
+                }
+                String error = result.error(i);
+                if (error == null) {
+                    changeOwners.get(i).forEach(adjustment -> adjustment.applied.add(name));
+                    continue;
+                }
+                boolean rejected = result.rejected().containsKey(i);
+                for (SkuAdjustment adjustment : changeOwners.get(i)) {
+                    String message = "Shopify " + name + " adjustment failed: " + error;
+                    adjustment.error = adjustment.error == null ? message : adjustment.error + "; " + message;
+                    if (rejected) {
+                        inventoryItemGidCache.evict(adjustment.batch.sku());
+                    }
+                }
+            }
+        }
+        return circuitOpen;
+    }
+
+    // One change per inventory item whose SKUs have a non-zero net delta for this quantity; a zero one is applied as is
+    private void addChanges(String name, ToIntFunction<SkuBatch> delta, Map<String, List<SkuAdjustment>> byItem,
+            Map<String, List<InventoryChange>> changes, Map<String, List<List<SkuAdjustment>>> owners) {
+        byItem.forEach((gid, sharing) -> {
+            int total = sharing.stream().mapToInt(adjustment -> delta.applyAsInt(adjustment.batch)).sum();
+            if (total == 0) {
+                sharing.forEach(adjustment -> adjustment.applied.add(name));
+            } else {
+                changes.computeIfAbsent(name, n -> new ArrayList<>()).add(InventoryChange.of(gid, total));
+                owners.computeIfAbsent(name, n -> new ArrayList<>()).add(sharing);
+            }
+        });
+    }
+
+    // Progress of one SKU batch through the chunk's Shopify calls
+    private static final class SkuAdjustment {
+        final SkuBatch batch;
+        String gid;
+        String error;
+        boolean postponed;
+        // Quantities ("reserved", "available") whose change Shopify accepted
+        final Set<String> applied = new HashSet<>();
+
+        SkuAdjustment(SkuBatch batch) {
+            this.batch = batch;
+        }
+
+        boolean isPending() {
+            return gid != null && error == null && !postponed;
+        }
+    }
+
+    /**
+     * The pending operations of one SKU in a chunk, netted into one reserved
+     * and one available delta. Operations that cancel out (an insert and a
+     * delete of the same quantity, deltas summing to zero) need no Shopify
+     * call at all. A half an earlier attempt already applied counts as zero.
+     */
+    private record SkuBatch(String sku, List<ShopifySyncOperation> operations, int reservedDelta,
+            int availableDelta) {
+
+        // Batches in order of each SKU's first operation
+        static List<SkuBatch> net(List<ShopifySyncOperation> chunk) {
+            Map<String, List<ShopifySyncOperation>> bySku = new LinkedHashMap<>();
+            for (ShopifySyncOperation op : chunk) {
+                bySku.computeIfAbsent(op.getSku(), sku -> new ArrayList<>()).add(op);
+            }
+            List<SkuBatch> batches = new ArrayList<>();
+            bySku.forEach((sku, ops) -> {
+                int reserved = 0;
+                int available = 0;
+                for (ShopifySyncOperation op : ops) {
+                    reserved += Boolean.TRUE.equals(op.getReservedApplied()) ? 0 : prepareReservedInventory(op);
+                    available += Boolean.TRUE.equals(op.getAvailableApplied()) ? 0 : prepareAvailableInventory(op);
+                }
+                batches.add(new SkuBatch(sku, ops, reserved, available));
+            });
+            return batches;
+        }
+
+        boolean needsShopify() {
+            return reservedDelta != 0 || availableDelta != 0;
+        }
+
+        List<Long> operationIds() {
+            return operations.stream().map(ShopifySyncOperation::getId).toList();
+        }
+    }
+
+    // The operations were loaded outside this transaction: attach them first so the merge does not select each row
+    private void saveOutcome(List<ShopifySyncOperation> handled) {
+        if (handled.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(tx -> {
+            shopifySyncOperationRepository.findAllById(handled.stream().map(ShopifySyncOperation::getId).toList());
+            shopifySyncOperationRepository.saveAll(handled);
+        });
+    }
+
+    private boolean isCircuitOpen(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof CircuitOpenException) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private Integer prepareReservedInventory(ShopifySyncOperation op) {
+    // Also the reserved delta recorded in the reservation ledger
+    static Integer prepareReservedInventory(ShopifySyncOperation op) {
         Integer reservedInventory;
         switch (op.getOperation()) {
             case "hard-decrement":
@@ -110,7 +369,7 @@ public class ShopifySyncService {
         return reservedInventory;
     }
 
-    private Integer prepareAvailableInventory(ShopifySyncOperation op) {
+    private static Integer prepareAvailableInventory(ShopifySyncOperation op) {
         Integer availableInventory;
         switch (op.getOperation()) {
             case "hard-decrement":
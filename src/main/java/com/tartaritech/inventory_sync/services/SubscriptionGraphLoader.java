@@ -0,0 +1,106 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.stereotype.Component;
+
+import com.tartaritech.inventory_sync.entities.Customer;
+import com.tartaritech.inventory_sync.entities.Subscription;
+import com.tartaritech.inventory_sync.repositories.CustomerRepository;
+import com.tartaritech.inventory_sync.repositories.OrderRepository;
+import com.tartaritech.inventory_sync.repositories.SubscriptionRepository;
+
+/**
+ * Loads the local state of a batch of subscriptions (subscription, customer,
+ * orders, products and their controlled SKUs) with a fixed number of
+ * set-based queries, so reconciliation works on an in-memory map instead of
+ * issuing lookups per subscription and per recurrence.
+ *
+ * Must be called inside the transaction that reconciles the batch: the
+ * returned entities are managed by its persistence context.
+ */
+@Component
+public class SubscriptionGraphLoader {
+
+    private final SubscriptionRepository subscriptionRepository;
+    private final OrderRepository orderRepository;
+    private final CustomerRepository customerRepository;
+
+    public SubscriptionGraphLoader(SubscriptionRepository subscriptionRepository,
+            OrderRepository orderRepository,
+            CustomerRepository customerRepository) {
+        this.subscriptionRepository = subscriptionRepository;
+        this.orderRepository = orderRepository;
+        this.customerRepository = customerRepository;
+    }
+
+    /**
+     * Loads the given subscriptions and the given customers. At most three
+     * queries: subscriptions with customer and orders, orders with products
+     * (initializing the order collections loaded by the first one), customers
+     * with their subscription lists.
+     */
+    public Graph load(Collection<String> subscriptionIds, Collection<String> customerEmails) {
+        Set<String> ids = subscriptionIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        Set<String> emails = customerEmails.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+
+        Map<String, Subscription> subscriptions = new HashMap<>();
+        if (!ids.isEmpty()) {
+            subscriptionRepository.findGraphByIdIn(ids).forEach(s -> subscriptions.put(s.getId(), s));
+            if (!subscriptions.isEmpty()) {
+                // Two collection fetches cannot share one query (bags)
+                orderRepository.findGraphBySubscriptionIdIn(subscriptions.keySet());
+            }
+        }
+
+        Map<String, Customer> customers = new HashMap<>();
+        if (!emails.isEmpty()) {
+            customerRepository.findGraphByEmailIn(emails).forEach(c -> customers.put(c.getEmail(), c));
+        }
+
+        return new Graph(subscriptions, customers);
+    }
+
+    public Graph load(Collection<String> subscriptionIds) {
+        return load(subscriptionIds, Set.of());
+    }
+
+    /**
+     * Local state of one batch. Reconciliation keeps it current as it creates
+     * and removes subscriptions and customers.
+     */
+    public static class Graph {
+        private final Map<String, Subscription> subscriptions;
+        private final Map<String, Customer> customers;
+
+        private Graph(Map<String, Subscription> subscriptions, Map<String, Customer> customers) {
+            this.subscriptions = subscriptions;
+            this.customers = customers;
+        }
+
+        public Subscription getSubscription(String subscriptionId) {
+            return subscriptions.get(subscriptionId);
+        }
+
+        public void putSubscription(Subscription subscription) {
+            subscriptions.put(subscription.getId(), subscription);
+        }
+
+        public void removeSubscription(String subscriptionId) {
+            subscriptions.remove(subscriptionId);
+        }
+
+        public Customer getCustomer(String email) {
+            return customers.get(email);
+        }
+
+        public void putCustomer(Customer customer) {
+            customers.put(customer.getEmail(), customer);
+        }
+    }
+}
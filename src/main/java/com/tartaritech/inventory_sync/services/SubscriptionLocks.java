@@ -0,0 +1,72 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * One lock per subscription ID, shared by the polling cycle and the webhook
+ * workers so they never write the same subscription at the same time, while
+ * different subscriptions are written in parallel.
+ *
+ * A group of IDs is locked in sorted order, so two groups never wait on each
+ * other in a cycle. The lock of an ID is dropped once no thread holds or
+ * waits for it.
+ */
+class SubscriptionLocks {
+
+    private static final class Entry {
+        final ReentrantLock lock = new ReentrantLock();
+        // Guarded by the map's compute on this ID
+        int users;
+    }
+
+    private final Map<String, Entry> locks = new ConcurrentHashMap<>();
+
+    /** Runs {@code action} holding the locks of all {@code ids}, null IDs aside. */
+    <T> T withLocks(Collection<String> ids, Supplier<T> action) {
+        List<String> sorted = ids.stream().filter(Objects::nonNull).distinct().sorted().toList();
+        int locked = 0;
+        try {
+            for (String id : sorted) {
+                lock(id);
+                locked++;
+            }
+            return action.get();
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                unlock(sorted.get(i));
+            }
+        }
+    }
+
+    void withLocks(Collection<String> ids, Runnable action) {
+        withLocks(ids, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // Number of IDs with a lock held or waited for
+    int size() {
+        return locks.size();
+    }
+
+    private void lock(String id) {
+        Entry entry = locks.compute(id, (k, existing) -> {
+            Entry e = existing != null ? existing : new Entry();
+            e.users++;
+            return e;
+        });
+        entry.lock.lock();
+    }
+
+    private void unlock(String id) {
+        locks.get(id).lock.unlock();
+        locks.computeIfPresent(id, (k, e) -> --e.users == 0 ? null : e);
+    }
+}
@@ -0,0 +1,304 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
+import com.tartaritech.inventory_sync.dtos.SubscriptionFullDTO;
+import com.tartaritech.inventory_sync.entities.SubscriptionRefreshState;
+import com.tartaritech.inventory_sync.repositories.SubscriptionRefreshStateRepository;
+
+/**
+ * Decides which listed subscriptions are fetched in detail on each
+ * reconciliation cycle.
+ *
+ * Tiers:
+ * - HOT: billing is near, or a controlled subscription has an emitted but
+ *   unpaid recurrence among its last two. Refetched every cycle by default.
+ * - WARM: controlled subscriptions otherwise. The interval doubles each time
+ *   the subscription is found unchanged, up to a maximum.
+ * - COLD: subscriptions without controlled SKUs. Checked rarely.
+ *
+ * WARM and COLD refreshes are never scheduled past the start of the billing
+ * window. IDs never seen before are always fetched, ahead of everything else;
+ * the per-cycle budget only limits refetches of known IDs.
+ */
+@Service
+public class SubscriptionRefreshScheduler {
+
+    public static final String TIER_HOT = "HOT";
+    public static final String TIER_WARM = "WARM";
+    public static final String TIER_COLD = "COLD";
+
+    private final SubscriptionRefreshStateRepository refreshStateRepository;
+    private final Logger logger = LoggerFactory.getLogger(SubscriptionRefreshScheduler.class);
+
+    @Value("${subscription.refresh.budget-per-cycle:300}")
+    private int budgetPerCycle;
+
+    @Value("${subscription.refresh.billing-window-days:3}")
+    private int billingWindowDays;
+
+    @Value("${subscription.refresh.hot-interval-minutes:0}")
+    private long hotIntervalMinutes;
+
+    @Value("${subscription.refresh.warm-min-interval-minutes:60}")
+    private long warmMinIntervalMinutes;
+
+    @Value("${subscription.refresh.warm-max-interval-minutes:1440}")
+    private long warmMaxIntervalMinutes;
+
+    @Value("${subscription.refresh.cold-interval-minutes:4320}")
+    private long coldIntervalMinutes;
+
+    public SubscriptionRefreshScheduler(SubscriptionRefreshStateRepository refreshStateRepository) {
+        this.refreshStateRepository = refreshStateRepository;
+    }
+
+    /**
+     * Loads every refresh state with a single query and opens a new cycle.
+     */
+    public Cycle startCycle() {
+        Map<String, SubscriptionRefreshState> states = new ConcurrentHashMap<>();
+        refreshStateRepository.findAll().forEach(s -> states.put(s.getSubscriptionId(), s));
+        logger.debug("Loaded {} subscription refresh states", states.size());
+        return new Cycle(states, Instant.now());
+    }
+
+    /**
+     * One reconciliation cycle. {@link #offer} and {@link #dueWithinBudget} are
+     * called from the listing thread. {@link #attach} and {@link #recordFetch}
+     * run on the reconciliation workers, in parallel, inside their chunk
+     * transactions; {@link #forget} runs inside the transaction of a canceled
+     * listing page. The loaded states are detached and saved explicitly, and a
+     * fetch only replaces the cycle's copy once its transaction commits, so a
+     * chunk replayed after a rollback does not count its fetches twice.
+     */
+    public class Cycle {
+        private final Map<String, SubscriptionRefreshState> states;
+        private final Instant startedAt;
+
+        // Listing thread only
+        private final Set<String> listed = new HashSet<>();
+        private final List<SubscriptionRefreshState> due = new ArrayList<>();
+        private int newIds;
+        private int notDue;
+        private int deferred;
+
+        private Cycle(Map<String, SubscriptionRefreshState> states, Instant startedAt) {
+            this.states = states;
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * Registers a listed subscription ID.
+         *
+         * @return true if it was never seen before and must be fetched right away
+         */
+        public boolean offer(String subscriptionId) {
+            if (!listed.add(subscriptionId)) {
+                return false;
+            }
+            SubscriptionRefreshState state = states.get(subscriptionId);
+            if (state == null) {
+                newIds++;
+                return true;
+            }
+            if (state.getNextRefreshAt().isAfter(startedAt)) {
+                notDue++;
+            } else {
+                due.add(state);
+            }
+            return false;
+        }
+
+        /**
+         * Known subscriptions whose refresh is due, most overdue first, capped at
+         * the per-cycle budget. Whatever is left stays due for the next cycle.
+         */
+        public List<String> dueWithinBudget() {
+            due.sort(Comparator.comparing(SubscriptionRefreshState::getNextRefreshAt));
+            int take = Math.min(due.size(), Math.max(budgetPerCycle, 0));
+            deferred = due.size() - take;
+            logger.info("Refresh plan: {} new, {} due ({} deferred by budget), {} not due",
+                    newIds, take, deferred, notDue);
+            return due.subList(0, take).stream().map(SubscriptionRefreshState::getSubscriptionId).toList();
+        }
+
+        /**
+         * Loads the known refresh states of a batch into the current persistence
+         * context with one query, so the saves of {@link #recordFetch} merge
+         * into them instead of selecting each row first.
+         */
+        public void attach(Collection<String> subscriptionIds) {
+            List<String> known = subscriptionIds.stream().filter(states::containsKey).toList();
+            if (!known.isEmpty()) {
+                refreshStateRepository.findAllById(known);
+            }
+        }
+
+        /**
+         * Updates the refresh state of a subscription that was just fetched and
+         * schedules its next refresh.
+         */
+        public void recordFetch(SubscriptionFullDTO dto, String digest, boolean controlled) {
+            SubscriptionRefreshState previous = states.get(dto.getSubscription());
+            SubscriptionRefreshState state = previous != null ? copyOf(previous) : newState(dto.getSubscription());
+            applyFetch(state, dto, digest, controlled);
+            refreshStateRepository.save(state);
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        states.put(state.getSubscriptionId(), state);
+                    }
+                });
+            } else {
+                states.put(state.getSubscriptionId(), state);
+            }
+        }
+
+        /**
+         * Drops the refresh state of a subscription that left the active listings.
+         */
+        public void forget(String subscriptionId) {
+            SubscriptionRefreshState state = states.remove(subscriptionId);
+            if (state != null) {
+                refreshStateRepository.delete(state);
+            }
+        }
+
+        public int getNewIds() {
+            return newIds;
+        }
+
+        public int getNotDue() {
+            return notDue;
+        }
+
+        public int getDeferred() {
+            return deferred;
+        }
+
+        public int getDue() {
+            return due.size() - deferred;
+        }
+    }
+
+    /**
+     * Same as {@link Cycle#recordFetch} for a subscription fetched (or pushed
+     * by a notification) outside of a polling cycle.
+     */
+    public void recordFetch(SubscriptionFullDTO dto, String digest, boolean controlled) {
+        SubscriptionRefreshState state = refreshStateRepository.findById(dto.getSubscription())
+                .orElseGet(() -> newState(dto.getSubscription()));
+        applyFetch(state, dto, digest, controlled);
+        refreshStateRepository.save(state);
+    }
+
+    public void forget(String subscriptionId) {
+        refreshStateRepository.findById(subscriptionId).ifPresent(refreshStateRepository::delete);
+    }
+
+    private static SubscriptionRefreshState copyOf(SubscriptionRefreshState state) {
+        return new SubscriptionRefreshState(state.getSubscriptionId(), state.getNextRefreshAt(),
+                state.getLastFetchedAt(), state.getLastDigest(), state.getUnchangedCount(), state.getControlled(),
+                state.getTier());
+    }
+
+    private SubscriptionRefreshState newState(String subscriptionId) {
+        SubscriptionRefreshState state = new SubscriptionRefreshState();
+        state.setSubscriptionId(subscriptionId);
+        return state;
+    }
+
+    private void applyFetch(SubscriptionRefreshState state, SubscriptionFullDTO dto, String digest,
+            boolean controlled) {
+        Instant now = Instant.now();
+        boolean changed = !digest.equals(state.getLastDigest());
+        state.setUnchangedCount(changed ? 0 : state.getUnchangedCount() + 1);
+        state.setLastDigest(digest);
+        state.setLastFetchedAt(now);
+        state.setControlled(controlled);
+
+        LocalDate nextBillingDate = parseDate(dto.getNextBillingDate());
+        String tier = tierFor(dto, controlled, nextBillingDate);
+        state.setTier(tier);
+        state.setNextRefreshAt(nextRefreshAt(tier, state.getUnchangedCount(), nextBillingDate, now));
+    }
+
+    private String tierFor(SubscriptionFullDTO dto, boolean controlled, LocalDate nextBillingDate) {
+        if (nextBillingDate != null
+                && !nextBillingDate.isAfter(LocalDate.now().plusDays(billingWindowDays))) {
+            return TIER_HOT;
+        }
+        if (!controlled) {
+            return TIER_COLD;
+        }
+        return hasUnpaidEmittedRecurrence(dto.getRecurrences()) ? TIER_HOT : TIER_WARM;
+    }
+
+    private Instant nextRefreshAt(String tier, int unchangedCount, LocalDate nextBillingDate, Instant now) {
+        Instant next = switch (tier) {
+            case TIER_HOT -> now.plus(Duration.ofMinutes(hotIntervalMinutes));
+            case TIER_WARM -> {
+                // Exponential backoff while nothing changes
+                long minutes = warmMinIntervalMinutes << Math.min(unchangedCount, 20);
+                yield now.plus(Duration.ofMinutes(Math.min(minutes, warmMaxIntervalMinutes)));
+            }
+            default -> now.plus(Duration.ofMinutes(coldIntervalMinutes));
+        };
+
+        // Never sleep past the point where billing becomes imminent
+        if (nextBillingDate != null && !TIER_HOT.equals(tier)) {
+            Instant windowStart = nextBillingDate.minusDays(billingWindowDays)
+                    .atStartOfDay(ZoneId.systemDefault()).toInstant();
+            if (windowStart.isAfter(now) && windowStart.isBefore(next)) {
+                next = windowStart;
+            }
+        }
+        return next;
+    }
+
+    // Only the last two recurrences matter; an emitted order (order set) without payment is awaiting payment
+    private boolean hasUnpaidEmittedRecurrence(List<RecurrenceDTO> recurrences) {
+        if (recurrences == null) {
+            return false;
+        }
+        return recurrences.stream()
+                .filter(r -> r.getNumberRecurrence() != null)
+                .sorted((a, b) -> b.getNumberRecurrence().compareTo(a.getNumberRecurrence()))
+                .limit(2)
+                .anyMatch(r -> r.getOrder() != null && !r.getOrder().isBlank()
+                        && (r.getPaymentDate() == null || r.getPaymentDate().isBlank()));
+    }
+
+    private LocalDate parseDate(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -1,48 +1,60 @@
 package com.tartaritech.inventory_sync.services;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.tartaritech.inventory_sync.dtos.ProductDTO;
 import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
 import com.tartaritech.inventory_sync.dtos.SubscriptionFullDTO;
 import com.tartaritech.inventory_sync.dtos.SubscriptionShortDTO;
-import com.tartaritech.inventory_sync.dtos.SubscriptionsDTO;
 import com.tartaritech.inventory_sync.entities.ControlledSKu;
 import com.tartaritech.inventory_sync.entities.Customer;
+import com.tartaritech.inventory_sync.entities.KnownCanceledSubscription;
 import com.tartaritech.inventory_sync.entities.Order;
 import com.tartaritech.inventory_sync.entities.Product;
 import com.tartaritech.inventory_sync.entities.ShopifySyncOperation;
 import com.tartaritech.inventory_sync.entities.Subscription;
-import com.tartaritech.inventory_sync.repositories.ControlledSkuRepository;
 import com.tartaritech.inventory_sync.repositories.CustomerRepository;
+import com.tartaritech.inventory_sync.repositories.KnownCanceledSubscriptionRepository;
 import com.tartaritech.inventory_sync.repositories.OrderRepository;
 import com.tartaritech.inventory_sync.repositories.ProductRepository;
-import com.tartaritech.inventory_sync.repositories.ShopifySyncOperationRepository;
 import com.tartaritech.inventory_sync.repositories.SubscriptionRepository;
+import com.tartaritech.inventory_sync.services.exceptions.CircuitOpenException;
+import com.tartaritech.inventory_sync.services.exceptions.ExternalServiceException;
+import com.tartaritech.inventory_sync.utils.ReconciliationDiffEngine;
+import com.tartaritech.inventory_sync.utils.ReconciliationPlan;
+import com.tartaritech.inventory_sync.utils.SubscriptionDigest;
 
 @Service
 public class SubscriptionService {
 
-    private final ControlledSkuRepository controlledSkuRepository;
+    private final ControlledSkuCache controlledSkuCache;
 
     private final ProductRepository productRepository;
 
     private final SubscriptionRepository subscriptionRepository;
 
-    private final ShopifySyncOperationRepository shopifySyncOperationRepository;
+    private final ReservationLedgerService reservationLedgerService;
 
     private final PagBrasilService pagBrasilService;
 
@@ -50,32 +62,92 @@ public class SubscriptionService {
 
     private final OrderRepository orderRepository;
 
+    private final SyncMetricsService syncMetricsService;
+
+    private final SubscriptionRefreshScheduler refreshScheduler;
+
+
+    private final SyncCheckpointService checkpointService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final SubscriptionGraphLoader graphLoader;
+
+
+    private final KnownCanceledSubscriptionRepository knownCanceledRepository;
+
+    // Held around every transaction that writes a subscription, so a notification
+    // never interleaves with a cycle chunk rewriting the same subscription
+    private final SubscriptionLocks subscriptionLocks = new SubscriptionLocks();
+
+    private static final List<String> ACTIVE_STATUSES = List.of("1", "2");
+
+    private static final String CANCELED_STATUS = "3";
+
+    // Checkpoint job name and phases of a reconciliation cycle
+    private static final String CHECKPOINT_JOB = "subscription-check";
+    private static final String PHASE_CANCELED = "CANCELED";
+    private static final String PHASE_ACTIVE = "ACTIVE";
+
     private final Logger logger = LoggerFactory.getLogger(SubscriptionService.class);
 
-    @Value("${pagbrasil.request.delay:2000}")
-    private int requestDelayMs;
+    @Value("${subscription.reconcile.chunk-size:50}")
+    private int reconcileChunkSize;
+
+    @Value("${subscription.reconcile.workers:4}")
+    private int reconcileWorkers;
+
+    @Value("${subscription.reconcile.delete-batch-size:500}")
+    private int deleteBatchSize;
+
+    @Value("${subscription.canceled.incremental:true}")
+    private boolean canceledIncremental;
 
-    @Value("${pagbrasil.status.delay:2000}")
-    private int statusDelayMs;
+    @Value("${subscription.canceled.full-sweep-interval-hours:24}")
+    private long canceledFullSweepIntervalHours;
+
+    // When the canceled listing was last scanned to the end; null until it is in this process
+    private volatile Instant lastCanceledFullSweep;
+
+    // The last full sweep found IDs an incremental scan would have missed: sweep in full until one finds none
+    private volatile boolean canceledListingOutOfOrder;
 
     public SubscriptionService(SubscriptionRepository subscriptionRepository,
             ProductRepository productRepository,
-            ControlledSkuRepository controlledSkuRepository,
-            ShopifySyncOperationRepository shopifySyncOperationRepository,
+            ControlledSkuCache controlledSkuCache,
+            ReservationLedgerService reservationLedgerService,
             PagBrasilService pagBrasilService,
             CustomerRepository customerRepository,
-            OrderRepository orderRepository) {
+            OrderRepository orderRepository,
+            SyncMetricsService syncMetricsService,
+            SubscriptionRefreshScheduler refreshScheduler,
+            SyncCheckpointService checkpointService,
+            TransactionTemplate transactionTemplate,
+            SubscriptionGraphLoader graphLoader,
+            KnownCanceledSubscriptionRepository knownCanceledRepository) {
         this.subscriptionRepository = subscriptionRepository;
         this.productRepository = productRepository;
-        this.controlledSkuRepository = controlledSkuRepository;
-        this.shopifySyncOperationRepository = shopifySyncOperationRepository;
+        this.controlledSkuCache = controlledSkuCache;
+        this.reservationLedgerService = reservationLedgerService;
         this.pagBrasilService = pagBrasilService;
         this.customerRepository = customerRepository;
         this.orderRepository = orderRepository;
+        this.syncMetricsService = syncMetricsService;
+        this.refreshScheduler = refreshScheduler;
+        this.checkpointService = checkpointService;
+        this.transactionTemplate = transactionTemplate;
+        this.graphLoader = graphLoader;
+        this.knownCanceledRepository = knownCanceledRepository;
     }
 
+    /**
+     * Reconciliation cycle. There is no transaction around the whole cycle: each
+     * canceled listing page and each chunk of fetched subscriptions is committed
+     * on its own, together with the cycle's checkpoint, so a restarted instance
+     * resumes where the previous one stopped. A listing aborted by PagBrasil
+     * failures leaves the checkpoint in its phase, to be resumed the same way.
+     */
     @Scheduled(fixedDelay = 500000) // ~8.3 minutes
-    @Transactional
     public void checkForSubscriptionsWithControlledSku() {
 
         if (!pagBrasilService.tryAcquireApiLock()) {
@@ -83,280 +155,503 @@ public class SubscriptionService {
             return;
         }
 
+        SyncCheckpointService.Checkpoint checkpoint = null;
         try {
-            executeSubscriptionCheck();
+            syncMetricsService.startCycle();
+            checkpoint = checkpointService.open(CHECKPOINT_JOB);
+            executeSubscriptionCheck(checkpoint);
+        } catch (CircuitOpenException | ExternalServiceException e) {
+            // The listing is incomplete: the checkpoint stays in its phase and the next cycle resumes it
+            logger.warn("Ciclo abortado na fase {}: {}", checkpoint != null ? checkpoint.getPhase() : null,
+                    e.getMessage());
         } finally {
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+            syncMetricsService.finishCycle();
             pagBrasilService.releaseApiLock();
         }
     }
 
-    private void executeSubscriptionCheck() {
+    private void executeSubscriptionCheck(SyncCheckpointService.Checkpoint checkpoint) {
 
-        // // Busca assinaturas com status ativo
-        SubscriptionsDTO activeSubscriptionsDTO = pagBrasilService.fetchSubscriptionsByStatus("1");
-        logger.info("Active Subs encontradas: {}",
-                activeSubscriptionsDTO.getSubscriptions().size());
+        // Para assinaturas canceladas (status 3), se existir no nosso DB interno:
+        // - criar operações de delete no Shopify para todos itens controlados
+        // - remover subscription/recurrences/products do DB interno
+        // Cada página é tratada assim que chega, sem acumular a listagem inteira, e
+        // registrada no checkpoint: um ciclo retomado continua da página seguinte.
+        // A listagem só cresce: os IDs já vistos ficam em tb_known_canceled_subscription
+        // e a varredura incremental para na primeira página só com IDs conhecidos
+        // (supõe que cancelamentos novos aparecem antes). Uma varredura completa a cada
+        // subscription.canceled.full-sweep-interval-hours confere essa suposição; se ela
+        // encontra IDs que a incremental perderia, os ciclos seguintes fazem varreduras
+        // completas até uma não encontrar nenhum.
+        SubscriptionRefreshScheduler.Cycle refreshCycle = refreshScheduler.startCycle();
+        if (!PHASE_ACTIVE.equals(checkpoint.getPhase())) {
+            int firstPage = checkpoint.getCursor(CANCELED_STATUS) + 1;
+            AtomicInteger pageNumber = new AtomicInteger(firstPage);
+            CanceledScan scan = new CanceledScan(isCanceledFullSweepDue());
+            int canceledCount = pagBrasilService.scanSubscriptionsByStatus(CANCELED_STATUS, firstPage,
+                    page -> processCanceledPage(page, pageNumber.getAndIncrement(), refreshCycle, checkpoint, scan));
+            logger.info("Canceled Subs listadas: {} (a partir da página {}, varredura {}): {} novas, {} removidas",
+                    canceledCount, firstPage, scan.fullSweep ? "completa" : "incremental", scan.newIds, scan.removed);
+
+            if (Thread.currentThread().isInterrupted()) {
+                logger.warn("Interrupted before individual fetches");
+                return;
+            }
+            // Chegar aqui sem interrupção nem exceção significa que a listagem foi até o fim,
+            // a menos que a varredura incremental tenha parado antes
+            if (scan.fullSweep && !scan.stoppedEarly) {
+                lastCanceledFullSweep = Instant.now();
+                canceledListingOutOfOrder = scan.missedByIncremental > 0;
+                if (canceledListingOutOfOrder) {
+                    logger.warn("Listagem de canceladas fora de ordem: {} IDs novos ou ainda locais depois da página {}, "
+                            + "que a varredura incremental não veria. Os próximos ciclos farão varredura completa",
+                            scan.missedByIncremental, scan.firstKnownPage);
+                }
+            }
+            syncMetricsService.recordCanceledScan(scan.fullSweep, scan.pages, scan.newIds, scan.removed,
+                    scan.missedByIncremental);
+            checkpoint.setPhase(PHASE_ACTIVE);
+        } else {
+            logger.info("Retomando ciclo interrompido: canceladas já processadas, {} subscriptions já reconciliadas",
+                    checkpoint.getDoneCount());
+        }
 
-        // Add delay between status fetches to avoid rate limiting (with jitter)
-        try {
-            Thread.sleep((long) (statusDelayMs * (0.5 + Math.random() * 0.5)));
-        } catch (InterruptedException e) {
-            logger.warn("Delay interrupted between status fetches");
+        // Assinaturas ativas (1) e com pagamento pendente (2): a listagem, a busca de
+        // detalhes e a reconciliação rodam em pipeline; cada assinatura é reconciliada
+        // assim que seus detalhes chegam.
+        // IDs novos são buscados assim que aparecem na listagem; os já conhecidos só
+        // quando o refresh deles venceu, até o limite de chamadas por ciclo.
+        // Só as duas últimas recorrências (mais as que já temos como Order local) são
+        // decodificadas; o resto do histórico é pulado direto no stream JSON.
+        // A listagem é sempre refeita do início (a ordem das buscas não segue a das
+        // páginas), mas IDs já reconciliados por um ciclo interrompido são pulados.
+        // As assinaturas buscadas são reconciliadas em lotes: o estado local de cada
+        // lote é carregado de uma vez (ver SubscriptionGraphLoader). Os lotes são
+        // independentes (cada assinatura aparece em um só) e rodam em paralelo, até
+        // subscription.reconcile.workers ao mesmo tempo, cada um na sua transação.
+        Map<String, Set<Integer>> localRecurrences = new ConcurrentHashMap<>();
+        List<SubscriptionFullDTO> chunk = new ArrayList<>();
+        Semaphore permits = new Semaphore(Math.max(reconcileWorkers, 1));
+        int reconciled;
+        boolean interrupted;
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            reconciled = pagBrasilService.fetchSubscriptionLastRecurrences(queue -> {
+                for (String status : ACTIVE_STATUSES) {
+                    pagBrasilService.emitListedIds(status, id -> !checkpoint.isDone(id) && refreshCycle.offer(id),
+                            ids -> loadLocalRecurrenceNumbers(ids, localRecurrences), queue);
+                }
+                List<String> due = refreshCycle.dueWithinBudget();
+                loadLocalRecurrenceNumbers(due, localRecurrences);
+                for (String subscriptionId : due) {
+                    queue.put(new SubscriptionShortDTO(subscriptionId));
+                }
+            }, id -> {
+                Set<Integer> local = localRecurrences.remove(id);
+                return local != null ? local : Set.of();
+            }, dto -> {
+                chunk.add(dto);
+                if (chunk.size() >= Math.max(reconcileChunkSize, 1)) {
+                    submitChunk(workers, permits, chunk, refreshCycle, checkpoint);
+                }
+            });
+            // Um lote incompleto de um ciclo interrompido não é marcado no checkpoint: é buscado de novo na retomada
+            if (!chunk.isEmpty() && !Thread.currentThread().isInterrupted()) {
+                submitChunk(workers, permits, chunk, refreshCycle, checkpoint);
+            }
+            // Lotes já em andamento terminam e são registrados no checkpoint mesmo num shutdown
+            interrupted = Thread.interrupted();
+        }
+        if (interrupted) {
             Thread.currentThread().interrupt();
         }
+        logger.info("Active/pending Subs reconciliadas: {}", reconciled);
+        syncMetricsService.recordRefreshPlan(refreshCycle.getNewIds(), refreshCycle.getDue(),
+                refreshCycle.getDeferred(), refreshCycle.getNotDue());
 
-        SubscriptionsDTO pendingSubscriptionsDTO = pagBrasilService.fetchSubscriptionsByStatus("2");
-
-        // Add delay between status fetches to avoid rate limiting (with jitter)
-        try {
-            Thread.sleep((long) (statusDelayMs * (0.5 + Math.random() * 0.5)));
-        } catch (InterruptedException e) {
-            logger.warn("Delay interrupted between status fetches");
-            Thread.currentThread().interrupt();
+        if (Thread.currentThread().isInterrupted()) {
+            logger.warn("Ciclo interrompido: {} subscriptions reconciliadas ficam no checkpoint para retomada",
+                    checkpoint.getDoneCount());
+            return;
         }
+        checkpoint.complete();
+    }
 
-        // Busca assinaturas com status cancelado
-        SubscriptionsDTO canceledSubscriptionsDTO = pagBrasilService.fetchSubscriptionsByStatus("3");
-        logger.info("Canceled Subs encontradas: {}",
-                canceledSubscriptionsDTO.getSubscriptions().size());
+    /**
+     * Adds the recurrence numbers of the local orders of {@code subscriptionIds}
+     * to {@code target}, one IN query per {@code delete-batch-size} IDs. These
+     * must be kept when decoding so processSubscription can still match them;
+     * each entry is taken out when its subscription is decoded.
+     */
+    private void loadLocalRecurrenceNumbers(List<String> subscriptionIds, Map<String, Set<Integer>> target) {
+        int batchSize = Math.max(deleteBatchSize, 1);
+        for (int from = 0; from < subscriptionIds.size(); from += batchSize) {
+            List<String> batch = subscriptionIds.subList(from, Math.min(from + batchSize, subscriptionIds.size()));
+            for (Object[] row : orderRepository.findSubscriptionRecurrenceNumbers(batch)) {
+                target.computeIfAbsent((String) row[0], k -> new HashSet<>()).add((Integer) row[1]);
+            }
+        }
+    }
 
-        SubscriptionsDTO activeAndPendingSubscriptionsDTO = new SubscriptionsDTO();
-        activeAndPendingSubscriptionsDTO.getSubscriptions().addAll(activeSubscriptionsDTO.getSubscriptions());
-        activeAndPendingSubscriptionsDTO.getSubscriptions().addAll(pendingSubscriptionsDTO.getSubscriptions());
+    private boolean isCanceledFullSweepDue() {
+        Instant last = lastCanceledFullSweep;
+        return !canceledIncremental || canceledListingOutOfOrder || last == null
+                || Duration.between(last, Instant.now()).toHours() >= canceledFullSweepIntervalHours;
+    }
 
-        // TEST
-        // SubscriptionsDTO activeAndPendingSubscriptionsDTO = new SubscriptionsDTO();
-        // activeAndPendingSubscriptionsDTO.getSubscriptions().add(new
-        // SubscriptionShortDTO("P177055173991"));
+    /**
+     * Progress of one scan of the canceled listing. Only touched by the
+     * listing thread.
+     */
+    private static class CanceledScan {
+        private final boolean fullSweep;
+        private int pages;
+        private int newIds;
+        private int removed;
+        // First page with only known IDs and nothing local: where an incremental scan stops
+        private int firstKnownPage = -1;
+        // New or still-local IDs listed after firstKnownPage (seen by full sweeps only)
+        private int missedByIncremental;
+        // An incremental scan stopped at firstKnownPage, before the end of the listing
+        private boolean stoppedEarly;
+
+        CanceledScan(boolean fullSweep) {
+            this.fullSweep = fullSweep;
+        }
+    }
 
-        // SubscriptionsDTO canceledSubscriptionsDTO = new SubscriptionsDTO();
-        // canceledSubscriptionsDTO.getSubscriptions().add(new
-        // SubscriptionShortDTO("P175510778868"));
+    private record CanceledPage(int newIds, int removed) {
+    }
 
-        // Para assinaturas canceladas (status 3), se existir no nosso DB interno:
-        // - criar operações de delete no Shopify para todos itens controlados
-        // - remover subscription/recurrences/products do DB interno
-        for (SubscriptionShortDTO canceled : canceledSubscriptionsDTO.getSubscriptions()) {
-            if (canceled == null || canceled.getSubscription() == null) {
-                continue;
+    /**
+     * Handles one page of the canceled listing in one transaction, committed
+     * together with the page cursor: one IN query finds the IDs already known,
+     * one graph load finds the ones still stored locally, which are removed.
+     * New IDs are recorded as known. The page's subscriptions stay locked
+     * until the transaction is over.
+     *
+     * @return whether the scan should go on to the next page
+     */
+    private boolean processCanceledPage(List<SubscriptionShortDTO> page, int pageNumber,
+            SubscriptionRefreshScheduler.Cycle refreshCycle, SyncCheckpointService.Checkpoint checkpoint,
+            CanceledScan scan) {
+        List<String> ids = page.stream()
+                .filter(canceled -> canceled != null && canceled.getSubscription() != null)
+                .map(SubscriptionShortDTO::getSubscription)
+                .distinct()
+                .toList();
+        CanceledPage outcome = subscriptionLocks.withLocks(ids, () -> transactionTemplate.execute(tx -> {
+            Set<String> known = ids.isEmpty() ? Set.of() : new HashSet<>(knownCanceledRepository.findKnownIdsIn(ids));
+            List<String> unknown = ids.stream().filter(id -> !known.contains(id)).toList();
+
+            SubscriptionGraphLoader.Graph graph = graphLoader.load(ids);
+            refreshCycle.attach(ids);
+            for (String subscriptionId : ids) {
+                refreshCycle.forget(subscriptionId);
             }
-            String subscriptionId = canceled.getSubscription();
-            if (!subscriptionRepository.existsById(subscriptionId)) {
-                continue;
+            int removed = removeCanceledSubscriptions(ids, graph);
+
+            Instant now = Instant.now();
+            knownCanceledRepository.saveAll(unknown.stream()
+                    .map(id -> new KnownCanceledSubscription(id, now))
+                    .toList());
+            checkpoint.setCursor(CANCELED_STATUS, pageNumber);
+            return new CanceledPage(unknown.size(), removed);
+        }));
+
+        scan.pages++;
+        scan.newIds += outcome.newIds();
+        scan.removed += outcome.removed();
+        boolean onlyKnown = outcome.newIds() == 0 && outcome.removed() == 0;
+        if (scan.firstKnownPage < 0) {
+            if (onlyKnown) {
+                scan.firstKnownPage = pageNumber;
             }
-
-            Subscription sub = subscriptionRepository.findById(subscriptionId).get();
-            List<ShopifySyncOperation> operations = createShopifySyncOperationsForDeletion(sub);
-            shopifySyncOperationRepository.saveAll(operations);
-
-            sub.getRecurrences().forEach(r -> productRepository.deleteAll(r.getProducts()));
-            orderRepository.deleteAll(sub.getRecurrences());
-            subscriptionRepository.delete(sub);
-            logger.info("Subscription {} cancelada: operações de delete criadas e entidade removida do DB interno",
-                    subscriptionId);
+        } else {
+            scan.missedByIncremental += outcome.newIds() + outcome.removed();
         }
+        scan.stoppedEarly = !scan.fullSweep && onlyKnown;
+        return !scan.stoppedEarly;
+    }
 
-        // test - retomar acima em prod
-        // SubscriptionsDTO activeAndPendingSubscriptionsDTO = new SubscriptionsDTO();
-        // activeAndPendingSubscriptionsDTO.getSubscriptions().add(new
-        // SubscriptionShortDTO("P175952281691"));
-        // activeAndPendingSubscriptionsDTO.getSubscriptions().add(new
-        // SubscriptionShortDTO("P175987505193"));
-        // activeAndPendingSubscriptionsDTO.getSubscriptions().add(new
-        // SubscriptionShortDTO("P176071568239"));
+    // Returns how many of the IDs were stored locally and removed
+    private int removeCanceledSubscriptions(List<String> ids, SubscriptionGraphLoader.Graph graph) {
+        List<Subscription> canceled = ids.stream()
+                .distinct()
+                .map(graph::getSubscription)
+                .filter(sub -> sub != null)
+                .toList();
+        if (canceled.isEmpty()) {
+            return 0;
+        }
+        removeLocalSubscriptions(canceled, graph);
+        logger.info("{} subscriptions canceladas: operações de delete criadas e entidades removidas do DB interno ({})",
+                canceled.size(), canceled.stream().map(Subscription::getId).toList());
+        return canceled.size();
+    }
 
-        // Add delay before starting individual subscription fetches to avoid rate limiting (with jitter)
+    /**
+     * Hands the buffered chunk to a reconciliation worker and clears the
+     * buffer. Blocks while every worker is busy, which back-pressures the
+     * detail pipeline.
+     */
+    private void submitChunk(ExecutorService workers, Semaphore permits, List<SubscriptionFullDTO> chunk,
+            SubscriptionRefreshScheduler.Cycle refreshCycle, SyncCheckpointService.Checkpoint checkpoint) {
+        List<SubscriptionFullDTO> batch = List.copyOf(chunk);
+        chunk.clear();
         try {
-            Thread.sleep((long) (statusDelayMs * (0.5 + Math.random() * 0.5)));
+            permits.acquire();
         } catch (InterruptedException e) {
-            logger.warn("Delay interrupted before individual fetches");
+            // Not recorded in the checkpoint: refetched when the cycle resumes
             Thread.currentThread().interrupt();
             return;
         }
+        workers.submit(() -> {
+            try {
+                reconcileChunk(batch, refreshCycle, checkpoint);
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * Reconciles a chunk of fetched active/pending subscriptions in one
+     * transaction, against their local state loaded up front, and records them
+     * in the cycle checkpoint. If the chunk fails, its subscriptions are
+     * retried one per transaction so a single bad one does not hold back the
+     * others. Runs on a reconciliation worker thread, holding the locks of the
+     * chunk's subscriptions until its transactions are over.
+     */
+    private void reconcileChunk(List<SubscriptionFullDTO> chunk, SubscriptionRefreshScheduler.Cycle refreshCycle,
+            SyncCheckpointService.Checkpoint checkpoint) {
+        List<String> ids = chunk.stream().map(SubscriptionFullDTO::getSubscription).toList();
+        subscriptionLocks.withLocks(ids, () -> reconcileChunkLocked(chunk, refreshCycle, checkpoint));
+    }
 
-        // Fetch all subscriptions by ID once and partition by controlled SKUs
-        List<SubscriptionFullDTO> allFetchedSubscriptions = fetchAllSubscriptionsById(
-                activeAndPendingSubscriptionsDTO.getSubscriptions());
+    private void reconcileChunkLocked(List<SubscriptionFullDTO> chunk, SubscriptionRefreshScheduler.Cycle refreshCycle,
+            SyncCheckpointService.Checkpoint checkpoint) {
+        try {
+            transactionTemplate.executeWithoutResult(tx -> reconcileFetchedSubscriptions(chunk, refreshCycle, checkpoint));
+        } catch (Exception e) {
+            if (chunk.size() == 1) {
+                logger.error("Error reconciling subscription {}: {}", chunk.get(0).getSubscription(), e.getMessage(), e);
+                return;
+            }
+            logger.warn("Lote de {} subscriptions falhou ({}), reprocessando uma a uma", chunk.size(), e.getMessage());
+            for (SubscriptionFullDTO dto : chunk) {
+                try {
+                    transactionTemplate.executeWithoutResult(
+                            tx -> reconcileFetchedSubscriptions(List.of(dto), refreshCycle, checkpoint));
+                } catch (Exception single) {
+                    logger.error("Error reconciling subscription {}: {}", dto.getSubscription(), single.getMessage(),
+                            single);
+                }
+            }
+        }
+    }
 
-        // Partition subscriptions into those with and without controlled SKUs
-        Map<Boolean, List<SubscriptionFullDTO>> partitioned = allFetchedSubscriptions.stream()
-                .collect(Collectors.partitioningBy(dto -> checkForControlledSkus(dto.getRecurrences())));
+    private void reconcileFetchedSubscriptions(List<SubscriptionFullDTO> dtos,
+            SubscriptionRefreshScheduler.Cycle refreshCycle, SyncCheckpointService.Checkpoint checkpoint) {
+        List<String> ids = dtos.stream().map(SubscriptionFullDTO::getSubscription).toList();
+        SubscriptionGraphLoader.Graph graph = graphLoader.load(ids,
+                dtos.stream().map(SubscriptionFullDTO::getCustomerEmail).toList());
+        refreshCycle.attach(ids);
+        List<Subscription> decontrolled = new ArrayList<>();
+        for (SubscriptionFullDTO dto : dtos) {
+            String digest = SubscriptionDigest.digest(dto);
+            boolean controlled = checkForControlledSkus(dto.getRecurrences());
+            refreshCycle.recordFetch(dto, digest, controlled);
+            reconcileSubscription(dto, digest, controlled, graph, decontrolled);
+            checkpoint.markDone(dto.getSubscription());
+        }
+        removeLocalSubscriptions(decontrolled, graph);
+    }
 
-        List<SubscriptionFullDTO> subscriptionsWithControlledSkus = partitioned.get(true);
-        List<SubscriptionFullDTO> subscriptionsWithoutControlledSkus = partitioned.get(false);
+    /**
+     * Reconciles one fetched subscription. A local subscription that no longer
+     * has controlled SKUs is added to {@code toRemove} instead of being
+     * removed right away, so the caller can remove them all in bulk.
+     */
+    private void reconcileSubscription(SubscriptionFullDTO dto, String digest, boolean controlled,
+            SubscriptionGraphLoader.Graph graph, List<Subscription> toRemove) {
+        Subscription existing = graph.getSubscription(dto.getSubscription());
+        if (controlled) {
+            // Nada mudou no PagBrasil desde a última reconciliação: pula todo o caminho de escrita
+            if (existing != null && digest.equals(existing.getContentHash())) {
+                afterCommit(syncMetricsService::recordUnchanged);
+                return;
+            }
 
-        // Process assinaturas com skus controlados
-        if (subscriptionsWithControlledSkus != null) {
-            for (SubscriptionFullDTO dto : subscriptionsWithControlledSkus) {
-                processSubscription(dto);
+            // Process assinaturas com skus controlados
+            Subscription reconciled = processSubscription(dto, existing, graph);
+            if (reconciled != null) {
+                reconciled.setContentHash(digest);
             }
+            afterCommit(syncMetricsService::recordChanged);
+            return;
         }
 
         // Verificar assinaturas existentes no DB interno que removeram todos os itens
         // controlados
-        if (subscriptionsWithoutControlledSkus != null) {
-            for (SubscriptionFullDTO dto : subscriptionsWithoutControlledSkus) {
-                if (subscriptionRepository.existsById(dto.getSubscription())) {
-                    Subscription sub = subscriptionRepository.findById(dto.getSubscription()).get();
-
-                    // Create Shopify sync operations for deletion
-                    List<ShopifySyncOperation> operations = createShopifySyncOperationsForDeletion(sub);
-                    shopifySyncOperationRepository.saveAll(operations);
-
-                    sub.getRecurrences().forEach(r -> {
-                        productRepository.deleteAll(r.getProducts());
-                    });
+        if (existing != null) {
+            toRemove.add(existing);
+        }
+    }
 
-                    orderRepository.deleteAll(sub.getRecurrences());
-                    subscriptionRepository.delete(sub);
-                }
-            }
+    // A chunk that rolls back is replayed one subscription at a time: count each subscription once, when it commits
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
         }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
 
+    /**
+     * Releases every reserved item of the subscriptions (Shopify sync
+     * operations, built from the preloaded graph) and removes their products,
+     * orders and the subscriptions themselves.
+     *
+     * The rows are removed with three bulk DELETE ... IN statements per batch
+     * of subscription IDs rather than one statement per entity. The removed
+     * entities stay in the persistence context untouched, so they are also
+     * taken out of the graph.
+     */
+    private void removeLocalSubscriptions(List<Subscription> subs, SubscriptionGraphLoader.Graph graph) {
+        if (subs.isEmpty()) {
+            return;
+        }
+        List<ShopifySyncOperation> operations = new ArrayList<>();
+        subs.forEach(sub -> operations.addAll(createShopifySyncOperationsForDeletion(sub)));
+        reservationLedgerService.recordOperations(operations);
+
+        List<String> ids = subs.stream().map(Subscription::getId).toList();
+        int batchSize = Math.max(deleteBatchSize, 1);
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<String> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            productRepository.deleteBySubscriptionIdIn(batch);
+            orderRepository.deleteBySubscriptionIdIn(batch);
+            subscriptionRepository.deleteByIdIn(batch);
+        }
+        ids.forEach(graph::removeSubscription);
     }
 
-    private void processSubscription(SubscriptionFullDTO dto) {
+    /**
+     * Applies one PagBrasil notification to the local state, with the same rules
+     * as the polling cycle. The notification only says which subscription
+     * changed: its current state is fetched from the PagBrasil API, outside the
+     * transaction, and never taken from the pushed payload. The transaction
+     * holds the subscription's lock, so it waits for a cycle chunk that is
+     * writing the same subscription.
+     *
+     * @throws ExternalServiceException if the subscription could not be fetched
+     * @throws CircuitOpenException if the PagBrasil circuit is open
+     */
+    public void applyNotification(String subscriptionId) {
+        Set<Integer> localRecurrences = new HashSet<>(orderRepository.findRecurrenceNumbersBySubscriptionId(subscriptionId));
+        SubscriptionFullDTO dto = pagBrasilService.fetchSubscriptionById(new SubscriptionShortDTO(subscriptionId),
+                localRecurrences);
+        if (dto == null || !subscriptionId.equals(dto.getSubscription())) {
+            throw new ExternalServiceException("Subscription " + subscriptionId + " não pôde ser buscada na PagBrasil");
+        }
+        subscriptionLocks.withLocks(List.of(subscriptionId),
+                () -> transactionTemplate.executeWithoutResult(tx -> applyFetchedSubscription(subscriptionId, dto)));
+    }
 
-        // Verificar se dto é null
-        if (dto == null) {
-            logger.warn("SubscriptionFullDTO é null, pulando processamento");
+    private void applyFetchedSubscription(String subscriptionId, SubscriptionFullDTO dto) {
+        Integer status = dto.getStatus();
+        SubscriptionGraphLoader.Graph graph = graphLoader.load(List.of(subscriptionId),
+                dto.getCustomerEmail() != null ? List.of(dto.getCustomerEmail()) : List.of());
+        if (status != null && status == 3) {
+            refreshScheduler.forget(subscriptionId);
+            removeCanceledSubscriptions(List.of(subscriptionId), graph);
+            return;
+        }
+        if (status == null || (status != 1 && status != 2)) {
+            // O polling também só reconcilia ativas (1) e com pagamento pendente (2)
+            logger.info("Notificação da subscription {} com status {} ignorada", subscriptionId, status);
             return;
         }
 
-        // Verifica se existe no banco de dados
-        Optional<Subscription> subscription = subscriptionRepository.findById(dto.getSubscription());
+        String digest = SubscriptionDigest.digest(dto);
+        boolean controlled = checkForControlledSkus(dto.getRecurrences());
+        refreshScheduler.recordFetch(dto, digest, controlled);
+        List<Subscription> decontrolled = new ArrayList<>();
+        reconcileSubscription(dto, digest, controlled, graph, decontrolled);
+        removeLocalSubscriptions(decontrolled, graph);
+        logger.info("Notificação da subscription {} aplicada (controlled={})", subscriptionId, controlled);
+    }
 
-        if (!subscription.isPresent()) {
-            subscription = Optional.of(createNewSubscription(dto));
-            // Create Shopify sync operations for new subscription
-            List<ShopifySyncOperation> operations = createShopifySyncOperationsForNewSubscription(subscription.get());
-            shopifySyncOperationRepository.saveAll(operations);
-            return;
+    /**
+     * Reconciles one subscription against its preloaded local state
+     * ({@code entity}, null if it does not exist yet): the recurrences are
+     * diffed by {@link ReconciliationDiffEngine} and the resulting plan is
+     * applied to the entities.
+     *
+     * @return the managed subscription entity, null if nothing was processed
+     */
+    private Subscription processSubscription(SubscriptionFullDTO dto, Subscription entity,
+            SubscriptionGraphLoader.Graph graph) {
 
+        // Verificar se dto é null
+        if (dto == null) {
+            logger.warn("SubscriptionFullDTO é null, pulando processamento");
+            return null;
         }
 
-        Subscription entity = subscription.get();
-        List<ShopifySyncOperation> operations = new ArrayList<>();
-
-        if (dto.getRecurrences() == null || dto.getRecurrences().isEmpty()) {
+        // Não existe no banco de dados: criada sem orders, que saem do plano como recorrências novas
+        if (entity == null) {
+            entity = createNewSubscription(dto, graph);
+            graph.putSubscription(entity);
+        } else if (dto.getRecurrences() == null || dto.getRecurrences().isEmpty()) {
             logger.warn("Subscription {} has no recurrences, skipping", dto.getSubscription());
-            return;
+            return entity;
         }
 
-        // Identify the last 2 recurrence numbers (by numberRecurrence descending)
-        Set<Integer> lastTwoRecurrenceNumbers = getLastTwoRecurrenceNumbers(dto.getRecurrences());
-        logger.debug("Last 2 recurrence numbers for subscription {}: {}", dto.getSubscription(), lastTwoRecurrenceNumbers);
+        ReconciliationPlan plan = ReconciliationDiffEngine.diff(entity.getId(), List.copyOf(entity.getRecurrences()),
+                dto.getRecurrences(), controlledSkuCache::isControlled);
+        logger.debug("Plano da subscription {}: {} orders novas, {} orders atualizadas, {} operações",
+                entity.getId(), plan.newOrders().size(), plan.orderUpdates().size(), plan.operations().size());
+        applyPlan(entity, plan);
 
-        // Handle new recurrences that appear
-        Set<Integer> existingNumberRecurrences = entity.getRecurrences().stream()
-                .map(r -> r.getNumberRecurrence())
-                .filter(nr -> nr != null)
-                .collect(Collectors.toSet());
-        Set<Integer> incomingNumberRecurrences = dto.getRecurrences().stream()
-                .filter(r -> r.getNumberRecurrence() != null)
-                .map(r -> r.getNumberRecurrence())
-                .collect(Collectors.toSet());
-
-        Set<Integer> newRecurrences = incomingNumberRecurrences.stream()
-                .filter(r -> !existingNumberRecurrences.contains(r))
-                .collect(Collectors.toSet());
-
-        // Create new orders and immediately process them for stock operations
-        if (!newRecurrences.isEmpty()) {
-            for (Integer nr : newRecurrences) {
-                Optional<RecurrenceDTO> newRecurrenceDTO = dto.getRecurrences().stream()
-                        .filter(o -> o.getNumberRecurrence() != null && o.getNumberRecurrence().equals(nr))
-                        .findAny();
-                if (newRecurrenceDTO.isPresent()) {
-                    createOrdersWithControlledItems(entity, newRecurrenceDTO.get());
-                    // The newly created order will be processed in the loop below
-                }
-            }
-        }
+        Subscription updatedEntity = mapDtoToEntity(dto, entity);
+        return subscriptionRepository.save(updatedEntity);
+    }
 
-        // Process each order (including newly created ones) with state-aware reconciliation
-        for (Order order : entity.getRecurrences()) {
-            if (order.getNumberRecurrence() == null) {
-                continue;
-            }
+    private void applyPlan(Subscription entity, ReconciliationPlan plan) {
+        for (ReconciliationPlan.NewOrder newOrder : plan.newOrders()) {
+            Order order = new Order();
+            order.setSubscription(entity);
+            order.setStockReleased(newOrder.stockReleased());
+            mapRecurrenceDtoToEntity(newOrder.recurrence(), order);
+            newOrder.lines().forEach(line -> order.getProducts().add(createProduct(order, line)));
+            entity.getRecurrences().add(order);
+        }
 
-            // Find matching DTO recurrence
-            Optional<RecurrenceDTO> recurrenceDTO = dto.getRecurrences().stream()
-                    .filter(o -> o.getNumberRecurrence() != null
-                            && o.getNumberRecurrence().equals(order.getNumberRecurrence()))
-                    .findFirst();
-
-            if (!recurrenceDTO.isPresent()) {
-                // Recurrence no longer exists in PagBrasil - treat as expired
-                logger.debug("Recurrence {} no longer in PagBrasil, treating as expired", order.getNumberRecurrence());
-                if (!order.getStockReleased() && !order.getProducts().isEmpty()) {
-                    // Release reserved stock
-                    operations.addAll(createShopifySyncOperationsForOrderDeletion(order, entity.getId()));
-                    order.setStockReleased(true);
-                }
-                continue;
+        for (ReconciliationPlan.OrderUpdate update : plan.orderUpdates()) {
+            Order order = update.order();
+            if (update.recurrence() != null) {
+                mapRecurrenceDtoToEntity(update.recurrence(), order);
             }
-
-            RecurrenceDTO dtoRec = recurrenceDTO.get();
-            
-            // Update order fields from DTO
-            mapRecurrenceDtoToEntity(dtoRec, order);
-
-            // Determine if this order SHOULD have reserved stock
-            boolean isInLastTwo = lastTwoRecurrenceNumbers.contains(order.getNumberRecurrence());
-            boolean isPaid = dtoRec.getPaymentDate() != null && !dtoRec.getPaymentDate().isEmpty();
-            boolean shouldHaveReservedStock = isInLastTwo && !isPaid;
-
-            // Determine if this order CURRENTLY has reserved stock
-            boolean currentlyHasReservedStock = !order.getStockReleased() && !order.getProducts().isEmpty();
-
-            logger.debug("Order {}: isInLastTwo={}, isPaid={}, shouldHaveReserved={}, currentlyHasReserved={}",
-                    order.getNumberRecurrence(), isInLastTwo, isPaid, shouldHaveReservedStock, currentlyHasReservedStock);
-
-            // Reconcile desired vs current state
-            if (shouldHaveReservedStock) {
-                // Should have reserved stock
-                if (currentlyHasReservedStock) {
-                    // Already reserved - check for quantity changes
-                    List<ProductDTO> updatedItems = dtoRec.getProducts() != null
-                            ? dtoRec.getProducts()
-                            : new ArrayList<>();
-                    operations.addAll(calculateDelta(order.getProducts(), updatedItems, entity));
-                    updateNextItems(updatedItems, order.getProducts());
-                } else {
-                    // Not reserved yet - create insert operations
-                    logger.info("Creating insert operations for order {} (newly should have reserved stock)",
-                            order.getNumberRecurrence());
-                    for (Product product : order.getProducts()) {
-                        ShopifySyncOperation op = new ShopifySyncOperation();
-                        op.setSubscriptionId(entity.getId());
-                        op.setOperation("insert");
-                        op.setSku(product.getControlledSku().getSku());
-                        op.setQuantity(product.getQuantity());
-                        op.setStatus("PENDING");
-                        operations.add(op);
-                    }
-                    order.setStockReleased(false);
-                }
-            } else {
-                // Should NOT have reserved stock (paid or expired)
-                if (currentlyHasReservedStock) {
-                    // Currently reserved but shouldn't be - release it
-                    logger.info("Creating delete operations for order {} (paid or expired, releasing reserved stock)",
-                            order.getNumberRecurrence());
-                    operations.addAll(createShopifySyncOperationsForOrderDeletion(order, entity.getId()));
-                    order.setStockReleased(true);
-                }
-                // If not reserved, no-op (already released or never had stock)
+            order.setStockReleased(update.stockReleased());
+            if (!update.removedProducts().isEmpty()) {
+                order.getProducts().removeAll(update.removedProducts());
+                productRepository.deleteAll(update.removedProducts());
             }
+            update.updatedProducts().forEach(u -> copyProductLine(u.line(), u.product()));
+            update.addedLines().forEach(line -> order.getProducts().add(createProduct(order, line)));
         }
 
-        Subscription updatedEntity = mapDtoToEntity(dto, entity);
-        subscriptionRepository.save(updatedEntity);
-
         // Save Shopify sync operations
-        shopifySyncOperationRepository.saveAll(operations);
-
+        reservationLedgerService.recordOperations(plan.operations());
     }
 
     public void mapRecurrenceDtoToEntity(RecurrenceDTO dto, Order entity) {
@@ -373,232 +668,39 @@ public class SubscriptionService {
         orderRepository.save(entity);
     }
 
-    private void createOrdersWithControlledItems(Subscription entity, RecurrenceDTO dto) {
-
-        if (dto.getProducts() == null || dto.getProducts().isEmpty()) {
-            return;
-        }
-
-        List<Product> controlledSkus = new ArrayList<>();
-
-        dto.getProducts().forEach(p -> {
-            if (p.getSku() == null) {
-                return;
-            }
-            boolean isControlledSku = controlledSkuRepository.existsById(p.getSku());
-
-            if (isControlledSku) {
-                ControlledSKu sku = controlledSkuRepository.findById(p.getSku()).get();
-                java.math.BigDecimal unitPrice = p.getUnitPrice() != null ? new java.math.BigDecimal(p.getUnitPrice())
-                        : null;
-                java.math.BigDecimal totalPrice = p.getAmountTotal() != null
-                        ? new java.math.BigDecimal(p.getAmountTotal())
-                        : null;
-                Product newItem = Product.createProduct(sku, p.getQuantity() != null ? p.getQuantity() : 0, unitPrice,
-                        totalPrice);
-                newItem.setDiscount(p.getDiscount());
-                newItem.setCategory(p.getCategory());
-                newItem = productRepository.save(newItem);
-                controlledSkus.add(newItem);
-            }
-        });
-
-        if (controlledSkus.isEmpty()) {
-            return;
-        }
-
-        Order newOrder = new Order();
-        newOrder.getProducts().addAll(controlledSkus);
-        newOrder.setNumberRecurrence(dto.getNumberRecurrence());
-        newOrder.setOrderRec(dto.getOrder() != null ? dto.getOrder() : null);
-        newOrder.setPaymentDate(dto.getPaymentDate() != null ? dto.getPaymentDate() : null);
-        newOrder.setSkipped(dto.getSkipped());
-        newOrder.setPaymentMethod(dto.getPaymentMethod());
-        newOrder.setOrderStatus(dto.getOrderStatus());
-        newOrder.setLink(dto.getLink());
-        newOrder.setAmountBrl(dto.getAmountBrl());
-        newOrder.setAmountOriginal(dto.getAmountOriginal());
-        newOrder.setCustomerEmail(dto.getCustomerEmail());
-        newOrder.setSubscription(entity);
-        // New orders start with stockReleased=false (will be set appropriately in processSubscription)
-        newOrder.setStockReleased(false);
-
-        newOrder.getProducts().forEach(p -> {
-            p.setOrder(newOrder);
-        });
-
-        orderRepository.save(newOrder);
-        entity.getRecurrences().add(newOrder);
-
+    private Product createProduct(Order order, ProductDTO line) {
+        ControlledSKu sku = controlledSkuCache.getReference(line.getSku());
+        Product product = Product.createProduct(sku, 0, null, null);
+        product.setOrder(order);
+        copyProductLine(line, product);
+        return productRepository.save(product);
     }
 
-    private void updateNextItems(List<ProductDTO> updatedItems, List<Product> currentItems) {
-
-        // remove inexistentes
-        Set<String> dtoSkus = updatedItems.stream()
-                .map(ProductDTO::getSku)
-                .collect(Collectors.toSet());
-
-        Set<Product> itemsToDelete = currentItems.stream()
-                .filter(i -> !dtoSkus.contains(i.getControlledSku().getSku())).collect(Collectors.toSet());
-        currentItems.removeIf(i -> !dtoSkus.contains(i.getControlledSku().getSku()));
-
-        productRepository.deleteAll(itemsToDelete);
-
-        // atualiza quantidade e preços de itens existentes
-        currentItems.forEach(currentItem -> {
-            String currentSku = currentItem.getControlledSku().getSku();
-            updatedItems.stream()
-                    .filter(dtoItem -> dtoItem.getSku() != null && dtoItem.getSku().equals(currentSku))
-                    .findFirst()
-                    .ifPresent(dtoItem -> {
-                        currentItem.setQuantity(dtoItem.getQuantity() != null ? dtoItem.getQuantity() : 0);
-                        if (dtoItem.getUnitPrice() != null) {
-                            currentItem.setUnitPrice(new java.math.BigDecimal(dtoItem.getUnitPrice()));
-                        }
-                        if (dtoItem.getAmountTotal() != null) {
-                            currentItem.setTotalPrice(new java.math.BigDecimal(dtoItem.getAmountTotal()));
-                        }
-                        currentItem.setDiscount(dtoItem.getDiscount());
-                        currentItem.setCategory(dtoItem.getCategory());
-                    });
-        });
-
-        // adiciona novos itens se for sku controlado
-        updatedItems.stream()
-                .filter(dtoItem -> dtoItem.getSku() != null && !currentItems.stream()
-                        .anyMatch(
-                                entityItem -> entityItem.getControlledSku().getSku().equals(dtoItem.getSku())))
-                .forEach(dtoItem -> {
-                    if (checkIfControlledSKu(dtoItem)) {
-                        ControlledSKu sku = controlledSkuRepository.findById(dtoItem.getSku()).get();
-                        java.math.BigDecimal unitPrice = dtoItem.getUnitPrice() != null
-                                ? new java.math.BigDecimal(dtoItem.getUnitPrice())
-                                : null;
-                        java.math.BigDecimal totalPrice = dtoItem.getAmountTotal() != null
-                                ? new java.math.BigDecimal(dtoItem.getAmountTotal())
-                                : null;
-                        Product newItem = Product.createProduct(sku,
-                                dtoItem.getQuantity() != null ? dtoItem.getQuantity() : 0, unitPrice, totalPrice);
-                        newItem.setDiscount(dtoItem.getDiscount());
-                        newItem.setCategory(dtoItem.getCategory());
-                        newItem = productRepository.save(newItem);
-                        currentItems.add(newItem);
-                    }
-                });
-
-        productRepository.saveAll(currentItems);
-    }
-
-    private List<ShopifySyncOperation> calculateDelta(List<Product> currentItems, List<ProductDTO> newItems,
-            Subscription subscription) {
-        List<ShopifySyncOperation> operations = new ArrayList<>();
-        Map<String, Integer> deltaMap = new HashMap<>();
-        Map<String, Integer> skusToDelete = new HashMap<>();
-        Map<String, Integer> skusToInsert = new HashMap<>();
-
-        // Verify delta for matching items and skus to delete
-        for (Product i : currentItems) {
-            String currentSku = i.getControlledSku().getSku();
-            Optional<ProductDTO> matchingItem = newItems.stream()
-                    .filter(dto -> dto.getSku().equals(currentSku))
-                    .findFirst();
-
-            if (matchingItem.isPresent()) {
-                int currentQuantity = i.getQuantity();
-                int newQuantity = matchingItem.get().getQuantity();
-                int delta = newQuantity - currentQuantity;
-
-                if (delta != 0) {
-                    deltaMap.put(i.getControlledSku().getSku(), delta);
-                }
-            } else {
-                skusToDelete.put(currentSku, i.getQuantity());
-            }
+    // Quantity, prices, discount and category of a PagBrasil product line
+    private void copyProductLine(ProductDTO line, Product product) {
+        product.setQuantity(line.getQuantity() != null ? line.getQuantity() : 0);
+        if (line.getUnitPrice() != null) {
+            product.setUnitPrice(new java.math.BigDecimal(line.getUnitPrice()));
         }
-
-        // Verify if there are any new controlled skus to insert
-        for (ProductDTO i : newItems) {
-            boolean existsInCurrent = currentItems.stream()
-                    .anyMatch(item -> item.getControlledSku().getSku().equals(i.getSku()));
-
-            if (!existsInCurrent) {
-                boolean controlled = checkIfControlledSKu(i);
-                if (controlled) {
-                    skusToInsert.put(i.getSku(), i.getQuantity());
-                }
-            }
-        }
-
-        logger.info("Delta encontrado para {}", deltaMap.toString());
-        logger.info("Skus a deletar {}", skusToDelete.toString());
-        logger.info("skusToInsert {}", skusToInsert.toString());
-
-        // Create ShopifySyncOperation objects instead of calling processDelta
-        operations.addAll(createShopifySyncOperationsFromMap(deltaMap, "delta", subscription.getId()));
-        operations.addAll(createShopifySyncOperationsFromMap(skusToInsert, "insert", subscription.getId()));
-        operations.addAll(createShopifySyncOperationsFromMap(skusToDelete, "delete", subscription.getId()));
-
-        return operations;
-    }
-
-    private List<ShopifySyncOperation> createShopifySyncOperationsFromMap(Map<String, Integer> skuMap, String operation,
-            String subscriptionId) {
-        List<ShopifySyncOperation> operations = new ArrayList<>();
-
-        for (Map.Entry<String, Integer> entry : skuMap.entrySet()) {
-            ShopifySyncOperation op = new ShopifySyncOperation();
-            op.setSubscriptionId(subscriptionId);
-            op.setOperation(operation);
-            op.setSku(entry.getKey());
-            op.setQuantity(entry.getValue());
-            op.setStatus("PENDING");
-            operations.add(op);
+        if (line.getAmountTotal() != null) {
+            product.setTotalPrice(new java.math.BigDecimal(line.getAmountTotal()));
         }
-
-        return operations;
-    }
-
-    private List<ShopifySyncOperation> createShopifySyncOperationsForNewSubscription(Subscription subscription) {
-        List<ShopifySyncOperation> operations = new ArrayList<>();
-
-        // Get the last 2 recurrences (by numberRecurrence descending)
-        List<Order> lastTwoOrders = subscription.getRecurrences().stream()
-                .filter(r -> r.getNumberRecurrence() != null)
-                .sorted((a, b) -> b.getNumberRecurrence().compareTo(a.getNumberRecurrence()))
-                .limit(2)
-                .toList();
-
-        // Only create insert operations for the last 2 recurrences that are unpaid (paymentDate == null)
-        for (Order order : lastTwoOrders) {
-            if (order.getPaymentDate() == null || order.getPaymentDate().isEmpty()) {
-                for (Product item : order.getProducts()) {
-                    ShopifySyncOperation op = new ShopifySyncOperation();
-                    op.setSubscriptionId(subscription.getId());
-                    op.setOperation("insert");
-                    op.setSku(item.getControlledSku().getSku());
-                    op.setQuantity(item.getQuantity());
-                    op.setStatus("PENDING");
-                    operations.add(op);
-                }
-                // Mark as not released since we're creating insert operations
-                order.setStockReleased(false);
-            } else {
-                // Paid recurrence - mark as released
-                order.setStockReleased(true);
-            }
-        }
-
-        return operations;
+        product.setDiscount(line.getDiscount());
+        product.setCategory(line.getCategory());
     }
 
+    // Only orders still holding stock: a released order already gave its units back
     private List<ShopifySyncOperation> createShopifySyncOperationsForDeletion(Subscription subscription) {
         List<ShopifySyncOperation> operations = new ArrayList<>();
 
         subscription.getRecurrences().forEach(r -> {
+            if (Boolean.TRUE.equals(r.getStockReleased())) {
+                return;
+            }
             for (Product item : r.getProducts()) {
                 ShopifySyncOperation op = new ShopifySyncOperation();
                 op.setSubscriptionId(subscription.getId());
+                op.setNumberRecurrence(r.getNumberRecurrence());
                 op.setOperation("delete");
                 op.setSku(item.getControlledSku().getSku());
                 op.setQuantity(item.getQuantity());
@@ -610,18 +712,7 @@ public class SubscriptionService {
         return operations;
     }
 
-    private boolean checkIfControlledSKu(ProductDTO itemDto) {
-
-        boolean found = controlledSkuRepository.existsById(itemDto.getSku());
-        if (found) {
-            return true;
-        }
-
-        return false;
-
-    }
-
-    private Subscription createNewSubscription(SubscriptionFullDTO dto) {
+    private Subscription createNewSubscription(SubscriptionFullDTO dto, SubscriptionGraphLoader.Graph graph) {
 
         Subscription newSubscription = new Subscription();
 
@@ -629,13 +720,7 @@ public class SubscriptionService {
 
         Subscription savedSubscription = subscriptionRepository.save(newSubscription);
 
-        if (dto.getRecurrences() != null) {
-            dto.getRecurrences().forEach(recurrenceDTO -> {
-                createOrdersWithControlledItems(savedSubscription, recurrenceDTO);
-            });
-        }
-
-        Customer customer = getExistingCustomerOrCreateNew(dto);
+        Customer customer = getExistingCustomerOrCreateNew(dto, graph);
 
         customer.getSubscriptions().add(savedSubscription);
 
@@ -647,15 +732,18 @@ public class SubscriptionService {
 
     }
 
-    private Customer getExistingCustomerOrCreateNew(SubscriptionFullDTO dto) {
+    private Customer getExistingCustomerOrCreateNew(SubscriptionFullDTO dto, SubscriptionGraphLoader.Graph graph) {
 
         Customer customer = new Customer();
 
-        if (dto.getCustomerEmail() != null && !customerRepository.existsById(dto.getCustomerEmail())) {
+        if (dto.getCustomerEmail() != null && graph.getCustomer(dto.getCustomerEmail()) == null) {
+            // Created in the chunk's transaction. If a parallel chunk creates the same email first, this
+            // chunk fails on commit and its replay, one subscription at a time, finds the committed customer.
             customer = extractCustomerFromDto(dto, customer);
             customer = customerRepository.save(customer);
+            graph.putCustomer(customer);
         } else if (dto.getCustomerEmail() != null) {
-            customer = customerRepository.findById(dto.getCustomerEmail()).get();
+            customer = graph.getCustomer(dto.getCustomerEmail());
         }
 
         return customer;
@@ -666,7 +754,6 @@ public class SubscriptionService {
         customer.setName(dto.getCustomerName() != null ? dto.getCustomerName() : null);
         customer.setPhone(dto.getCustomerPhone() != null ? dto.getCustomerPhone() : null);
         return customer;
-
     }
 
     private Subscription mapDtoToEntity(SubscriptionFullDTO dto, Subscription entity) {
@@ -695,95 +782,6 @@ public class SubscriptionService {
         return entity;
     }
 
-    /**
-     * Fetch all subscriptions by ID sequentially with rate limiting.
-     * This replaces the previous double-fetch pattern that caused 429 errors.
-     */
-    private List<SubscriptionFullDTO> fetchAllSubscriptionsById(List<SubscriptionShortDTO> idList) {
-        List<SubscriptionFullDTO> results = new ArrayList<>();
-
-        logger.info("Fetching {} subscriptions sequentially with {}ms delay between requests",
-                idList.size(), requestDelayMs);
-
-        for (int i = 0; i < idList.size(); i++) {
-            SubscriptionShortDTO shortDto = idList.get(i);
-
-            try {
-                SubscriptionFullDTO dto = pagBrasilService.fetchSubscriptionById(shortDto);
-                if (dto != null) {
-                    results.add(dto);
-                } else {
-                    // If fetch returned null (likely due to 429 errors), add extra delay
-                    logger.debug("Subscription {} returned null, adding extra delay before next request",
-                            shortDto.getSubscription());
-                    if (i < idList.size() - 1) {
-                        Thread.sleep(3000); // 3 second extra delay after failed fetch
-                    }
-                }
-
-                // Add delay between requests to avoid rate limiting (with jitter: 50-100% of delay)
-                if (i < idList.size() - 1) {
-                    long jitter = (long) (requestDelayMs * (0.5 + Math.random() * 0.5));
-                    Thread.sleep(jitter);
-                }
-            } catch (InterruptedException e) {
-                logger.warn("Delay interrupted while fetching subscription {}",
-                        shortDto.getSubscription());
-                Thread.currentThread().interrupt();
-                break;
-            } catch (Exception e) {
-                logger.warn("Failed to fetch subscription {}: {}",
-                        shortDto.getSubscription(), e.getMessage());
-                // Add extra delay after exception before continuing
-                if (i < idList.size() - 1) {
-                    try {
-                        Thread.sleep(3000); // 3 second delay after exception
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
-            }
-        }
-
-        logger.info("Successfully fetched {} out of {} subscriptions", results.size(), idList.size());
-        return results;
-    }
-
-    /**
-     * Identifies the last 2 recurrence numbers (by numberRecurrence descending).
-     * These are the only recurrences that can hold reserved stock.
-     */
-    private Set<Integer> getLastTwoRecurrenceNumbers(List<RecurrenceDTO> recurrences) {
-        if (recurrences == null || recurrences.isEmpty()) {
-            return Set.of();
-        }
-
-        return recurrences.stream()
-                .filter(r -> r.getNumberRecurrence() != null)
-                .sorted((a, b) -> b.getNumberRecurrence().compareTo(a.getNumberRecurrence()))
-                .limit(2)
-                .map(RecurrenceDTO::getNumberRecurrence)
-                .collect(Collectors.toSet());
-    }
-
-    /**
-     * Creates delete operations for all controlled SKUs in an order.
-     */
-    private List<ShopifySyncOperation> createShopifySyncOperationsForOrderDeletion(Order order, String subscriptionId) {
-        List<ShopifySyncOperation> operations = new ArrayList<>();
-        for (Product item : order.getProducts()) {
-            ShopifySyncOperation op = new ShopifySyncOperation();
-            op.setSubscriptionId(subscriptionId);
-            op.setOperation("delete");
-            op.setSku(item.getControlledSku().getSku());
-            op.setQuantity(item.getQuantity());
-            op.setStatus("PENDING");
-            operations.add(op);
-        }
-        return operations;
-    }
-
     private boolean checkForControlledSkus(List<RecurrenceDTO> recurrences) {
         if (recurrences == null || recurrences.isEmpty())
             return false;
@@ -800,7 +798,7 @@ public class SubscriptionService {
         for (RecurrenceDTO r : lastTwo) {
             if (r.getProducts() != null) {
                 boolean exists = r.getProducts().stream()
-                        .anyMatch(p -> p.getSku() != null && controlledSkuRepository.existsById(p.getSku()));
+                        .anyMatch(p -> controlledSkuCache.isControlled(p.getSku()));
                 if (exists)
                     return true;
             }
@@ -0,0 +1,236 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tartaritech.inventory_sync.entities.SyncCheckpoint;
+import com.tartaritech.inventory_sync.entities.SyncCheckpointItem;
+import com.tartaritech.inventory_sync.enums.JobStatus;
+import com.tartaritech.inventory_sync.repositories.SyncCheckpointItemRepository;
+import com.tartaritech.inventory_sync.repositories.SyncCheckpointRepository;
+
+/**
+ * Persists the progress of long sync jobs (the subscription reconciliation
+ * cycle and the revenue cache refresh) so that a run cut short by a restart
+ * or a deploy is resumed by the next run instead of starting from zero.
+ *
+ * A checkpoint holds, per job: the step the run is in, the last listing page
+ * processed per PagBrasil status, the subscriptions already handled and
+ * job-defined partial results. Checkpoint writes join the caller's
+ * transaction, so they commit together with the work they describe.
+ *
+ * On shutdown, threads running a checkpointed job are interrupted so they
+ * stop at the next subscription and leave the checkpoint in a resumable state.
+ */
+@Service
+public class SyncCheckpointService {
+
+    private static final TypeReference<Map<String, Integer>> CURSORS_TYPE = new TypeReference<>() {
+    };
+
+    private final SyncCheckpointRepository checkpointRepository;
+    private final SyncCheckpointItemRepository itemRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Thread> runningJobs = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(SyncCheckpointService.class);
+
+    private volatile boolean shuttingDown;
+
+    @Value("${sync.checkpoint.max-age-hours:24}")
+    private long maxAgeHours;
+
+    public SyncCheckpointService(SyncCheckpointRepository checkpointRepository,
+            SyncCheckpointItemRepository itemRepository,
+            TransactionTemplate transactionTemplate,
+            ObjectMapper objectMapper) {
+        this.checkpointRepository = checkpointRepository;
+        this.itemRepository = itemRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Opens a run of {@code job} on the calling thread. A run left RUNNING less
+     * than {@code sync.checkpoint.max-age-hours} ago is resumed; otherwise a
+     * fresh checkpoint is started. The caller must {@link Checkpoint#close()}
+     * it when the run ends, completed or not.
+     */
+    public Checkpoint open(String job) {
+        Checkpoint checkpoint = transactionTemplate.execute(tx -> {
+            Instant now = Instant.now();
+            SyncCheckpoint entity = checkpointRepository.findById(job).orElse(null);
+
+            if (entity != null && entity.getStatus() == JobStatus.RUNNING
+                    && entity.getUpdatedAt().isAfter(now.minus(Duration.ofHours(maxAgeHours)))) {
+                Set<String> done = ConcurrentHashMap.newKeySet();
+                done.addAll(itemRepository.findSubscriptionIdsByJob(job));
+                logger.info("Resuming {} run started at {} (phase {}, {} subscriptions already handled)",
+                        job, entity.getStartedAt(), entity.getPhase(), done.size());
+                return new Checkpoint(entity, readCursors(entity.getCursors()), done, true);
+            }
+
+            if (entity != null && entity.getStatus() == JobStatus.RUNNING) {
+                logger.warn("Discarding {} checkpoint last updated at {} (older than {}h)",
+                        job, entity.getUpdatedAt(), maxAgeHours);
+            }
+            itemRepository.deleteByJob(job);
+            entity = new SyncCheckpoint(job, JobStatus.RUNNING, null, null, null, now, now);
+            checkpointRepository.save(entity);
+            return new Checkpoint(entity, new ConcurrentHashMap<>(), ConcurrentHashMap.newKeySet(), false);
+        });
+
+        runningJobs.put(job, Thread.currentThread());
+        return checkpoint;
+    }
+
+    public boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    @EventListener(ContextClosedEvent.class)
+    public void onShutdown() {
+        shuttingDown = true;
+        runningJobs.forEach((job, thread) -> {
+            logger.info("Shutdown requested: stopping {} run, progress stays checkpointed", job);
+            thread.interrupt();
+        });
+    }
+
+    /**
+     * Progress of one run. Mutators persist immediately, in the caller's
+     * transaction when there is one.
+     */
+    public class Checkpoint {
+        private final SyncCheckpoint entity;
+        private final Map<String, Integer> cursors;
+        private final Set<String> done;
+        private final boolean resumed;
+
+        private Checkpoint(SyncCheckpoint entity, Map<String, Integer> cursors, Set<String> done, boolean resumed) {
+            this.entity = entity;
+            this.cursors = cursors;
+            this.done = done;
+            this.resumed = resumed;
+        }
+
+        public boolean isResumed() {
+            return resumed;
+        }
+
+        public String getPhase() {
+            return entity.getPhase();
+        }
+
+        public void setPhase(String phase) {
+            entity.setPhase(phase);
+            save();
+        }
+
+        /** Last page of the {@code status} listing fully processed, 0 if none. */
+        public int getCursor(String status) {
+            return cursors.getOrDefault(status, 0);
+        }
+
+        public void setCursor(String status, int page) {
+            cursors.put(status, page);
+            save();
+        }
+
+        /** Safe to call from any thread. */
+        public boolean isDone(String subscriptionId) {
+            return done.contains(subscriptionId);
+        }
+
+        /**
+         * Records a handled subscription. Inside a transaction that later rolls
+         * back, the subscription is forgotten again so it can be retried.
+         */
+        public void markDone(String subscriptionId) {
+            if (done.add(subscriptionId)) {
+                itemRepository.save(new SyncCheckpointItem(null, entity.getJob(), subscriptionId));
+                if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                        @Override
+                        public void afterCompletion(int status) {
+                            if (status != STATUS_COMMITTED) {
+                                done.remove(subscriptionId);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+
+        public int getDoneCount() {
+            return done.size();
+        }
+
+        public String getState() {
+            return entity.getState();
+        }
+
+        public void setState(String state) {
+            entity.setState(state);
+            save();
+        }
+
+        /** Marks the run finished; the next run starts from scratch. */
+        public void complete() {
+            transactionTemplate.executeWithoutResult(tx -> {
+                itemRepository.deleteByJob(entity.getJob());
+                cursors.clear();
+                entity.setStatus(JobStatus.DONE);
+                entity.setState(null);
+                save();
+            });
+            done.clear();
+        }
+
+        public void close() {
+            runningJobs.remove(entity.getJob(), Thread.currentThread());
+        }
+
+        private void save() {
+            entity.setCursors(writeCursors(cursors));
+            entity.setUpdatedAt(Instant.now());
+            checkpointRepository.save(entity);
+        }
+    }
+
+    private Map<String, Integer> readCursors(String json) {
+        Map<String, Integer> cursors = new ConcurrentHashMap<>();
+        if (json != null && !json.isBlank()) {
+            try {
+                cursors.putAll(objectMapper.readValue(json, CURSORS_TYPE));
+            } catch (JsonProcessingException e) {
+                logger.warn("Ignoring unreadable checkpoint cursors: {}", e.getMessage());
+            }
+        }
+        return cursors;
+    }
+
+    private String writeCursors(Map<String, Integer> cursors) {
+        try {
+            return cursors.isEmpty() ? null : objectMapper.writeValueAsString(cursors);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize checkpoint cursors", e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * In-memory counters for the subscription reconciliation cycle, exposed through
+ * the admin endpoint. Counters of the running cycle are reset when a new cycle
+ * starts; totals accumulate since application start.
+ */
+@Service
+public class SyncMetricsService {
+
+    private final Logger logger = LoggerFactory.getLogger(SyncMetricsService.class);
+
+    private final AtomicLong changed = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong totalChanged = new AtomicLong();
+    private final AtomicLong totalUnchanged = new AtomicLong();
+    private final AtomicLong completedCycles = new AtomicLong();
+
+    private volatile Map<String, Object> refreshPlan = Map.of();
+    private volatile Map<String, Object> canceledScan = Map.of();
+
+    private volatile Instant cycleStartedAt;
+    private volatile Map<String, Object> lastCycle = Map.of();
+
+    public void startCycle() {
+        changed.set(0);
+        unchanged.set(0);
+        refreshPlan = Map.of();
+        canceledScan = Map.of();
+        cycleStartedAt = Instant.now();
+    }
+
+    /** A subscription whose digest differed (or was new) and went through reconciliation. */
+    public void recordChanged() {
+        changed.incrementAndGet();
+        totalChanged.incrementAndGet();
+    }
+
+    /** A subscription whose digest matched the stored one; reconciliation was skipped. */
+    public void recordUnchanged() {
+        unchanged.incrementAndGet();
+        totalUnchanged.incrementAndGet();
+    }
+
+    /**
+     * How the refresh scheduler split the listed subscriptions in this cycle.
+     */
+    public void recordRefreshPlan(int newIds, int due, int deferredByBudget, int notDue) {
+        Map<String, Object> plan = new LinkedHashMap<>();
+        plan.put("newIds", newIds);
+        plan.put("due", due);
+        plan.put("deferredByBudget", deferredByBudget);
+        plan.put("notDue", notDue);
+        refreshPlan = plan;
+    }
+
+    /**
+     * How far this cycle went through the canceled listing. {@code missedByIncremental}
+     * counts, in a full sweep, the new or still-local IDs listed after the page
+     * where an incremental scan would have stopped.
+     */
+    public void recordCanceledScan(boolean fullSweep, int pages, int newIds, int removed, int missedByIncremental) {
+        Map<String, Object> scan = new LinkedHashMap<>();
+        scan.put("fullSweep", fullSweep);
+        scan.put("pages", pages);
+        scan.put("newIds", newIds);
+        scan.put("removed", removed);
+        scan.put("missedByIncremental", missedByIncremental);
+        canceledScan = scan;
+    }
+
+    public void finishCycle() {
+        Instant startedAt = cycleStartedAt;
+        Instant finishedAt = Instant.now();
+
+        Map<String, Object> cycle = new LinkedHashMap<>();
+        cycle.put("startedAt", startedAt);
+        cycle.put("finishedAt", finishedAt);
+        cycle.put("durationMs", startedAt != null ? Duration.between(startedAt, finishedAt).toMillis() : null);
+        cycle.put("changed", changed.get());
+        cycle.put("unchanged", unchanged.get());
+        cycle.put("refreshPlan", refreshPlan);
+        cycle.put("canceledScan", canceledScan);
+        lastCycle = cycle;
+        cycleStartedAt = null;
+        completedCycles.incrementAndGet();
+
+        logger.info("Sync cycle metrics: {} changed, {} unchanged (skipped)", changed.get(), unchanged.get());
+    }
+
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("completedCycles", completedCycles.get());
+        snapshot.put("lastCycle", lastCycle);
+
+        Instant startedAt = cycleStartedAt;
+        if (startedAt != null) {
+            Map<String, Object> running = new LinkedHashMap<>();
+            running.put("startedAt", startedAt);
+            running.put("changed", changed.get());
+            running.put("unchanged", unchanged.get());
+            snapshot.put("currentCycle", running);
+        }
+
+        Map<String, Object> totals = new LinkedHashMap<>();
+        totals.put("changed", totalChanged.get());
+        totals.put("unchanged", totalUnchanged.get());
+        snapshot.put("totals", totals);
+        return snapshot;
+    }
+}
@@ -0,0 +1,182 @@
+package com.tartaritech.inventory_sync.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tartaritech.inventory_sync.dtos.JobStatsDTO;
+import com.tartaritech.inventory_sync.entities.WebhookInbox;
+import com.tartaritech.inventory_sync.enums.JobStatus;
+import com.tartaritech.inventory_sync.repositories.WebhookInboxRepository;
+
+/**
+ * Drains the webhook inbox: for each notification the subscription is fetched
+ * from PagBrasil and runs the regular reconciliation, in its own transaction.
+ *
+ * Notifications of different subscriptions are applied in parallel (up to
+ * {@code webhook.job.workers}); those of the same subscription are applied in
+ * arrival order. The inbox is drained while a polling cycle runs: a
+ * notification only waits for a cycle chunk that is writing the same
+ * subscription. Failures are retried with exponential backoff until
+ * {@code webhook.job.max.attempts}, then marked DEAD.
+ */
+@Component
+public class WebhookInboxWorker {
+
+    private static final Duration STALE_LOCK = Duration.ofMinutes(10);
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(10);
+
+    private final WebhookInboxRepository webhookInboxRepository;
+    private final SubscriptionService subscriptionService;
+    private final TransactionTemplate transactionTemplate;
+    private final Logger logger = LoggerFactory.getLogger(WebhookInboxWorker.class);
+
+    @Value("${webhook.job.batch.size:20}")
+    private int batchSize;
+
+    @Value("${webhook.job.max.attempts:5}")
+    private int maxAttempts;
+
+    @Value("${webhook.job.workers:4}")
+    private int workers;
+
+    @Value("${webhook.idempotency.ttl.hours:72}")
+    private long idempotencyTtlHours;
+
+    @Value("${webhook.idempotency.cleanup.strategy:delete}")
+    private String cleanupStrategy;
+
+    public WebhookInboxWorker(WebhookInboxRepository webhookInboxRepository,
+            SubscriptionService subscriptionService,
+            TransactionTemplate transactionTemplate) {
+        this.webhookInboxRepository = webhookInboxRepository;
+        this.subscriptionService = subscriptionService;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @Scheduled(fixedDelayString = "${webhook.job.processing.interval:5000}")
+    public void processInbox() {
+        transactionTemplate.executeWithoutResult(tx -> webhookInboxRepository.releaseStale(
+                JobStatus.RUNNING, JobStatus.PENDING, Instant.now().minus(STALE_LOCK)));
+
+        List<WebhookInbox> batch = claimBatch();
+        if (batch.isEmpty()) {
+            return;
+        }
+        logger.info("Processing {} webhook notifications", batch.size());
+
+        Map<String, List<WebhookInbox>> bySubscription = new LinkedHashMap<>();
+        batch.forEach(e -> bySubscription.computeIfAbsent(e.getSubscriptionId(), k -> new ArrayList<>()).add(e));
+
+        Semaphore permits = new Semaphore(Math.max(workers, 1));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (List<WebhookInbox> entries : bySubscription.values()) {
+                executor.submit(() -> {
+                    permits.acquireUninterruptibly();
+                    try {
+                        entries.forEach(this::processEntry);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+    }
+
+    private List<WebhookInbox> claimBatch() {
+        return transactionTemplate.execute(tx -> {
+            List<WebhookInbox> ready = webhookInboxRepository.findReady(
+                    List.of(JobStatus.PENDING, JobStatus.FAILED), Instant.now(),
+                    PageRequest.of(0, Math.max(batchSize, 1)));
+            Instant now = Instant.now();
+            ready.forEach(e -> {
+                e.setStatus(JobStatus.RUNNING);
+                e.setLockedAt(now);
+            });
+            return webhookInboxRepository.saveAll(ready);
+        });
+    }
+
+    private void processEntry(WebhookInbox entry) {
+        try {
+            subscriptionService.applyNotification(entry.getSubscriptionId());
+            entry.setStatus(JobStatus.DONE);
+            entry.setProcessedAt(Instant.now());
+            entry.setLastError(null);
+        } catch (Exception e) {
+            int attempts = entry.getAttempts() + 1;
+            entry.setAttempts(attempts);
+            entry.setLastError(truncate(e.getMessage()));
+            if (attempts >= maxAttempts || e instanceof IllegalArgumentException) {
+                entry.setStatus(JobStatus.DEAD);
+                entry.setProcessedAt(Instant.now());
+                logger.error("Webhook notification {} for subscription {} is DEAD after {} attempts: {}",
+                        entry.getId(), entry.getSubscriptionId(), attempts, e.getMessage(), e);
+            } else {
+                entry.setStatus(JobStatus.FAILED);
+                entry.setNextAttemptAt(Instant.now().plus(BASE_BACKOFF.multipliedBy(1L << Math.min(attempts, 10))));
+                logger.warn("Webhook notification {} for subscription {} failed (attempt {}/{}): {}",
+                        entry.getId(), entry.getSubscriptionId(), attempts, maxAttempts, e.getMessage());
+            }
+        } finally {
+            entry.setLockedAt(null);
+            try {
+                webhookInboxRepository.save(entry);
+            } catch (Exception e) {
+                // Left RUNNING: released as stale and retried later
+                logger.error("Could not update webhook notification {}: {}", entry.getId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Removes processed notifications older than the idempotency window; a
+     * redelivery after that window is applied again (which is harmless).
+     */
+    @Scheduled(cron = "0 30 * * * *")
+    public void cleanupProcessed() {
+        if (!"delete".equalsIgnoreCase(cleanupStrategy)) {
+            return;
+        }
+        Instant before = Instant.now().minus(idempotencyTtlHours, ChronoUnit.HOURS);
+        Integer deleted = transactionTemplate.execute(tx -> webhookInboxRepository.deleteProcessedBefore(
+                List.of(JobStatus.DONE), before));
+        if (deleted != null && deleted > 0) {
+            logger.info("Removed {} processed webhook notifications older than {}h", deleted, idempotencyTtlHours);
+        }
+    }
+
+    public JobStatsDTO getStats() {
+        JobStatsDTO stats = new JobStatsDTO();
+        stats.setPending(webhookInboxRepository.countByStatus(JobStatus.PENDING));
+        stats.setRunning(webhookInboxRepository.countByStatus(JobStatus.RUNNING));
+        stats.setDone(webhookInboxRepository.countByStatus(JobStatus.DONE));
+        stats.setFailed(webhookInboxRepository.countByStatus(JobStatus.FAILED));
+        stats.setDead(webhookInboxRepository.countByStatus(JobStatus.DEAD));
+        stats.setTotal(stats.getPending() + stats.getRunning() + stats.getDone() + stats.getFailed()
+                + stats.getDead());
+        return stats;
+    }
+
+    private static String truncate(String message) {
+        if (message == null) {
+            return null;
+        }
+        return message.length() > 1000 ? message.substring(0, 1000) : message;
+    }
+}
@@ -0,0 +1,12 @@
+package com.tartaritech.inventory_sync.services.exceptions;
+
+/**
+ * A call to an external provider was rejected without being attempted,
+ * because its circuit breaker is open or its bulkhead is full.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    public CircuitOpenException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,12 @@
+package com.tartaritech.inventory_sync.services.exceptions;
+
+/**
+ * A call to an external provider still failed after its retries, so the
+ * result the caller was building is incomplete.
+ */
+public class ExternalServiceException extends RuntimeException {
+
+    public ExternalServiceException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,8 @@
+package com.tartaritech.inventory_sync.services.exceptions;
+
+public class WebhookVerificationException extends RuntimeException {
+
+    public WebhookVerificationException(String msg) {
+        super(msg);
+    }
+}
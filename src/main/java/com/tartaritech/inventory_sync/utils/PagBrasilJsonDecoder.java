@@ -0,0 +1,335 @@
+package com.tartaritech.inventory_sync.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tartaritech.inventory_sync.dtos.ProductDTO;
+import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
+import com.tartaritech.inventory_sync.dtos.SubscriptionFullDTO;
+import com.tartaritech.inventory_sync.dtos.SubscriptionShortDTO;
+
+/**
+ * Decodes PagBrasil subscription responses straight from the HTTP body stream
+ * with Jackson's token-level parser. Neither the raw body string nor an
+ * intermediate JSON tree is ever materialized; unknown fields are skipped
+ * without being read into memory.
+ */
+@Component
+public class PagBrasilJsonDecoder {
+
+    private final JsonFactory jsonFactory;
+
+    public PagBrasilJsonDecoder(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Decodes a listing page ({@code {"subscriptions": [{"subscription": "..."}, ...]}}).
+     */
+    public List<SubscriptionShortDTO> decodeSubscriptionList(InputStream in) throws IOException {
+        List<SubscriptionShortDTO> subscriptions = new ArrayList<>();
+
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return subscriptions;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("subscriptions".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        subscriptions.add(readSubscriptionShort(parser));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        return subscriptions;
+    }
+
+    /**
+     * Decodes a full subscription detail response.
+     */
+    public SubscriptionFullDTO decodeSubscription(InputStream in) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            return readSubscription(parser);
+        }
+    }
+
+    /**
+     * Decodes a full subscription detail response keeping only what inventory
+     * reconciliation needs: the two highest {@code number_recurrence} entries
+     * plus any recurrence listed in {@code retainedRecurrences} (those that
+     * still have a local {@code Order} row). Products of every other recurrence,
+     * and the top-level product list, are skipped in the token stream without
+     * being decoded.
+     */
+    public SubscriptionFullDTO decodeSubscriptionLastTwo(InputStream in, Set<Integer> retainedRecurrences)
+            throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            return readSubscription(parser, new RecurrenceFilter(retainedRecurrences));
+        }
+    }
+
+    /**
+     * Tracks the two highest recurrence numbers seen so far and decides which
+     * recurrences are worth decoding and keeping.
+     */
+    private static class RecurrenceFilter {
+        private final Set<Integer> retained;
+        private Integer highest;
+        private Integer secondHighest;
+
+        RecurrenceFilter(Set<Integer> retained) {
+            this.retained = retained != null ? retained : Set.of();
+        }
+
+        /** Whether a recurrence with this number could still end up being kept. */
+        boolean mayKeep(Integer number) {
+            return number == null || retained.contains(number) || secondHighest == null || number > secondHighest;
+        }
+
+        /** Registers a decoded recurrence number; returns the number evicted from the top two, if any. */
+        Integer offer(int number) {
+            if (highest == null || number > highest) {
+                Integer evicted = secondHighest;
+                secondHighest = highest;
+                highest = number;
+                return evicted;
+            }
+            if (number != highest && (secondHighest == null || number > secondHighest)) {
+                Integer evicted = secondHighest;
+                secondHighest = number;
+                return evicted;
+            }
+            return null;
+        }
+
+        boolean isTopTwo(int number) {
+            return (highest != null && number == highest) || (secondHighest != null && number == secondHighest);
+        }
+
+        boolean isRetained(Integer number) {
+            return number != null && retained.contains(number);
+        }
+    }
+
+    private SubscriptionShortDTO readSubscriptionShort(JsonParser parser) throws IOException {
+        SubscriptionShortDTO dto = new SubscriptionShortDTO();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("subscription".equals(field)) {
+                dto.setSubscription(text(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return dto;
+    }
+
+    private SubscriptionFullDTO readSubscription(JsonParser parser) throws IOException {
+        return readSubscription(parser, null);
+    }
+
+    private SubscriptionFullDTO readSubscription(JsonParser parser, RecurrenceFilter filter) throws IOException {
+        SubscriptionFullDTO dto = new SubscriptionFullDTO();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "subscription" -> dto.setSubscription(text(parser));
+                case "status" -> dto.setStatus(integer(parser));
+                case "billing_cycle" -> dto.setBillingCycle(text(parser));
+                case "shipping_cycle" -> dto.setShippingCycle(text(parser));
+                case "amount_brl" -> dto.setAmountBrl(text(parser));
+                case "number_recurrences" -> dto.setNumberRecurrences(integer(parser));
+                case "limit" -> dto.setLimit(integer(parser));
+                case "next_billing_date" -> dto.setNextBillingDate(text(parser));
+                case "cancellation_date" -> dto.setCancellationDate(text(parser));
+                case "effective_cancellation_date" -> dto.setEffectiveCancellationDate(text(parser));
+                case "order_token" -> dto.setOrderToken(text(parser));
+                case "pix_rec_id" -> dto.setPixRecId(text(parser));
+                case "customer_email" -> dto.setCustomerEmail(text(parser));
+                case "customer_name" -> dto.setCustomerName(text(parser));
+                case "customer_phone" -> dto.setCustomerPhone(text(parser));
+                case "recurrences" -> dto.setRecurrences(value != JsonToken.START_ARRAY ? skip(parser)
+                        : filter == null ? readRecurrences(parser) : readLastTwoRecurrences(parser, filter));
+                case "products" -> dto.setProducts(value == JsonToken.START_ARRAY && filter == null
+                        ? readProducts(parser) : skip(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return dto;
+    }
+
+    private List<RecurrenceDTO> readRecurrences(JsonParser parser) throws IOException {
+        List<RecurrenceDTO> recurrences = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) {
+                recurrences.add(readRecurrence(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return recurrences;
+    }
+
+    private List<RecurrenceDTO> readLastTwoRecurrences(JsonParser parser, RecurrenceFilter filter)
+            throws IOException {
+        List<RecurrenceDTO> kept = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+
+            RecurrenceDTO recurrence = readRecurrence(parser, filter);
+            Integer number = recurrence.getNumberRecurrence();
+            if (number == null) {
+                continue; // never considered by reconciliation
+            }
+
+            Integer evicted = filter.offer(number);
+            if (evicted != null && !filter.isRetained(evicted)) {
+                kept.removeIf(r -> evicted.equals(r.getNumberRecurrence()));
+            }
+            if (filter.isTopTwo(number) || filter.isRetained(number)) {
+                kept.add(recurrence);
+            }
+        }
+        return kept;
+    }
+
+    private RecurrenceDTO readRecurrence(JsonParser parser) throws IOException {
+        return readRecurrence(parser, null);
+    }
+
+    private RecurrenceDTO readRecurrence(JsonParser parser, RecurrenceFilter filter) throws IOException {
+        RecurrenceDTO dto = new RecurrenceDTO();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "order" -> dto.setOrder(text(parser));
+                case "number_recurrence" -> dto.setNumberRecurrence(integer(parser));
+                case "skipped" -> dto.setSkipped(integer(parser));
+                case "payment_method" -> dto.setPaymentMethod(text(parser));
+                case "order_status" -> dto.setOrderStatus(text(parser));
+                case "link" -> dto.setLink(text(parser));
+                case "amount_brl" -> dto.setAmountBrl(text(parser));
+                case "amount_original" -> dto.setAmountOriginal(text(parser));
+                case "payment_date" -> dto.setPaymentDate(text(parser));
+                case "customer_email" -> dto.setCustomerEmail(text(parser));
+                case "products" -> dto.setProducts(value == JsonToken.START_ARRAY
+                        && (filter == null || filter.mayKeep(dto.getNumberRecurrence()))
+                        ? readProducts(parser) : skip(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return dto;
+    }
+
+    private List<ProductDTO> readProducts(JsonParser parser) throws IOException {
+        List<ProductDTO> products = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) {
+                products.add(readProduct(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return products;
+    }
+
+    private ProductDTO readProduct(JsonParser parser) throws IOException {
+        ProductDTO dto = new ProductDTO();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> dto.setId(longValue(parser));
+                case "sku" -> dto.setSku(text(parser));
+                case "quantity" -> dto.setQuantity(integer(parser));
+                case "order" -> dto.setOrder(text(parser));
+                case "unit_price" -> dto.setUnitPrice(text(parser));
+                case "amount_total" -> dto.setAmountTotal(text(parser));
+                case "discount" -> dto.setDiscount(text(parser));
+                case "category" -> dto.setCategory(text(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return dto;
+    }
+
+    private static <T> T skip(JsonParser parser) throws IOException {
+        parser.skipChildren();
+        return null;
+    }
+
+    // Scalar readers mirror Jackson's default coercions for the DTO field types
+
+    private static String text(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isStructStart()) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getValueAsString();
+    }
+
+    private static Integer integer(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getValueAsInt();
+        }
+        String value = text(parser);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long longValue(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getValueAsLong();
+        }
+        String value = text(parser);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.tartaritech.inventory_sync.utils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import com.tartaritech.inventory_sync.dtos.ProductDTO;
+import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
+import com.tartaritech.inventory_sync.entities.Order;
+import com.tartaritech.inventory_sync.entities.Product;
+import com.tartaritech.inventory_sync.entities.ShopifySyncOperation;
+import com.tartaritech.inventory_sync.utils.ReconciliationPlan.NewOrder;
+import com.tartaritech.inventory_sync.utils.ReconciliationPlan.OrderUpdate;
+import com.tartaritech.inventory_sync.utils.ReconciliationPlan.ProductUpdate;
+
+/**
+ * Diffs the recurrences of a PagBrasil subscription against its local orders
+ * and decides what must change, without touching the entities or the
+ * database.
+ *
+ * Rules:
+ * - Only the two highest recurrence numbers can hold reserved stock; a
+ *   recurrence among them holds it while it is unpaid.
+ * - A recurrence without a local order becomes a new order if it has
+ *   controlled SKUs. It reserves its lines (insert) if it should hold stock,
+ *   otherwise it is created already released.
+ * - An order that should hold stock and does gets per-SKU deltas: delta for
+ *   a changed quantity, insert for a new controlled SKU, delete for a SKU
+ *   that is gone.
+ * - An order that should hold stock but does not has its products rebuilt
+ *   from the PagBrasil lines and reserves them (insert); one that holds stock
+ *   but should not, or whose recurrence is gone from PagBrasil, releases it
+ *   (delete).
+ *
+ * Recurrences are matched by number and products by SKU through hash maps.
+ * A SKU counts once per recurrence: the PagBrasil lines of a SKU are merged
+ * into one with their quantities summed, and the first local product of a SKU
+ * is used, further local products with the same SKU are removed. Lines
+ * without SKU and recurrences without number are ignored.
+ */
+public class ReconciliationDiffEngine {
+
+    public static final String OP_INSERT = "insert";
+    public static final String OP_DELETE = "delete";
+    public static final String OP_DELTA = "delta";
+
+    /**
+     * @param subscriptionId PagBrasil subscription ID, copied into the operations
+     * @param localOrders    the subscription's local orders (empty for a new subscription)
+     * @param recurrences    recurrences fetched from PagBrasil
+     * @param isControlled   whether a SKU is a controlled SKU
+     */
+    public static ReconciliationPlan diff(String subscriptionId, List<Order> localOrders,
+            List<RecurrenceDTO> recurrences, Predicate<String> isControlled) {
+        List<NewOrder> newOrders = new ArrayList<>();
+        List<OrderUpdate> orderUpdates = new ArrayList<>();
+        List<ShopifySyncOperation> operations = new ArrayList<>();
+
+        Map<Integer, RecurrenceDTO> recurrencesByNumber = new LinkedHashMap<>();
+        if (recurrences != null) {
+            for (RecurrenceDTO r : recurrences) {
+                if (r != null && r.getNumberRecurrence() != null) {
+                    recurrencesByNumber.putIfAbsent(r.getNumberRecurrence(), r);
+                }
+            }
+        }
+        Set<Integer> lastTwo = lastTwoNumbers(recurrencesByNumber.keySet());
+
+        Set<Integer> localNumbers = new HashSet<>();
+        for (Order order : localOrders) {
+            if (order.getNumberRecurrence() == null) {
+                continue;
+            }
+            localNumbers.add(order.getNumberRecurrence());
+
+            RecurrenceDTO recurrence = recurrencesByNumber.get(order.getNumberRecurrence());
+            boolean currentlyReserved = !Boolean.TRUE.equals(order.getStockReleased())
+                    && !order.getProducts().isEmpty();
+
+            if (recurrence == null) {
+                // Gone from PagBrasil: treated as expired
+                if (currentlyReserved) {
+                    order.getProducts().forEach(p -> operations.add(operation(subscriptionId, order, OP_DELETE, p)));
+                    orderUpdates.add(new OrderUpdate(order, null, true, List.of(), List.of(), List.of()));
+                }
+                continue;
+            }
+
+            boolean shouldReserve = lastTwo.contains(order.getNumberRecurrence()) && !isPaid(recurrence);
+            if (shouldReserve && currentlyReserved) {
+                orderUpdates.add(diffProducts(subscriptionId, order, recurrence, isControlled, operations));
+            } else if (shouldReserve) {
+                orderUpdates.add(reserveProducts(subscriptionId, order, recurrence, isControlled, operations));
+            } else if (currentlyReserved) {
+                order.getProducts().forEach(p -> operations.add(operation(subscriptionId, order, OP_DELETE, p)));
+                orderUpdates.add(new OrderUpdate(order, recurrence, true, List.of(), List.of(), List.of()));
+            } else {
+                orderUpdates.add(new OrderUpdate(order, recurrence, Boolean.TRUE.equals(order.getStockReleased()),
+                        List.of(), List.of(), List.of()));
+            }
+        }
+
+        for (RecurrenceDTO recurrence : recurrencesByNumber.values()) {
+            if (localNumbers.contains(recurrence.getNumberRecurrence())) {
+                continue;
+            }
+            List<ProductDTO> lines = new ArrayList<>(linesBySku(recurrence.getProducts(), isControlled).values());
+            if (lines.isEmpty()) {
+                continue;
+            }
+            boolean shouldReserve = lastTwo.contains(recurrence.getNumberRecurrence()) && !isPaid(recurrence);
+            if (shouldReserve) {
+                lines.forEach(l -> operations.add(operation(subscriptionId, recurrence.getNumberRecurrence(), OP_INSERT,
+                        l.getSku(), quantity(l))));
+            }
+            newOrders.add(new NewOrder(recurrence, List.copyOf(lines), !shouldReserve));
+        }
+
+        return new ReconciliationPlan(List.copyOf(newOrders), List.copyOf(orderUpdates), List.copyOf(operations));
+    }
+
+    /**
+     * The two highest distinct recurrence numbers: the only recurrences that
+     * can hold reserved stock.
+     */
+    public static Set<Integer> lastTwoNumbers(Set<Integer> numbers) {
+        TreeSet<Integer> sorted = new TreeSet<>(numbers);
+        Set<Integer> lastTwo = new HashSet<>();
+        Integer highest = sorted.pollLast();
+        if (highest != null) {
+            lastTwo.add(highest);
+        }
+        Integer second = sorted.pollLast();
+        if (second != null) {
+            lastTwo.add(second);
+        }
+        return lastTwo;
+    }
+
+    // Reserved order that stays reserved: per-SKU deltas against the PagBrasil lines
+    private static OrderUpdate diffProducts(String subscriptionId, Order order, RecurrenceDTO recurrence,
+            Predicate<String> isControlled, List<ShopifySyncOperation> operations) {
+        Map<String, ProductDTO> lines = linesBySku(recurrence.getProducts(), sku -> true);
+
+        List<ShopifySyncOperation> deltas = new ArrayList<>();
+        List<ShopifySyncOperation> inserts = new ArrayList<>();
+        List<ShopifySyncOperation> deletes = new ArrayList<>();
+        List<Product> removed = new ArrayList<>();
+        List<ProductUpdate> updated = new ArrayList<>();
+        List<ProductDTO> added = new ArrayList<>();
+
+        Set<String> localSkus = new HashSet<>();
+        for (Product product : order.getProducts()) {
+            String sku = product.getControlledSku().getSku();
+            ProductDTO line = lines.get(sku);
+            if (line == null || !localSkus.add(sku)) {
+                // SKU gone from the recurrence, or a duplicate local product of a SKU
+                deletes.add(operation(subscriptionId, order, OP_DELETE, product));
+                removed.add(product);
+                continue;
+            }
+            int delta = quantity(line) - quantity(product);
+            if (delta != 0) {
+                deltas.add(operation(subscriptionId, order.getNumberRecurrence(), OP_DELTA, sku, delta));
+            }
+            updated.add(new ProductUpdate(product, line));
+        }
+
+        for (ProductDTO line : lines.values()) {
+            if (!localSkus.contains(line.getSku()) && isControlled.test(line.getSku())) {
+                inserts.add(operation(subscriptionId, order.getNumberRecurrence(), OP_INSERT, line.getSku(),
+                        quantity(line)));
+                added.add(line);
+            }
+        }
+
+        operations.addAll(deltas);
+        operations.addAll(inserts);
+        operations.addAll(deletes);
+        return new OrderUpdate(order, recurrence, false, List.copyOf(removed), List.copyOf(updated),
+                List.copyOf(added));
+    }
+
+    // Released order that must hold stock again: its products are rebuilt from the PagBrasil lines and reserved
+    private static OrderUpdate reserveProducts(String subscriptionId, Order order, RecurrenceDTO recurrence,
+            Predicate<String> isControlled, List<ShopifySyncOperation> operations) {
+        Map<String, ProductDTO> lines = linesBySku(recurrence.getProducts(), sku -> true);
+
+        List<Product> removed = new ArrayList<>();
+        List<ProductUpdate> updated = new ArrayList<>();
+        List<ProductDTO> added = new ArrayList<>();
+
+        Set<String> localSkus = new HashSet<>();
+        for (Product product : order.getProducts()) {
+            String sku = product.getControlledSku().getSku();
+            ProductDTO line = lines.get(sku);
+            if (line == null || !localSkus.add(sku)) {
+                // Released, so it holds nothing to give back
+                removed.add(product);
+                continue;
+            }
+            operations.add(operation(subscriptionId, order.getNumberRecurrence(), OP_INSERT, sku, quantity(line)));
+            updated.add(new ProductUpdate(product, line));
+        }
+
+        for (ProductDTO line : lines.values()) {
+            if (!localSkus.contains(line.getSku()) && isControlled.test(line.getSku())) {
+                operations.add(operation(subscriptionId, order.getNumberRecurrence(), OP_INSERT, line.getSku(),
+                        quantity(line)));
+                added.add(line);
+            }
+        }
+
+        return new OrderUpdate(order, recurrence, false, List.copyOf(removed), List.copyOf(updated),
+                List.copyOf(added));
+    }
+
+    /**
+     * One line per SKU among the accepted SKUs, in PagBrasil order. Several
+     * lines of a SKU are merged into a copy of the first one, with the
+     * quantities and totals of all of them.
+     */
+    private static Map<String, ProductDTO> linesBySku(List<ProductDTO> products, Predicate<String> accept) {
+        Map<String, ProductDTO> lines = new LinkedHashMap<>();
+        if (products == null) {
+            return lines;
+        }
+        Map<String, Boolean> accepted = new HashMap<>();
+        for (ProductDTO p : products) {
+            if (p != null && p.getSku() != null
+                    && accepted.computeIfAbsent(p.getSku(), accept::test)) {
+                lines.merge(p.getSku(), p, ReconciliationDiffEngine::mergeLines);
+            }
+        }
+        return lines;
+    }
+
+    private static ProductDTO mergeLines(ProductDTO first, ProductDTO other) {
+        ProductDTO merged = new ProductDTO(first.getId(), first.getSku(), quantity(first) + quantity(other),
+                first.getOrder(), first.getUnitPrice(), first.getAmountTotal(), first.getDiscount(),
+                first.getCategory());
+        if (first.getAmountTotal() == null || other.getAmountTotal() == null) {
+            merged.setAmountTotal(first.getAmountTotal() != null ? first.getAmountTotal() : other.getAmountTotal());
+        } else {
+            merged.setAmountTotal(new BigDecimal(first.getAmountTotal())
+                    .add(new BigDecimal(other.getAmountTotal())).toPlainString());
+        }
+        return merged;
+    }
+
+    private static boolean isPaid(RecurrenceDTO recurrence) {
+        return recurrence.getPaymentDate() != null && !recurrence.getPaymentDate().isEmpty();
+    }
+
+    private static int quantity(ProductDTO line) {
+        return line.getQuantity() != null ? line.getQuantity() : 0;
+    }
+
+    private static int quantity(Product product) {
+        return product.getQuantity() != null ? product.getQuantity() : 0;
+    }
+
+    private static ShopifySyncOperation operation(String subscriptionId, Order order, String type, Product product) {
+        return operation(subscriptionId, order.getNumberRecurrence(), type, product.getControlledSku().getSku(),
+                quantity(product));
+    }
+
+    private static ShopifySyncOperation operation(String subscriptionId, Integer numberRecurrence, String type,
+            String sku, int quantity) {
+        ShopifySyncOperation op = new ShopifySyncOperation();
+        op.setSubscriptionId(subscriptionId);
+        op.setNumberRecurrence(numberRecurrence);
+        op.setOperation(type);
+        op.setSku(sku);
+        op.setQuantity(quantity);
+        op.setStatus("PENDING");
+        return op;
+    }
+}
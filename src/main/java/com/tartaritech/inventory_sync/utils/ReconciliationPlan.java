@@ -0,0 +1,55 @@
+package com.tartaritech.inventory_sync.utils;
+
+import java.util.List;
+
+import com.tartaritech.inventory_sync.dtos.ProductDTO;
+import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
+import com.tartaritech.inventory_sync.entities.Order;
+import com.tartaritech.inventory_sync.entities.Product;
+import com.tartaritech.inventory_sync.entities.ShopifySyncOperation;
+
+/**
+ * Outcome of {@link ReconciliationDiffEngine#diff}: the changes to make to a
+ * subscription's local orders and products, and the Shopify operations that
+ * follow from them. Nothing in it has been applied or persisted yet.
+ *
+ * @param newOrders   recurrences to create as local orders
+ * @param orderUpdates changes to existing local orders
+ * @param operations  Shopify operations (new, PENDING), in creation order
+ */
+public record ReconciliationPlan(List<NewOrder> newOrders, List<OrderUpdate> orderUpdates,
+        List<ShopifySyncOperation> operations) {
+
+    /**
+     * A recurrence with controlled SKUs that has no local order yet.
+     *
+     * @param recurrence    source of the order fields
+     * @param lines         controlled product lines, one per SKU
+     * @param stockReleased value for the new order's stockReleased flag
+     */
+    public record NewOrder(RecurrenceDTO recurrence, List<ProductDTO> lines, boolean stockReleased) {
+    }
+
+    /**
+     * Changes to one existing local order.
+     *
+     * @param order           the local order (not modified by the engine)
+     * @param recurrence      source of the order fields, null if the recurrence
+     *                        is gone from PagBrasil (fields are left as they are)
+     * @param stockReleased   new value for the stockReleased flag
+     * @param removedProducts products to delete
+     * @param updatedProducts products whose quantity, prices, discount and
+     *                        category are copied from a PagBrasil line
+     * @param addedLines      controlled lines to add as new products
+     */
+    public record OrderUpdate(Order order, RecurrenceDTO recurrence, boolean stockReleased,
+            List<Product> removedProducts, List<ProductUpdate> updatedProducts, List<ProductDTO> addedLines) {
+    }
+
+    public record ProductUpdate(Product product, ProductDTO line) {
+    }
+
+    public boolean isEmpty() {
+        return newOrders.isEmpty() && orderUpdates.isEmpty() && operations.isEmpty();
+    }
+}
@@ -0,0 +1,89 @@
+package com.tartaritech.inventory_sync.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+import com.tartaritech.inventory_sync.dtos.ProductDTO;
+import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
+import com.tartaritech.inventory_sync.dtos.SubscriptionFullDTO;
+
+/**
+ * SHA-256 digest over the subscription fields that reconciliation reads or
+ * copies into the local tables. Recurrences and products are hashed in a
+ * canonical order so the digest does not depend on the API's array order.
+ */
+public class SubscriptionDigest {
+
+    private static final Comparator<RecurrenceDTO> RECURRENCE_ORDER = Comparator.comparing(
+            RecurrenceDTO::getNumberRecurrence, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private static final Comparator<ProductDTO> PRODUCT_ORDER = Comparator
+            .comparing(ProductDTO::getSku, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ProductDTO::getId, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    public static String digest(SubscriptionFullDTO dto) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+            field(md, dto.getSubscription());
+            field(md, dto.getStatus());
+            field(md, dto.getBillingCycle());
+            field(md, dto.getShippingCycle());
+            field(md, dto.getAmountBrl());
+            field(md, dto.getNumberRecurrences());
+            field(md, dto.getLimit());
+            field(md, dto.getNextBillingDate());
+            field(md, dto.getCancellationDate());
+            field(md, dto.getEffectiveCancellationDate());
+            field(md, dto.getOrderToken());
+            field(md, dto.getPixRecId());
+
+            List<RecurrenceDTO> recurrences = dto.getRecurrences() != null ? dto.getRecurrences() : List.of();
+            field(md, recurrences.size());
+            for (RecurrenceDTO r : recurrences.stream().sorted(RECURRENCE_ORDER).toList()) {
+                field(md, r.getNumberRecurrence());
+                field(md, r.getOrder());
+                field(md, r.getSkipped());
+                field(md, r.getPaymentMethod());
+                field(md, r.getOrderStatus());
+                field(md, r.getLink());
+                field(md, r.getAmountBrl());
+                field(md, r.getAmountOriginal());
+                field(md, r.getPaymentDate());
+                field(md, r.getCustomerEmail());
+
+                List<ProductDTO> products = r.getProducts() != null ? r.getProducts() : List.of();
+                field(md, products.size());
+                for (ProductDTO p : products.stream().sorted(PRODUCT_ORDER).toList()) {
+                    field(md, p.getSku());
+                    field(md, p.getQuantity());
+                    field(md, p.getUnitPrice());
+                    field(md, p.getAmountTotal());
+                    field(md, p.getDiscount());
+                    field(md, p.getCategory());
+                }
+            }
+
+            return HexFormat.of().formatHex(md.digest());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to compute subscription digest", e);
+        }
+    }
+
+    // Length-prefixed so adjacent fields can never run into each other; null is distinct from ""
+    private static void field(MessageDigest md, Object value) {
+        if (value == null) {
+            md.update((byte) 0);
+            return;
+        }
+        byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+        md.update((byte) 1);
+        md.update(new byte[] {
+                (byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+                (byte) (bytes.length >>> 8), (byte) bytes.length });
+        md.update(bytes);
+    }
+}
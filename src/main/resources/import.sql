@@ -16,8 +16,8 @@ INSERT INTO tb_controlled_sku (sku, name) VALUES ('14530_40956932423813','PILSEN
 INSERT INTO tb_controlled_sku (sku, name) VALUES ('14965_41173439905925','HEFE WEIZEN');
 INSERT INTO tb_controlled_sku (sku, name) VALUES ('1669_40956942418053','AMERICAN PALE ALE');
 INSERT INTO tb_controlled_sku (sku, name) VALUES ('447_40972342296709','REST IN PILZ');
-INSERT INTO tb_controlled_sku (sku, name) VALUES ('6600_41368920588421','BOURBON VANILLA EUDER'); /*Inventory item ID 43458628583557 */
-INSERT INTO tb_controlled_sku (sku, name) VALUES ('3636_40972318441605','PROTOSTAR'); /*Inventory item ID 43055407169669 */
+INSERT INTO tb_controlled_sku (sku, name, inventory_item_gid) VALUES ('6600_41368920588421','BOURBON VANILLA EUDER', 'gid://shopify/InventoryItem/43458628583557');
+INSERT INTO tb_controlled_sku (sku, name, inventory_item_gid) VALUES ('3636_40972318441605','PROTOSTAR', 'gid://shopify/InventoryItem/43055407169669');
 
 -- Security seed
 INSERT INTO tb_role (id, authority) VALUES (1, 'ROLE_ADMIN');
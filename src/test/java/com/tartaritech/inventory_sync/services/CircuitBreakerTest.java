@@ -0,0 +1,189 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.tartaritech.inventory_sync.services.exceptions.CircuitOpenException;
+
+class CircuitBreakerTest {
+
+	private static final long OPEN_MS = 50;
+
+	@Test
+	void staysClosedBelowMinimumCalls() throws Exception {
+		CircuitBreaker breaker = breaker(2);
+
+		fail(breaker);
+		fail(breaker);
+		fail(breaker);
+
+		assertThat(state(breaker)).isEqualTo("CLOSED");
+	}
+
+	@Test
+	void opensWhenFailureRateReachesThreshold() throws Exception {
+		CircuitBreaker breaker = breaker(2);
+
+		succeed(breaker);
+		succeed(breaker);
+		fail(breaker);
+		assertThat(state(breaker)).isEqualTo("CLOSED");
+		fail(breaker);
+
+		assertThat(state(breaker)).isEqualTo("OPEN");
+	}
+
+	@Test
+	void failureResultsCountAsFailures() throws Exception {
+		CircuitBreaker breaker = breaker(2);
+
+		for (int i = 0; i < 4; i++) {
+			breaker.execute(() -> 503, status -> status >= 500);
+		}
+
+		assertThat(state(breaker)).isEqualTo("OPEN");
+	}
+
+	@Test
+	void openCircuitRejectsWithoutCalling() throws Exception {
+		CircuitBreaker breaker = opened(2);
+		AtomicInteger calls = new AtomicInteger();
+
+		assertThatThrownBy(() -> breaker.execute(calls::incrementAndGet, r -> false))
+				.isInstanceOf(CircuitOpenException.class);
+		assertThat(calls).hasValue(0);
+		assertThat(breaker.getSnapshot().get("rejectedCalls")).isEqualTo(1L);
+	}
+
+	@Test
+	void halfOpensAfterOpenDuration() throws Exception {
+		CircuitBreaker breaker = opened(2);
+
+		waitOpenDuration();
+
+		assertThat(state(breaker)).isEqualTo("HALF_OPEN");
+	}
+
+	@Test
+	void halfOpenClosesAfterTrialSuccesses() throws Exception {
+		CircuitBreaker breaker = opened(2);
+		waitOpenDuration();
+
+		succeed(breaker);
+		assertThat(state(breaker)).isEqualTo("HALF_OPEN");
+		succeed(breaker);
+
+		assertThat(state(breaker)).isEqualTo("CLOSED");
+	}
+
+	@Test
+	void halfOpenReopensOnFailure() throws Exception {
+		CircuitBreaker breaker = opened(2);
+		waitOpenDuration();
+
+		succeed(breaker);
+		fail(breaker);
+
+		assertThat(state(breaker)).isEqualTo("OPEN");
+	}
+
+	@Test
+	void interruptedTrialIsNotRecordedAsSuccess() throws Exception {
+		CircuitBreaker breaker = opened(1);
+		waitOpenDuration();
+
+		assertThatThrownBy(() -> breaker.execute(() -> {
+			throw new InterruptedException();
+		}, r -> false)).isInstanceOf(InterruptedException.class);
+
+		assertThat(state(breaker)).isEqualTo("HALF_OPEN");
+		assertThat(breaker.getSnapshot().get("totalCalls")).isEqualTo(4L);
+
+		// The interrupted call gave its trial slot back
+		succeed(breaker);
+		assertThat(state(breaker)).isEqualTo("CLOSED");
+	}
+
+	@Test
+	void interruptedCallIsNotRecordedWhileClosed() throws Exception {
+		CircuitBreaker breaker = breaker(2);
+
+		for (int i = 0; i < 4; i++) {
+			assertThatThrownBy(() -> breaker.execute(() -> {
+				throw new InterruptedException();
+			}, r -> false)).isInstanceOf(InterruptedException.class);
+		}
+
+		assertThat(breaker.getSnapshot().get("windowCalls")).isEqualTo(0);
+	}
+
+	@Test
+	void fullBulkheadRejectsCalls() throws Exception {
+		CircuitBreaker breaker = breaker(2);
+		CountDownLatch inside = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread holder = Thread.ofVirtual().start(() -> {
+			try {
+				breaker.execute(() -> {
+					inside.countDown();
+					release.await();
+					return 0;
+				}, r -> false);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		assertThat(inside.await(5, TimeUnit.SECONDS)).isTrue();
+
+		assertThatThrownBy(() -> succeed(breaker))
+				.isInstanceOf(CircuitOpenException.class)
+				.hasMessageContaining("bulkhead full");
+
+		release.countDown();
+		holder.join();
+		succeed(breaker);
+	}
+
+	// 50% of a 4-call window, one call in flight at a time
+	private static CircuitBreaker breaker(int halfOpenCalls) {
+		return new CircuitBreaker("test", new CircuitBreaker.Config(50, 4, 4, OPEN_MS, halfOpenCalls, 1, 0));
+	}
+
+	private static CircuitBreaker opened(int halfOpenCalls) throws Exception {
+		CircuitBreaker breaker = breaker(halfOpenCalls);
+		for (int i = 0; i < 4; i++) {
+			fail(breaker);
+		}
+		assertThat(state(breaker)).isEqualTo("OPEN");
+		return breaker;
+	}
+
+	private static void succeed(CircuitBreaker breaker) throws Exception {
+		breaker.execute(() -> 200, status -> status >= 500);
+	}
+
+	private static void fail(CircuitBreaker breaker) throws InterruptedException {
+		try {
+			breaker.execute(() -> {
+				throw new IOException("connection refused");
+			}, r -> false);
+		} catch (IOException expected) {
+			// counted as a failure
+		}
+	}
+
+	private static void waitOpenDuration() throws InterruptedException {
+		Thread.sleep(OPEN_MS + 20);
+	}
+
+	private static Object state(CircuitBreaker breaker) {
+		return breaker.getSnapshot().get("state");
+	}
+}
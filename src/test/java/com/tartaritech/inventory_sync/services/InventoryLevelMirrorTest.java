@@ -0,0 +1,205 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import com.tartaritech.inventory_sync.entities.InventoryLevel;
+import com.tartaritech.inventory_sync.repositories.ControlledSkuRepository;
+import com.tartaritech.inventory_sync.repositories.InventoryLevelRepository;
+import com.tartaritech.inventory_sync.services.ShopifyInventoryService.InventoryChange;
+
+class InventoryLevelMirrorTest {
+
+	private static final String ITEM_1 = "gid://shopify/InventoryItem/1";
+	private static final String ITEM_2 = "gid://shopify/InventoryItem/2";
+	private static final String LOCATION = "gid://shopify/Location/9";
+
+	// Bulk operation result: each item line is followed by its level lines
+	private static final String JSONL = """
+			{"id":"gid://shopify/InventoryItem/1"}
+			{"location":{"id":"gid://shopify/Location/9"},"quantities":[{"name":"available","quantity":7},{"name":"committed","quantity":1},{"name":"on_hand","quantity":10},{"name":"reserved","quantity":2}],"__parentId":"gid://shopify/InventoryItem/1"}
+
+			{"id":"gid://shopify/InventoryItem/2"}
+			{"location":{"id":"gid://shopify/Location/9"},"quantities":[{"name":"available","quantity":4},{"name":"on_hand","quantity":4}],"__parentId":"gid://shopify/InventoryItem/2"}
+			{"id":"gid://shopify/InventoryItem/3"}
+			""";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private ShopifyGraphqlService graphqlService;
+	private InventoryLevelRepository repository;
+	private InventoryLevelMirror mirror;
+	private HttpServer server;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/result.jsonl", exchange -> {
+			byte[] body = JSONL.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+
+		graphqlService = mock(ShopifyGraphqlService.class);
+		repository = mock(InventoryLevelRepository.class);
+		mirror = new InventoryLevelMirror(graphqlService, repository, mock(ControlledSkuRepository.class),
+				mock(ReservationLedgerService.class), inlineTransactions(), objectMapper);
+		ReflectionTestUtils.setField(mirror, "enabled", true);
+		ReflectionTestUtils.setField(mirror, "pollIntervalMs", 1L);
+		ReflectionTestUtils.setField(mirror, "timeoutMinutes", 1L);
+		ReflectionTestUtils.setField(mirror, "batchSize", 500);
+
+		when(graphqlService.executeMutation(anyString(), anyMap())).thenReturn(objectMapper.readTree("""
+				{"bulkOperationRunQuery":{"bulkOperation":{"id":"gid://shopify/BulkOperation/1","status":"CREATED"},"userErrors":[]}}
+				"""));
+		when(graphqlService.executeQuery(anyString(), anyMap())).thenReturn(objectMapper.readTree("""
+				{"node":{"id":"gid://shopify/BulkOperation/1","status":"COMPLETED","objectCount":"5","url":"%s"}}
+				""".formatted("http://127.0.0.1:" + server.getAddress().getPort() + "/result.jsonl")));
+		when(repository.deleteNotSeenSince(any())).thenReturn(0);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	void snapshotMirrorsEveryLevelLine() {
+		when(repository.findByInventoryItemIdIn(any())).thenReturn(List.of());
+
+		mirror.refreshSnapshot();
+
+		List<InventoryLevel> saved = savedLevels(1).get(0);
+		assertThat(saved).hasSize(2);
+		InventoryLevel first = saved.get(0);
+		assertThat(first.getInventoryItemId()).isEqualTo(ITEM_1);
+		assertThat(first.getLocationId()).isEqualTo(LOCATION);
+		assertThat(first.getAvailable()).isEqualTo(7);
+		assertThat(first.getCommitted()).isEqualTo(1);
+		assertThat(first.getOnHand()).isEqualTo(10);
+		assertThat(first.getReserved()).isEqualTo(2);
+		// Quantities missing from the line are zero
+		assertThat(saved.get(1).getReserved()).isZero();
+		assertThat(lastSnapshot().get("levels")).isEqualTo(2);
+		assertThat(lastSnapshot()).doesNotContainKey("error");
+	}
+
+	@Test
+	void snapshotIsSavedInBatches() {
+		ReflectionTestUtils.setField(mirror, "batchSize", 1);
+		when(repository.findByInventoryItemIdIn(any())).thenReturn(List.of());
+
+		mirror.refreshSnapshot();
+
+		List<List<InventoryLevel>> batches = savedLevels(2);
+		assertThat(batches.get(0)).extracting(InventoryLevel::getInventoryItemId).containsExactly(ITEM_1);
+		assertThat(batches.get(1)).extracting(InventoryLevel::getInventoryItemId).containsExactly(ITEM_2);
+	}
+
+	@Test
+	void snapshotUpdatesExistingLevelsAndRemovesUnseenOnes() {
+		Instant before = Instant.now().minusSeconds(3600);
+		InventoryLevel existing = new InventoryLevel(1L, ITEM_1, LOCATION, 0, 0, 0, 0, before, before);
+		when(repository.findByInventoryItemIdIn(any())).thenReturn(List.of(existing));
+
+		mirror.refreshSnapshot();
+
+		assertThat(existing.getAvailable()).isEqualTo(7);
+		assertThat(existing.getReserved()).isEqualTo(2);
+		assertThat(existing.getFetchedAt()).isAfter(before);
+		assertThat(savedLevels(1).get(0)).extracting(InventoryLevel::getInventoryItemId).containsExactly(ITEM_2);
+		verify(repository).deleteNotSeenSince(existing.getFetchedAt());
+	}
+
+	@Test
+	void levelPatchedDuringSnapshotKeepsItsQuantities() {
+		Instant patched = Instant.now().plusSeconds(60);
+		InventoryLevel existing = new InventoryLevel(1L, ITEM_1, LOCATION, 3, 0, 5, 2, patched, patched);
+		when(repository.findByInventoryItemIdIn(any())).thenReturn(List.of(existing));
+
+		mirror.refreshSnapshot();
+
+		assertThat(existing.getAvailable()).isEqualTo(3);
+		assertThat(existing.getUpdatedAt()).isEqualTo(patched);
+	}
+
+	@Test
+	void failedBulkOperationIsReported() throws Exception {
+		when(graphqlService.executeQuery(anyString(), anyMap())).thenReturn(objectMapper.readTree("""
+				{"node":{"id":"gid://shopify/BulkOperation/1","status":"FAILED","errorCode":"TIMEOUT"}}
+				"""));
+
+		mirror.refreshSnapshot();
+
+		assertThat((String) lastSnapshot().get("error")).contains("FAILED", "TIMEOUT");
+		verify(repository, never()).saveAll(any());
+	}
+
+	@Test
+	void adjustmentsArePatchedByQuantity() {
+		mirror.applyAdjustments("available", List.of(new InventoryChange(ITEM_1, LOCATION, -2)));
+		mirror.applyAdjustments("reserved", List.of(new InventoryChange(ITEM_1, LOCATION, 2)));
+		mirror.applyAdjustments("committed", List.of(new InventoryChange(ITEM_1, LOCATION, 1)));
+
+		verify(repository).addAvailable(eq(ITEM_1), eq(LOCATION), eq(-2), any());
+		verify(repository).addReserved(eq(ITEM_1), eq(LOCATION), eq(2), any());
+		verify(repository, times(1)).addAvailable(anyString(), anyString(), anyInt(), any());
+		verify(repository, times(1)).addReserved(anyString(), anyString(), anyInt(), any());
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<List<InventoryLevel>> savedLevels(int calls) {
+		ArgumentCaptor<List<InventoryLevel>> captor = ArgumentCaptor.forClass(List.class);
+		verify(repository, times(calls)).saveAll(captor.capture());
+		return captor.getAllValues();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> lastSnapshot() {
+		return (Map<String, Object>) mirror.getSnapshot().get("lastSnapshot");
+	}
+
+	// Runs every callback right away, without a transaction manager
+	@SuppressWarnings("unchecked")
+	private static TransactionTemplate inlineTransactions() {
+		TransactionTemplate template = mock(TransactionTemplate.class);
+		doAnswer(invocation -> {
+			((Consumer<TransactionStatus>) invocation.getArgument(0)).accept(null);
+			return null;
+		}).when(template).executeWithoutResult(any());
+		when(template.execute(any())).thenAnswer(
+				invocation -> ((TransactionCallback<Object>) invocation.getArgument(0)).doInTransaction(null));
+		return template;
+	}
+}
@@ -0,0 +1,220 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.tartaritech.inventory_sync.entities.RateLimitState;
+import com.tartaritech.inventory_sync.repositories.RateLimitStateRepository;
+
+class PagBrasilRateLimiterTest {
+
+	private RateLimitStateRepository repository;
+	private PagBrasilRateLimiter limiter;
+
+	// 10 req/s from the 100ms request delay, bursts of 3, +1 req/s every 2 successes
+	@BeforeEach
+	void setUp() {
+		repository = mock(RateLimitStateRepository.class);
+		when(repository.findById("pagbrasil")).thenReturn(Optional.empty());
+		limiter = new PagBrasilRateLimiter(repository);
+		ReflectionTestUtils.setField(limiter, "requestDelayMs", 100);
+		ReflectionTestUtils.setField(limiter, "minRate", 1.0);
+		ReflectionTestUtils.setField(limiter, "maxRate", 20.0);
+		ReflectionTestUtils.setField(limiter, "burst", 3);
+		ReflectionTestUtils.setField(limiter, "increaseStep", 1.0);
+		ReflectionTestUtils.setField(limiter, "decreaseFactor", 0.5);
+		ReflectionTestUtils.setField(limiter, "successesBeforeIncrease", 2);
+	}
+
+	@Test
+	void startsFromRequestDelay() {
+		limiter.init();
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(10.0);
+	}
+
+	@Test
+	void startsFromPersistedRate() {
+		when(repository.findById("pagbrasil")).thenReturn(Optional.of(new RateLimitState("pagbrasil", 4.0, null)));
+
+		limiter.init();
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(4.0);
+	}
+
+	@Test
+	void persistedRateIsClamped() {
+		when(repository.findById("pagbrasil")).thenReturn(Optional.of(new RateLimitState("pagbrasil", 100.0, null)));
+
+		limiter.init();
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(20.0);
+	}
+
+	@Test
+	void unreadableStateFallsBackToRequestDelay() {
+		when(repository.findById("pagbrasil")).thenThrow(new IllegalStateException("no table"));
+
+		limiter.init();
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(10.0);
+	}
+
+	@Test
+	void requestsArePacedAtTheRate() throws Exception {
+		limiter.init();
+
+		assertThat(timed(limiter::acquire)).isLessThan(50);
+		assertThat(timed(limiter::acquire)).isGreaterThanOrEqualTo(80);
+	}
+
+	@Test
+	void idleTimeAllowsABurst() throws Exception {
+		limiter.init();
+		Thread.sleep(400);
+
+		long burstMs = timed(() -> {
+			limiter.acquire();
+			limiter.acquire();
+			limiter.acquire();
+		});
+
+		assertThat(burstMs).isLessThan(50);
+		assertThat(timed(limiter::acquire)).isGreaterThanOrEqualTo(50);
+	}
+
+	@Test
+	void successesRaiseTheRate() {
+		limiter.init();
+
+		limiter.onSuccess();
+		assertThat(limiter.getRatePerSecond()).isEqualTo(10.0);
+		limiter.onSuccess();
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(11.0);
+	}
+
+	@Test
+	void throttleCutsTheRateAndPausesEveryCaller() throws Exception {
+		limiter.init();
+
+		limiter.onThrottled(150);
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(5.0);
+		assertThat(timed(limiter::acquire)).isGreaterThanOrEqualTo(140);
+	}
+
+	@Test
+	void throttleResetsTheSuccessRun() {
+		limiter.init();
+
+		limiter.onSuccess();
+		limiter.onThrottled(0);
+		limiter.onSuccess();
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(5.0);
+	}
+
+	@Test
+	void rateNeverDropsBelowMinimum() {
+		limiter.init();
+
+		for (int i = 0; i < 10; i++) {
+			lastCutLongAgo();
+			limiter.onThrottled(0);
+		}
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(1.0);
+	}
+
+	@Test
+	void concurrentThrottlesCutTheRateOnce() {
+		limiter.init();
+
+		limiter.onThrottled(0);
+		limiter.onThrottled(0);
+		limiter.onThrottled(0);
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(5.0);
+	}
+
+	@Test
+	void throttleAfterARefillIntervalCutsAgain() throws Exception {
+		limiter.init();
+
+		limiter.onThrottled(0);
+		// One token every 200ms at 5 req/s
+		Thread.sleep(250);
+		limiter.onThrottled(0);
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(2.5);
+	}
+
+	@Test
+	void throttleDuringThePauseOnlyExtendsIt() throws Exception {
+		limiter.init();
+
+		limiter.onThrottled(300);
+		Thread.sleep(250);
+		limiter.onThrottled(200);
+
+		assertThat(limiter.getRatePerSecond()).isEqualTo(5.0);
+		assertThat(timed(limiter::acquire)).isGreaterThanOrEqualTo(190);
+	}
+
+	@Test
+	void onlyChangedRatesArePersisted() {
+		limiter.init();
+		limiter.persistRate();
+		verify(repository, never()).save(any());
+
+		limiter.onThrottled(0);
+		limiter.persistRate();
+		limiter.persistRate();
+
+		ArgumentCaptor<RateLimitState> saved = ArgumentCaptor.forClass(RateLimitState.class);
+		verify(repository, times(1)).save(saved.capture());
+		assertThat(saved.getValue().getName()).isEqualTo("pagbrasil");
+		assertThat(saved.getValue().getRatePerSecond()).isEqualTo(5.0);
+	}
+
+	@Test
+	void failedPersistIsRetried() {
+		limiter.init();
+		limiter.onThrottled(0);
+		when(repository.save(any())).thenThrow(new IllegalStateException("db down")).thenReturn(null);
+
+		limiter.persistRate();
+		limiter.persistRate();
+
+		verify(repository, times(2)).save(any());
+	}
+
+	private void lastCutLongAgo() {
+		ReflectionTestUtils.setField(limiter, "lastDecreaseNanos", System.nanoTime() - TimeUnit.SECONDS.toNanos(10));
+	}
+
+	private static long timed(ThrowingRunnable action) throws Exception {
+		long started = System.nanoTime();
+		action.run();
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+	}
+
+	@FunctionalInterface
+	private interface ThrowingRunnable {
+		void run() throws Exception;
+	}
+}
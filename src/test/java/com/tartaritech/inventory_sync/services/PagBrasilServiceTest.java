@@ -0,0 +1,246 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
+import com.tartaritech.inventory_sync.dtos.SubscriptionFullDTO;
+import com.tartaritech.inventory_sync.services.exceptions.ExternalServiceException;
+import com.tartaritech.inventory_sync.utils.PagBrasilJsonDecoder;
+
+class PagBrasilServiceTest {
+
+	private static final long DETAIL_DELAY_MS = 100;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	// Listing pages by status; a page past the end is empty
+	private final Map<String, List<List<String>>> listings = new HashMap<>();
+	private final List<String> detailRequests = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicInteger listingRequests = new AtomicInteger();
+	// Recurrences 1..n in every detail response
+	private volatile int detailRecurrences;
+	// Retry-After of a 429 answered to every listing request; null to answer them normally
+	private volatile String listingRetryAfter;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private HttpServer server;
+	private PagBrasilService service;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		server.createContext("/api/pagstream/subscription/get", this::handle);
+		server.start();
+
+		CircuitBreakerRegistry breakers = new CircuitBreakerRegistry(50, 20, 10, 60000, 2, 16, 5000,
+				50, 20, 10, 30000, 2, 4, 5000);
+		service = new PagBrasilService(new PagBrasilJsonDecoder(objectMapper), mock(PagBrasilRateLimiter.class),
+				breakers);
+		ReflectionTestUtils.setField(service, "pagbrasilUrl", "http://127.0.0.1:" + server.getAddress().getPort());
+		ReflectionTestUtils.setField(service, "secret", "secret");
+		ReflectionTestUtils.setField(service, "pbtoken", "token");
+		ReflectionTestUtils.setField(service, "fetchConcurrency", 3);
+		ReflectionTestUtils.setField(service, "pipelineQueueCapacity", 100);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	void detailsAreFetchedConcurrentlyWithinTheLimit() {
+		List<String> ids = IntStream.rangeClosed(1, 9).mapToObj(i -> "SUB-" + i).toList();
+		listings.put("1", List.of(ids));
+		List<String> fetched = new ArrayList<>();
+
+		int count = service.streamSubscriptionDetails(List.of("1"), id -> true,
+				dto -> fetched.add(dto.getSubscription()));
+
+		assertThat(count).isEqualTo(9);
+		assertThat(fetched).containsExactlyInAnyOrderElementsOf(ids);
+		// Every fetcher was busy at once, and never more than the configured three
+		assertThat(maxInFlight).hasValue(3);
+	}
+
+	@Test
+	void singleFetcherFetchesOneAtATime() {
+		ReflectionTestUtils.setField(service, "fetchConcurrency", 1);
+		listings.put("1", List.of(List.of("SUB-1", "SUB-2", "SUB-3")));
+
+		int count = service.streamSubscriptionDetails(List.of("1"), id -> true, dto -> {
+		});
+
+		assertThat(count).isEqualTo(3);
+		assertThat(maxInFlight).hasValue(1);
+	}
+
+	@Test
+	void resultsAreHandedOverOnTheCallingThread() {
+		Thread caller = Thread.currentThread();
+		Map<String, Thread> threads = new ConcurrentHashMap<>();
+		listings.put("1", List.of(List.of("SUB-1", "SUB-2")));
+
+		service.streamSubscriptionDetails(List.of("1"), id -> true,
+				dto -> threads.put(dto.getSubscription(), Thread.currentThread()));
+
+		assertThat(threads).hasSize(2);
+		assertThat(threads.values()).containsOnly(caller);
+	}
+
+	@Test
+	void failingConsumerDoesNotStopThePipeline() {
+		List<String> handled = new ArrayList<>();
+		listings.put("1", List.of(List.of("SUB-1", "SUB-2")));
+
+		int count = service.streamSubscriptionDetails(List.of("1"), id -> true, dto -> {
+			handled.add(dto.getSubscription());
+			throw new IllegalStateException("boom");
+		});
+
+		assertThat(count).isEqualTo(2);
+		assertThat(handled).hasSize(2);
+	}
+
+	@Test
+	void listedIdsAreStreamedIntoTheFetchers() {
+		listings.put("1", List.of(List.of("SUB-1", "SUB-2"), List.of("SUB-3")));
+		listings.put("2", List.of(List.of("SUB-4")));
+		List<String> fetched = new ArrayList<>();
+
+		int count = service.streamSubscriptionDetails(List.of("1", "2"), id -> !"SUB-2".equals(id),
+				dto -> fetched.add(dto.getSubscription()));
+
+		assertThat(count).isEqualTo(3);
+		assertThat(fetched).containsExactlyInAnyOrder("SUB-1", "SUB-3", "SUB-4");
+		assertThat(detailRequests).doesNotContain("SUB-2");
+	}
+
+	@Test
+	void listingThrottledBeyondTheMaximumBackoffIsAbortedWithoutRetrying() {
+		listingRetryAfter = "600";
+
+		assertThatThrownBy(() -> service.scanSubscriptionsByStatus("1", 1, page -> true))
+				.isInstanceOf(ExternalServiceException.class)
+				.hasMessageContaining("Retry-After");
+		assertThat(listingRequests).hasValue(1);
+	}
+
+	@Test
+	void listingFailureMidStreamStillHandsOverWhatWasFetched() {
+		listings.put("1", List.of(List.of("SUB-1", "SUB-2"), List.of("SUB-3")));
+		detailRecurrences = 5;
+		Map<String, List<Integer>> fetched = new ConcurrentHashMap<>();
+		List<String> retainedAsked = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch handedOver = new CountDownLatch(3);
+
+		assertThatThrownBy(() -> service.fetchSubscriptionLastRecurrences(queue -> {
+			service.emitListedIds("1", id -> true, queue);
+			// Fail the next listing only once the first one's subscriptions were handed over
+			handedOver.await(10, TimeUnit.SECONDS);
+			throw new ExternalServiceException("PagBrasil listing of status 2 page 1 failed after 5 attempts");
+		}, id -> {
+			retainedAsked.add(id);
+			return "SUB-1".equals(id) ? Set.of(1) : Set.of();
+		}, dto -> {
+			fetched.put(dto.getSubscription(),
+					dto.getRecurrences().stream().map(RecurrenceDTO::getNumberRecurrence).sorted().toList());
+			handedOver.countDown();
+		})).isInstanceOf(ExternalServiceException.class).hasMessageContaining("status 2");
+
+		assertThat(fetched).containsOnlyKeys("SUB-1", "SUB-2", "SUB-3");
+		// Only the last two recurrences are decoded, plus the retained ones
+		assertThat(fetched.get("SUB-1")).containsExactly(1, 4, 5);
+		assertThat(fetched.get("SUB-3")).containsExactly(4, 5);
+		assertThat(retainedAsked).containsExactlyInAnyOrder("SUB-1", "SUB-2", "SUB-3");
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		Map<String, String> form = parseForm(new String(exchange.getRequestBody().readAllBytes(),
+				StandardCharsets.UTF_8));
+		String body;
+		if (form.containsKey("subscription")) {
+			body = detail(form.get("subscription"));
+		} else {
+			listingRequests.incrementAndGet();
+			if (listingRetryAfter != null) {
+				exchange.getResponseHeaders().add("Retry-After", listingRetryAfter);
+				exchange.sendResponseHeaders(429, -1);
+				exchange.close();
+				return;
+			}
+			List<List<String>> pages = listings.getOrDefault(form.get("status"), List.of());
+			int page = Integer.parseInt(form.get("page"));
+			List<String> ids = page <= pages.size() ? pages.get(page - 1) : List.of();
+			body = objectMapper.writeValueAsString(Map.of("subscriptions",
+					ids.stream().map(id -> Map.of("subscription", id)).toList()));
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private String detail(String subscriptionId) throws IOException {
+		detailRequests.add(subscriptionId);
+		int current = inFlight.incrementAndGet();
+		maxInFlight.accumulateAndGet(current, Math::max);
+		try {
+			Thread.sleep(DETAIL_DELAY_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			inFlight.decrementAndGet();
+		}
+		SubscriptionFullDTO dto = new SubscriptionFullDTO();
+		dto.setSubscription(subscriptionId);
+		dto.setStatus(1);
+		dto.setRecurrences(IntStream.rangeClosed(1, detailRecurrences).mapToObj(number -> {
+			RecurrenceDTO recurrence = new RecurrenceDTO();
+			recurrence.setNumberRecurrence(number);
+			return recurrence;
+		}).toList());
+		return objectMapper.writeValueAsString(dto);
+	}
+
+	private static Map<String, String> parseForm(String body) {
+		Map<String, String> form = new HashMap<>();
+		for (String pair : body.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				form.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return form;
+	}
+}
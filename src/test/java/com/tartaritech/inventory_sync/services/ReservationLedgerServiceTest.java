@@ -0,0 +1,205 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.tartaritech.inventory_sync.entities.ReservationLedgerEntry;
+import com.tartaritech.inventory_sync.entities.ReservedStockTotal;
+import com.tartaritech.inventory_sync.entities.ShopifySyncOperation;
+import com.tartaritech.inventory_sync.repositories.ReservationLedgerRepository;
+import com.tartaritech.inventory_sync.repositories.ReservedStockTotalRepository;
+import com.tartaritech.inventory_sync.repositories.ShopifySyncOperationRepository;
+
+class ReservationLedgerServiceTest {
+
+	private ShopifySyncOperationRepository operationRepository;
+	private ReservationLedgerRepository ledgerRepository;
+	private ReservedStockTotalRepository totalRepository;
+	private ReservationLedgerService service;
+
+	@BeforeEach
+	void setUp() {
+		operationRepository = mock(ShopifySyncOperationRepository.class);
+		ledgerRepository = mock(ReservationLedgerRepository.class);
+		totalRepository = mock(ReservedStockTotalRepository.class);
+		when(totalRepository.addReserved(anyString(), anyLong(), any())).thenReturn(1);
+		service = new ReservationLedgerService(operationRepository, ledgerRepository, totalRepository,
+				mock(PlatformTransactionManager.class));
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			rollback();
+		}
+	}
+
+	@Test
+	void recordingOutsideATransactionFails() {
+		assertThatThrownBy(() -> service.recordOperations(List.of(operation(1L, "A", "insert", 2))))
+				.isInstanceOf(IllegalStateException.class);
+		verify(operationRepository, never()).saveAll(any());
+
+		service.recordOperations(List.of());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void eachOperationGetsALedgerEntry() {
+		ShopifySyncOperation insert = operation(1L, "A", "insert", 2);
+		ShopifySyncOperation delete = operation(2L, "A", "delete", 3);
+		ShopifySyncOperation hardDecrement = operation(3L, "B", "hard-decrement", 1);
+
+		begin();
+		service.recordOperations(List.of(insert, delete, hardDecrement));
+
+		verify(operationRepository).saveAll(List.of(insert, delete, hardDecrement));
+		ArgumentCaptor<List<ReservationLedgerEntry>> entries = ArgumentCaptor.forClass(List.class);
+		verify(ledgerRepository).saveAll(entries.capture());
+		assertThat(entries.getValue()).extracting(ReservationLedgerEntry::getOperationId,
+				ReservationLedgerEntry::getSku, ReservationLedgerEntry::getDelta)
+				.containsExactly(tuple(1L, "A", 2), tuple(2L, "A", -3), tuple(3L, "B", -1));
+		assertThat(entries.getValue().get(0).getSubscriptionId()).isEqualTo("SUB-1");
+		assertThat(entries.getValue().get(0).getNumberRecurrence()).isEqualTo(4);
+	}
+
+	@Test
+	void totalsChangeOnlyWhenTheTransactionCommits() {
+		begin();
+		service.recordOperations(List.of(operation(1L, "B", "insert", 2), operation(2L, "A", "insert", 5)));
+		service.recordOperations(List.of(operation(3L, "B", "insert", 1), operation(4L, "A", "delete", 1)));
+		verify(totalRepository, never()).addReserved(anyString(), anyLong(), any());
+
+		commit();
+
+		// One update per SKU with the net delta, always in SKU order
+		InOrder order = inOrder(totalRepository);
+		order.verify(totalRepository).addReserved(eq("A"), eq(4L), any());
+		order.verify(totalRepository).addReserved(eq("B"), eq(3L), any());
+		verify(totalRepository, times(2)).addReserved(anyString(), anyLong(), any());
+	}
+
+	@Test
+	void netZeroLeavesTheTotalAlone() {
+		begin();
+		service.recordOperations(List.of(operation(1L, "A", "insert", 2), operation(2L, "A", "delete", 2)));
+		commit();
+
+		verify(totalRepository, never()).addReserved(anyString(), anyLong(), any());
+	}
+
+	@Test
+	void rolledBackDeltasAreDiscarded() {
+		begin();
+		service.recordOperations(List.of(operation(1L, "A", "insert", 2)));
+		rollback();
+
+		begin();
+		service.recordOperations(List.of(operation(2L, "A", "insert", 1)));
+		commit();
+
+		verify(totalRepository).addReserved(eq("A"), eq(1L), any());
+		verify(totalRepository, times(1)).addReserved(anyString(), anyLong(), any());
+	}
+
+	@Test
+	void missingTotalIsCreatedBeforeTheUpdate() {
+		when(totalRepository.addReserved(eq("A"), anyLong(), any())).thenReturn(0, 1);
+
+		begin();
+		service.recordOperations(List.of(operation(1L, "A", "insert", 2)));
+		commit();
+
+		ArgumentCaptor<ReservedStockTotal> created = ArgumentCaptor.forClass(ReservedStockTotal.class);
+		verify(totalRepository).save(created.capture());
+		assertThat(created.getValue().getSku()).isEqualTo("A");
+		assertThat(created.getValue().getReserved()).isZero();
+		verify(totalRepository, times(2)).addReserved(eq("A"), eq(2L), any());
+	}
+
+	@Test
+	void totalCreatedConcurrentlyIsStillUpdated() {
+		when(totalRepository.addReserved(eq("A"), anyLong(), any())).thenReturn(0, 1);
+		when(totalRepository.save(any())).thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+		begin();
+		service.recordOperations(List.of(operation(1L, "A", "insert", 2)));
+		commit();
+
+		verify(totalRepository, times(2)).addReserved(eq("A"), eq(2L), any());
+	}
+
+	@Test
+	void expectedReservationsComeFromTheTotals() {
+		Instant now = Instant.now();
+		when(totalRepository.findById("A")).thenReturn(Optional.of(new ReservedStockTotal("A", 7L, now)));
+		when(totalRepository.findById("Z")).thenReturn(Optional.empty());
+		when(totalRepository.findAll()).thenReturn(List.of(new ReservedStockTotal("B", 3L, now),
+				new ReservedStockTotal("A", 7L, now)));
+
+		assertThat(service.getExpectedReserved("A")).isEqualTo(7L);
+		assertThat(service.getExpectedReserved("Z")).isZero();
+		assertThat(service.getExpectedReservations()).containsExactly(entry("A", 7L), entry("B", 3L));
+	}
+
+	private static void begin() {
+		TransactionSynchronizationManager.initSynchronization();
+		TransactionSynchronizationManager.setActualTransactionActive(true);
+	}
+
+	private static void commit() {
+		List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+		synchronizations.forEach(s -> s.beforeCommit(false));
+		synchronizations.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+		end();
+	}
+
+	private static void rollback() {
+		TransactionSynchronizationManager.getSynchronizations()
+				.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+		end();
+	}
+
+	private static void end() {
+		TransactionSynchronizationManager.clearSynchronization();
+		TransactionSynchronizationManager.setActualTransactionActive(false);
+	}
+
+	private static ShopifySyncOperation operation(Long id, String sku, String operation, int quantity) {
+		ShopifySyncOperation op = new ShopifySyncOperation();
+		op.setId(id);
+		op.setSubscriptionId("SUB-" + id);
+		op.setNumberRecurrence(4);
+		op.setOperation(operation);
+		op.setSku(sku);
+		op.setQuantity(quantity);
+		op.setStatus("PENDING");
+		return op;
+	}
+}
@@ -0,0 +1,145 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class ShopifyCostThrottleTest {
+
+	private static final String QUERY = "query { shop { id } }";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private ShopifyCostThrottle throttle;
+
+	// 100-point bucket restoring 1000 points/s, so 50 points take 50ms
+	@BeforeEach
+	void setUp() {
+		throttle = new ShopifyCostThrottle();
+		ReflectionTestUtils.setField(throttle, "initialMaximumAvailable", 100.0);
+		ReflectionTestUtils.setField(throttle, "initialRestoreRate", 1000.0);
+		ReflectionTestUtils.setField(throttle, "defaultCost", 50.0);
+		throttle.init();
+	}
+
+	@Test
+	void fullBucketDoesNotDelay() throws Exception {
+		long waitedMs = timed(() -> throttle.release(throttle.acquire(QUERY)));
+
+		assertThat(waitedMs).isLessThan(40);
+		assertThat(throttle.getSnapshot().get("delayedRequests")).isEqualTo(0L);
+	}
+
+	@Test
+	void emptyBucketWaitsForRestore() throws Exception {
+		throttle.onResponse(QUERY, cost(50, 0));
+
+		long waitedMs = timed(() -> throttle.release(throttle.acquire(QUERY)));
+
+		assertThat(waitedMs).isGreaterThanOrEqualTo(45);
+		assertThat(throttle.getSnapshot().get("delayedRequests")).isEqualTo(1L);
+	}
+
+	@Test
+	void inFlightCostIsHeldBack() throws Exception {
+		throttle.acquire(QUERY);
+		throttle.acquire(QUERY);
+		assertThat(throttle.getSnapshot().get("inFlightCost")).isEqualTo(100.0);
+
+		// The bucket is full, so only a release makes room
+		Thread releaser = Thread.ofVirtual().start(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			throttle.release(50);
+		});
+		long waitedMs = timed(() -> throttle.acquire(QUERY));
+		releaser.join();
+
+		assertThat(waitedMs).isGreaterThanOrEqualTo(45);
+	}
+
+	@Test
+	void releasedCostIsAvailableAgain() throws Exception {
+		double first = throttle.acquire(QUERY);
+		double second = throttle.acquire(QUERY);
+		throttle.release(first);
+		throttle.release(second);
+
+		long waitedMs = timed(() -> throttle.acquire(QUERY));
+
+		assertThat(waitedMs).isLessThan(40);
+	}
+
+	@Test
+	void requestedCostOfLastAnswerIsUsed() throws Exception {
+		throttle.onResponse(QUERY, cost(80, 100));
+
+		double cost = throttle.acquire(QUERY);
+		throttle.release(cost);
+
+		assertThat(cost).isEqualTo(80.0);
+		assertThat(throttle.acquire("query { other }")).isEqualTo(50.0);
+	}
+
+	@Test
+	void costIsCappedAtBucketSize() throws Exception {
+		throttle.onResponse(QUERY, cost(500, 100));
+
+		assertThat(throttle.acquire(QUERY)).isEqualTo(100.0);
+	}
+
+	@Test
+	void throttledAnswerPausesEveryRequest() throws Exception {
+		long waitMs = throttle.onThrottled(QUERY, null, 80);
+
+		assertThat(waitMs).isEqualTo(80);
+		long waitedMs = timed(() -> throttle.acquire("query { other }"));
+		assertThat(waitedMs).isGreaterThanOrEqualTo(70);
+		assertThat(throttle.getSnapshot().get("throttledRequests")).isEqualTo(1L);
+	}
+
+	@Test
+	void throttledAnswerWaitsForMissingCost() {
+		long waitMs = throttle.onThrottled(QUERY, cost(50, 10), 0);
+
+		assertThat(waitMs).isEqualTo(40);
+	}
+
+	@Test
+	void restoreWaitCoversExpectedCost() {
+		throttle.onResponse(QUERY, cost(80, 100));
+
+		assertThat(throttle.restoreWaitMs(QUERY)).isEqualTo(80);
+		assertThat(throttle.restoreWaitMs("query { other }")).isEqualTo(50);
+	}
+
+	private JsonNode cost(double requested, double currentlyAvailable) {
+		return objectMapper.createObjectNode()
+				.put("requestedQueryCost", requested)
+				.put("actualQueryCost", requested)
+				.set("throttleStatus", objectMapper.createObjectNode()
+						.put("maximumAvailable", 100.0)
+						.put("currentlyAvailable", currentlyAvailable)
+						.put("restoreRate", 1000.0));
+	}
+
+	private static long timed(ThrowingRunnable action) throws Exception {
+		long started = System.nanoTime();
+		action.run();
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+	}
+
+	@FunctionalInterface
+	private interface ThrowingRunnable {
+		void run() throws Exception;
+	}
+}
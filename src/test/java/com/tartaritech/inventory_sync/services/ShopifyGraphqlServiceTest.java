@@ -0,0 +1,36 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.jupiter.api.Test;
+
+class ShopifyGraphqlServiceTest {
+
+	@Test
+	void retryAfterInSeconds() {
+		assertThat(ShopifyGraphqlService.parseRetryAfterMs("2")).isEqualTo(2000);
+		assertThat(ShopifyGraphqlService.parseRetryAfterMs(" 1.5 ")).isEqualTo(1500);
+	}
+
+	@Test
+	void retryAfterAsHttpDate() {
+		String inTenSeconds = DateTimeFormatter.RFC_1123_DATE_TIME
+				.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(10));
+
+		assertThat(ShopifyGraphqlService.parseRetryAfterMs(inTenSeconds)).isBetween(8000L, 10000L);
+	}
+
+	@Test
+	void retryAfterInThePastMeansNoWait() {
+		assertThat(ShopifyGraphqlService.parseRetryAfterMs("Wed, 21 Oct 2015 07:28:00 GMT")).isZero();
+	}
+
+	@Test
+	void unparseableRetryAfter() {
+		assertThat(ShopifyGraphqlService.parseRetryAfterMs("soon")).isEqualTo(-1);
+	}
+}
@@ -0,0 +1,200 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tartaritech.inventory_sync.services.ShopifyInventoryService.AdjustmentResult;
+import com.tartaritech.inventory_sync.services.ShopifyInventoryService.InventoryChange;
+import com.tartaritech.inventory_sync.services.exceptions.CircuitOpenException;
+
+class ShopifyInventoryServiceTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private ShopifyGraphqlService graphqlService;
+	private InventoryLevelMirror mirror;
+	private ShopifyInventoryService service;
+
+	// Inventory item IDs sent in each request, by alias
+	private final List<Map<String, List<String>>> requests = new ArrayList<>();
+	private final List<String> documents = new ArrayList<>();
+	private final List<Map<String, Object>> variables = new ArrayList<>();
+	// Items Shopify rejects wherever they appear, aliases it rejects as a whole, requests that throw (by number)
+	private final Set<String> badItems = new HashSet<>();
+	private final Set<String> badAliases = new HashSet<>();
+	private final Map<Integer, RuntimeException> requestErrors = new LinkedHashMap<>();
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setUp() {
+		graphqlService = mock(ShopifyGraphqlService.class);
+		mirror = mock(InventoryLevelMirror.class);
+		service = new ShopifyInventoryService(graphqlService, objectMapper, mirror);
+		ReflectionTestUtils.setField(service, "adjustBatchSize", 2);
+
+		when(graphqlService.executeMutation(anyString(), any())).thenAnswer(invocation -> {
+			documents.add(invocation.getArgument(0));
+			Map<String, Object> variables = invocation.getArgument(1);
+			this.variables.add(variables);
+			Map<String, List<String>> sent = new LinkedHashMap<>();
+			ObjectNode response = objectMapper.createObjectNode();
+			variables.forEach((alias, value) -> {
+				List<Map<String, Object>> changes = (List<Map<String, Object>>) ((Map<String, Object>) value)
+						.get("changes");
+				List<String> items = changes.stream().map(c -> (String) c.get("inventoryItemId")).toList();
+				sent.put(alias, items);
+
+				ArrayNode userErrors = response.putObject(alias).putArray("userErrors");
+				if (badAliases.contains(alias)) {
+					userErrors.addObject().put("message", "Quantity name is invalid").putNull("field");
+				}
+				for (int i = 0; i < items.size(); i++) {
+					if (badItems.contains(items.get(i))) {
+						ObjectNode error = userErrors.addObject().put("message", "Item " + items.get(i) + " not stocked");
+						error.putArray("field").add("input").add("changes").add(String.valueOf(i)).add("inventoryItemId");
+					}
+				}
+			});
+			requests.add(sent);
+			RuntimeException error = requestErrors.get(requests.size());
+			if (error != null) {
+				throw error;
+			}
+			return response;
+		});
+	}
+
+	@Test
+	void aliasesAreBatchedAtTheBatchSize() {
+		Map<String, List<InventoryChange>> changes = new LinkedHashMap<>();
+		changes.put("reserved", changes("R", 5));
+		changes.put("available", changes("A", 3));
+
+		Map<String, AdjustmentResult> results = service.adjustQuantities(changes, "batch-1-5");
+
+		assertThat(requests).containsExactly(
+				Map.of("reserved", List.of("R0", "R1"), "available", List.of("A0", "A1")),
+				Map.of("reserved", List.of("R2", "R3"), "available", List.of("A2")),
+				Map.of("reserved", List.of("R4")));
+		assertThat(documents.get(0)).contains("reserved: inventoryAdjustQuantities(input: $reserved)",
+				"available: inventoryAdjustQuantities(input: $available)");
+		assertThat(results.get("reserved").attempted()).isEqualTo(5);
+		assertThat(results.get("available").attempted()).isEqualTo(3);
+		assertThat(results.get("reserved").rejected()).isEmpty();
+		verify(mirror).applyAdjustments("reserved", changes.get("reserved"));
+		verify(mirror).applyAdjustments("available", changes.get("available"));
+	}
+
+	@Test
+	void onlyNonAvailableChangesCarryALedgerDocument() {
+		service.adjustQuantities(Map.of("reserved", changes("R", 1), "available", changes("A", 1)), "ref");
+
+		assertThat(firstChange("reserved")).containsKey("ledgerDocumentUri");
+		assertThat(firstChange("available")).doesNotContainKey("ledgerDocumentUri");
+	}
+
+	@Test
+	void rejectedChangeIsResentWithoutTheBadItem() {
+		badItems.add("R1");
+		Map<String, List<InventoryChange>> changes = new LinkedHashMap<>();
+		changes.put("reserved", changes("R", 2));
+		changes.put("available", changes("A", 2));
+
+		Map<String, AdjustmentResult> results = service.adjustQuantities(changes, "ref");
+
+		// Only the alias with a rejected change is sent again, without it
+		assertThat(requests).containsExactly(
+				Map.of("reserved", List.of("R0", "R1"), "available", List.of("A0", "A1")),
+				Map.of("reserved", List.of("R0")));
+		AdjustmentResult reserved = results.get("reserved");
+		assertThat(reserved.error(0)).isNull();
+		assertThat(reserved.rejected()).containsExactly(Map.entry(1, "Item R1 not stocked"));
+		assertThat(results.get("available").error(1)).isNull();
+		verify(mirror).applyAdjustments("reserved", List.of(InventoryChange.of("R0", 1)));
+	}
+
+	@Test
+	void rejectedPositionsMapBackToTheOriginalList() {
+		ReflectionTestUtils.setField(service, "adjustBatchSize", 4);
+		badItems.addAll(List.of("R1", "R3"));
+
+		AdjustmentResult result = service.adjustQuantities("reserved", changes("R", 4), "ref");
+
+		assertThat(requests).extracting(r -> r.get("reserved"))
+				.containsExactly(List.of("R0", "R1", "R2", "R3"), List.of("R0", "R2"));
+		assertThat(result.rejected()).containsOnlyKeys(1, 3);
+		assertThat(result.error(2)).isNull();
+	}
+
+	@Test
+	void aliasRejectedAsAWholeFailsAllItsChanges() {
+		badAliases.add("reserved");
+		Map<String, List<InventoryChange>> changes = new LinkedHashMap<>();
+		changes.put("reserved", changes("R", 2));
+		changes.put("available", changes("A", 2));
+
+		Map<String, AdjustmentResult> results = service.adjustQuantities(changes, "ref");
+
+		assertThat(requests).hasSize(1);
+		assertThat(results.get("reserved").failed()).containsOnlyKeys(0, 1);
+		assertThat(results.get("available").failed()).isEmpty();
+		verify(mirror).applyAdjustments("reserved", List.of());
+	}
+
+	@Test
+	void failedRequestFailsItsBatchAndTheNextBatchIsSent() {
+		requestErrors.put(1, new RuntimeException("GraphQL request failed"));
+
+		AdjustmentResult result = service.adjustQuantities("reserved", changes("R", 3), "ref");
+
+		assertThat(requests).hasSize(2);
+		assertThat(result.attempted()).isEqualTo(3);
+		assertThat(result.failed()).containsOnlyKeys(0, 1);
+		assertThat(result.error(2)).isNull();
+	}
+
+	@Test
+	void openCircuitStopsSending() {
+		requestErrors.put(2, new CircuitOpenException("open"));
+
+		AdjustmentResult result = service.adjustQuantities("reserved", changes("R", 5), "ref");
+
+		assertThat(requests).hasSize(2);
+		assertThat(result.attempted()).isEqualTo(2);
+		assertThat(result.wasAttempted(1)).isTrue();
+		assertThat(result.wasAttempted(2)).isFalse();
+		verify(mirror).applyAdjustments(eq("reserved"), eq(changes("R", 2)));
+	}
+
+	private static List<InventoryChange> changes(String prefix, int count) {
+		List<InventoryChange> changes = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			changes.add(InventoryChange.of(prefix + i, 1));
+		}
+		return changes;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> firstChange(String alias) {
+		Map<String, Object> input = (Map<String, Object>) variables.get(0).get(alias);
+		return ((List<Map<String, Object>>) input.get("changes")).get(0);
+	}
+}
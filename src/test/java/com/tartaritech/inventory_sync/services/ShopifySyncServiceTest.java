@@ -0,0 +1,190 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tartaritech.inventory_sync.entities.ShopifySyncOperation;
+import com.tartaritech.inventory_sync.repositories.ShopifySyncOperationRepository;
+import com.tartaritech.inventory_sync.services.ShopifyInventoryService.AdjustmentResult;
+import com.tartaritech.inventory_sync.services.ShopifyInventoryService.InventoryChange;
+
+class ShopifySyncServiceTest {
+
+	private static final String GID_A = "gid://shopify/InventoryItem/1";
+
+	private ShopifySyncOperationRepository repository;
+	private ShopifyInventoryService inventoryService;
+	private ShopifySyncService service;
+	private final Map<String, Map<Integer, String>> errors = new HashMap<>();
+
+	@BeforeEach
+	void setUp() {
+		repository = mock(ShopifySyncOperationRepository.class);
+		inventoryService = mock(ShopifyInventoryService.class);
+		InventoryItemGidCache gidCache = mock(InventoryItemGidCache.class);
+		when(gidCache.get("A")).thenReturn(GID_A);
+		service = new ShopifySyncService(repository, inventoryService, gidCache, mock(TransactionTemplate.class));
+		ReflectionTestUtils.setField(service, "chunkSize", 500);
+
+		// Every change is applied unless respond() named its position
+		when(inventoryService.adjustQuantities(any(), anyString())).thenAnswer(invocation -> {
+			Map<String, List<InventoryChange>> changes = invocation.getArgument(0);
+			Map<String, AdjustmentResult> results = new LinkedHashMap<>();
+			changes.forEach((name, list) -> results.put(name,
+					new AdjustmentResult(list.size(), new HashMap<>(errors.getOrDefault(name, Map.of())), Map.of())));
+			return results;
+		});
+	}
+
+	@Test
+	void operationsOfASkuAreNetted() {
+		ShopifySyncOperation first = operation(1L, "insert", 2);
+		ShopifySyncOperation second = operation(2L, "insert", 3);
+		pending(first, second);
+
+		service.processPendingShopifyOperations();
+
+		Map<String, List<InventoryChange>> sent = sentChanges(1).get(0);
+		assertThat(sent.get("reserved")).containsExactly(InventoryChange.of(GID_A, 5));
+		assertThat(sent.get("available")).containsExactly(InventoryChange.of(GID_A, -5));
+		assertThat(first.getStatus()).isEqualTo("EXECUTED");
+		assertThat(second.getStatus()).isEqualTo("EXECUTED");
+	}
+
+	@Test
+	void operationsCancellingOutNeedNoShopifyCall() {
+		ShopifySyncOperation insert = operation(1L, "insert", 3);
+		ShopifySyncOperation delete = operation(2L, "delete", 3);
+		pending(insert, delete);
+
+		service.processPendingShopifyOperations();
+
+		verify(inventoryService, never()).adjustQuantities(any(), anyString());
+		assertThat(insert.getStatus()).isEqualTo("EXECUTED");
+		assertThat(delete.getStatus()).isEqualTo("EXECUTED");
+	}
+
+	@Test
+	void failureQuotesTheShopifyReference() {
+		ShopifySyncOperation first = operation(7L, "insert", 2);
+		ShopifySyncOperation second = operation(8L, "insert", 3);
+		pending(first, second);
+		respond(Map.of(0, "invalid location"), Map.of(0, "invalid location"));
+
+		service.processPendingShopifyOperations();
+
+		verify(inventoryService).adjustQuantities(any(), eq("batch-7-2"));
+		assertThat(first.getErrorMessage()).startsWith("SKU adjustment batch-7-2 failed: ");
+		assertThat(second.getErrorMessage()).isEqualTo(first.getErrorMessage());
+		assertThat(second.getRetryCount()).isEqualTo(1);
+	}
+
+	@Test
+	void failedAvailableKeepsAppliedReserved() {
+		ShopifySyncOperation op = operation(1L, "insert", 3);
+		pending(op);
+		respond(Map.of(), Map.of(0, "invalid location"));
+
+		service.processPendingShopifyOperations();
+
+		assertThat(op.getStatus()).isEqualTo("PENDING");
+		assertThat(op.getRetryCount()).isEqualTo(1);
+		assertThat(op.getReservedApplied()).isTrue();
+		assertThat(op.getAvailableApplied()).isFalse();
+	}
+
+	@Test
+	void retrySendsOnlyTheFailedHalf() {
+		ShopifySyncOperation op = operation(1L, "insert", 3);
+		pending(op);
+		respond(Map.of(), Map.of(0, "invalid location"));
+		service.processPendingShopifyOperations();
+
+		pending(op);
+		respond(Map.of(), Map.of());
+		service.processPendingShopifyOperations();
+
+		List<Map<String, List<InventoryChange>>> sent = sentChanges(2);
+		assertThat(sent.get(0)).containsOnlyKeys("reserved", "available");
+		assertThat(sent.get(1)).containsOnlyKeys("available");
+		assertThat(sent.get(1).get("available")).containsExactly(InventoryChange.of(GID_A, -3));
+		assertThat(op.getStatus()).isEqualTo("EXECUTED");
+	}
+
+	@Test
+	void failedReservedKeepsAppliedAvailable() {
+		ShopifySyncOperation op = operation(1L, "delete", 2);
+		pending(op);
+		respond(Map.of(0, "invalid location"), Map.of());
+		service.processPendingShopifyOperations();
+
+		pending(op);
+		respond(Map.of(), Map.of());
+		service.processPendingShopifyOperations();
+
+		List<Map<String, List<InventoryChange>>> sent = sentChanges(2);
+		assertThat(sent.get(1)).containsOnlyKeys("reserved");
+		assertThat(sent.get(1).get("reserved")).containsExactly(InventoryChange.of(GID_A, -2));
+		assertThat(op.getAvailableApplied()).isTrue();
+	}
+
+	@Test
+	void bothHalvesFailingAppliesNothing() {
+		ShopifySyncOperation op = operation(1L, "insert", 3);
+		pending(op);
+		respond(Map.of(0, "invalid location"), Map.of(0, "invalid location"));
+
+		service.processPendingShopifyOperations();
+
+		assertThat(op.getReservedApplied()).isFalse();
+		assertThat(op.getAvailableApplied()).isFalse();
+	}
+
+	private void pending(ShopifySyncOperation... ops) {
+		when(repository.findByStatusAndRetryCountLessThanAndIdGreaterThanOrderByIdAsc(eq("PENDING"), any(Integer.class),
+				anyLong(), any())).thenReturn(List.of(ops), List.of());
+	}
+
+	private void respond(Map<Integer, String> reservedErrors, Map<Integer, String> availableErrors) {
+		errors.put("reserved", reservedErrors);
+		errors.put("available", availableErrors);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Map<String, List<InventoryChange>>> sentChanges(int calls) {
+		ArgumentCaptor<Map<String, List<InventoryChange>>> captor = ArgumentCaptor.forClass(Map.class);
+		verify(inventoryService, times(calls)).adjustQuantities(captor.capture(), anyString());
+		return captor.getAllValues();
+	}
+
+	private static ShopifySyncOperation operation(Long id, String operation, int quantity) {
+		ShopifySyncOperation op = new ShopifySyncOperation();
+		op.setId(id);
+		op.setSubscriptionId("SUB-" + id);
+		op.setOperation(operation);
+		op.setSku("A");
+		op.setQuantity(quantity);
+		op.setStatus("PENDING");
+		op.setRetryCount(0);
+		return op;
+	}
+}
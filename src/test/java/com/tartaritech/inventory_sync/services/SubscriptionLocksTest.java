@@ -0,0 +1,100 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class SubscriptionLocksTest {
+
+	private final SubscriptionLocks locks = new SubscriptionLocks();
+
+	@Test
+	void otherSubscriptionsAreNotBlocked() throws Exception {
+		CountDownLatch held = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread cycle = Thread.ofVirtual().start(() -> locks.withLocks(List.of("PBS1", "PBS2"), () -> {
+			held.countDown();
+			await(release);
+		}));
+		held.await();
+
+		CountDownLatch done = new CountDownLatch(1);
+		Thread.ofVirtual().start(() -> locks.withLocks(List.of("PBS3"), done::countDown));
+
+		assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		release.countDown();
+		cycle.join();
+	}
+
+	@Test
+	void sameSubscriptionWaitsForTheHolder() throws Exception {
+		CountDownLatch held = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean holderDone = new AtomicBoolean();
+		Thread cycle = Thread.ofVirtual().start(() -> locks.withLocks(List.of("PBS1", "PBS2"), () -> {
+			held.countDown();
+			await(release);
+			holderDone.set(true);
+		}));
+		held.await();
+
+		AtomicBoolean sawHolderDone = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(1);
+		Thread.ofVirtual().start(() -> locks.withLocks(List.of("PBS2"), () -> {
+			sawHolderDone.set(holderDone.get());
+			done.countDown();
+		}));
+
+		assertThat(done.await(100, TimeUnit.MILLISECONDS)).isFalse();
+		release.countDown();
+		assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(sawHolderDone).isTrue();
+		cycle.join();
+	}
+
+	@Test
+	void overlappingGroupsInOppositeOrderDoNotDeadlock() throws Exception {
+		List<String> ids = Arrays.asList("PBS1", "PBS2", "PBS3", "PBS4");
+		List<String> reversed = ids.reversed();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			List<String> group = t % 2 == 0 ? ids : reversed;
+			threads[t] = Thread.ofVirtual().start(() -> {
+				for (int i = 0; i < 200; i++) {
+					locks.withLocks(group, () -> {
+					});
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			assertThat(thread.join(Duration.ofSeconds(10))).isTrue();
+		}
+		assertThat(locks.size()).isZero();
+	}
+
+	@Test
+	void locksAreReleasedWhenTheActionFails() {
+		assertThatThrownBy(() -> locks.withLocks(List.of("PBS1"), () -> {
+			throw new IllegalStateException("rollback");
+		})).isInstanceOf(IllegalStateException.class);
+
+		assertThat(locks.size()).isZero();
+		assertThat(locks.withLocks(List.of("PBS1"), () -> "ok")).isEqualTo("ok");
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package com.tartaritech.inventory_sync.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
+import com.tartaritech.inventory_sync.dtos.SubscriptionFullDTO;
+import com.tartaritech.inventory_sync.entities.SubscriptionRefreshState;
+import com.tartaritech.inventory_sync.repositories.SubscriptionRefreshStateRepository;
+import com.tartaritech.inventory_sync.services.SubscriptionRefreshScheduler.Cycle;
+
+class SubscriptionRefreshSchedulerTest {
+
+	private SubscriptionRefreshStateRepository repository;
+	private SubscriptionRefreshScheduler scheduler;
+	private final List<SubscriptionRefreshState> stored = new ArrayList<>();
+	private final List<SubscriptionRefreshState> saved = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		repository = mock(SubscriptionRefreshStateRepository.class);
+		when(repository.findAll()).thenReturn(stored);
+		when(repository.save(any())).thenAnswer(invocation -> {
+			SubscriptionRefreshState state = invocation.getArgument(0);
+			saved.add(state);
+			return state;
+		});
+		scheduler = new SubscriptionRefreshScheduler(repository);
+		ReflectionTestUtils.setField(scheduler, "budgetPerCycle", 300);
+		ReflectionTestUtils.setField(scheduler, "billingWindowDays", 3);
+		ReflectionTestUtils.setField(scheduler, "hotIntervalMinutes", 0L);
+		ReflectionTestUtils.setField(scheduler, "warmMinIntervalMinutes", 60L);
+		ReflectionTestUtils.setField(scheduler, "warmMaxIntervalMinutes", 1440L);
+		ReflectionTestUtils.setField(scheduler, "coldIntervalMinutes", 4320L);
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	void newIdsAreFetchedRightAwayAndOnlyOnce() {
+		known("PBS1", Instant.now().minus(Duration.ofHours(1)));
+		Cycle cycle = scheduler.startCycle();
+
+		assertThat(cycle.offer("NEW")).isTrue();
+		assertThat(cycle.offer("NEW")).isFalse();
+		assertThat(cycle.offer("PBS1")).isFalse();
+		assertThat(cycle.getNewIds()).isEqualTo(1);
+	}
+
+	@Test
+	void dueIdsAreCappedByBudgetMostOverdueFirst() {
+		Instant now = Instant.now();
+		known("PBS1", now.minus(Duration.ofHours(1)));
+		known("PBS2", now.minus(Duration.ofHours(3)));
+		known("PBS3", now.minus(Duration.ofHours(2)));
+		known("PBS4", now.plus(Duration.ofHours(1)));
+		ReflectionTestUtils.setField(scheduler, "budgetPerCycle", 2);
+		Cycle cycle = scheduler.startCycle();
+		List.of("PBS1", "PBS2", "PBS3", "PBS4").forEach(cycle::offer);
+
+		assertThat(cycle.dueWithinBudget()).containsExactly("PBS2", "PBS3");
+		assertThat(cycle.getDue()).isEqualTo(2);
+		assertThat(cycle.getDeferred()).isEqualTo(1);
+		assertThat(cycle.getNotDue()).isEqualTo(1);
+	}
+
+	@Test
+	void negativeBudgetRefetchesNothing() {
+		known("PBS1", Instant.now().minus(Duration.ofHours(1)));
+		ReflectionTestUtils.setField(scheduler, "budgetPerCycle", -1);
+		Cycle cycle = scheduler.startCycle();
+		cycle.offer("PBS1");
+
+		assertThat(cycle.dueWithinBudget()).isEmpty();
+		assertThat(cycle.getDeferred()).isEqualTo(1);
+	}
+
+	@Test
+	void attachLoadsOnlyKnownIds() {
+		known("PBS1", Instant.now());
+		Cycle cycle = scheduler.startCycle();
+
+		cycle.attach(List.of("NEW"));
+		verify(repository, never()).findAllById(anyCollection());
+
+		cycle.attach(List.of("PBS1", "NEW"));
+		verify(repository).findAllById(List.of("PBS1"));
+	}
+
+	@Test
+	void billingWithinWindowIsHot() {
+		Instant before = Instant.now();
+		scheduler.startCycle().recordFetch(subscription("PBS1", LocalDate.now().plusDays(2)), "d1", false);
+
+		SubscriptionRefreshState state = lastSaved();
+		assertThat(state.getTier()).isEqualTo(SubscriptionRefreshScheduler.TIER_HOT);
+		assertThat(state.getNextRefreshAt()).isBetween(before, Instant.now());
+	}
+
+	@Test
+	void uncontrolledIsColdButWakesUpForBilling() {
+		Instant before = Instant.now();
+		Cycle cycle = scheduler.startCycle();
+
+		cycle.recordFetch(subscription("PBS1", null), "d1", false);
+		assertThat(lastSaved().getTier()).isEqualTo(SubscriptionRefreshScheduler.TIER_COLD);
+		assertThat(lastSaved().getNextRefreshAt()).isAfterOrEqualTo(before.plus(Duration.ofMinutes(4320)));
+
+		LocalDate billing = LocalDate.now().plusDays(5);
+		cycle.recordFetch(subscription("PBS2", billing), "d1", false);
+		assertThat(lastSaved().getTier()).isEqualTo(SubscriptionRefreshScheduler.TIER_COLD);
+		assertThat(lastSaved().getNextRefreshAt())
+				.isEqualTo(billing.minusDays(3).atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+
+	@Test
+	void controlledWithUnpaidEmittedRecurrenceIsHot() {
+		SubscriptionFullDTO dto = subscription("PBS1", null);
+		dto.setRecurrences(List.of(recurrence(1, "PBO1", null), recurrence(3, "PBO3", "2026-09-05"),
+				recurrence(2, "PBO2", "")));
+
+		scheduler.startCycle().recordFetch(dto, "d1", true);
+
+		assertThat(lastSaved().getTier()).isEqualTo(SubscriptionRefreshScheduler.TIER_HOT);
+	}
+
+	@Test
+	void unpaidRecurrenceOutsideTheLastTwoIsWarm() {
+		SubscriptionFullDTO dto = subscription("PBS1", null);
+		dto.setRecurrences(List.of(recurrence(1, "PBO1", null), recurrence(2, "PBO2", "2026-08-05"),
+				recurrence(3, null, null)));
+
+		scheduler.startCycle().recordFetch(dto, "d1", true);
+
+		assertThat(lastSaved().getTier()).isEqualTo(SubscriptionRefreshScheduler.TIER_WARM);
+	}
+
+	@Test
+	void warmIntervalDoublesWhileUnchangedUpToMaximum() {
+		Cycle cycle = scheduler.startCycle();
+		SubscriptionFullDTO dto = subscription("PBS1", null);
+
+		List<Long> minutes = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			cycle.recordFetch(dto, "same", true);
+			minutes.add(minutesAhead(lastSaved()));
+		}
+		cycle.recordFetch(dto, "changed", true);
+		minutes.add(minutesAhead(lastSaved()));
+
+		assertThat(minutes).containsExactly(60L, 120L, 240L, 480L, 960L, 1440L, 1440L, 60L);
+		assertThat(lastSaved().getUnchangedCount()).isZero();
+	}
+
+	@Test
+	void fetchRolledBackIsNotCountedWhenReplayed() {
+		SubscriptionRefreshState previous = known("PBS1", Instant.now());
+		previous.setLastDigest("same");
+		Cycle cycle = scheduler.startCycle();
+		SubscriptionFullDTO dto = subscription("PBS1", null);
+
+		// Chunk transaction rolls back: its afterCommit never runs
+		TransactionSynchronizationManager.initSynchronization();
+		cycle.recordFetch(dto, "same", true);
+		TransactionSynchronizationManager.clearSynchronization();
+		assertThat(lastSaved().getUnchangedCount()).isEqualTo(1);
+		assertThat(lastSaved()).isNotSameAs(previous);
+		assertThat(previous.getUnchangedCount()).isZero();
+
+		// Replayed chunk commits
+		TransactionSynchronizationManager.initSynchronization();
+		cycle.recordFetch(dto, "same", true);
+		assertThat(lastSaved().getUnchangedCount()).isEqualTo(1);
+		TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+		TransactionSynchronizationManager.clearSynchronization();
+
+		cycle.recordFetch(dto, "same", true);
+		assertThat(lastSaved().getUnchangedCount()).isEqualTo(2);
+	}
+
+	@Test
+	void forgottenIdIsDeletedAndNewAgain() {
+		SubscriptionRefreshState state = known("PBS1", Instant.now().minus(Duration.ofHours(1)));
+		Cycle cycle = scheduler.startCycle();
+
+		cycle.forget("PBS1");
+		cycle.forget("PBS1");
+
+		verify(repository).delete(state);
+		assertThat(cycle.offer("PBS1")).isTrue();
+	}
+
+	private SubscriptionRefreshState known(String id, Instant nextRefreshAt) {
+		SubscriptionRefreshState state = new SubscriptionRefreshState(id, nextRefreshAt, null, null, 0, true,
+				SubscriptionRefreshScheduler.TIER_WARM);
+		stored.add(state);
+		return state;
+	}
+
+	private SubscriptionRefreshState lastSaved() {
+		return saved.get(saved.size() - 1);
+	}
+
+	private static long minutesAhead(SubscriptionRefreshState state) {
+		return Duration.between(state.getLastFetchedAt(), state.getNextRefreshAt()).toMinutes();
+	}
+
+	private static SubscriptionFullDTO subscription(String id, LocalDate nextBillingDate) {
+		SubscriptionFullDTO dto = new SubscriptionFullDTO();
+		dto.setSubscription(id);
+		dto.setNextBillingDate(nextBillingDate != null ? nextBillingDate.toString() : null);
+		return dto;
+	}
+
+	private static RecurrenceDTO recurrence(int number, String order, String paymentDate) {
+		RecurrenceDTO recurrence = new RecurrenceDTO();
+		recurrence.setNumberRecurrence(number);
+		recurrence.setOrder(order);
+		recurrence.setPaymentDate(paymentDate);
+		return recurrence;
+	}
+}
@@ -0,0 +1,167 @@
+package com.tartaritech.inventory_sync.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
+import com.tartaritech.inventory_sync.dtos.SubscriptionFullDTO;
+import com.tartaritech.inventory_sync.dtos.SubscriptionShortDTO;
+import com.tartaritech.inventory_sync.dtos.SubscriptionsDTO;
+
+class PagBrasilJsonDecoderTest {
+
+	// Configured like Spring Boot's ObjectMapper, which decoded these responses before the streaming decoder
+	private final ObjectMapper objectMapper = new ObjectMapper()
+			.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+	private final PagBrasilJsonDecoder decoder = new PagBrasilJsonDecoder(objectMapper);
+
+	@Nested
+	class Parity {
+
+		@Test
+		void listingMatchesObjectMapper() throws IOException {
+			List<SubscriptionShortDTO> decoded = decoder.decodeSubscriptionList(fixture("subscription-list.json"));
+			SubscriptionsDTO expected = objectMapper.readValue(fixture("subscription-list.json"), SubscriptionsDTO.class);
+
+			assertThat(decoded).usingRecursiveFieldByFieldElementComparator().isEqualTo(expected.getSubscriptions());
+			assertThat(decoded).extracting(SubscriptionShortDTO::getSubscription)
+					.containsExactly("PBS0001", "PBS0002", null, null, "1234");
+		}
+
+		@ParameterizedTest
+		@ValueSource(strings = { "subscription-detail.json", "subscription-detail-minimal.json" })
+		void detailMatchesObjectMapper(String name) throws IOException {
+			SubscriptionFullDTO decoded = decoder.decodeSubscription(fixture(name));
+			SubscriptionFullDTO expected = objectMapper.readValue(fixture(name), SubscriptionFullDTO.class);
+
+			assertThat(decoded).usingRecursiveComparison().isEqualTo(expected);
+		}
+
+		@Test
+		void detailKeepsEveryRecurrenceAndProduct() throws IOException {
+			SubscriptionFullDTO decoded = decoder.decodeSubscription(fixture("subscription-detail.json"));
+
+			assertThat(decoded.getStatus()).isEqualTo(1);
+			assertThat(decoded.getRecurrences()).hasSize(4);
+			assertThat(decoded.getRecurrences().get(1).getNumberRecurrence()).isEqualTo(2);
+			assertThat(decoded.getRecurrences().get(1).getAmountBrl()).isEqualTo("149.9");
+			assertThat(decoded.getRecurrences().get(2).getProducts().get(0).getQuantity()).isEqualTo(1);
+			assertThat(decoded.getProducts()).extracting(p -> p.getId()).containsExactly(501L, 502L);
+		}
+
+		@Test
+		void nonObjectBodyDecodesToNull() throws IOException {
+			assertThat(decoder.decodeSubscription(json("[]"))).isNull();
+			assertThat(decoder.decodeSubscriptionList(json("null"))).isEmpty();
+		}
+	}
+
+	@Nested
+	class LastTwo {
+
+		@Test
+		void keepsTheTwoHighestRecurrences() throws IOException {
+			SubscriptionFullDTO decoded = decoder.decodeSubscriptionLastTwo(fixture("subscription-detail.json"), Set.of());
+
+			assertThat(decoded.getRecurrences()).extracting(RecurrenceDTO::getNumberRecurrence).containsExactly(3, 4);
+			assertThat(decoded.getRecurrences().get(1).getProducts()).extracting(p -> p.getSku())
+					.containsExactly("KIT-A", "REFIL-B");
+			assertThat(decoded.getSubscription()).isEqualTo("PBS0001");
+			assertThat(decoded.getNumberRecurrences()).isEqualTo(4);
+		}
+
+		@Test
+		void skipsTopLevelProducts() throws IOException {
+			SubscriptionFullDTO decoded = decoder.decodeSubscriptionLastTwo(fixture("subscription-detail.json"), Set.of());
+
+			assertThat(decoded.getProducts()).isNull();
+		}
+
+		@Test
+		void keepsRetainedRecurrencesWithTheirProducts() throws IOException {
+			SubscriptionFullDTO decoded = decoder.decodeSubscriptionLastTwo(fixture("subscription-detail.json"), Set.of(1));
+
+			assertThat(decoded.getRecurrences()).extracting(RecurrenceDTO::getNumberRecurrence).containsExactly(1, 3, 4);
+			assertThat(decoded.getRecurrences().get(0).getProducts()).hasSize(2);
+		}
+
+		@Test
+		void keptRecurrencesMatchTheFullDecode() throws IOException {
+			SubscriptionFullDTO full = decoder.decodeSubscription(fixture("subscription-detail.json"));
+			SubscriptionFullDTO lastTwo = decoder.decodeSubscriptionLastTwo(fixture("subscription-detail.json"), Set.of(2));
+
+			assertThat(lastTwo.getRecurrences()).usingRecursiveFieldByFieldElementComparator()
+					.containsExactlyElementsOf(full.getRecurrences().subList(1, 4));
+		}
+
+		@Test
+		void skipsProductsOfRecurrencesThatCannotBeKept() throws IOException {
+			// Newest first: by the time 2 and 1 arrive the top two are known, so their products are never decoded
+			String body = """
+					{"subscription": "PBS0009", "recurrences": [
+						{"number_recurrence": 4, "products": [{"sku": "A", "quantity": 1}]},
+						{"number_recurrence": 3, "products": [{"sku": "B", "quantity": 1}]},
+						{"number_recurrence": 2, "products": [{"sku": "C", "quantity": 1}]},
+						{"number_recurrence": 1, "products": [{"sku": "D", "quantity": 1}]}
+					]}""";
+
+			SubscriptionFullDTO decoded = decoder.decodeSubscriptionLastTwo(json(body), Set.of(1));
+
+			assertThat(decoded.getRecurrences()).extracting(RecurrenceDTO::getNumberRecurrence).containsExactly(4, 3, 1);
+			assertThat(decoded.getRecurrences()).extracting(r -> r.getProducts().get(0).getSku())
+					.containsExactly("A", "B", "D");
+		}
+
+		@Test
+		void orderOfRecurrencesDoesNotMatter() throws IOException {
+			String body = """
+					{"recurrences": [
+						{"number_recurrence": 2}, {"number_recurrence": 5}, {"number_recurrence": 1},
+						{"number_recurrence": 4}, {"number_recurrence": 3}
+					]}""";
+
+			SubscriptionFullDTO decoded = decoder.decodeSubscriptionLastTwo(json(body), null);
+
+			assertThat(decoded.getRecurrences()).extracting(RecurrenceDTO::getNumberRecurrence)
+					.containsExactlyInAnyOrder(5, 4);
+		}
+
+		@Test
+		void dropsRecurrencesWithoutNumber() throws IOException {
+			String body = """
+					{"recurrences": [
+						{"order": "PBO0001", "products": [{"sku": "A"}]},
+						{"order": "PBO0002", "number_recurrence": null},
+						{"order": "PBO0003", "number_recurrence": 1},
+						"unexpected"
+					]}""";
+
+			SubscriptionFullDTO decoded = decoder.decodeSubscriptionLastTwo(json(body), Set.of());
+
+			assertThat(decoded.getRecurrences()).extracting(RecurrenceDTO::getOrder).containsExactly("PBO0003");
+		}
+	}
+
+	static InputStream fixture(String name) {
+		InputStream in = PagBrasilJsonDecoderTest.class.getResourceAsStream("/pagbrasil/" + name);
+		assertThat(in).as("fixture %s", name).isNotNull();
+		return in;
+	}
+
+	static InputStream json(String body) {
+		return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,527 @@
+package com.tartaritech.inventory_sync.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.tartaritech.inventory_sync.dtos.ProductDTO;
+import com.tartaritech.inventory_sync.dtos.RecurrenceDTO;
+import com.tartaritech.inventory_sync.entities.ControlledSKu;
+import com.tartaritech.inventory_sync.entities.Order;
+import com.tartaritech.inventory_sync.entities.Product;
+import com.tartaritech.inventory_sync.entities.ShopifySyncOperation;
+import com.tartaritech.inventory_sync.utils.ReconciliationPlan.NewOrder;
+import com.tartaritech.inventory_sync.utils.ReconciliationPlan.OrderUpdate;
+import com.tartaritech.inventory_sync.utils.ReconciliationPlan.ProductUpdate;
+
+class ReconciliationDiffEngineTest {
+
+	private static final String SUBSCRIPTION = "P100";
+	private static final String PAID = "2025-01-10";
+	private static final Predicate<String> CONTROLLED = Set.of("A", "B", "C")::contains;
+
+	@Nested
+	class NewRecurrences {
+
+		@Test
+		void unpaidLastTwoAreCreatedReserved() {
+			ReconciliationPlan plan = diff(List.of(), rec(1, null, line("A", 2)), rec(2, null, line("B", 1)));
+
+			assertThat(plan.newOrders()).hasSize(2);
+			assertThat(plan.newOrders()).allMatch(o -> !o.stockReleased());
+			assertThat(ops(plan)).containsExactly("insert A 2", "insert B 1");
+			assertThat(plan.orderUpdates()).isEmpty();
+		}
+
+		@Test
+		void paidRecurrenceIsCreatedReleasedWithoutOperations() {
+			ReconciliationPlan plan = diff(List.of(), rec(1, PAID, line("A", 2)), rec(2, null, line("A", 3)));
+
+			assertThat(newOrder(plan, 1).stockReleased()).isTrue();
+			assertThat(newOrder(plan, 2).stockReleased()).isFalse();
+			assertThat(ops(plan)).containsExactly("insert A 3");
+		}
+
+		@Test
+		void singleUnpaidRecurrenceIsReserved() {
+			ReconciliationPlan plan = diff(List.of(), rec(7, null, line("C", 4)));
+
+			assertThat(newOrder(plan, 7).stockReleased()).isFalse();
+			assertThat(ops(plan)).containsExactly("insert C 4");
+		}
+
+		@Test
+		void emptyPaymentDateCountsAsUnpaid() {
+			ReconciliationPlan plan = diff(List.of(), rec(1, "", line("A", 1)));
+
+			assertThat(newOrder(plan, 1).stockReleased()).isFalse();
+			assertThat(ops(plan)).containsExactly("insert A 1");
+		}
+
+		@Test
+		void olderRecurrenceIsCreatedReleased() {
+			ReconciliationPlan plan = diff(List.of(),
+					rec(1, null, line("A", 1)), rec(2, null, line("A", 1)), rec(3, null, line("A", 1)));
+
+			assertThat(newOrder(plan, 1).stockReleased()).isTrue();
+			assertThat(newOrder(plan, 2).stockReleased()).isFalse();
+			assertThat(newOrder(plan, 3).stockReleased()).isFalse();
+			assertThat(ops(plan)).containsExactly("insert A 1", "insert A 1");
+		}
+
+		@Test
+		void onlyControlledLinesAreKept() {
+			ReconciliationPlan plan = diff(List.of(), rec(1, null, line("A", 1), line("X", 5), line("B", 2)));
+
+			assertThat(skus(newOrder(plan, 1).lines())).containsExactly("A", "B");
+			assertThat(ops(plan)).containsExactly("insert A 1", "insert B 2");
+		}
+
+		@Test
+		void recurrenceWithoutControlledLinesIsNotCreated() {
+			ReconciliationPlan plan = diff(List.of(), rec(1, null, line("X", 1)), rec(2, null));
+
+			assertThat(plan.isEmpty()).isTrue();
+		}
+
+		@Test
+		void recurrenceWithNullProductsIsNotCreated() {
+			RecurrenceDTO recurrence = rec(1, null);
+			recurrence.setProducts(null);
+
+			assertThat(diff(List.of(), recurrence).isEmpty()).isTrue();
+		}
+
+		@Test
+		void linesWithoutSkuAreIgnored() {
+			ReconciliationPlan plan = diff(List.of(), rec(1, null, line(null, 3), line("A", 1)));
+
+			assertThat(skus(newOrder(plan, 1).lines())).containsExactly("A");
+			assertThat(ops(plan)).containsExactly("insert A 1");
+		}
+
+		@Test
+		void linesOfSameSkuAreSummed() {
+			ReconciliationPlan plan = diff(List.of(), rec(1, null, line("A", 1), line("B", 2), line("A", 9)));
+
+			assertThat(skus(newOrder(plan, 1).lines())).containsExactly("A", "B");
+			assertThat(newOrder(plan, 1).lines().get(0).getQuantity()).isEqualTo(10);
+			assertThat(newOrder(plan, 1).lines().get(0).getAmountTotal()).isEqualTo("100.00");
+			assertThat(ops(plan)).containsExactly("insert A 10", "insert B 2");
+		}
+
+		@Test
+		void nullQuantityCountsAsZero() {
+			ReconciliationPlan plan = diff(List.of(), rec(1, null, line("A", null)));
+
+			assertThat(ops(plan)).containsExactly("insert A 0");
+		}
+
+		@Test
+		void recurrencesWithoutNumberAreIgnored() {
+			RecurrenceDTO unnumbered = rec(1, null, line("A", 1));
+			unnumbered.setNumberRecurrence(null);
+
+			assertThat(diff(List.of(), unnumbered).isEmpty()).isTrue();
+		}
+
+		@Test
+		void nullRecurrenceListGivesEmptyPlan() {
+			assertThat(ReconciliationDiffEngine.diff(SUBSCRIPTION, List.of(), null, CONTROLLED).isEmpty()).isTrue();
+		}
+
+		@Test
+		void duplicateRecurrenceNumbersUseTheFirst() {
+			ReconciliationPlan plan = diff(List.of(),
+					rec(5, null, line("A", 1)), rec(5, null, line("B", 1)), rec(4, null, line("C", 1)));
+
+			assertThat(plan.newOrders()).hasSize(2);
+			assertThat(skus(newOrder(plan, 5).lines())).containsExactly("A");
+			// Duplicates do not push 4 out of the last two
+			assertThat(newOrder(plan, 4).stockReleased()).isFalse();
+		}
+
+		@Test
+		void recurrenceWithLocalOrderIsNotCreatedAgain() {
+			Order local = order(1, false, product("A", 1));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(1, null, line("A", 1)));
+
+			assertThat(plan.newOrders()).isEmpty();
+		}
+	}
+
+	@Nested
+	class ReservedOrders {
+
+		@Test
+		void unchangedQuantitiesGiveNoOperations() {
+			Product a = product("A", 2);
+			Order local = order(2, false, a);
+			RecurrenceDTO recurrence = rec(2, null, line("A", 2));
+
+			ReconciliationPlan plan = diff(List.of(local), recurrence);
+
+			assertThat(plan.operations()).isEmpty();
+			OrderUpdate update = update(plan, local);
+			assertThat(update.recurrence()).isSameAs(recurrence);
+			assertThat(update.stockReleased()).isFalse();
+			assertThat(update.updatedProducts()).extracting(ProductUpdate::product).containsExactly(a);
+			assertThat(update.removedProducts()).isEmpty();
+			assertThat(update.addedLines()).isEmpty();
+		}
+
+		@Test
+		void quantityChangesGiveDeltas() {
+			Order local = order(2, false, product("A", 2), product("B", 5));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("A", 3), line("B", 1)));
+
+			assertThat(ops(plan)).containsExactly("delta A 1", "delta B -4");
+			assertThat(update(plan, local).updatedProducts()).hasSize(2);
+		}
+
+		@Test
+		void deltaCountsEveryLineOfTheSku() {
+			Order local = order(2, false, product("A", 2));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("A", 1), line("A", 9)));
+
+			assertThat(ops(plan)).containsExactly("delta A 8");
+			assertThat(update(plan, local).updatedProducts().get(0).line().getQuantity()).isEqualTo(10);
+		}
+
+		@Test
+		void updatedProductsCarryTheirPagBrasilLine() {
+			Product a = product("A", 2);
+			Order local = order(2, false, a);
+			ProductDTO line = line("A", 3);
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line));
+
+			ProductUpdate productUpdate = update(plan, local).updatedProducts().get(0);
+			assertThat(productUpdate.product()).isSameAs(a);
+			assertThat(productUpdate.line()).isSameAs(line);
+		}
+
+		@Test
+		void removedSkuIsDeleted() {
+			Product a = product("A", 2);
+			Product b = product("B", 3);
+			Order local = order(2, false, a, b);
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("A", 2)));
+
+			assertThat(ops(plan)).containsExactly("delete B 3");
+			assertThat(update(plan, local).removedProducts()).containsExactly(b);
+			assertThat(update(plan, local).updatedProducts()).extracting(ProductUpdate::product).containsExactly(a);
+		}
+
+		@Test
+		void recurrenceWithoutProductsDeletesEverything() {
+			Product a = product("A", 2);
+			Order local = order(2, false, a);
+			RecurrenceDTO recurrence = rec(2, null);
+			recurrence.setProducts(null);
+
+			ReconciliationPlan plan = diff(List.of(local), recurrence);
+
+			assertThat(ops(plan)).containsExactly("delete A 2");
+			assertThat(update(plan, local).removedProducts()).containsExactly(a);
+			assertThat(update(plan, local).stockReleased()).isFalse();
+		}
+
+		@Test
+		void newControlledSkuIsInserted() {
+			Order local = order(2, false, product("A", 2));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("A", 2), line("C", 6), line("X", 1)));
+
+			assertThat(ops(plan)).containsExactly("insert C 6");
+			assertThat(skus(update(plan, local).addedLines())).containsExactly("C");
+		}
+
+		@Test
+		void skuNoLongerControlledIsStillMatched() {
+			Order local = order(2, false, product("Z", 2));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("Z", 1)));
+
+			assertThat(ops(plan)).containsExactly("delta Z -1");
+			assertThat(update(plan, local).removedProducts()).isEmpty();
+		}
+
+		@Test
+		void duplicateLocalProductsOfSkuAreRemoved() {
+			Product first = product("A", 2);
+			Product duplicate = product("A", 4);
+			Order local = order(2, false, first, duplicate);
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("A", 2)));
+
+			assertThat(ops(plan)).containsExactly("delete A 4");
+			assertThat(update(plan, local).removedProducts()).containsExactly(duplicate);
+			assertThat(update(plan, local).updatedProducts()).extracting(ProductUpdate::product).containsExactly(first);
+		}
+
+		@Test
+		void operationsAreDeltasThenInsertsThenDeletes() {
+			Order local = order(2, false, product("B", 1), product("A", 1));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("C", 1), line("A", 2)));
+
+			assertThat(ops(plan)).containsExactly("delta A 1", "insert C 1", "delete B 1");
+		}
+
+		@Test
+		void nullLocalQuantityCountsAsZero() {
+			Order local = order(2, false, product("A", null));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("A", 2)));
+
+			assertThat(ops(plan)).containsExactly("delta A 2");
+		}
+
+		@Test
+		void paidOrderIsReleased() {
+			Product a = product("A", 2);
+			Order local = order(2, false, a, product("B", 1));
+			RecurrenceDTO recurrence = rec(2, PAID, line("A", 5));
+
+			ReconciliationPlan plan = diff(List.of(local), recurrence);
+
+			assertThat(ops(plan)).containsExactly("delete A 2", "delete B 1");
+			OrderUpdate update = update(plan, local);
+			assertThat(update.stockReleased()).isTrue();
+			assertThat(update.recurrence()).isSameAs(recurrence);
+			assertThat(update.removedProducts()).isEmpty();
+			assertThat(update.updatedProducts()).isEmpty();
+		}
+
+		@Test
+		void orderLeavingTheLastTwoIsReleasedAndNewRecurrenceReserved() {
+			Order first = order(1, false, product("A", 1));
+			Order second = order(2, false, product("A", 1));
+
+			ReconciliationPlan plan = diff(List.of(first, second),
+					rec(1, null, line("A", 1)), rec(2, null, line("A", 1)), rec(3, null, line("A", 2)));
+
+			assertThat(update(plan, first).stockReleased()).isTrue();
+			assertThat(update(plan, second).stockReleased()).isFalse();
+			assertThat(newOrder(plan, 3).stockReleased()).isFalse();
+			assertThat(ops(plan)).containsExactly("delete A 1", "insert A 2");
+		}
+
+		@Test
+		void orderGoneFromPagBrasilIsReleased() {
+			Order local = order(2, false, product("A", 3));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(3, null, line("B", 1)));
+
+			OrderUpdate update = update(plan, local);
+			assertThat(update.recurrence()).isNull();
+			assertThat(update.stockReleased()).isTrue();
+			assertThat(ops(plan)).containsExactly("delete A 3", "insert B 1");
+		}
+
+		@Test
+		void nullStockReleasedCountsAsReserved() {
+			Order local = order(2, false, product("A", 3));
+			local.setStockReleased(null);
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, PAID, line("A", 3)));
+
+			assertThat(ops(plan)).containsExactly("delete A 3");
+			assertThat(update(plan, local).stockReleased()).isTrue();
+		}
+	}
+
+	@Nested
+	class ReleasedOrders {
+
+		@Test
+		void orderThatShouldHoldStockAgainIsReservedFromTheRecurrence() {
+			Product a = product("A", 2);
+			Product b = product("B", 1);
+			Order local = order(2, true, a, b);
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("A", 7), line("C", 1), line("X", 4)));
+
+			// The recurrence lines are reserved, not the stale local quantities
+			assertThat(ops(plan)).containsExactly("insert A 7", "insert C 1");
+			OrderUpdate update = update(plan, local);
+			assertThat(update.stockReleased()).isFalse();
+			assertThat(update.updatedProducts()).singleElement()
+					.satisfies(u -> assertThat(u.product()).isSameAs(a))
+					.satisfies(u -> assertThat(u.line().getQuantity()).isEqualTo(7));
+			assertThat(update.removedProducts()).containsExactly(b);
+			assertThat(skus(update.addedLines())).containsExactly("C");
+		}
+
+		@Test
+		void reReservedOrderSumsLinesOfSameSku() {
+			Order local = order(2, true, product("A", 2));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("A", 3), line("A", 4)));
+
+			assertThat(ops(plan)).containsExactly("insert A 7");
+		}
+
+		@Test
+		void paidReleasedOrderOnlyGetsItsFieldsUpdated() {
+			Order local = order(2, true, product("A", 2));
+			RecurrenceDTO recurrence = rec(2, PAID, line("A", 2));
+
+			ReconciliationPlan plan = diff(List.of(local), recurrence);
+
+			assertThat(plan.operations()).isEmpty();
+			OrderUpdate update = update(plan, local);
+			assertThat(update.recurrence()).isSameAs(recurrence);
+			assertThat(update.stockReleased()).isTrue();
+		}
+
+		@Test
+		void releasedOrderGoneFromPagBrasilIsLeftAlone() {
+			Order local = order(2, true, product("A", 2));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(3, PAID, line("X", 1)));
+
+			assertThat(plan.isEmpty()).isTrue();
+		}
+
+		@Test
+		void orderWithoutProductsIsNeverReserved() {
+			Order local = order(2, false);
+
+			ReconciliationPlan paid = diff(List.of(local), rec(2, PAID, line("A", 1)));
+			assertThat(paid.operations()).isEmpty();
+			assertThat(update(paid, local).stockReleased()).isFalse();
+
+			ReconciliationPlan gone = diff(List.of(local), rec(3, PAID));
+			assertThat(gone.isEmpty()).isTrue();
+		}
+
+		@Test
+		void unnumberedLocalOrderIsIgnored() {
+			Order local = order(null, false, product("A", 1));
+
+			ReconciliationPlan plan = diff(List.of(local), rec(1, PAID, line("B", 1)));
+
+			assertThat(plan.orderUpdates()).isEmpty();
+			assertThat(plan.newOrders()).hasSize(1);
+		}
+	}
+
+	@Test
+	void inputsAreNotModified() {
+		Product a = product("A", 2);
+		Product b = product("B", 1);
+		Order reserved = order(2, false, a, b);
+		Order released = order(1, true, product("C", 1));
+		List<Order> localOrders = List.of(reserved, released);
+
+		diff(localOrders, rec(1, null, line("C", 1)), rec(2, PAID, line("A", 5)), rec(3, null, line("A", 1)));
+
+		assertThat(reserved.getStockReleased()).isFalse();
+		assertThat(reserved.getProducts()).containsExactly(a, b);
+		assertThat(a.getQuantity()).isEqualTo(2);
+		assertThat(released.getStockReleased()).isTrue();
+	}
+
+	@Test
+	void operationsArePendingAndTaggedWithSubscriptionAndRecurrence() {
+		Order local = order(2, false, product("A", 2));
+
+		ReconciliationPlan plan = diff(List.of(local), rec(2, null, line("A", 1), line("B", 1)), rec(1, null));
+
+		assertThat(plan.operations()).isNotEmpty().allSatisfy(op -> {
+			assertThat(op.getSubscriptionId()).isEqualTo(SUBSCRIPTION);
+			assertThat(op.getNumberRecurrence()).isEqualTo(2);
+			assertThat(op.getStatus()).isEqualTo("PENDING");
+			assertThat(op.getId()).isNull();
+		});
+	}
+
+	@Test
+	void lastTwoNumbersAreTheTwoHighestDistinct() {
+		assertThat(ReconciliationDiffEngine.lastTwoNumbers(Set.of())).isEmpty();
+		assertThat(ReconciliationDiffEngine.lastTwoNumbers(Set.of(4))).containsExactlyInAnyOrder(4);
+		assertThat(ReconciliationDiffEngine.lastTwoNumbers(Set.of(1, 9, 3, 8))).containsExactlyInAnyOrder(9, 8);
+	}
+
+	private static ReconciliationPlan diff(List<Order> localOrders, RecurrenceDTO... recurrences) {
+		return ReconciliationDiffEngine.diff(SUBSCRIPTION, localOrders, Arrays.asList(recurrences), CONTROLLED);
+	}
+
+	private static RecurrenceDTO rec(Integer number, String paymentDate, ProductDTO... lines) {
+		RecurrenceDTO recurrence = new RecurrenceDTO();
+		recurrence.setNumberRecurrence(number);
+		recurrence.setPaymentDate(paymentDate);
+		recurrence.setProducts(new ArrayList<>(Arrays.asList(lines)));
+		return recurrence;
+	}
+
+	private static ProductDTO line(String sku, Integer quantity) {
+		ProductDTO line = new ProductDTO();
+		line.setSku(sku);
+		line.setQuantity(quantity);
+		line.setUnitPrice("10.00");
+		if (quantity != null) {
+			line.setAmountTotal(new BigDecimal("10.00").multiply(BigDecimal.valueOf(quantity)).toPlainString());
+		}
+		return line;
+	}
+
+	private static Order order(Integer number, boolean stockReleased, Product... products) {
+		Order order = new Order();
+		order.setNumberRecurrence(number);
+		order.setStockReleased(stockReleased);
+		for (Product product : products) {
+			product.setOrder(order);
+			order.getProducts().add(product);
+		}
+		return order;
+	}
+
+	private static Product product(String sku, Integer quantity) {
+		ControlledSKu controlledSku = new ControlledSKu();
+		controlledSku.setSku(sku);
+		Product product = Product.createProduct(controlledSku, 0, BigDecimal.TEN, null);
+		product.setQuantity(quantity);
+		return product;
+	}
+
+	private static List<String> ops(ReconciliationPlan plan) {
+		return plan.operations().stream().map(ReconciliationDiffEngineTest::describe).toList();
+	}
+
+	private static String describe(ShopifySyncOperation op) {
+		return op.getOperation() + " " + op.getSku() + " " + op.getQuantity();
+	}
+
+	private static List<String> skus(List<ProductDTO> lines) {
+		return lines.stream().map(ProductDTO::getSku).toList();
+	}
+
+	private static NewOrder newOrder(ReconciliationPlan plan, int number) {
+		return plan.newOrders().stream()
+				.filter(o -> o.recurrence().getNumberRecurrence() == number)
+				.findFirst()
+				.orElseThrow(() -> new AssertionError("No new order for recurrence " + number));
+	}
+
+	private static OrderUpdate update(ReconciliationPlan plan, Order order) {
+		return plan.orderUpdates().stream()
+				.filter(u -> u.order() == order)
+				.findFirst()
+				.orElseThrow(() -> new AssertionError("No update for order " + order.getNumberRecurrence()));
+	}
+}